@@ -7,25 +7,69 @@ import com.amazonaws.services.sqs.AmazonSQS;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.application.BatchEventLoop;
 import org.softwire.training.analyzer.application.EventLoop;
+import org.softwire.training.analyzer.application.ExecutionMode;
+import org.softwire.training.analyzer.application.OutputFormat;
+import org.softwire.training.analyzer.application.PackedEventLoop;
+import org.softwire.training.analyzer.application.ShardedEventLoop;
+import org.softwire.training.analyzer.application.StagedEventLoop;
+import org.softwire.training.analyzer.application.TimeMode;
 import org.softwire.training.analyzer.application.AwsClientFactory;
 import org.softwire.training.analyzer.application.TypedConfig;
+import org.softwire.training.analyzer.averagelog.AverageLogWriter;
+import org.softwire.training.analyzer.metrics.FreshnessTracker;
+import org.softwire.training.analyzer.metrics.Metrics;
+import org.softwire.training.analyzer.metrics.MetricsReporter;
+import org.softwire.training.analyzer.metrics.WindowTracker;
 import org.softwire.training.analyzer.model.Average;
 import org.softwire.training.analyzer.model.Event;
 import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.pipeline.AggregationMode;
 import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.pipeline.AverageCombiner;
+import org.softwire.training.analyzer.pipeline.BatchPipeline;
 import org.softwire.training.analyzer.pipeline.Deduplicator;
+import org.softwire.training.analyzer.pipeline.EventTimeClock;
+import org.softwire.training.analyzer.pipeline.KeyedAggregator;
 import org.softwire.training.analyzer.pipeline.LocationFilter;
-import org.softwire.training.analyzer.pipeline.Pipeline;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.pipeline.Probe;
+import org.softwire.training.analyzer.pipeline.SpatialAggregator;
+import org.softwire.training.analyzer.pipeline.Stage;
+import org.softwire.training.analyzer.pipeline.Stages;
 import org.softwire.training.analyzer.pipeline.StatsCompiler;
+import org.softwire.training.analyzer.pipeline.Watermark;
+import org.softwire.training.analyzer.pipeline.WindowedAggregator;
+import org.softwire.training.analyzer.services.AverageWriter;
 import org.softwire.training.analyzer.services.FileWriter;
+import org.softwire.training.analyzer.services.LocationRefresher;
+import org.softwire.training.analyzer.services.LocationRegistry;
 import org.softwire.training.analyzer.services.LocationService;
-import org.softwire.training.analyzer.services.QueueInfoLogger;
+import org.softwire.training.analyzer.services.LocationSnapshot;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.ConcurrentReceiver;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.receiver.PollingController;
+import org.softwire.training.analyzer.receiver.QueueDepthSampler;
 import org.softwire.training.analyzer.receiver.Receiver;
 import org.softwire.training.analyzer.receiver.QueueSubscription;
+import org.softwire.training.analyzer.recording.MessageLogWriter;
+import org.softwire.training.analyzer.recording.MessageRecorder;
+import org.softwire.training.analyzer.recording.ReplaySource;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class Main {
     private static final Logger LOG = LoggerFactory.getLogger(Main.class);
@@ -43,51 +87,323 @@ public class Main {
         }
     }
 
-    /**
-     * Build and inject all dependencies of {@link EventLoop} manually, then run it.
-     */
     private static void run() throws Exception {
         LOG.info("Bootstrapping application");
 
-        Clock clock = Clock.systemUTC();
+        AwsClientFactory awsClientFactory = new AwsClientFactory();
+        run(new TypedConfig(), awsClientFactory.sqs(), awsClientFactory.sns(), awsClientFactory.s3(),
+                Clock.systemUTC(), Collections.emptyList());
+    }
+
+    /**
+     * Build and inject all dependencies of {@link EventLoop} manually, then run it.
+     * <p>
+     * The AWS clients are passed in so that the load test can run the same wiring against an in-memory broker, and
+     * trackers so that it can follow the events through each pipeline to the averages written.
+     */
+    public static void run(TypedConfig config,
+                           AmazonSQS sqs,
+                           AmazonSNS sns,
+                           AmazonS3 s3,
+                           Clock clock,
+                           List<WindowTracker.Factory> trackers) throws Exception {
+        if (!config.replayFile.isEmpty()) {
+            replay(config, clock);
+            return;
+        }
         ObjectMapper objectMapper = new ObjectMapper();
+        Clock wallClock = clock;
 
-        TypedConfig config = new TypedConfig();
+        // In event time, everything after the receiver runs on the events' time rather than the wall clock
+        Watermark watermark = Watermark.NONE;
+        if (config.application.timeMode == TimeMode.EVENT_TIME) {
+            EventTimeClock eventTimeClock = new EventTimeClock(
+                    clock,
+                    clock.instant(),
+                    config.application.allowedLateness,
+                    config.aggregator.getAveragingPeriod(),
+                    config.application.idleTimeout);
+            watermark = eventTimeClock;
+            clock = eventTimeClock;
+        }
 
-        AwsClientFactory awsClientFactory = new AwsClientFactory();
-        AmazonSNS sns = awsClientFactory.sns();
-        AmazonSQS sqs = awsClientFactory.sqs();
-        AmazonS3 s3 = awsClientFactory.s3();
-
-        Deduplicator deduplicator = new Deduplicator(config.deduplicator);
-        List<Location> locations = new LocationService(config.locationService, s3, objectMapper).get();
-        LocationFilter locationFilter = new LocationFilter(locations);
-        Aggregator aggregator = new Aggregator(config.aggregator, clock);
+        Metrics metrics = new Metrics(config.metrics.stageSampleInterval);
+        Deduplicator deduplicator = new Deduplicator(config.deduplicator, metrics.duplicates);
+        LocationRegistry locationRegistry = new LocationRegistry(
+                config.locationRegistry, new LocationService(config.locationService, s3, objectMapper), objectMapper);
+        LocationSnapshot locationSnapshot = locationRegistry.load();
+        List<Location> locations = locationSnapshot.locations;
+        LocationDictionary locationDictionary = new LocationDictionary(locations);
+        LocationFilter locationFilter = new LocationFilter(locationDictionary, metrics.filtered);
+        // Every aggregator and tracker starts at the same instant, so that their windows line up
+        Clock start = Clock.fixed(clock.instant(), ZoneOffset.UTC);
+        WindowedAggregator aggregator = createAggregator(
+                config.aggregator, locationDictionary, start, metrics.rejectedLate);
+        FreshnessTracker freshnessTracker = new FreshnessTracker(
+                config.freshness, config.aggregator, locationDictionary, start.instant(), wallClock);
+        List<WindowTracker<?>> windowTrackers = new ArrayList<>();
+        if (config.freshness.enabled) {
+            windowTrackers.add(freshnessTracker);
+        }
+        for (WindowTracker.Factory tracker : trackers) {
+            windowTrackers.add(tracker.create(config.aggregator, start.instant(), wallClock));
+        }
         StatsCompiler statsCompiler = new StatsCompiler(config.application);
-        FileWriter fileWriter = new FileWriter(config.fileWriter);
 
-        try (QueueSubscription queueSubscription = new QueueSubscription(sqs, sns, config.receiver)) {
+        MetricsReporter metricsReporter = new MetricsReporter(config.metrics, metrics, wallClock);
+        LocationRefresher locationRefresher = new LocationRefresher(
+                config.locationRegistry, locationRegistry, locationFilter::update);
+        try (AverageWriter averageWriter = observeWrites(createAverageWriter(config), metrics, windowTrackers);
+             QueueSubscription queueSubscription = new QueueSubscription(sqs, sns, config.receiver);
+             Acknowledger acknowledger = new Acknowledger(
+                     sqs,
+                     queueSubscription.getQueueUrl(),
+                     config.acknowledger,
+                     config.aggregator.getCompletionDelay(),
+                     config.aggregator.getAveragingPeriod(),
+                     metrics.sqsDelete,
+                     metrics.unacknowledged);
+             MessageRecorder recorder = createRecorder(config.recording, wallClock, locationSnapshot.getJson())) {
 
-            Receiver receiver = new Receiver(sqs, queueSubscription.getQueueUrl());
-            QueueInfoLogger queueInfoLogger = new QueueInfoLogger(sqs, queueSubscription.getQueueUrl());
+            Receiver receiver = new Receiver(
+                    sqs, queueSubscription.getQueueUrl(), acknowledger, recorder, locationDictionary, metrics);
+            PollingController pollingController = new PollingController(config.receiver);
+            QueueDepthSampler queueDepthSampler = new QueueDepthSampler(
+                    config.queueDepth, sqs, queueSubscription.getQueueUrl(), pollingController::queueDepthSampled);
 
-            Pipeline<Event, Average> pipeline = statsCompiler
-                    .compose(locationFilter)
-                    .compose(deduplicator)
-                    .compose(aggregator);
+            try (PackedEventSource eventSource = createEventSource(config.receiver, receiver, pollingController)) {
+                if (config.application.mode == ExecutionMode.STAGED) {
+                    PackedPipeline pipeline = new PackedPipeline(
+                            watermark,
+                            statsCompiler,
+                            locationFilter,
+                            deduplicator,
+                            pipelineProbe(windowTrackers),
+                            aggregator,
+                            metrics);
+                    new StagedEventLoop(
+                            config.application,
+                            config.staged,
+                            eventSource,
+                            pipeline,
+                            averageWriter,
+                            acknowledger,
+                            clock).run();
+                } else if (config.application.mode == ExecutionMode.BATCH) {
+                    BatchPipeline pipeline = new BatchPipeline(
+                            watermark,
+                            statsCompiler,
+                            locationFilter,
+                            deduplicator,
+                            pipelineProbe(windowTrackers),
+                            aggregator,
+                            metrics);
+                    new BatchEventLoop(
+                            config.application,
+                            config.batch,
+                            eventSource,
+                            pipeline,
+                            averageWriter,
+                            acknowledger,
+                            clock).run();
+                } else if (config.application.mode == ExecutionMode.SHARDED) {
+                    List<PackedPipeline> shards = createShards(
+                            config,
+                            watermark,
+                            locationDictionary,
+                            locationFilter,
+                            () -> pipelineProbe(windowTrackers),
+                            metrics,
+                            start);
+                    new ShardedEventLoop(
+                            config.application,
+                            config.sharded,
+                            eventSource,
+                            shards,
+                            averageWriter,
+                            acknowledger,
+                            clock).run();
+                    shards.forEach(PackedPipeline::dumpStats);
+                } else if (config.application.mode == ExecutionMode.PACKED) {
+                    PackedPipeline pipeline = new PackedPipeline(
+                            watermark,
+                            statsCompiler,
+                            locationFilter,
+                            deduplicator,
+                            pipelineProbe(windowTrackers),
+                            aggregator,
+                            metrics);
+                    new PackedEventLoop(
+                            config.application,
+                            eventSource,
+                            pipeline,
+                            averageWriter,
+                            acknowledger,
+                            clock).run();
+                } else {
+                    Stage<Event, Average> pipeline = Stages.statsCompiler(statsCompiler)
+                            .then(Stages.locationFilter(locationFilter))
+                            .then(Stages.deduplicator(deduplicator))
+                            .then(watermark.asStage())
+                            .then(pipelineProbe(windowTrackers).asStage())
+                            .then(Stages.aggregator(aggregator));
+                    new EventLoop(
+                            config.application,
+                            eventSource,
+                            pipeline,
+                            averageWriter,
+                            acknowledger,
+                            clock).run();
+                }
+            } finally {
+                queueDepthSampler.close();
+            }
+        } finally {
+            locationRefresher.close();
+            metricsReporter.close();
+        }
+
+        if (config.application.mode != ExecutionMode.SHARDED) {
+            statsCompiler.dumpStats();
+            deduplicator.dumpStats();
+        }
+        if (config.freshness.enabled) {
+            freshnessTracker.dumpStats();
+        }
+    }
 
-            EventLoop eventLoop = new EventLoop(
-                    config.application,
-                    receiver,
-                    queueInfoLogger,
-                    pipeline,
-                    fileWriter,
-                    clock);
-            eventLoop.run();
+    /**
+     * Put the messages recorded by {@link MessageLogWriter} through the {@link PackedPipeline} as fast as they can be
+     * read, rather than receiving them from SQS.  Runs in event time, starting from when the recording did, so the
+     * averages output don't depend on how fast the replay runs.  Once the recording runs out, the clock is moved on far
+     * enough for every bucket to complete.
+     */
+    private static void replay(TypedConfig config, Clock wallClock) throws Exception {
+        try (ReplaySource replaySource = new ReplaySource(Paths.get(config.replayFile))) {
+            List<Location> locations = LocationService.parse(new ObjectMapper(), replaySource.getLocationsJson());
+            EventTimeClock clock = new EventTimeClock(
+                    wallClock,
+                    replaySource.getStartTime(),
+                    config.application.allowedLateness,
+                    config.aggregator.getAveragingPeriod(),
+                    Duration.ZERO);
+
+            Metrics metrics = new Metrics(config.metrics.stageSampleInterval);
+            Deduplicator deduplicator = new Deduplicator(config.deduplicator, metrics.duplicates);
+            LocationDictionary locationDictionary = new LocationDictionary(locations);
+            LocationFilter locationFilter = new LocationFilter(locationDictionary, metrics.filtered);
+            WindowedAggregator aggregator = createAggregator(
+                    config.aggregator, locationDictionary, clock, metrics.rejectedLate);
+            StatsCompiler statsCompiler = new StatsCompiler(config.application);
+            PackedPipeline pipeline = new PackedPipeline(
+                    clock, statsCompiler, locationFilter, deduplicator, Probe.NONE, aggregator, metrics);
+
+            MetricsReporter metricsReporter = new MetricsReporter(config.metrics, metrics, wallClock);
+            try (AverageWriter averageWriter = metrics.countingWrites(createAverageWriter(config))) {
+                Consumer<Average> output = averageWriter::write;
+                long startNanos = System.nanoTime();
+                while (!replaySource.isExhausted()) {
+                    replaySource.drainTo(event -> pipeline.handle(clock.instant(), event, output));
+                }
+                aggregator.expire(clock.instant().plus(config.aggregator.getCompletionDelay()), output);
+                averageWriter.flush();
+                LOG.info("Replay took {} ms", (System.nanoTime() - startNanos) / 1_000_000);
+            } finally {
+                metricsReporter.close();
+            }
 
+            statsCompiler.dumpStats();
+            deduplicator.dumpStats();
         }
+    }
+
+    /**
+     * A pipeline for each shard of {@link ShardedEventLoop}, sharing the read only LocationFilter, the watermark and
+     * the metrics but each with its own share of the deduplicator's memory and its own probe.  The aggregators are all
+     * created at the same instant, start, so that their windows line up.
+     */
+    private static List<PackedPipeline> createShards(TypedConfig config,
+                                                     Watermark watermark,
+                                                     LocationDictionary locations,
+                                                     LocationFilter locationFilter,
+                                                     Supplier<Probe> probes,
+                                                     Metrics metrics,
+                                                     Clock start) {
+        AverageCombiner.checkCombinable(config.aggregator);
+        Deduplicator.TypedConfig deduplicatorConfig = config.deduplicator.perShard(config.sharded.shards);
+        List<PackedPipeline> shards = new ArrayList<>();
+        for (int i = 0; i < config.sharded.shards; i++) {
+            shards.add(new PackedPipeline(
+                    watermark,
+                    new StatsCompiler(config.application),
+                    locationFilter,
+                    new Deduplicator(deduplicatorConfig, metrics.duplicates),
+                    probes.get(),
+                    createAggregator(config.aggregator, locations, start, metrics.rejectedLate),
+                    metrics));
+        }
+        return shards;
+    }
+
+    /**
+     * The probe for one pipeline, with a probe of its own from every tracker.
+     */
+    private static Probe pipelineProbe(List<WindowTracker<?>> trackers) {
+        Probe probe = Probe.NONE;
+        for (WindowTracker<?> tracker : trackers) {
+            probe = probe.then(tracker.newProbe());
+        }
+        return probe;
+    }
+
+    private static WindowedAggregator createAggregator(Aggregator.TypedConfig config,
+                                                       LocationDictionary locations,
+                                                       Clock clock,
+                                                       LongAdder rejected) {
+        if (config.mode == AggregationMode.PER_LOCATION) {
+            return new KeyedAggregator(config, locations, clock, rejected);
+        } else if (config.mode == AggregationMode.SPATIAL) {
+            return new SpatialAggregator(config, locations, clock, rejected);
+        }
+        return new Aggregator(config, clock, rejected);
+    }
+
+    private static AverageWriter createAverageWriter(TypedConfig config) throws IOException {
+        if (config.outputFormat == OutputFormat.BINARY) {
+            return new AverageLogWriter(config.averageLog);
+        }
+        return new FileWriter(config.fileWriter);
+    }
 
-        statsCompiler.dumpStats();
+    /**
+     * Count the averages written, and show them to every tracker.
+     */
+    private static AverageWriter observeWrites(AverageWriter writer,
+                                               Metrics metrics,
+                                               List<WindowTracker<?>> trackers) {
+        AverageWriter observed = metrics.countingWrites(writer);
+        for (WindowTracker<?> tracker : trackers) {
+            observed = AverageWriter.observed(observed, tracker::written);
+        }
+        return observed;
+    }
+
+    private static MessageRecorder createRecorder(MessageLogWriter.TypedConfig config,
+                                                  Clock clock,
+                                                  String locationsJson) throws IOException {
+        if (config.enabled) {
+            return new MessageLogWriter(config, clock.instant(), locationsJson);
+        }
+        return MessageRecorder.NONE;
+    }
+
+    private static PackedEventSource createEventSource(Receiver.TypedConfig config,
+                                                       Receiver receiver,
+                                                       PollingController pollingController) {
+        if (config.pollers > 0) {
+            return new ConcurrentReceiver(receiver, config, pollingController);
+        }
+        return receiver;
     }
 
     /**
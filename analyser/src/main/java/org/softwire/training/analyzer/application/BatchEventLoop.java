@@ -0,0 +1,114 @@
+package org.softwire.training.analyzer.application;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.BatchPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The equivalent of {@link EventLoop} for {@link ExecutionMode#BATCH}: collects the events received into an
+ * {@link EventBatch} and passes it through the {@link BatchPipeline} once it is full, or once the event source has
+ * nothing more for now, so batches are only as big as the events already waiting.
+ */
+public class BatchEventLoop {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchEventLoop.class);
+
+    private final PackedEventSource eventSource;
+    private final Clock clock;
+    private final Instant endTime;
+    private final BatchPipeline pipeline;
+    private final EventBatch batch;
+    private final Consumer<Average> output;
+    private final AverageWriter averageWriter;
+    private final Acknowledger acknowledger;
+
+    private Instant now;
+    private long nowMillis;
+
+    public BatchEventLoop(EventLoop.TypedConfig applicationConfig,
+                          TypedConfig config,
+                          PackedEventSource eventSource,
+                          BatchPipeline pipeline,
+                          AverageWriter averageWriter,
+                          Acknowledger acknowledger,
+                          Clock clock) {
+        this.eventSource = eventSource;
+        this.pipeline = pipeline;
+        this.averageWriter = averageWriter;
+        this.output = averageWriter::write;
+        this.acknowledger = acknowledger;
+        this.clock = clock;
+
+        batch = new EventBatch(config.size);
+        now = clock.instant();
+        nowMillis = now.toEpochMilli();
+        endTime = now.plus(applicationConfig.duration);
+    }
+
+    public void run() {
+        LOG.info("Entering batch event loop at {}, will run until {}", now, endTime);
+
+        while (!now.isAfter(endTime)) {
+            eventSource.drainTo(this::add);
+            handleBatch();
+            // Only acknowledge once everything output so far has been written out of the writer's buffer.
+            if (averageWriter.flushIfDue(now)) {
+                acknowledger.outputFlushed(now);
+            }
+            // Keep time moving even when nothing was received, or we'd never notice that it's time to stop.
+            updateNow();
+        }
+    }
+
+    private void add(PackedEvent event) {
+        batch.add(event);
+        if (batch.isFull()) {
+            handleBatch();
+        }
+    }
+
+    private void handleBatch() {
+        if (batch.getSize() == 0) {
+            return;
+        }
+        updateNow();
+        pipeline.handle(now, batch, output);
+        batch.clear();
+    }
+
+    /**
+     * Many batches are handled within the same millisecond, so only create a new Instant when the time has moved on.
+     */
+    private void updateNow() {
+        long millis = clock.millis();
+        if (millis != nowMillis) {
+            nowMillis = millis;
+            now = Instant.ofEpochMilli(millis);
+        }
+    }
+
+    public static class TypedConfig {
+        final int size;
+
+        public TypedConfig(int size) {
+            if (size < 1) {
+                throw new IllegalArgumentException("Batch size must be positive");
+            }
+            this.size = size;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(config.getInt("size"));
+        }
+    }
+}
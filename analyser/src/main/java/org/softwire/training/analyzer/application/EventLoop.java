@@ -9,10 +9,12 @@ import org.softwire.training.analyzer.pipeline.Aggregator;
 import org.softwire.training.analyzer.pipeline.Deduplicator;
 import org.softwire.training.analyzer.pipeline.LocationFilter;
 import org.softwire.training.analyzer.pipeline.Pipeline;
+import org.softwire.training.analyzer.pipeline.Sink;
+import org.softwire.training.analyzer.pipeline.Stage;
 import org.softwire.training.analyzer.pipeline.StatsCompiler;
-import org.softwire.training.analyzer.services.FileWriter;
-import org.softwire.training.analyzer.services.QueueInfoLogger;
-import org.softwire.training.analyzer.receiver.Receiver;
+import org.softwire.training.analyzer.services.AverageWriter;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.EventSource;
 
 import java.time.Clock;
 import java.time.Duration;
@@ -21,23 +23,33 @@ import java.time.Instant;
 public class EventLoop {
     private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
 
-    private final Receiver receiver;
+    private final EventSource eventSource;
     private final Clock clock;
     private final Instant endTime;
-    private final Pipeline<Event, Average> pipeline;
-    private final FileWriter fileWriter;
-    private final QueueInfoLogger queueInfoLogger;
+    // The pipeline, connected to the average writer
+    private final Sink<Event> pipeline;
+    private final AverageWriter averageWriter;
+    private final Acknowledger acknowledger;
 
     public EventLoop(TypedConfig config,
-                     Receiver receiver,
-                     QueueInfoLogger queueInfoLogger,
+                     EventSource eventSource,
                      Pipeline<Event, Average> pipeline,
-                     FileWriter fileWriter,
+                     AverageWriter averageWriter,
+                     Acknowledger acknowledger,
                      Clock clock) {
-        this.receiver = receiver;
-        this.queueInfoLogger = queueInfoLogger;
-        this.pipeline = pipeline;
-        this.fileWriter = fileWriter;
+        this(config, eventSource, Stage.of(pipeline), averageWriter, acknowledger, clock);
+    }
+
+    public EventLoop(TypedConfig config,
+                     EventSource eventSource,
+                     Stage<Event, Average> pipeline,
+                     AverageWriter averageWriter,
+                     Acknowledger acknowledger,
+                     Clock clock) {
+        this.eventSource = eventSource;
+        this.pipeline = pipeline.connect((now, average) -> averageWriter.write(average));
+        this.averageWriter = averageWriter;
+        this.acknowledger = acknowledger;
         this.clock = clock;
 
         endTime = clock.instant().plus(config.duration);
@@ -53,24 +65,55 @@ public class EventLoop {
                 break;
             }
 
-            // Receiver.get() is blocking, so we need to call clock.instant() once messages have been received.
-            receiver.get().forEach(ev -> {
+            // EventSource.get() is blocking, so we need to call clock.instant() once messages have been received.
+            eventSource.get().forEach(ev -> {
                 now[0] = clock.instant();
-                queueInfoLogger.logInfoIfNecessary(now[0]);
-                pipeline.handle(now[0], ev).forEach(fileWriter::write);
+                pipeline.accept(now[0], ev);
             });
+            // Only acknowledge once everything output so far has been written out of the writer's buffer.
+            if (averageWriter.flushIfDue(now[0])) {
+                acknowledger.outputFlushed(now[0]);
+            }
+            // Keep time moving even when nothing was received, or we'd never notice that it's time to stop.
+            now[0] = clock.instant();
         }
     }
 
     public static class TypedConfig {
         public final Duration duration;
+        public final ExecutionMode mode;
+        public final TimeMode timeMode;
+        // EVENT_TIME only, see EventTimeClock
+        public final Duration allowedLateness;
+        public final Duration idleTimeout;
 
         public TypedConfig(Duration duration) {
+            this(duration, ExecutionMode.STANDARD);
+        }
+
+        public TypedConfig(Duration duration, ExecutionMode mode) {
+            this(duration, mode, TimeMode.WALL_CLOCK, Duration.ZERO, Duration.ZERO);
+        }
+
+        public TypedConfig(Duration duration,
+                           ExecutionMode mode,
+                           TimeMode timeMode,
+                           Duration allowedLateness,
+                           Duration idleTimeout) {
             this.duration = duration;
+            this.mode = mode;
+            this.timeMode = timeMode;
+            this.allowedLateness = allowedLateness;
+            this.idleTimeout = idleTimeout;
         }
 
         public static TypedConfig fromUntypedConfig(Config config) {
-            return new TypedConfig(config.getDuration("duration"));
+            return new TypedConfig(
+                    config.getDuration("duration"),
+                    config.getEnum(ExecutionMode.class, "mode"),
+                    config.getEnum(TimeMode.class, "timeMode"),
+                    config.getDuration("allowedLateness"),
+                    config.getDuration("idleTimeout"));
         }
     }
 }
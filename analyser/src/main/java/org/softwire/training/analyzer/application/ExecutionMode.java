@@ -0,0 +1,33 @@
+package org.softwire.training.analyzer.application;
+
+/**
+ * How the event loop passes events through the pipeline.
+ */
+public enum ExecutionMode {
+    /**
+     * Each event is decoded into an {@link org.softwire.training.analyzer.model.Event} and pushed through the
+     * pipeline's {@link org.softwire.training.analyzer.pipeline.Stages}.
+     */
+    STANDARD,
+    /**
+     * Events are decoded into reused {@link org.softwire.training.analyzer.model.PackedEvent}s and passed through the
+     * {@link org.softwire.training.analyzer.pipeline.PackedPipeline}, which allocates almost nothing per event.
+     */
+    PACKED,
+    /**
+     * Like PACKED, but receiving, the pipeline and writing output each run on their own thread, see
+     * {@link StagedEventLoop}.
+     */
+    STAGED,
+    /**
+     * Like PACKED, but events are collected into columnar {@link org.softwire.training.analyzer.model.EventBatch}es,
+     * and each stage of the {@link org.softwire.training.analyzer.pipeline.BatchPipeline} handles a whole batch at a
+     * time, see {@link BatchEventLoop}.
+     */
+    BATCH,
+    /**
+     * Like PACKED, but events are split between several threads by location, each with its own pipeline, and their
+     * averages are combined, see {@link ShardedEventLoop}.  Not available for SPATIAL aggregation or quantiles.
+     */
+    SHARDED
+}
@@ -0,0 +1,17 @@
+package org.softwire.training.analyzer.application;
+
+/**
+ * Where and how averages are written.
+ */
+public enum OutputFormat {
+    /**
+     * One {@link org.softwire.training.analyzer.model.Average#toString()} per line, see
+     * {@link org.softwire.training.analyzer.services.FileWriter}.
+     */
+    TEXT,
+    /**
+     * Fixed width binary records in a memory mapped log, see
+     * {@link org.softwire.training.analyzer.averagelog.AverageLogWriter}.
+     */
+    BINARY
+}
@@ -0,0 +1,82 @@
+package org.softwire.training.analyzer.application;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The equivalent of {@link EventLoop} for {@link ExecutionMode#PACKED}.
+ */
+public class PackedEventLoop {
+    private static final Logger LOG = LoggerFactory.getLogger(PackedEventLoop.class);
+
+    private final PackedEventSource eventSource;
+    private final Clock clock;
+    private final Instant endTime;
+    private final PackedPipeline pipeline;
+    // Created once here rather than capturing averageWriter in a new lambda for every event.
+    private final Consumer<Average> output;
+    private final AverageWriter averageWriter;
+    private final Acknowledger acknowledger;
+
+    private Instant now;
+    private long nowMillis;
+
+    public PackedEventLoop(EventLoop.TypedConfig config,
+                           PackedEventSource eventSource,
+                           PackedPipeline pipeline,
+                           AverageWriter averageWriter,
+                           Acknowledger acknowledger,
+                           Clock clock) {
+        this.eventSource = eventSource;
+        this.pipeline = pipeline;
+        this.averageWriter = averageWriter;
+        this.output = averageWriter::write;
+        this.acknowledger = acknowledger;
+        this.clock = clock;
+
+        now = clock.instant();
+        nowMillis = now.toEpochMilli();
+        endTime = now.plus(config.duration);
+    }
+
+    public void run() {
+        LOG.info("Entering packed event loop at {}, will run until {}", now, endTime);
+
+        while (!now.isAfter(endTime)) {
+            // PackedEventSource.drainTo() is blocking, so we need to read the clock once events have been received.
+            eventSource.drainTo(this::handle);
+            // Only acknowledge once everything output so far has been written out of the writer's buffer.
+            if (averageWriter.flushIfDue(now)) {
+                acknowledger.outputFlushed(now);
+            }
+            // Keep time moving even when nothing was received, or we'd never notice that it's time to stop.
+            updateNow();
+        }
+    }
+
+    private void handle(PackedEvent event) {
+        updateNow();
+        pipeline.handle(now, event, output);
+    }
+
+    /**
+     * Many events arrive within the same millisecond, so only create a new Instant when the time has moved on.
+     */
+    private void updateNow() {
+        long millis = clock.millis();
+        if (millis != nowMillis) {
+            nowMillis = millis;
+            now = Instant.ofEpochMilli(millis);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.softwire.training.analyzer.application;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.collections.LongHashing;
+import org.softwire.training.analyzer.concurrent.SpscRingBuffer;
+import org.softwire.training.analyzer.concurrent.WaitStrategy;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.AverageCombiner;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * The event loop for {@link ExecutionMode#SHARDED}, which spreads the pipeline over several threads by location:
+ * <ol>
+ * <li>the thread calling {@link #run()} receives events and picks a shard by each one's location index, or a hash of
+ * its location id if it has none, so all the events for a location, and so all copies of an event, go to the same
+ * shard,</li>
+ * <li>each shard's thread passes its events through its own {@link PackedPipeline}, with its own Deduplicator and
+ * aggregator, so no state is shared between shards and none of it needs locking,</li>
+ * <li>the first thread then merges the shards' averages with an {@link AverageCombiner} and writes them out.</li>
+ * </ol>
+ * Events are handed to the shards through {@link SpscRingBuffer}s, and averages come back through a queue, each tagged
+ * with the time its shard had got up to.  Every shard publishes how far it has expired its buckets after handling each
+ * event, or while idle, and only after queueing the averages that produced.  So a window is complete once every
+ * shard has got as far as the time the first part of it was output at, and messages are only acknowledged up to the
+ * time the slowest shard has got to.
+ * <p>
+ * The shards' aggregators must all have been created at the same time, so that they close windows together.
+ */
+public class ShardedEventLoop {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedEventLoop.class);
+
+    private final TypedConfig config;
+    private final PackedEventSource eventSource;
+    private final AverageWriter averageWriter;
+    private final Acknowledger acknowledger;
+    private final Clock clock;
+    private final Instant endTime;
+
+    private final Shard[] shards;
+    private final ConcurrentLinkedQueue<ShardOutput> outputs = new ConcurrentLinkedQueue<>();
+    private final AverageCombiner combiner = new AverageCombiner();
+
+    private volatile boolean running = true;
+    private volatile Instant stoppedAt;
+    private volatile Throwable failure;
+
+    // Owned by the thread calling run()
+    private Instant now;
+    private long nowMillis;
+    private long expiredUpTo;
+
+    /**
+     * @param pipelines one for each shard, which in event time all observe the same watermark, so that every shard
+     *                  runs on the time of the events which passed any shard's location filter and deduplicator
+     */
+    public ShardedEventLoop(EventLoop.TypedConfig applicationConfig,
+                            TypedConfig config,
+                            PackedEventSource eventSource,
+                            List<PackedPipeline> pipelines,
+                            AverageWriter averageWriter,
+                            Acknowledger acknowledger,
+                            Clock clock) {
+        this.config = config;
+        this.eventSource = eventSource;
+        this.averageWriter = averageWriter;
+        this.acknowledger = acknowledger;
+        this.clock = clock;
+
+        shards = new Shard[pipelines.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(pipelines.get(i));
+        }
+
+        now = clock.instant();
+        nowMillis = now.toEpochMilli();
+        endTime = now.plus(applicationConfig.duration);
+    }
+
+    public void run() throws InterruptedException {
+        LOG.info("Entering sharded event loop at {} with {} shards, will run until {}", now, shards.length, endTime);
+
+        Thread[] threads = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            threads[i] = new Thread(() -> runRecordingFailure(shard::run), "shard-" + i);
+            threads[i].start();
+        }
+        try {
+            Consumer<PackedEvent> dispatch = this::dispatch;
+            while (!now.isAfter(endTime)) {
+                checkForFailure();
+                eventSource.drainTo(dispatch);
+                combineOutput();
+                if (averageWriter.flushIfDue(now)) {
+                    acknowledger.outputFlushed(Instant.ofEpochMilli(expiredUpTo));
+                }
+                updateNow();
+            }
+        } finally {
+            stoppedAt = now;
+            running = false;
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        checkForFailure();
+
+        combineOutput();
+        averageWriter.flush();
+        acknowledger.outputFlushed(Instant.ofEpochMilli(expiredUpTo));
+    }
+
+    private void runRecordingFailure(Runnable shard) {
+        try {
+            shard.run();
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void checkForFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Shard thread failed", failure);
+        }
+    }
+
+    private void dispatch(PackedEvent event) {
+        SpscRingBuffer<PackedEvent> input = shards[shardOf(event)].input;
+
+        int idleCount = 0;
+        PackedEvent slot;
+        while ((slot = input.tryClaim()) == null) {
+            checkForFailure();
+            idleCount = config.waitStrategy.idle(idleCount);
+        }
+        slot.copyFrom(event);
+        input.publish();
+    }
+
+    private int shardOf(PackedEvent event) {
+        if (event.locationIndex >= 0) {
+            return event.locationIndex % shards.length;
+        }
+        long hash = LongHashing.mix(event.locationIdMostSignificantBits, event.locationIdLeastSignificantBits);
+        return (int) ((hash >>> 1) % shards.length);
+    }
+
+    /**
+     * Read how far the shards have got before taking their output, so that everything they output before getting
+     * that far is taken too.
+     */
+    private void combineOutput() {
+        long upTo = Long.MAX_VALUE;
+        for (Shard shard : shards) {
+            upTo = Math.min(upTo, shard.expiredUpTo);
+        }
+        ShardOutput output;
+        while ((output = outputs.poll()) != null) {
+            combiner.add(output.outputAt, output.average);
+        }
+        combiner.complete(upTo, averageWriter::write);
+        expiredUpTo = upTo;
+    }
+
+    /**
+     * Many events arrive within the same millisecond, so only create a new Instant when the time has moved on.
+     */
+    private void updateNow() {
+        long millis = clock.millis();
+        if (millis != nowMillis) {
+            nowMillis = millis;
+            now = Instant.ofEpochMilli(millis);
+        }
+    }
+
+    private class Shard {
+        final SpscRingBuffer<PackedEvent> input = new SpscRingBuffer<>(config.bufferSize, PackedEvent::new);
+        final PackedPipeline pipeline;
+        final Consumer<Average> output = this::output;
+
+        // Written by the shard's thread, read by the thread calling run()
+        volatile long expiredUpTo;
+
+        // Owned by the shard's thread
+        Instant shardNow;
+        long shardNowMillis;
+
+        Shard(PackedPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        void run() {
+            shardNow = clock.instant();
+            shardNowMillis = shardNow.toEpochMilli();
+            int idleCount = 0;
+            while (true) {
+                PackedEvent event = input.poll();
+                if (event == null) {
+                    if (!running) {
+                        break;
+                    }
+                    updateShardNow();
+                    pipeline.expire(shardNow, output);
+                    expiredUpTo = shardNowMillis;
+                    idleCount = config.waitStrategy.idle(idleCount);
+                    continue;
+                }
+                idleCount = 0;
+                updateShardNow();
+                pipeline.handle(shardNow, event, output);
+                input.release();
+                expiredUpTo = shardNowMillis;
+            }
+            // Every shard finishes at the same time, so that the windows completed by then are all output
+            if (stoppedAt.isAfter(shardNow)) {
+                shardNow = stoppedAt;
+                shardNowMillis = stoppedAt.toEpochMilli();
+            }
+            pipeline.expire(shardNow, output);
+            expiredUpTo = shardNowMillis;
+        }
+
+        void output(Average average) {
+            outputs.add(new ShardOutput(shardNowMillis, average));
+        }
+
+        void updateShardNow() {
+            long millis = clock.millis();
+            if (millis != shardNowMillis) {
+                shardNowMillis = millis;
+                shardNow = Instant.ofEpochMilli(millis);
+            }
+        }
+    }
+
+    private static class ShardOutput {
+        final long outputAt;
+        final Average average;
+
+        ShardOutput(long outputAt, Average average) {
+            this.outputAt = outputAt;
+            this.average = average;
+        }
+    }
+
+    public static class TypedConfig {
+        public final int shards;
+        final int bufferSize;
+        final WaitStrategy waitStrategy;
+
+        public TypedConfig(int shards, int bufferSize, WaitStrategy waitStrategy) {
+            if (shards < 1) {
+                throw new IllegalArgumentException("Sharded event loop needs at least one shard");
+            }
+            this.shards = shards;
+            this.bufferSize = bufferSize;
+            this.waitStrategy = waitStrategy;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getInt("shards"),
+                    config.getInt("bufferSize"),
+                    config.getEnum(WaitStrategy.class, "waitStrategy"));
+        }
+    }
+}
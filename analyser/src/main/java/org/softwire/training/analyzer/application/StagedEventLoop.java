@@ -0,0 +1,272 @@
+package org.softwire.training.analyzer.application;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.concurrent.SpscRingBuffer;
+import org.softwire.training.analyzer.concurrent.WaitStrategy;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The event loop for {@link ExecutionMode#STAGED}, which splits the work of {@link PackedEventLoop} over three
+ * threads so that slow I/O at either end doesn't hold up the pipeline:
+ * <ol>
+ * <li>the receiver thread takes events from the event source (and logs queue info, which is a call to SQS),</li>
+ * <li>the thread calling {@link #run()} passes them through the pipeline,</li>
+ * <li>the output thread writes averages to the AverageWriter and tells the Acknowledger once they are flushed.</li>
+ * </ol>
+ * The threads are connected by {@link SpscRingBuffer}s.  Only the pipeline thread ever touches the pipeline, so the
+ * Deduplicator and Aggregator still see a single writer and need no locking.
+ * <p>
+ * To keep at-least-once delivery, the pipeline thread sends a flush marker down the output buffer after the averages,
+ * and the output thread only reports output as flushed once it has reached the marker and the AverageWriter has flushed
+ * everything before it.
+ */
+public class StagedEventLoop {
+    private static final Logger LOG = LoggerFactory.getLogger(StagedEventLoop.class);
+
+    // Send a flush marker at least this often under constant load, so that messages keep being acknowledged.
+    private static final int MAX_EVENTS_BETWEEN_FLUSH_MARKERS = 1024;
+
+    private final TypedConfig config;
+    private final PackedEventSource eventSource;
+    private final PackedPipeline pipeline;
+    private final AverageWriter averageWriter;
+    private final Acknowledger acknowledger;
+    private final Clock clock;
+    private final Instant endTime;
+
+    private final SpscRingBuffer<PackedEvent> input;
+    private final SpscRingBuffer<OutputSlot> output;
+
+    private volatile boolean receiving = true;
+    private volatile boolean pipelineDone = false;
+    private volatile Throwable failure;
+
+    // Owned by the pipeline thread
+    private Instant now;
+    private long nowMillis;
+    private final Consumer<Average> publishAverage = this::publishAverage;
+
+    public StagedEventLoop(EventLoop.TypedConfig applicationConfig,
+                           TypedConfig config,
+                           PackedEventSource eventSource,
+                           PackedPipeline pipeline,
+                           AverageWriter averageWriter,
+                           Acknowledger acknowledger,
+                           Clock clock) {
+        this.config = config;
+        this.eventSource = eventSource;
+        this.pipeline = pipeline;
+        this.averageWriter = averageWriter;
+        this.acknowledger = acknowledger;
+        this.clock = clock;
+
+        input = new SpscRingBuffer<>(config.inputBufferSize, PackedEvent::new);
+        output = new SpscRingBuffer<>(config.outputBufferSize, OutputSlot::new);
+
+        now = clock.instant();
+        nowMillis = now.toEpochMilli();
+        endTime = now.plus(applicationConfig.duration);
+    }
+
+    public void run() throws InterruptedException {
+        LOG.info("Entering staged event loop at {}, will run until {}", now, endTime);
+
+        Thread receiverThread = new Thread(() -> runRecordingFailure(this::receive), "staged-receiver");
+        Thread outputThread = new Thread(() -> runRecordingFailure(this::writeOutput), "staged-output");
+        receiverThread.start();
+        outputThread.start();
+        try {
+            handleEvents();
+        } finally {
+            receiving = false;
+            pipelineDone = true;
+            receiverThread.join();
+            outputThread.join();
+        }
+    }
+
+    private void runRecordingFailure(Runnable stage) {
+        try {
+            stage.run();
+        } catch (Throwable e) {
+            failure = e;
+            receiving = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Called by the pipeline thread whenever it waits, so that it stops if either of the other threads has died.
+     */
+    private void checkForFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("Staged event loop thread failed", failure);
+        }
+    }
+
+    private void receive() {
+        Consumer<PackedEvent> handOff = this::handOff;
+        while (receiving) {
+            eventSource.drainTo(handOff);
+        }
+    }
+
+    private void handOff(PackedEvent event) {
+        int idleCount = 0;
+        PackedEvent slot;
+        while ((slot = input.tryClaim()) == null) {
+            if (!receiving) {
+                // Shutting down, and nobody will read this event.
+                return;
+            }
+            idleCount = config.waitStrategy.idle(idleCount);
+        }
+        slot.copyFrom(event);
+        input.publish();
+    }
+
+    private void handleEvents() {
+        int idleCount = 0;
+        int eventsSinceFlushMarker = 0;
+        while (!now.isAfter(endTime)) {
+            PackedEvent event = input.poll();
+            if (event == null) {
+                if (eventsSinceFlushMarker > 0) {
+                    publishFlushMarker();
+                    eventsSinceFlushMarker = 0;
+                }
+                checkForFailure();
+                idleCount = config.waitStrategy.idle(idleCount);
+                updateNow();
+                continue;
+            }
+            idleCount = 0;
+            updateNow();
+            pipeline.handle(now, event, publishAverage);
+            input.release();
+
+            if (++eventsSinceFlushMarker >= MAX_EVENTS_BETWEEN_FLUSH_MARKERS) {
+                publishFlushMarker();
+                eventsSinceFlushMarker = 0;
+            }
+        }
+        publishFlushMarker();
+    }
+
+    private void publishAverage(Average average) {
+        claimOutputSlot().set(average, null);
+        output.publish();
+    }
+
+    private void publishFlushMarker() {
+        claimOutputSlot().set(null, now);
+        output.publish();
+    }
+
+    private OutputSlot claimOutputSlot() {
+        int idleCount = 0;
+        OutputSlot slot;
+        while ((slot = output.tryClaim()) == null) {
+            checkForFailure();
+            idleCount = config.waitStrategy.idle(idleCount);
+        }
+        return slot;
+    }
+
+    private void writeOutput() {
+        int idleCount = 0;
+        // The latest flush marker, whose output may still be sitting in the writer's buffer
+        Instant unacknowledged = null;
+        while (true) {
+            OutputSlot slot = output.poll();
+            if (slot == null) {
+                if (pipelineDone && output.size() == 0) {
+                    break;
+                }
+                unacknowledged = flushIfDue(unacknowledged);
+                idleCount = config.waitStrategy.idle(idleCount);
+                continue;
+            }
+            idleCount = 0;
+            if (slot.average != null) {
+                averageWriter.write(slot.average);
+            } else {
+                // Under a steady load the output might never run dry, so don't only flush once it does
+                unacknowledged = flushIfDue(slot.flushedAt);
+            }
+            slot.set(null, null);
+            output.release();
+        }
+        averageWriter.flush();
+        if (unacknowledged != null) {
+            acknowledger.outputFlushed(unacknowledged);
+        }
+    }
+
+    /**
+     * Flush the writer if it's due, and if that leaves nothing unflushed, acknowledge the flush marker unacknowledged.
+     *
+     * @return the flush marker still to be acknowledged, if any
+     */
+    private Instant flushIfDue(Instant unacknowledged) {
+        if (averageWriter.flushIfDue(clock.instant()) && unacknowledged != null) {
+            acknowledger.outputFlushed(unacknowledged);
+            return null;
+        }
+        return unacknowledged;
+    }
+
+    /**
+     * Many events arrive within the same millisecond, so only create a new Instant when the time has moved on.
+     */
+    private void updateNow() {
+        long millis = clock.millis();
+        if (millis != nowMillis) {
+            nowMillis = millis;
+            now = Instant.ofEpochMilli(millis);
+        }
+    }
+
+    /**
+     * Either an average to write, or a marker saying that all output up to flushedAt has been sent.
+     */
+    private static class OutputSlot {
+        Average average;
+        Instant flushedAt;
+
+        void set(Average average, Instant flushedAt) {
+            this.average = average;
+            this.flushedAt = flushedAt;
+        }
+    }
+
+    public static class TypedConfig {
+        final int inputBufferSize;
+        final int outputBufferSize;
+        final WaitStrategy waitStrategy;
+
+        public TypedConfig(int inputBufferSize, int outputBufferSize, WaitStrategy waitStrategy) {
+            this.inputBufferSize = inputBufferSize;
+            this.outputBufferSize = outputBufferSize;
+            this.waitStrategy = waitStrategy;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getInt("inputBufferSize"),
+                    config.getInt("outputBufferSize"),
+                    config.getEnum(WaitStrategy.class, "waitStrategy"));
+        }
+    }
+}
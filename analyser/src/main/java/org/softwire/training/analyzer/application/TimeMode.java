@@ -0,0 +1,17 @@
+package org.softwire.training.analyzer.application;
+
+/**
+ * Which time the pipeline uses to decide when averages are complete and ids can be forgotten.
+ */
+public enum TimeMode {
+    /**
+     * The wall clock, so events are processed in real time.
+     */
+    WALL_CLOCK,
+    /**
+     * A watermark following the timestamps of the events themselves, see
+     * {@link org.softwire.training.analyzer.pipeline.EventTimeClock}, so recorded events can be processed as fast as
+     * they can be read and still produce the same averages.
+     */
+    EVENT_TIME
+}
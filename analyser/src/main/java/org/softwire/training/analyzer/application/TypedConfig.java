@@ -2,27 +2,72 @@ package org.softwire.training.analyzer.application;
 
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import org.softwire.training.analyzer.averagelog.AverageLogWriter;
+import org.softwire.training.analyzer.metrics.FreshnessTracker;
+import org.softwire.training.analyzer.metrics.Metrics;
+import org.softwire.training.analyzer.pipeline.AggregationMode;
 import org.softwire.training.analyzer.pipeline.Aggregator;
 import org.softwire.training.analyzer.pipeline.Deduplicator;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.QueueDepthSampler;
 import org.softwire.training.analyzer.receiver.Receiver;
+import org.softwire.training.analyzer.recording.MessageLogWriter;
 import org.softwire.training.analyzer.services.FileWriter;
+import org.softwire.training.analyzer.services.LocationRegistry;
 import org.softwire.training.analyzer.services.LocationService;
 
 public class TypedConfig {
     public final Deduplicator.TypedConfig deduplicator;
     public final EventLoop.TypedConfig application;
+    public final StagedEventLoop.TypedConfig staged;
+    public final BatchEventLoop.TypedConfig batch;
+    public final ShardedEventLoop.TypedConfig sharded;
     public final Receiver.TypedConfig receiver;
+    public final QueueDepthSampler.TypedConfig queueDepth;
+    public final Acknowledger.TypedConfig acknowledger;
     public final LocationService.TypedConfig locationService;
+    public final LocationRegistry.TypedConfig locationRegistry;
     public final Aggregator.TypedConfig aggregator;
+    public final OutputFormat outputFormat;
     public final FileWriter.TypedConfig fileWriter;
+    public final AverageLogWriter.TypedConfig averageLog;
+    public final MessageLogWriter.TypedConfig recording;
+    public final Metrics.TypedConfig metrics;
+    public final FreshnessTracker.TypedConfig freshness;
+    // Empty unless replaying a recording rather than receiving from SQS
+    public final String replayFile;
 
     public TypedConfig() {
-        Config config = ConfigFactory.load();
+        this(ConfigFactory.load());
+    }
+
+    public TypedConfig(Config config) {
         deduplicator = Deduplicator.TypedConfig.fromUntypedConfig(config.getConfig("deduplicator"));
         application = EventLoop.TypedConfig.fromUntypedConfig(config.getConfig("application"));
+        staged = StagedEventLoop.TypedConfig.fromUntypedConfig(config.getConfig("staged"));
+        batch = BatchEventLoop.TypedConfig.fromUntypedConfig(config.getConfig("batch"));
+        sharded = ShardedEventLoop.TypedConfig.fromUntypedConfig(config.getConfig("sharded"));
         receiver = Receiver.TypedConfig.fromUntypedConfig(config.getConfig("receiver"));
+        queueDepth = QueueDepthSampler.TypedConfig.fromUntypedConfig(config.getConfig("queueDepth"));
+        acknowledger = Acknowledger.TypedConfig.fromUntypedConfig(config.getConfig("acknowledger"));
         locationService = LocationService.TypedConfig.fromUntypedConfig(config.getConfig("locations"));
+        locationRegistry = LocationRegistry.TypedConfig.fromUntypedConfig(config.getConfig("locations"));
         aggregator = Aggregator.TypedConfig.fromUntypedConfig(config.getConfig("aggregator"));
+        outputFormat = config.getEnum(OutputFormat.class, "output.format");
         fileWriter = FileWriter.TypedConfig.fromUntypedConfig(config.getConfig("fileWriter"));
+        averageLog = AverageLogWriter.TypedConfig.fromUntypedConfig(config.getConfig("averageLog"));
+        recording = MessageLogWriter.TypedConfig.fromUntypedConfig(config.getConfig("recording"));
+        metrics = Metrics.TypedConfig.fromUntypedConfig(config.getConfig("metrics"));
+        freshness = FreshnessTracker.TypedConfig.fromUntypedConfig(config.getConfig("freshness"));
+        replayFile = config.getString("replay.file");
+
+        if (application.allowedLateness.isNegative()
+                || application.allowedLateness.compareTo(aggregator.getAveragingPeriod()) > 0) {
+            throw new IllegalArgumentException(
+                    "application allowedLateness must be between 0 and aggregator averagingPeriod");
+        }
+        if (outputFormat == OutputFormat.BINARY && aggregator.mode == AggregationMode.SPATIAL) {
+            throw new IllegalArgumentException("The BINARY output format can't hold the peaks of SPATIAL averages");
+        }
     }
 }
@@ -0,0 +1,88 @@
+package org.softwire.training.analyzer.averagelog;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads the records written by {@link AverageLogWriter} in order, through memory mapped segments.
+ * <p>
+ * The reader keeps its place, so once {@link #next} has run out of records it can be called again later to pick up
+ * whatever has been written since, ie. to tail a log which is still being written.
+ * <p>
+ * A record which is not committed ends the segment if a later segment exists, because the writer only starts a new
+ * segment once it's done with the previous one: that only happens if the writer stopped part way through.
+ * <p>
+ * Not thread safe.
+ */
+public class AverageLogReader {
+    private final Path directory;
+
+    // Index of the current segment, or of the last one read once that's finished with
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private int position;
+
+    public AverageLogReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read the next committed record into the given one.
+     *
+     * @return false, leaving the record untouched, if no further record has been written yet
+     */
+    public boolean next(AverageRecord into) throws IOException {
+        while (true) {
+            if (segment == null && !openSegmentAfter(segmentIndex)) {
+                return false;
+            }
+            if (position + AverageRecord.SIZE <= segment.limit()) {
+                if (into.readFrom(segment, position)) {
+                    position += AverageRecord.SIZE;
+                    return true;
+                }
+                if (!hasSegmentAfter(segmentIndex)) {
+                    return false;
+                }
+                // Check again, in case the record was written between the two checks above
+                if (into.readFrom(segment, position)) {
+                    position += AverageRecord.SIZE;
+                    return true;
+                }
+            }
+            segment = null;
+        }
+    }
+
+    private boolean openSegmentAfter(long index) throws IOException {
+        for (long candidate : Segments.indexes(directory)) {
+            if (candidate > index) {
+                Path path = Segments.path(directory, candidate);
+                MappedByteBuffer mapped;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+                mapped.order(ByteOrder.LITTLE_ENDIAN);
+                if (!Segments.checkHeader(path, mapped)) {
+                    // Only just created, try again next time
+                    return false;
+                }
+                segment = mapped;
+                segmentIndex = candidate;
+                position = Segments.HEADER_SIZE;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasSegmentAfter(long index) throws IOException {
+        List<Long> indexes = Segments.indexes(directory);
+        return !indexes.isEmpty() && indexes.get(indexes.size() - 1) > index;
+    }
+}
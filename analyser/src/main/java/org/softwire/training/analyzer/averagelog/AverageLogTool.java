@@ -0,0 +1,110 @@
+package org.softwire.training.analyzer.averagelog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line tool to convert an average log to CSV or JSON lines on standard output:
+ * <pre>
+ * AverageLogTool scan|tail &lt;directory&gt; [csv|json]
+ * </pre>
+ * scan prints every record and exits, tail skips to the end of the log and then prints records as they are written.
+ */
+public class AverageLogTool {
+    private static final long TAIL_POLL_MILLIS = 100;
+
+    private final AverageLogReader reader;
+    private final Format format;
+    private final Writer out;
+    private final AverageRecord record = new AverageRecord();
+    private final StringBuilder line = new StringBuilder();
+
+    AverageLogTool(AverageLogReader reader, Format format, Writer out) {
+        this.reader = reader;
+        this.format = format;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2 || args.length > 3) {
+            usage();
+            return;
+        }
+        Path directory = Paths.get(args[1]);
+        if (!Files.isDirectory(directory)) {
+            System.err.println("No such directory: " + directory);
+            System.exit(1);
+        }
+        Format format = args.length == 3 ? Format.valueOf(args[2].toUpperCase()) : Format.CSV;
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+        AverageLogTool tool = new AverageLogTool(new AverageLogReader(directory), format, out);
+        switch (args[0]) {
+            case "scan":
+                tool.scan();
+                break;
+            case "tail":
+                tool.tail();
+                break;
+            default:
+                usage();
+        }
+    }
+
+    /**
+     * Print every record written so far.
+     */
+    void scan() throws IOException {
+        if (format == Format.CSV) {
+            line.setLength(0);
+            writeLine(AverageRecord.appendCsvHeader(line));
+        }
+        printAvailable();
+        out.flush();
+    }
+
+    /**
+     * Print records as they are written, until interrupted.
+     */
+    void tail() throws IOException, InterruptedException {
+        while (reader.next(record)) {
+            // Skip everything written so far
+        }
+        scan();
+        while (!Thread.currentThread().isInterrupted()) {
+            Thread.sleep(TAIL_POLL_MILLIS);
+            if (printAvailable() > 0) {
+                out.flush();
+            }
+        }
+    }
+
+    private int printAvailable() throws IOException {
+        int printed = 0;
+        while (reader.next(record)) {
+            line.setLength(0);
+            writeLine(format == Format.CSV ? record.appendCsv(line) : record.appendJson(line));
+            printed++;
+        }
+        return printed;
+    }
+
+    private void writeLine(StringBuilder text) throws IOException {
+        out.append(text).append('\n');
+    }
+
+    private static void usage() {
+        System.err.println("Usage: AverageLogTool scan|tail <directory> [csv|json]");
+        System.exit(2);
+    }
+
+    enum Format {
+        CSV,
+        JSON
+    }
+}
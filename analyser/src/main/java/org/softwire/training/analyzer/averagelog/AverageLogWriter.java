@@ -0,0 +1,140 @@
+package org.softwire.training.analyzer.averagelog;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Appends averages as fixed width {@link AverageRecord}s to a directory of memory mapped segment files, which can be
+ * read back with {@link AverageLogReader}.
+ * <p>
+ * Each segment is mapped at its full config.segmentSize when it is created, and once it is full the writer moves on to
+ * a new one.  A writer never reopens an existing segment: on startup it begins a new segment after the last one in the
+ * directory.
+ * <p>
+ * A write goes straight into the mapping, so it reaches the OS, and any reader, immediately and survives us crashing.
+ * Unless config.force is set that is all {@link #flushIfDue} waits for; with it set, it also forces the segment to
+ * disk at most every config.maxFlushDelay.
+ * <p>
+ * Not thread safe.
+ */
+public class AverageLogWriter implements AverageWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(AverageLogWriter.class);
+
+    private final TypedConfig config;
+    private final Path directory;
+    private final AverageRecord record = new AverageRecord();
+
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private int position;
+    private boolean unforced;
+    private Instant nextFlushDue = Instant.MIN;
+
+    public AverageLogWriter(TypedConfig config) throws IOException {
+        this.config = config;
+        directory = Paths.get(config.directory).toAbsolutePath();
+        Files.createDirectories(directory);
+        List<Long> existing = Segments.indexes(directory);
+        segmentIndex = existing.isEmpty() ? 0 : existing.get(existing.size() - 1);
+        openNextSegment();
+        LOG.info("Will be writing output to: {}", directory);
+    }
+
+    @Override
+    public void write(Average average) {
+        if (position + AverageRecord.SIZE > segment.limit()) {
+            flush();
+            try {
+                openNextSegment();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        record.set(average).writeTo(segment, position);
+        position += AverageRecord.SIZE;
+        unforced = config.force;
+    }
+
+    @Override
+    public boolean flushIfDue(Instant now) {
+        if (unforced && !now.isBefore(nextFlushDue)) {
+            flush();
+            nextFlushDue = now.plus(config.maxFlushDelay);
+        }
+        return !unforced;
+    }
+
+    @Override
+    public void flush() {
+        if (unforced) {
+            segment.force();
+            unforced = false;
+        }
+    }
+
+    /**
+     * The segment is left at its full size: readers take the zeroed space after the last record as not written yet.
+     */
+    @Override
+    public void close() {
+        flush();
+        LOG.info("Closed average log segment {} after {} records",
+                segmentIndex, (position - Segments.HEADER_SIZE) / AverageRecord.SIZE);
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentIndex++;
+        Path path = Segments.path(directory, segmentIndex);
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, config.segmentSize);
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        Segments.writeHeader(segment);
+        position = Segments.HEADER_SIZE;
+        LOG.info("Started average log segment {}", path);
+    }
+
+    public static class TypedConfig {
+        final String directory;
+        final int segmentSize;
+        final Duration maxFlushDelay;
+        final boolean force;
+
+        TypedConfig(String directory, long segmentSize, Duration maxFlushDelay, boolean force) {
+            if (segmentSize < Segments.HEADER_SIZE + AverageRecord.SIZE || segmentSize > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(
+                        "AverageLogWriter segmentSize must hold at least one record and be under 2 GiB");
+            }
+            this.directory = directory;
+            this.segmentSize = (int) segmentSize;
+            this.maxFlushDelay = maxFlushDelay;
+            this.force = force;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getString("directory"),
+                    config.getBytes("segmentSize"),
+                    config.getDuration("maxFlushDelay"),
+                    config.getBoolean("force"));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.softwire.training.analyzer.averagelog;
+
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.LocationAverage;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One average in the binary average log, as a fixed width record of {@link #SIZE} bytes.
+ * <p>
+ * Layout, all little endian:
+ * <pre>
+ *  0  long    fromMillis
+ *  8  long    toMillis
+ * 16  double  value
+ * 24  long    count
+ * 32  int     flags: COMMITTED, HAS_LOCATION, HAS_STATS
+ * 36  int     reserved
+ * 40  long    locationId most significant bits   (if HAS_LOCATION)
+ * 48  long    locationId least significant bits  (if HAS_LOCATION)
+ * 56  double  min                                (if HAS_STATS)
+ * 64  double  max                                (if HAS_STATS)
+ * 72  double  variance                           (if HAS_STATS)
+ * </pre>
+ * The flags are written last, so a reader never takes a record which is still being written as committed.
+ * <p>
+ * Only the fields of an {@link Average} or {@link LocationAverage} are kept, so SPATIAL averages can't be logged.
+ * <p>
+ * Mutable so that readers can scan a log through a single instance.
+ */
+public class AverageRecord {
+    public static final int SIZE = 80;
+
+    static final int COMMITTED = 1;
+    static final int HAS_LOCATION = 1 << 1;
+    static final int HAS_STATS = 1 << 2;
+
+    private static final int FROM_OFFSET = 0;
+    private static final int TO_OFFSET = 8;
+    private static final int VALUE_OFFSET = 16;
+    private static final int COUNT_OFFSET = 24;
+    private static final int FLAGS_OFFSET = 32;
+    private static final int LOCATION_MSB_OFFSET = 40;
+    private static final int LOCATION_LSB_OFFSET = 48;
+    private static final int MIN_OFFSET = 56;
+    private static final int MAX_OFFSET = 64;
+    private static final int VARIANCE_OFFSET = 72;
+
+    public long fromMillis;
+    public long toMillis;
+    public double value;
+    public long count;
+
+    public boolean hasLocation;
+    public long locationMsb;
+    public long locationLsb;
+
+    public boolean hasStats;
+    public double min;
+    public double max;
+    public double variance;
+
+    public AverageRecord set(Average average) {
+        fromMillis = average.from.toEpochMilli();
+        toMillis = average.to.toEpochMilli();
+        value = average.value;
+        count = average.count;
+        if (average instanceof LocationAverage) {
+            UUID locationId = ((LocationAverage) average).locationId;
+            hasLocation = true;
+            locationMsb = locationId.getMostSignificantBits();
+            locationLsb = locationId.getLeastSignificantBits();
+        } else {
+            hasLocation = false;
+            locationMsb = 0;
+            locationLsb = 0;
+        }
+        hasStats = true;
+        min = average.min;
+        max = average.max;
+        variance = average.variance;
+        return this;
+    }
+
+    /**
+     * A {@link LocationAverage} if the record has a location.  Statistics which weren't recorded come back as NaN.
+     */
+    public Average toAverage() {
+        if (hasLocation) {
+            return new LocationAverage(
+                    getLocationId(),
+                    Instant.ofEpochMilli(toMillis),
+                    Instant.ofEpochMilli(fromMillis),
+                    value,
+                    count,
+                    hasStats ? min : Double.NaN,
+                    hasStats ? max : Double.NaN,
+                    hasStats ? variance : Double.NaN);
+        }
+        return new Average(
+                Instant.ofEpochMilli(toMillis),
+                Instant.ofEpochMilli(fromMillis),
+                value,
+                count,
+                hasStats ? min : Double.NaN,
+                hasStats ? max : Double.NaN,
+                hasStats ? variance : Double.NaN);
+    }
+
+    public UUID getLocationId() {
+        return hasLocation ? new UUID(locationMsb, locationLsb) : null;
+    }
+
+    /**
+     * Write this record at the given offset of a little endian buffer, committing it with the final write.
+     */
+    void writeTo(ByteBuffer buffer, int offset) {
+        buffer.putLong(offset + FROM_OFFSET, fromMillis);
+        buffer.putLong(offset + TO_OFFSET, toMillis);
+        buffer.putDouble(offset + VALUE_OFFSET, value);
+        buffer.putLong(offset + COUNT_OFFSET, count);
+        buffer.putLong(offset + LOCATION_MSB_OFFSET, locationMsb);
+        buffer.putLong(offset + LOCATION_LSB_OFFSET, locationLsb);
+        buffer.putDouble(offset + MIN_OFFSET, min);
+        buffer.putDouble(offset + MAX_OFFSET, max);
+        buffer.putDouble(offset + VARIANCE_OFFSET, variance);
+        buffer.putInt(offset + FLAGS_OFFSET,
+                COMMITTED | (hasLocation ? HAS_LOCATION : 0) | (hasStats ? HAS_STATS : 0));
+    }
+
+    /**
+     * Read the record at the given offset of a little endian buffer into this one.
+     *
+     * @return false, leaving this record untouched, if there is no committed record there (yet)
+     */
+    boolean readFrom(ByteBuffer buffer, int offset) {
+        int flags = buffer.getInt(offset + FLAGS_OFFSET);
+        if ((flags & COMMITTED) == 0) {
+            return false;
+        }
+        fromMillis = buffer.getLong(offset + FROM_OFFSET);
+        toMillis = buffer.getLong(offset + TO_OFFSET);
+        value = buffer.getDouble(offset + VALUE_OFFSET);
+        count = buffer.getLong(offset + COUNT_OFFSET);
+        hasLocation = (flags & HAS_LOCATION) != 0;
+        locationMsb = buffer.getLong(offset + LOCATION_MSB_OFFSET);
+        locationLsb = buffer.getLong(offset + LOCATION_LSB_OFFSET);
+        hasStats = (flags & HAS_STATS) != 0;
+        min = buffer.getDouble(offset + MIN_OFFSET);
+        max = buffer.getDouble(offset + MAX_OFFSET);
+        variance = buffer.getDouble(offset + VARIANCE_OFFSET);
+        return true;
+    }
+
+    public static StringBuilder appendCsvHeader(StringBuilder builder) {
+        return builder.append("from,to,value,count,locationId,min,max,variance");
+    }
+
+    /**
+     * Append as a CSV row matching {@link #appendCsvHeader}, leaving absent optional fields empty.
+     */
+    public StringBuilder appendCsv(StringBuilder builder) {
+        builder.append(Instant.ofEpochMilli(fromMillis))
+                .append(',').append(Instant.ofEpochMilli(toMillis))
+                .append(',').append(value)
+                .append(',').append(count)
+                .append(',');
+        if (hasLocation) {
+            builder.append(getLocationId());
+        }
+        builder.append(',');
+        if (hasStats) {
+            builder.append(min).append(',').append(max).append(',').append(variance);
+        } else {
+            builder.append(",,");
+        }
+        return builder;
+    }
+
+    /**
+     * Append as a single line JSON object, leaving out absent optional fields.
+     */
+    public StringBuilder appendJson(StringBuilder builder) {
+        builder.append("{\"from\":\"").append(Instant.ofEpochMilli(fromMillis))
+                .append("\",\"to\":\"").append(Instant.ofEpochMilli(toMillis))
+                .append("\",\"value\":");
+        appendJsonNumber(builder, value).append(",\"count\":").append(count);
+        if (hasLocation) {
+            builder.append(",\"locationId\":\"").append(getLocationId()).append('"');
+        }
+        if (hasStats) {
+            appendJsonNumber(builder.append(",\"min\":"), min);
+            appendJsonNumber(builder.append(",\"max\":"), max);
+            appendJsonNumber(builder.append(",\"variance\":"), variance);
+        }
+        return builder.append('}');
+    }
+
+    // JSON has no NaN or Infinity
+    private static StringBuilder appendJsonNumber(StringBuilder builder, double number) {
+        return Double.isFinite(number) ? builder.append(number) : builder.append("null");
+    }
+}
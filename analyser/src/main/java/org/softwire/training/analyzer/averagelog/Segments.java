@@ -0,0 +1,81 @@
+package org.softwire.training.analyzer.averagelog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Naming and headers of the segment files making up an average log.
+ * <p>
+ * Segments are numbered upwards from 1, and each starts with a {@link #HEADER_SIZE} byte header, followed by
+ * {@link AverageRecord}s:
+ * <pre>
+ *  0  int  magic
+ *  4  int  format version
+ *  8  int  record size
+ * 12  int  reserved
+ * </pre>
+ */
+final class Segments {
+    static final int HEADER_SIZE = 16;
+    static final int MAGIC = 0x4156474C; // "AVGL"
+    static final int VERSION = 1;
+
+    private static final Pattern NAME = Pattern.compile("(\\d{16})\\.avg");
+
+    private Segments() {
+    }
+
+    static Path path(Path directory, long index) {
+        return directory.resolve(String.format("%016d.avg", index));
+    }
+
+    /**
+     * The indexes of all segments in the directory, in order.
+     */
+    static List<Long> indexes(Path directory) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    indexes.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    static void writeHeader(ByteBuffer segment) {
+        segment.putInt(4, VERSION);
+        segment.putInt(8, AverageRecord.SIZE);
+        // Last, so a reader can tell the header is complete
+        segment.putInt(0, MAGIC);
+    }
+
+    /**
+     * @return false if the header has not been written yet
+     * @throws IOException if the segment isn't in a format we understand
+     */
+    static boolean checkHeader(Path path, ByteBuffer segment) throws IOException {
+        if (segment.limit() < HEADER_SIZE || segment.getInt(0) == 0) {
+            return false;
+        }
+        if (segment.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not an average log segment");
+        }
+        if (segment.getInt(4) != VERSION || segment.getInt(8) != AverageRecord.SIZE) {
+            throw new IOException(String.format("%s has unsupported version %d or record size %d",
+                    path, segment.getInt(4), segment.getInt(8)));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,21 @@
+package org.softwire.training.analyzer.collections;
+
+/**
+ * A set of 128 bit keys, such as UUIDs, which forgets each key some time after it was added.
+ */
+public interface ExpiringLongPairSet {
+
+    /**
+     * Add a key, unless it is already present.
+     *
+     * @return true if the key was not already present
+     */
+    boolean add(long nowMillis, long mostSignificantBits, long leastSignificantBits);
+
+    /**
+     * Number of times {@link #add} found a key already present.
+     */
+    long getDuplicates();
+
+    long getAllocatedBytes();
+}
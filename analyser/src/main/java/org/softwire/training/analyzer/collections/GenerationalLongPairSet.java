@@ -0,0 +1,307 @@
+package org.softwire.training.analyzer.collections;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+
+/**
+ * A set of 128 bit keys, such as UUIDs, each of which is forgotten a fixed time to live after it was added.
+ * <p>
+ * Keys are held in a ring of generations, each an open addressing table of primitive longs covering one slice of time
+ * (timeToLive / (generations - 1)).  New keys go into the current generation, and once the ring comes back round to a
+ * generation every key in it has expired, so it is dropped in one go rather than key by key.  Each key also keeps its
+ * own expiry time, so a key is forgotten exactly timeToLive after it was added, not at the end of its slice.
+ * <p>
+ * The tables together never take more than maxSlots slots (24 bytes each).  What happens when that isn't enough to
+ * hold every key for timeToLive is up to the {@link OverflowPolicy}: either way some duplicates will get through.
+ * <p>
+ * Not thread safe.
+ */
+public class GenerationalLongPairSet implements ExpiringLongPairSet {
+    public static final int BYTES_PER_SLOT = 3 * Long.BYTES;
+    private static final int MINIMUM_CAPACITY = 16;
+
+    private final long timeToLiveMillis;
+    private final long sliceMillis;
+    private final long maxSlots;
+    private final OverflowPolicy overflowPolicy;
+    private final Generation[] generations;
+
+    private int current;
+    private long currentSlice = Long.MIN_VALUE;
+    private long allocatedSlots;
+
+    private long size;
+    private long duplicates;
+    private long expired;
+    private long evicted;
+    private long untracked;
+
+    public GenerationalLongPairSet(long timeToLiveMillis,
+                                   int generations,
+                                   long maxSlots,
+                                   OverflowPolicy overflowPolicy) {
+        if (generations < 2) {
+            throw new IllegalArgumentException("GenerationalLongPairSet needs at least two generations");
+        }
+        if (maxSlots < (long) generations * MINIMUM_CAPACITY) {
+            throw new IllegalArgumentException("GenerationalLongPairSet maxSlots is too small for " + generations
+                    + " generations");
+        }
+        this.timeToLiveMillis = timeToLiveMillis;
+        // Rounded up, so that a generation's keys have all expired by the time the ring comes back round to it
+        this.sliceMillis = Math.max(1, (timeToLiveMillis + generations - 2) / (generations - 1));
+        this.maxSlots = maxSlots;
+        this.overflowPolicy = overflowPolicy;
+        this.generations = new Generation[generations];
+        for (int i = 0; i < generations; i++) {
+            this.generations[i] = new Generation(MINIMUM_CAPACITY);
+            allocatedSlots += MINIMUM_CAPACITY;
+        }
+    }
+
+    /**
+     * Add a key, unless it was already added less than timeToLive ago.
+     *
+     * @return true if the key was not already present
+     */
+    @Override
+    public boolean add(long nowMillis, long mostSignificantBits, long leastSignificantBits) {
+        advanceTo(nowMillis);
+
+        long hash = LongHashing.mix(mostSignificantBits, leastSignificantBits);
+        // Newest first, as that is where duplicates are most likely to be
+        for (int i = 0; i < generations.length; i++) {
+            Generation generation = generations[Math.floorMod(current - i, generations.length)];
+            if (generation.containsUnexpired(hash, mostSignificantBits, leastSignificantBits, nowMillis)) {
+                duplicates++;
+                return false;
+            }
+        }
+
+        Generation generation = generations[current];
+        if (!generation.hasRoom() && !makeRoom()) {
+            untracked++;
+            return true;
+        }
+        generation.insert(hash, mostSignificantBits, leastSignificantBits, nowMillis + timeToLiveMillis);
+        size++;
+        return true;
+    }
+
+    /**
+     * Drop every generation whose keys have all expired by now.
+     */
+    private void advanceTo(long nowMillis) {
+        long slice = Math.floorDiv(nowMillis, sliceMillis);
+        if (slice <= currentSlice) {
+            return;
+        }
+        long steps = currentSlice == Long.MIN_VALUE ? generations.length : slice - currentSlice;
+        for (long step = 0; step < Math.min(steps, generations.length); step++) {
+            current = (current + 1) % generations.length;
+            expired += generations[current].size;
+            drop(generations[current]);
+        }
+        currentSlice = slice;
+    }
+
+    /**
+     * Grow the current generation, or failing that apply the overflow policy.
+     *
+     * @return false if there is no room for another key in the current generation
+     */
+    private boolean makeRoom() {
+        Generation generation = generations[current];
+        while (allocatedSlots + generation.capacity() > maxSlots) {
+            if (overflowPolicy == OverflowPolicy.SKIP_NEW || !evictOldest()) {
+                break;
+            }
+        }
+        if (allocatedSlots + generation.capacity() <= maxSlots) {
+            allocatedSlots += generation.capacity();
+            generation.resize(2 * generation.capacity());
+            return true;
+        }
+        if (generation.hasRoomWhenFull()) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.EVICT_OLDEST) {
+            // Nothing older left to evict, so start the current generation again
+            evicted += generation.size;
+            drop(generation);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Evict the oldest generation, other than the current one, which holds more than the minimum amount of memory.
+     *
+     * @return false if there was nothing to evict
+     */
+    private boolean evictOldest() {
+        // The generation after the current one is the oldest
+        for (int i = 1; i < generations.length; i++) {
+            Generation generation = generations[(current + i) % generations.length];
+            if (generation.capacity() > MINIMUM_CAPACITY) {
+                evicted += generation.size;
+                drop(generation);
+                allocatedSlots -= generation.capacity() - MINIMUM_CAPACITY;
+                generation.allocate(MINIMUM_CAPACITY);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void drop(Generation generation) {
+        size -= generation.size;
+        generation.clear();
+    }
+
+    /**
+     * Number of keys held, including any which have expired but whose generation has not been dropped yet.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Number of times {@link #add} found a key already present.
+     */
+    @Override
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Number of keys dropped because their time to live was up.
+     */
+    public long getExpired() {
+        return expired;
+    }
+
+    /**
+     * Number of keys dropped early to stay within maxSlots.
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    /**
+     * Number of keys which were not added at all to stay within maxSlots.
+     */
+    public long getUntracked() {
+        return untracked;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return allocatedSlots * BYTES_PER_SLOT;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("size", size)
+                .add("allocatedBytes", getAllocatedBytes())
+                .add("duplicates", duplicates)
+                .add("expired", expired)
+                .add("evicted", evicted)
+                .add("untracked", untracked)
+                .toString();
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest keys to make room for new ones, so that duplicates are caught over a shorter window.
+         */
+        EVICT_OLDEST,
+        /**
+         * Keep the keys already held, and stop remembering new ones until some expire.
+         */
+        SKIP_NEW
+    }
+
+    /**
+     * An open addressing table with linear probing.  Keys are never removed individually, so there are no tombstones.
+     */
+    private static class Generation {
+        // Each slot uses keys[2 * slot] and keys[2 * slot + 1].  A slot is empty if its expiry is 0: keys are only ever
+        // added with an expiry after the epoch.
+        private long[] keys;
+        private long[] expiries;
+        private int mask;
+        private int size;
+
+        Generation(int capacity) {
+            allocate(capacity);
+        }
+
+        int capacity() {
+            return expiries.length;
+        }
+
+        // Keep the load factor at or below a half so that probe sequences stay short...
+        boolean hasRoom() {
+            return 2 * (size + 1) <= expiries.length;
+        }
+
+        // ...unless we aren't allowed any more memory, in which case go up to three quarters.
+        boolean hasRoomWhenFull() {
+            return 4 * (size + 1) <= 3 * expiries.length;
+        }
+
+        boolean containsUnexpired(long hash, long mostSignificantBits, long leastSignificantBits, long nowMillis) {
+            if (size == 0) {
+                return false;
+            }
+            int slot = (int) hash & mask;
+            while (expiries[slot] != 0) {
+                if (keys[2 * slot] == mostSignificantBits && keys[2 * slot + 1] == leastSignificantBits) {
+                    return nowMillis <= expiries[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        void insert(long hash, long mostSignificantBits, long leastSignificantBits, long expiry) {
+            int slot = (int) hash & mask;
+            while (expiries[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[2 * slot] = mostSignificantBits;
+            keys[2 * slot + 1] = leastSignificantBits;
+            expiries[slot] = expiry;
+            size++;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(expiries, 0);
+                size = 0;
+            }
+        }
+
+        void resize(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldExpiries = expiries;
+            allocate(capacity);
+            for (int slot = 0; slot < oldExpiries.length; slot++) {
+                if (oldExpiries[slot] != 0) {
+                    long hash = LongHashing.mix(oldKeys[2 * slot], oldKeys[2 * slot + 1]);
+                    insert(hash, oldKeys[2 * slot], oldKeys[2 * slot + 1], oldExpiries[slot]);
+                }
+            }
+        }
+
+        void allocate(int capacity) {
+            keys = new long[2 * capacity];
+            expiries = new long[capacity];
+            mask = capacity - 1;
+            size = 0;
+        }
+    }
+}
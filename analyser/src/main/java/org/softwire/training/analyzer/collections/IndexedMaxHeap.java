@@ -0,0 +1,105 @@
+package org.softwire.training.analyzer.collections;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * A max heap of the items 0 to size - 1, ordered by a priority which is looked up rather than stored, so that when an
+ * item's priority changes it can be moved to its new place in O(log n) instead of being removed and added again.
+ * <p>
+ * Not thread safe.
+ */
+public class IndexedMaxHeap {
+    private final IntToDoubleFunction priority;
+
+    private final int[] heap;
+    // Where each item is in heap, or -1 if it isn't
+    private final int[] positions;
+    private int size;
+
+    public IndexedMaxHeap(int capacity, IntToDoubleFunction priority) {
+        this.priority = priority;
+        heap = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the item with the highest priority, or -1 if the heap is empty
+     */
+    public int peek() {
+        return size == 0 ? -1 : heap[0];
+    }
+
+    /**
+     * Add the item if it isn't in the heap, otherwise restore the heap order after the item's priority has changed.
+     */
+    public void update(int item) {
+        int position = positions[item];
+        if (position < 0) {
+            position = size++;
+            place(item, position);
+            siftUp(position);
+        } else if (!siftUp(position)) {
+            siftDown(position);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    // Returns whether the item moved
+    private boolean siftUp(int position) {
+        int item = heap[position];
+        double itemPriority = priority.applyAsDouble(item);
+        int start = position;
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (priority.applyAsDouble(heap[parent]) >= itemPriority) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(item, position);
+        return position != start;
+    }
+
+    private void siftDown(int position) {
+        int item = heap[position];
+        double itemPriority = priority.applyAsDouble(item);
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            double childPriority = priority.applyAsDouble(heap[child]);
+            if (child + 1 < size) {
+                double rightPriority = priority.applyAsDouble(heap[child + 1]);
+                if (rightPriority > childPriority) {
+                    child++;
+                    childPriority = rightPriority;
+                }
+            }
+            if (itemPriority >= childPriority) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(item, position);
+    }
+
+    private void place(int item, int position) {
+        heap[position] = item;
+        positions[item] = position;
+    }
+}
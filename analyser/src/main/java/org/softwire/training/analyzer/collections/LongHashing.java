@@ -0,0 +1,28 @@
+package org.softwire.training.analyzer.collections;
+
+/**
+ * Hash functions for keys which are stored as primitive longs, so that we never need to box them.
+ */
+public final class LongHashing {
+    private LongHashing() {
+    }
+
+    /**
+     * The MurmurHash3 64 bit finaliser: every bit of the input affects every bit of the output.
+     */
+    public static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * Hash of a 128 bit key such as a UUID.
+     */
+    public static long mix(long mostSignificantBits, long leastSignificantBits) {
+        return mix(mostSignificantBits ^ mix(leastSignificantBits));
+    }
+}
@@ -0,0 +1,115 @@
+package org.softwire.training.analyzer.collections;
+
+import java.util.Arrays;
+
+/**
+ * Numbers 128 bit keys, such as UUIDs, densely from 0 in the order they are added, so that per-key state can be held
+ * in flat arrays indexed by key number rather than in maps of objects.
+ * <p>
+ * Uses open addressing with linear probing.  Keys can't be removed.
+ * <p>
+ * Not thread safe.
+ */
+public class LongPairIndex {
+    private static final int MINIMUM_CAPACITY = 16;
+
+    // Each slot uses keys[2 * slot] and keys[2 * slot + 1], and holds its key's number plus one, so 0 means empty.
+    private long[] keys;
+    private int[] numbers;
+    private int mask;
+
+    // The keys in number order
+    private long[] mostSignificantBits;
+    private long[] leastSignificantBits;
+    private int size;
+
+    public LongPairIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+        mostSignificantBits = new long[Math.max(expectedSize, 1)];
+        leastSignificantBits = new long[Math.max(expectedSize, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the key's number, or -1 if it hasn't been added
+     */
+    public int indexOf(long mostSignificantBits, long leastSignificantBits) {
+        int slot = slotFor(mostSignificantBits, leastSignificantBits);
+        while (numbers[slot] != 0) {
+            if (keys[2 * slot] == mostSignificantBits && keys[2 * slot + 1] == leastSignificantBits) {
+                return numbers[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the key's number, which is the next one free if it wasn't already present
+     */
+    public int add(long mostSignificantBits, long leastSignificantBits) {
+        int existing = indexOf(mostSignificantBits, leastSignificantBits);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (size == this.mostSignificantBits.length) {
+            this.mostSignificantBits = Arrays.copyOf(this.mostSignificantBits, 2 * size);
+            this.leastSignificantBits = Arrays.copyOf(this.leastSignificantBits, 2 * size);
+        }
+        this.mostSignificantBits[size] = mostSignificantBits;
+        this.leastSignificantBits[size] = leastSignificantBits;
+        size++;
+        insert(mostSignificantBits, leastSignificantBits, size);
+        if (2 * size > numbers.length) {
+            resize(2 * numbers.length);
+        }
+        return size - 1;
+    }
+
+    public long getMostSignificantBits(int index) {
+        return mostSignificantBits[index];
+    }
+
+    public long getLeastSignificantBits(int index) {
+        return leastSignificantBits[index];
+    }
+
+    private void insert(long mostSignificantBits, long leastSignificantBits, int number) {
+        int slot = slotFor(mostSignificantBits, leastSignificantBits);
+        while (numbers[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[2 * slot] = mostSignificantBits;
+        keys[2 * slot + 1] = leastSignificantBits;
+        numbers[slot] = number;
+    }
+
+    private int slotFor(long mostSignificantBits, long leastSignificantBits) {
+        return (int) LongHashing.mix(mostSignificantBits, leastSignificantBits) & mask;
+    }
+
+    private void resize(int capacity) {
+        allocate(capacity);
+        for (int i = 0; i < size; i++) {
+            insert(mostSignificantBits[i], leastSignificantBits[i], i + 1);
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[2 * capacity];
+        numbers = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    static int capacityFor(int expectedSize) {
+        // Keep the load factor at or below a half so that probe sequences stay short.
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,161 @@
+package org.softwire.training.analyzer.collections;
+
+import com.google.common.base.MoreObjects;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size, probabilistic {@link ExpiringLongPairSet}: it never misses a key added within the time to live, but
+ * may mistake a new key for one it has seen.
+ * <p>
+ * Keys go into a ring of Bloom filters, each covering one slice of time (timeToLive / (generations - 1)) like the
+ * generations of {@link GenerationalLongPairSet}, and the oldest filter is cleared whenever the ring moves on.  A key
+ * is therefore remembered for between timeToLive and one slice longer.
+ * <p>
+ * The filters share maxBytes between them, and the number of hash functions is chosen so that a key checked against
+ * every filter is wrongly found with probability falsePositiveRate, provided no filter gets more than
+ * {@link #getCapacityPerSlice} keys.  Beyond that the filters still work but the false positive rate climbs, which
+ * {@link #getEstimatedFalsePositiveRate} tracks from how many bits are actually set.
+ * <p>
+ * Not thread safe.
+ */
+public class RotatingBloomFilter implements ExpiringLongPairSet {
+    private static final double LN_2 = Math.log(2);
+
+    private final long sliceMillis;
+    private final double falsePositiveRate;
+    private final int hashes;
+    private final long bitsPerFilter;
+    private final long capacityPerSlice;
+    private final long[][] filters;
+    private final long[] bitsSet;
+
+    private int current;
+    private long currentSlice = Long.MIN_VALUE;
+    private long duplicates;
+
+    public RotatingBloomFilter(long timeToLiveMillis, int generations, long maxBytes, double falsePositiveRate) {
+        if (generations < 2) {
+            throw new IllegalArgumentException("RotatingBloomFilter needs at least two generations");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("RotatingBloomFilter falsePositiveRate must be between 0 and 1");
+        }
+        // A power of two, so bit indexes can be masked rather than divided
+        bitsPerFilter = Long.highestOneBit(8 * maxBytes / generations);
+        if (bitsPerFilter < Long.SIZE || bitsPerFilter / Long.SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("RotatingBloomFilter maxBytes is out of range for " + generations
+                    + " generations");
+        }
+        this.sliceMillis = Math.max(1, (timeToLiveMillis + generations - 2) / (generations - 1));
+        this.falsePositiveRate = falsePositiveRate;
+
+        // A key is checked against every filter, so each needs a lower rate for the total to come out right
+        double filterRate = 1 - Math.pow(1 - falsePositiveRate, 1.0 / generations);
+        hashes = Math.max(1, (int) Math.round(-Math.log(filterRate) / LN_2));
+        capacityPerSlice = (long) (bitsPerFilter * LN_2 * LN_2 / -Math.log(filterRate));
+
+        filters = new long[generations][(int) (bitsPerFilter / Long.SIZE)];
+        bitsSet = new long[generations];
+    }
+
+    /**
+     * Add a key, unless it is probably already present.
+     *
+     * @return true if the key was definitely not already present
+     */
+    @Override
+    public boolean add(long nowMillis, long mostSignificantBits, long leastSignificantBits) {
+        advanceTo(nowMillis);
+
+        // Double hashing: the i-th hash is hash1 + i * hash2, odd so that it visits every bit
+        long hash1 = LongHashing.mix(mostSignificantBits, leastSignificantBits);
+        long hash2 = LongHashing.mix(hash1) | 1;
+        for (int i = 0; i < filters.length; i++) {
+            if (mightContain(filters[Math.floorMod(current - i, filters.length)], hash1, hash2)) {
+                duplicates++;
+                return false;
+            }
+        }
+
+        long[] filter = filters[current];
+        long mask = bitsPerFilter - 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash1 + i * hash2) & mask;
+            int word = (int) (bit >>> 6);
+            long before = filter[word];
+            filter[word] = before | (1L << bit);
+            if (filter[word] != before) {
+                bitsSet[current]++;
+            }
+        }
+        return true;
+    }
+
+    private boolean mightContain(long[] filter, long hash1, long hash2) {
+        long mask = bitsPerFilter - 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = (hash1 + i * hash2) & mask;
+            if ((filter[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void advanceTo(long nowMillis) {
+        long slice = Math.floorDiv(nowMillis, sliceMillis);
+        if (slice <= currentSlice) {
+            return;
+        }
+        long steps = currentSlice == Long.MIN_VALUE ? filters.length : slice - currentSlice;
+        for (long step = 0; step < Math.min(steps, filters.length); step++) {
+            current = (current + 1) % filters.length;
+            if (bitsSet[current] > 0) {
+                Arrays.fill(filters[current], 0);
+                bitsSet[current] = 0;
+            }
+        }
+        currentSlice = slice;
+    }
+
+    /**
+     * The probability that a new key would be mistaken for one already present, given how full the filters are now.
+     */
+    public double getEstimatedFalsePositiveRate() {
+        double allMiss = 1;
+        for (long set : bitsSet) {
+            allMiss *= 1 - Math.pow((double) set / bitsPerFilter, hashes);
+        }
+        return 1 - allMiss;
+    }
+
+    /**
+     * How many keys each slice of time can take before the false positive rate goes above the target.
+     */
+    public long getCapacityPerSlice() {
+        return capacityPerSlice;
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return filters.length * bitsPerFilter / Byte.SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("allocatedBytes", getAllocatedBytes())
+                .add("hashes", hashes)
+                .add("capacityPerSlice", capacityPerSlice)
+                .add("targetFalsePositiveRate", falsePositiveRate)
+                .add("estimatedFalsePositiveRate", getEstimatedFalsePositiveRate())
+                .add("duplicates", duplicates)
+                .toString();
+    }
+}
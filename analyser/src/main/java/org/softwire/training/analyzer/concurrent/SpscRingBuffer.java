@@ -0,0 +1,114 @@
+package org.softwire.training.analyzer.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A bounded queue between exactly one producer thread and one consumer thread, whose slots are allocated up front and
+ * reused, so that passing an item along allocates nothing.
+ * <p>
+ * The producer calls {@link #tryClaim()}, fills in the slot it gets back, then calls {@link #publish()}.  The
+ * consumer calls {@link #poll()}, reads the slot, then calls {@link #release()} so that the slot can be reused.
+ * Neither side ever blocks: when there is no space or no data they get null, and decide how to wait (see
+ * {@link WaitStrategy}).
+ * <p>
+ * Each side keeps a cached copy of the other side's sequence and only re-reads the shared one when the cache says
+ * the buffer is full or empty, which keeps the cache line traffic between the two threads down.
+ */
+public class SpscRingBuffer<T> {
+    private final Object[] slots;
+    private final int mask;
+
+    // Sequence of the next slot to publish, written only by the producer
+    private final Sequence head = new Sequence();
+    // Sequence of the next slot to release, written only by the consumer
+    private final Sequence tail = new Sequence();
+
+    // Only touched by the producer
+    private long producerSequence = 0;
+    private long cachedTail = 0;
+
+    // Only touched by the consumer
+    private long consumerSequence = 0;
+    private long cachedHead = 0;
+
+    public SpscRingBuffer(int capacity, Supplier<T> slotFactory) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring buffer capacity must be a power of two, was " + capacity);
+        }
+        slots = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = slotFactory.get();
+        }
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Approximate number of published slots which haven't been released yet.  Safe to call from any thread.
+     */
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return the next slot to fill in, or null if the buffer is full
+     */
+    @SuppressWarnings("unchecked")
+    public T tryClaim() {
+        if (producerSequence - cachedTail >= slots.length) {
+            cachedTail = tail.get();
+            if (producerSequence - cachedTail >= slots.length) {
+                return null;
+            }
+        }
+        return (T) slots[(int) producerSequence & mask];
+    }
+
+    /**
+     * Producer only.  Makes the slot returned by the last {@link #tryClaim()} visible to the consumer.
+     */
+    public void publish() {
+        producerSequence++;
+        head.lazySet(producerSequence);
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the oldest published slot, or null if there isn't one
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        if (consumerSequence >= cachedHead) {
+            cachedHead = head.get();
+            if (consumerSequence >= cachedHead) {
+                return null;
+            }
+        }
+        return (T) slots[(int) consumerSequence & mask];
+    }
+
+    /**
+     * Consumer only.  Hands the slot returned by the last {@link #poll()} back to the producer.
+     */
+    public void release() {
+        consumerSequence++;
+        tail.lazySet(consumerSequence);
+    }
+
+    /**
+     * Padded so that head and tail don't end up on the same cache line as each other or other hot fields.
+     */
+    @SuppressWarnings("unused")
+    private static class Sequence extends AtomicLong {
+        private static final long serialVersionUID = 1L;
+
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
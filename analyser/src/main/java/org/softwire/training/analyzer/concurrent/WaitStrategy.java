@@ -0,0 +1,50 @@
+package org.softwire.training.analyzer.concurrent;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a thread does while it waits for a {@link SpscRingBuffer} to have space or data.  Trades latency against CPU:
+ * busy spinning reacts fastest but burns a whole core, parking costs some latency but leaves the core idle.
+ */
+public enum WaitStrategy {
+    BUSY_SPIN {
+        @Override
+        void pause(int idleCount) {
+        }
+    },
+    YIELDING {
+        @Override
+        void pause(int idleCount) {
+            if (idleCount > SPIN_LIMIT) {
+                Thread.yield();
+            }
+        }
+    },
+    PARKING {
+        @Override
+        void pause(int idleCount) {
+            if (idleCount > YIELD_LIMIT) {
+                LockSupport.parkNanos(PARK_NANOS);
+            } else if (idleCount > SPIN_LIMIT) {
+                Thread.yield();
+            }
+        }
+    };
+
+    private static final int SPIN_LIMIT = 100;
+    private static final int YIELD_LIMIT = 200;
+    private static final long PARK_NANOS = 50_000;
+
+    /**
+     * Wait a little.
+     *
+     * @param idleCount the number of times the caller has found nothing to do in a row
+     * @return the idle count to pass next time
+     */
+    public int idle(int idleCount) {
+        pause(idleCount);
+        return idleCount + 1;
+    }
+
+    abstract void pause(int idleCount);
+}
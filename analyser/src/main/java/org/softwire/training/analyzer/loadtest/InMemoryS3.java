@@ -0,0 +1,71 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-process stand-in for the S3 calls made by the analyser.  Objects are held in memory as byte arrays, and their
+ * ETag is their content's MD5, as for S3 objects not uploaded in parts.
+ */
+public class InMemoryS3 extends AbstractAmazonS3 {
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public PutObjectResult putObject(String bucketName, String key, String content) {
+        objects.put(bucketName + "/" + key, content.getBytes(StandardCharsets.UTF_8));
+        return new PutObjectResult();
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest request) {
+        byte[] content = objects.get(request.getBucketName() + "/" + request.getKey());
+        if (content == null) {
+            AmazonS3Exception exception = new AmazonS3Exception("The specified key does not exist.");
+            exception.setStatusCode(404);
+            exception.setErrorCode("NoSuchKey");
+            throw exception;
+        }
+        String etag = etagOf(content);
+        List<String> nonmatchingETags = request.getNonmatchingETagConstraints();
+        if (nonmatchingETags != null && nonmatchingETags.contains(etag)) {
+            // As the real client does when S3 answers 304 Not Modified
+            return null;
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        metadata.setHeader("ETag", etag);
+
+        S3Object object = new S3Object();
+        object.setBucketName(request.getBucketName());
+        object.setKey(request.getKey());
+        object.setObjectMetadata(metadata);
+        object.setObjectContent(new ByteArrayInputStream(content));
+        return object;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    private static String etagOf(byte[] content) {
+        try {
+            return BaseEncoding.base16().lowerCase().encode(MessageDigest.getInstance("MD5").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.amazonaws.services.sns.AbstractAmazonSNS;
+import com.amazonaws.services.sns.model.NotFoundException;
+import com.amazonaws.services.sns.model.PublishRequest;
+import com.amazonaws.services.sns.model.PublishResult;
+import com.amazonaws.services.sns.model.SubscribeRequest;
+import com.amazonaws.services.sns.model.SubscribeResult;
+import com.amazonaws.services.sns.model.UnsubscribeRequest;
+import com.amazonaws.services.sns.model.UnsubscribeResult;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the SNS calls made by the analyser and the load test.  Published messages are wrapped in
+ * a notification envelope, as SNS does, and sent straight to every subscribed {@link InMemorySqs} queue.
+ */
+public class InMemorySns extends AbstractAmazonSNS {
+    private final InMemorySqs sqs;
+    // Subscription ARN to subscription
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final AtomicLong nextMessageId = new AtomicLong();
+
+    public InMemorySns(InMemorySqs sqs) {
+        this.sqs = sqs;
+    }
+
+    @Override
+    public SubscribeResult subscribe(SubscribeRequest request) {
+        if (!"sqs".equals(request.getProtocol())) {
+            throw new UnsupportedOperationException("Only sqs subscriptions are supported");
+        }
+        String subscriptionArn = request.getTopicArn() + ":" + UUID.randomUUID();
+        subscriptions.put(subscriptionArn, new Subscription(request.getTopicArn(), request.getEndpoint()));
+        return new SubscribeResult().withSubscriptionArn(subscriptionArn);
+    }
+
+    @Override
+    public UnsubscribeResult unsubscribe(UnsubscribeRequest request) {
+        if (subscriptions.remove(request.getSubscriptionArn()) == null) {
+            throw new NotFoundException("No such subscription: " + request.getSubscriptionArn());
+        }
+        return new UnsubscribeResult();
+    }
+
+    @Override
+    public PublishResult publish(PublishRequest request) {
+        String messageId = Long.toString(nextMessageId.incrementAndGet());
+        String envelope = "{" +
+                "\"Type\":\"Notification\"," +
+                "\"MessageId\":\"" + messageId + "\"," +
+                "\"TopicArn\":\"" + request.getTopicArn() + "\"," +
+                "\"Message\":\"" + new String(JsonStringEncoder.getInstance().quoteAsString(request.getMessage())) + "\"," +
+                "\"Timestamp\":\"" + Instant.now() + "\"" +
+                "}";
+        for (Subscription subscription : subscriptions.values()) {
+            if (subscription.topicArn.equals(request.getTopicArn())) {
+                sqs.sendToArn(subscription.queueArn, envelope);
+            }
+        }
+        return new PublishResult().withMessageId(messageId);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    public boolean hasSubscribers(String topicArn) {
+        return subscriptions.values().stream().anyMatch(subscription -> subscription.topicArn.equals(topicArn));
+    }
+
+    private static class Subscription {
+        final String topicArn;
+        final String queueArn;
+
+        Subscription(String topicArn, String queueArn) {
+            this.topicArn = topicArn;
+            this.queueArn = queueArn;
+        }
+    }
+}
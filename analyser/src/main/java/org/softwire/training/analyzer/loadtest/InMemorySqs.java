@@ -0,0 +1,253 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.amazonaws.services.sqs.AbstractAmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueResult;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.SetQueueAttributesResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the SQS calls made by the analyser, for load testing without AWS.
+ * <p>
+ * Supports long polling and visibility timeouts: a received message stays invisible until it is deleted or its
+ * visibility timeout expires, at which point it can be received again.  Anything not listed here throws
+ * UnsupportedOperationException.
+ */
+public class InMemorySqs extends AbstractAmazonSQS {
+    private static final String URL_PREFIX = "https://sqs.in-memory/";
+    private static final String ARN_PREFIX = "arn:aws:sqs:in-memory:000000000000:";
+    private static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 30;
+    // Long polls wake up this often to return messages whose visibility timeout has expired.
+    private static final long POLL_SLICE_MILLIS = 100;
+    private static final long EXPIRY_SCAN_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Queue> queuesByUrl = new ConcurrentHashMap<>();
+    private final Map<String, Queue> queuesByArn = new ConcurrentHashMap<>();
+    private final AtomicLong nextMessageId = new AtomicLong();
+
+    @Override
+    public CreateQueueResult createQueue(CreateQueueRequest request) {
+        Queue queue = queuesByUrl.computeIfAbsent(URL_PREFIX + request.getQueueName(),
+                url -> new Queue(url, ARN_PREFIX + request.getQueueName()));
+        queuesByArn.put(queue.arn, queue);
+        return new CreateQueueResult().withQueueUrl(queue.url);
+    }
+
+    @Override
+    public DeleteQueueResult deleteQueue(DeleteQueueRequest request) {
+        Queue queue = queuesByUrl.remove(request.getQueueUrl());
+        if (queue != null) {
+            queuesByArn.remove(queue.arn);
+        }
+        return new DeleteQueueResult();
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+        Queue queue = getQueue(request.getQueueUrl());
+        Map<String, String> attributes = new HashMap<>();
+        for (String name : request.getAttributeNames()) {
+            switch (name) {
+                case "QueueArn":
+                    attributes.put(name, queue.arn);
+                    break;
+                case "ApproximateNumberOfMessages":
+                    attributes.put(name, Integer.toString(queue.visible.size()));
+                    break;
+                case "ApproximateNumberOfMessagesNotVisible":
+                    attributes.put(name, Integer.toString(queue.inFlight.size()));
+                    break;
+                default:
+                    // Includes Policy, which we don't keep.
+                    break;
+            }
+        }
+        return new GetQueueAttributesResult().withAttributes(attributes);
+    }
+
+    @Override
+    public SetQueueAttributesResult setQueueAttributes(SetQueueAttributesRequest request) {
+        // Only used to set the access policy, which means nothing here.
+        getQueue(request.getQueueUrl());
+        return new SetQueueAttributesResult();
+    }
+
+    @Override
+    public SendMessageResult sendMessage(SendMessageRequest request) {
+        String messageId = send(getQueue(request.getQueueUrl()), request.getMessageBody());
+        return new SendMessageResult().withMessageId(messageId);
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        Queue queue = getQueue(request.getQueueUrl());
+        int maxNumberOfMessages = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        int waitTimeSeconds = request.getWaitTimeSeconds() == null ? 0 : request.getWaitTimeSeconds();
+        int visibilityTimeoutSeconds = request.getVisibilityTimeout() == null
+                ? DEFAULT_VISIBILITY_TIMEOUT_SECONDS
+                : request.getVisibilityTimeout();
+
+        List<StoredMessage> received = new ArrayList<>(maxNumberOfMessages);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTimeSeconds);
+        try {
+            while (true) {
+                queue.returnExpiredMessages();
+                long remaining = deadline - System.nanoTime();
+                StoredMessage first = queue.visible.poll(
+                        Math.max(0, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(POLL_SLICE_MILLIS))),
+                        TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    received.add(first);
+                    queue.visible.drainTo(received, maxNumberOfMessages - 1);
+                    break;
+                }
+                if (remaining <= 0) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<Message> messages = new ArrayList<>(received.size());
+        for (StoredMessage message : received) {
+            messages.add(queue.markInFlight(message, visibilityTimeoutSeconds));
+        }
+        return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        Queue queue = getQueue(request.getQueueUrl());
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (DeleteMessageBatchRequestEntry entry : request.getEntries()) {
+            if (queue.inFlight.remove(entry.getReceiptHandle()) != null) {
+                successful.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+            } else {
+                failed.add(new BatchResultErrorEntry()
+                        .withId(entry.getId())
+                        .withCode("ReceiptHandleIsInvalid")
+                        .withSenderFault(true));
+            }
+        }
+        return new DeleteMessageBatchResult().withSuccessful(successful).withFailed(failed);
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    /**
+     * Used by {@link InMemorySns} to deliver notifications to subscribed queues.
+     *
+     * @return false if there is no such queue
+     */
+    boolean sendToArn(String queueArn, String body) {
+        Queue queue = queuesByArn.get(queueArn);
+        if (queue == null) {
+            return false;
+        }
+        send(queue, body);
+        return true;
+    }
+
+    private String send(Queue queue, String body) {
+        String messageId = Long.toString(nextMessageId.incrementAndGet());
+        queue.visible.add(new StoredMessage(messageId, body));
+        return messageId;
+    }
+
+    private Queue getQueue(String queueUrl) {
+        Queue queue = queuesByUrl.get(queueUrl);
+        if (queue == null) {
+            throw new QueueDoesNotExistException("No such queue: " + queueUrl);
+        }
+        return queue;
+    }
+
+    private static class Queue {
+        final String url;
+        final String arn;
+        final LinkedBlockingDeque<StoredMessage> visible = new LinkedBlockingDeque<>();
+        final Map<String, InFlightMessage> inFlight = new ConcurrentHashMap<>();
+        final AtomicLong nextReceiptHandle = new AtomicLong();
+        final AtomicLong nextExpiryScanNanos = new AtomicLong(System.nanoTime());
+
+        Queue(String url, String arn) {
+            this.url = url;
+            this.arn = arn;
+        }
+
+        Message markInFlight(StoredMessage message, int visibilityTimeoutSeconds) {
+            String receiptHandle = Long.toString(nextReceiptHandle.incrementAndGet());
+            long visibleAgainNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(visibilityTimeoutSeconds);
+            inFlight.put(receiptHandle, new InFlightMessage(message, visibleAgainNanos));
+            return new Message()
+                    .withMessageId(message.messageId)
+                    .withReceiptHandle(receiptHandle)
+                    .withBody(message.body);
+        }
+
+        /**
+         * Scans for expired messages at most once per EXPIRY_SCAN_INTERVAL_NANOS, rather than tracking each one with a
+         * timer: most messages are deleted long before their visibility timeout is up.
+         */
+        void returnExpiredMessages() {
+            long now = System.nanoTime();
+            long nextScan = nextExpiryScanNanos.get();
+            if (now - nextScan < 0 || !nextExpiryScanNanos.compareAndSet(nextScan, now + EXPIRY_SCAN_INTERVAL_NANOS)) {
+                return;
+            }
+            inFlight.forEach((receiptHandle, message) -> {
+                if (now - message.visibleAgainNanos >= 0 && inFlight.remove(receiptHandle, message)) {
+                    visible.addFirst(message.message);
+                }
+            });
+        }
+    }
+
+    private static class StoredMessage {
+        final String messageId;
+        final String body;
+
+        StoredMessage(String messageId, String body) {
+            this.messageId = messageId;
+            this.body = body;
+        }
+    }
+
+    private static class InFlightMessage {
+        final StoredMessage message;
+        final long visibleAgainNanos;
+
+        InFlightMessage(StoredMessage message, long visibleAgainNanos) {
+            this.message = message;
+            this.visibleAgainNanos = visibleAgainNanos;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.softwire.training.analyzer.loadtest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.metrics.WindowTracker;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.stats.LogLinearHistogram;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long each event took from being published by {@link SyntheticEventPublisher} to the first average
+ * covering it being written, using the publish time encoded in its id.
+ * <p>
+ * As a {@link WindowTracker}, each pipeline records to its own probe, which keeps how long before the end of its
+ * window each event was published in a {@link LogLinearHistogram} of fixed size, so recording takes no lock and doesn't
+ * allocate.  As a window's first average is written, the time since the window ended is added to every one of its
+ * events' ages, and the window merged into the totals for {@link #logSummary}.  Events whose averages aren't written
+ * before the analyser stops aren't counted.
+ */
+class LatencyRecorder extends WindowTracker<LatencyRecorder.Window> {
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyRecorder.class);
+    private static final int PRECISION_BITS = 7;
+
+    // The publish times are System.nanoTime(), so are compared with the windows' wall clock times by way of these
+    private final long startMillis;
+    private final long startNanos;
+
+    // Only touched as averages are written, then by logSummary once they all have been
+    private final Window totals = new Window();
+
+    LatencyRecorder(Aggregator.TypedConfig aggregatorConfig, Instant start, Clock wallClock) {
+        super(aggregatorConfig, start, wallClock);
+        startMillis = wallClock.millis();
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    protected Window newWindow() {
+        return new Window();
+    }
+
+    @Override
+    protected void reset(Window window) {
+        window.reset();
+    }
+
+    @Override
+    protected void add(Window window, long windowEnd, PackedEvent event, long wallMillis) {
+        window.latencies.add(windowEnd - toMillis(event.eventIdLeastSignificantBits));
+        window.firstMillis = Math.min(window.firstMillis, wallMillis);
+        window.lastMillis = Math.max(window.lastMillis, wallMillis);
+    }
+
+    @Override
+    protected void merge(Window into, Window from) {
+        into.latencies.merge(from.latencies);
+        into.firstMillis = Math.min(into.firstMillis, from.firstMillis);
+        into.lastMillis = Math.max(into.lastMillis, from.lastMillis);
+    }
+
+    @Override
+    protected void windowWritten(long windowEnd, Window window) {
+        totals.latencies.mergeShifted(window.latencies, toMillis(System.nanoTime()) - windowEnd);
+        totals.firstMillis = Math.min(totals.firstMillis, window.firstMillis);
+        totals.lastMillis = Math.max(totals.lastMillis, window.lastMillis);
+    }
+
+    void logSummary() {
+        long count = totals.latencies.getCount();
+        if (count == 0) {
+            LOG.info("No averages of events were written");
+            return;
+        }
+        double seconds = Math.max(1, totals.lastMillis - totals.firstMillis) / (double) TimeUnit.SECONDS.toMillis(1);
+
+        LOG.info("Events through pipeline into averages written: {} ({} events/s)",
+                count, String.format("%.0f", count / seconds));
+        LOG.info("Latency from publish to average written p50: {} ms, p99: {} ms, max: {} ms",
+                format(totals.latencies.getValueAtQuantile(0.5)),
+                format(totals.latencies.getValueAtQuantile(0.99)),
+                format(totals.latencies.getValueAtQuantile(1)));
+    }
+
+    /**
+     * A System.nanoTime() in milliseconds by the wall clock.
+     */
+    private double toMillis(long nanos) {
+        return startMillis + (nanos - startNanos) / 1e6;
+    }
+
+    private static String format(double millis) {
+        return String.format("%.3f", millis);
+    }
+
+    static class Window {
+        // How long before the end of the window each event was published, in milliseconds
+        final LogLinearHistogram latencies = new LogLinearHistogram(PRECISION_BITS);
+        // When the events got through the pipeline
+        long firstMillis;
+        long lastMillis;
+
+        Window() {
+            reset();
+        }
+
+        void reset() {
+            latencies.reset();
+            firstMillis = Long.MAX_VALUE;
+            lastMillis = Long.MIN_VALUE;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.Main;
+import org.softwire.training.analyzer.model.Location;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the whole analyser, as wired up by {@link Main}, against in-memory SQS, SNS and S3 while publishing synthetic
+ * events at a fixed rate, then reports throughput, latency and time spent in GC.
+ * <p>
+ * Settings come from the loadTest section of application.conf.  Its analyser section overrides the rest of the file
+ * for the analyser itself.
+ */
+public class LoadTest {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadTest.class);
+
+    public static void main(String[] args) throws Exception {
+        Config config = ConfigFactory.load();
+        TypedConfig loadTestConfig = TypedConfig.fromUntypedConfig(config.getConfig("loadTest"));
+        Config analyserConfig = config.getConfig("loadTest.analyser").withFallback(config);
+
+        Clock clock = Clock.systemUTC();
+        InMemorySqs sqs = new InMemorySqs();
+        InMemorySns sns = new InMemorySns(sqs);
+        InMemoryS3 s3 = new InMemoryS3();
+
+        List<Location> locations = createLocations(loadTestConfig.locations);
+        s3.putObject(
+                analyserConfig.getString("locations.s3Bucket"),
+                analyserConfig.getString("locations.s3Key"),
+                new ObjectMapper().writeValueAsString(locations));
+
+        String topicArn = analyserConfig.getString("receiver.snsTopicArn");
+        SyntheticEventPublisher publisher =
+                new SyntheticEventPublisher(loadTestConfig, sns, topicArn, locations, clock);
+        Thread publisherThread = new Thread(() -> {
+            // The analyser creates its queue and subscribes once it has started up
+            while (!sns.hasSubscribers(topicArn)) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            publisher.run();
+        }, "load-test-publisher");
+        publisherThread.setDaemon(true);
+
+        // Created by Main once it knows when its aggregators start
+        List<LatencyRecorder> latencyRecorders = new ArrayList<>();
+        GcTotals gcBefore = GcTotals.now();
+
+        publisherThread.start();
+        Main.run(new org.softwire.training.analyzer.application.TypedConfig(analyserConfig),
+                sqs,
+                sns,
+                s3,
+                clock,
+                Collections.singletonList((aggregatorConfig, start, wallClock) -> {
+                    LatencyRecorder latencyRecorder = new LatencyRecorder(aggregatorConfig, start, wallClock);
+                    latencyRecorders.add(latencyRecorder);
+                    return latencyRecorder;
+                }));
+        publisherThread.interrupt();
+        publisherThread.join();
+
+        GcTotals gcAfter = GcTotals.now();
+        publisher.logSummary();
+        latencyRecorders.forEach(LatencyRecorder::logSummary);
+        LOG.info("GC: {} collections, {} ms", gcAfter.count - gcBefore.count, gcAfter.timeMillis - gcBefore.timeMillis);
+    }
+
+    private static List<Location> createLocations(int count) {
+        Random random = new Random();
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Location(random.nextFloat() * 1000, random.nextFloat() * 1000, UUID.randomUUID()))
+                .collect(Collectors.toList());
+    }
+
+    private static class GcTotals {
+        final long count;
+        final long timeMillis;
+
+        GcTotals(long count, long timeMillis) {
+            this.count = count;
+            this.timeMillis = timeMillis;
+        }
+
+        static GcTotals now() {
+            long count = 0;
+            long timeMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                timeMillis += Math.max(0, gc.getCollectionTime());
+            }
+            return new GcTotals(count, timeMillis);
+        }
+    }
+
+    static class TypedConfig {
+        final long eventsPerSecond;
+        final long totalEvents;
+        final int locations;
+        final double duplicateFraction;
+        final double lateFraction;
+        final Duration maxLateness;
+        final double unknownLocationFraction;
+        final double invalidFraction;
+
+        TypedConfig(long eventsPerSecond,
+                    long totalEvents,
+                    int locations,
+                    double duplicateFraction,
+                    double lateFraction,
+                    Duration maxLateness,
+                    double unknownLocationFraction,
+                    double invalidFraction) {
+            if (duplicateFraction + lateFraction + unknownLocationFraction + invalidFraction > 1) {
+                throw new IllegalArgumentException("Load test fractions must not add up to more than 1");
+            }
+            this.eventsPerSecond = eventsPerSecond;
+            this.totalEvents = totalEvents;
+            this.locations = locations;
+            this.duplicateFraction = duplicateFraction;
+            this.lateFraction = lateFraction;
+            this.maxLateness = maxLateness;
+            this.unknownLocationFraction = unknownLocationFraction;
+            this.invalidFraction = invalidFraction;
+        }
+
+        static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getLong("eventsPerSecond"),
+                    config.getLong("totalEvents"),
+                    config.getInt("locations"),
+                    config.getDouble("duplicateFraction"),
+                    config.getDouble("lateFraction"),
+                    config.getDuration("maxLateness"),
+                    config.getDouble("unknownLocationFraction"),
+                    config.getDouble("invalidFraction"));
+        }
+    }
+}
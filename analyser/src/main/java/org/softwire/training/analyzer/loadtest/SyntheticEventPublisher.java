@@ -0,0 +1,124 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.amazonaws.services.sns.AmazonSNS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Location;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes synthetic events to an SNS topic at a steady rate, mixed with the sort of rubbish the real sensors send:
+ * duplicates, late events, events from unknown locations and messages which aren't valid JSON.
+ * <p>
+ * The least significant half of each event id is the {@link System#nanoTime()} at which it was first published, so
+ * that {@link LatencyRecorder} can work out how long the event took to get through the analyser.
+ */
+class SyntheticEventPublisher implements Runnable {
+    private static final Logger LOG = LoggerFactory.getLogger(SyntheticEventPublisher.class);
+
+    // How many recent messages to pick duplicates from
+    private static final int RECENT_MESSAGES = 1024;
+
+    private final LoadTest.TypedConfig config;
+    private final AmazonSNS sns;
+    private final String topicArn;
+    private final List<Location> locations;
+    private final Clock clock;
+    private final Random random = new Random();
+    private final String[] recentMessages = new String[RECENT_MESSAGES];
+
+    private long published = 0;
+    private long duplicates = 0;
+    private long late = 0;
+    private long unknownLocations = 0;
+    private long invalid = 0;
+
+    SyntheticEventPublisher(LoadTest.TypedConfig config,
+                            AmazonSNS sns,
+                            String topicArn,
+                            List<Location> locations,
+                            Clock clock) {
+        this.config = config;
+        this.sns = sns;
+        this.topicArn = topicArn;
+        this.locations = locations;
+        this.clock = clock;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        try {
+            while (published < config.totalEvents && !Thread.currentThread().isInterrupted()) {
+                long due = Math.min(config.totalEvents,
+                        (System.nanoTime() - start) * config.eventsPerSecond / TimeUnit.SECONDS.toNanos(1));
+                if (published >= due) {
+                    Thread.sleep(1);
+                    continue;
+                }
+                while (published < due) {
+                    sns.publish(topicArn, nextMessage());
+                    published++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOG.info("Published {} messages in {} ms", published,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    void logSummary() {
+        LOG.info("Published {} messages: {} duplicates, {} late, {} from unknown locations, {} invalid",
+                published, duplicates, late, unknownLocations, invalid);
+    }
+
+    private String nextMessage() {
+        double roll = random.nextDouble();
+        boolean unknownLocation = false;
+        boolean isLate = false;
+        if (roll < config.invalidFraction) {
+            invalid++;
+            return "{\"locationId\": \"" + UUID.randomUUID() + "\", \"eventId\": ";
+        } else if (roll < config.invalidFraction + config.duplicateFraction) {
+            String recent = recentMessages[random.nextInt(RECENT_MESSAGES)];
+            if (recent != null) {
+                duplicates++;
+                return recent;
+            }
+        } else if (roll < config.invalidFraction + config.duplicateFraction + config.unknownLocationFraction) {
+            unknownLocation = true;
+        } else if (roll < config.invalidFraction + config.duplicateFraction + config.unknownLocationFraction
+                + config.lateFraction) {
+            isLate = true;
+        }
+
+        UUID locationId;
+        if (unknownLocation) {
+            unknownLocations++;
+            locationId = UUID.randomUUID();
+        } else {
+            locationId = locations.get(random.nextInt(locations.size())).id;
+        }
+
+        long timestamp = clock.millis();
+        if (isLate) {
+            late++;
+            timestamp -= (long) (random.nextDouble() * config.maxLateness.toMillis());
+        }
+
+        String message = "{" +
+                "\"locationId\":\"" + locationId + "\"," +
+                "\"eventId\":\"" + new UUID(random.nextLong(), System.nanoTime()) + "\"," +
+                "\"value\":" + random.nextGaussian() + "," +
+                "\"timestamp\":" + timestamp +
+                "}";
+        recentMessages[random.nextInt(RECENT_MESSAGES)] = message;
+        return message;
+    }
+}
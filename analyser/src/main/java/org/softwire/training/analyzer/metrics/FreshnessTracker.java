@@ -0,0 +1,244 @@
+package org.softwire.training.analyzer.metrics;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.pipeline.Probe;
+import org.softwire.training.analyzer.stats.Accumulator;
+import org.softwire.training.analyzer.stats.AccumulatorArray;
+import org.softwire.training.analyzer.stats.LogLinearHistogram;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how stale the averages are, following each event from its sensor timestamp through to the average covering
+ * it being written:
+ * <ul>
+ * <li>sensor to receipt, from the event's timestamp to when the receiver got it off the queue,</li>
+ * <li>receipt to pipeline, from then until it had passed the location filter and deduplicator, as a {@link Probe},</li>
+ * <li>sensor to output, from the event's timestamp until the first average covering it was written, by watching the
+ * averages on their way to the {@link org.softwire.training.analyzer.services.AverageWriter}.</li>
+ * </ul>
+ * Each window of config.averagingPeriod has its own {@link LogLinearHistogram}s, and the sensor to receipt delay of
+ * every location is kept too.  As each window's first average is written, the window's percentiles and stalest
+ * locations are logged, and its histograms merged into the totals for the whole run.  Every event in a window is
+ * written at the same time, so sensor to output is recorded as the age at the end of the window, and the time from
+ * then until the write added to its percentiles.
+ * <p>
+ * Durations are by the wall clock in milliseconds, whatever the application.timeMode, so they only mean much if the
+ * sensors' clocks are close to ours.  Receipt to pipeline is as of when the pipeline's now last moved on, so may be
+ * up to a millisecond, or a batch, short.  Events without a receipt time, from a replay or the Event based STANDARD
+ * mode, only count towards sensor to output.
+ * <p>
+ * Each pipeline needs its own {@link #newProbe() probe}, see {@link WindowTracker}.
+ */
+public class FreshnessTracker extends WindowTracker<FreshnessTracker.Window> {
+    private static final Logger LOG = LoggerFactory.getLogger(FreshnessTracker.class);
+
+    private final TypedConfig config;
+    private final LocationDictionary locations;
+    private final List<Location> trackedLocations;
+
+    private final LogLinearHistogram receiptDelays;
+    private final LogLinearHistogram pipelineDelays;
+    private final LogLinearHistogram outputDelays;
+    // How long after each window closed its averages were written
+    private final Accumulator outputLags = new Accumulator();
+
+    /**
+     * @param start when the aggregator was created, as its buckets are aligned to it
+     */
+    public FreshnessTracker(TypedConfig config,
+                            Aggregator.TypedConfig aggregatorConfig,
+                            LocationDictionary locations,
+                            Instant start,
+                            Clock wallClock) {
+        super(aggregatorConfig, start, wallClock);
+        this.config = config;
+        this.locations = locations;
+        this.trackedLocations = locations.getLocations();
+        receiptDelays = new LogLinearHistogram(config.precisionBits);
+        pipelineDelays = new LogLinearHistogram(config.precisionBits);
+        outputDelays = new LogLinearHistogram(config.precisionBits);
+    }
+
+    @Override
+    protected Window newWindow() {
+        return new Window();
+    }
+
+    @Override
+    protected void reset(Window window) {
+        window.reset();
+    }
+
+    @Override
+    protected void add(Window window, long windowEnd, PackedEvent event, long wallMillis) {
+        window.ages.add(windowEnd - event.timestamp);
+        if (event.receivedAt != 0) {
+            long receiptDelay = event.receivedAt - event.timestamp;
+            window.receiptDelays.add(receiptDelay);
+            window.pipelineDelays.add(wallMillis - event.receivedAt);
+            int location = locations.indexOf(event);
+            if (location >= 0 && location < window.locationDelays.size()) {
+                window.locationDelays.add(location, receiptDelay);
+            }
+        }
+    }
+
+    @Override
+    protected void merge(Window into, Window from) {
+        into.ages.merge(from.ages);
+        into.receiptDelays.merge(from.receiptDelays);
+        into.pipelineDelays.merge(from.pipelineDelays);
+        into.locationDelays.merge(from.locationDelays);
+    }
+
+    @Override
+    protected void windowWritten(long windowEnd, Window window) {
+        if (window.ages.getCount() == 0) {
+            return;
+        }
+        long outputLag = getWallClock().millis() - windowEnd;
+        outputLags.add(outputLag);
+        receiptDelays.merge(window.receiptDelays);
+        pipelineDelays.merge(window.pipelineDelays);
+        outputDelays.mergeShifted(window.ages, outputLag);
+
+        LOG.info("Freshness of {} events from {} to {}: sensor to receipt {}, receipt to pipeline {}, "
+                        + "sensor to output p50={}ms p99={}ms, stalest locations {}",
+                window.ages.getCount(),
+                Instant.ofEpochMilli(windowEnd - getAveragingPeriod()),
+                Instant.ofEpochMilli(windowEnd),
+                percentiles(window.receiptDelays),
+                percentiles(window.pipelineDelays),
+                format(window.ages.getValueAtQuantile(0.5) + outputLag),
+                format(window.ages.getValueAtQuantile(0.99) + outputLag),
+                stalestLocations(window.locationDelays));
+    }
+
+    /**
+     * Only to be called once the averages have all been written.
+     */
+    public void dumpStats() {
+        if (outputLags.getCount() == 0) {
+            LOG.info("Freshness: no windows of events were written");
+            return;
+        }
+        LOG.info("Freshness over {} windows: sensor to receipt {}, receipt to pipeline {}, sensor to output {}, "
+                        + "averages written {}ms after their window closed on average, at most {}ms",
+                outputLags.getCount(),
+                percentiles(receiptDelays),
+                percentiles(pipelineDelays),
+                percentiles(outputDelays),
+                format(outputLags.getMean()),
+                format(outputLags.getMax()));
+    }
+
+    LogLinearHistogram getReceiptDelays() {
+        return receiptDelays;
+    }
+
+    LogLinearHistogram getPipelineDelays() {
+        return pipelineDelays;
+    }
+
+    LogLinearHistogram getOutputDelays() {
+        return outputDelays;
+    }
+
+    Accumulator getOutputLags() {
+        return outputLags;
+    }
+
+    /**
+     * The config.stalestLocations locations with the highest mean sensor to receipt delay, stalest first.
+     */
+    private String stalestLocations(AccumulatorArray locationDelays) {
+        int[] stalest = new int[Math.min(config.stalestLocations, locationDelays.size())];
+        int found = 0;
+        for (int location = 0; location < locationDelays.size(); location++) {
+            if (locationDelays.getCount(location) == 0) {
+                continue;
+            }
+            double mean = locationDelays.getMean(location);
+            if (found == stalest.length && (found == 0 || mean <= locationDelays.getMean(stalest[found - 1]))) {
+                continue;
+            }
+            // Insertion sort, replacing the least stale once full
+            int i = found < stalest.length ? found++ : found - 1;
+            while (i > 0 && locationDelays.getMean(stalest[i - 1]) < mean) {
+                stalest[i] = stalest[i - 1];
+                i--;
+            }
+            stalest[i] = location;
+        }
+
+        StringBuilder description = new StringBuilder("[");
+        for (int i = 0; i < found; i++) {
+            if (i > 0) {
+                description.append(", ");
+            }
+            description.append(trackedLocations.get(stalest[i]).id)
+                    .append(" mean=").append(format(locationDelays.getMean(stalest[i]))).append("ms");
+        }
+        return description.append(']').toString();
+    }
+
+    private static String percentiles(LogLinearHistogram histogram) {
+        if (histogram.getCount() == 0) {
+            return "unknown";
+        }
+        return "p50=" + format(histogram.getValueAtQuantile(0.5)) + "ms p99="
+                + format(histogram.getValueAtQuantile(0.99)) + "ms";
+    }
+
+    private static String format(double millis) {
+        return String.format(Locale.ROOT, "%.0f", millis);
+    }
+
+    class Window {
+        // From each event's timestamp to the end of the window
+        final LogLinearHistogram ages = new LogLinearHistogram(config.precisionBits);
+        final LogLinearHistogram receiptDelays = new LogLinearHistogram(config.precisionBits);
+        final LogLinearHistogram pipelineDelays = new LogLinearHistogram(config.precisionBits);
+        // Sensor to receipt by location index
+        final AccumulatorArray locationDelays = new AccumulatorArray(trackedLocations.size());
+
+        void reset() {
+            ages.reset();
+            receiptDelays.reset();
+            pipelineDelays.reset();
+            locationDelays.reset(0, locationDelays.size());
+        }
+    }
+
+    public static class TypedConfig {
+        public final boolean enabled;
+        final int precisionBits;
+        final int stalestLocations;
+
+        public TypedConfig(boolean enabled, int precisionBits, int stalestLocations) {
+            if (stalestLocations < 0) {
+                throw new IllegalArgumentException("Freshness stalestLocations must not be negative");
+            }
+            this.enabled = enabled;
+            this.precisionBits = precisionBits;
+            this.stalestLocations = stalestLocations;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getBoolean("enabled"),
+                    config.getInt("precisionBits"),
+                    config.getInt("stalestLocations"));
+        }
+    }
+}
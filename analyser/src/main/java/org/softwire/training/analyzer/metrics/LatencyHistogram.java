@@ -0,0 +1,148 @@
+package org.softwire.training.analyzer.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds which any number of threads can record to at once, laid out like an HDR
+ * histogram: values below 2^{@value #PRECISION_BITS} have a bin each, and every power of two above that is split into
+ * 2^{@value #PRECISION_BITS} equally wide bins, so quantiles are within about 6% of the true value.
+ * <p>
+ * Recording a value is a few bit operations and one atomic increment, with nothing allocated or locked.  Durations of
+ * 2^{@value #MAX_EXPONENT} ns, about 18 minutes, or more are counted in the highest bin.
+ * <p>
+ * Readers take a {@link Snapshot} of the counts, which isn't atomic across bins but is close enough for monitoring, and
+ * can subtract an earlier snapshot to get the histogram of just the values recorded in between.
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    static final int PRECISION_BITS = 4;
+    static final int MAX_EXPONENT = 40;
+
+    private static final int SUB_BINS = 1 << PRECISION_BITS;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+    private static final int BINS = (MAX_EXPONENT - PRECISION_BITS + 1) << PRECISION_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BINS);
+
+    /**
+     * Negative durations, eg. from a clock going backwards, are counted as zero.
+     */
+    public void record(long nanos) {
+        counts.incrementAndGet(binFor(Math.max(0, Math.min(MAX_VALUE, nanos))));
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            copy[bin] = counts.get(bin);
+        }
+        return new Snapshot(copy);
+    }
+
+    @Override
+    public long getCount() {
+        return snapshot().getCount();
+    }
+
+    @Override
+    public double getP50Micros() {
+        return toMicros(snapshot().getValueAtQuantile(0.5));
+    }
+
+    @Override
+    public double getP99Micros() {
+        return toMicros(snapshot().getValueAtQuantile(0.99));
+    }
+
+    @Override
+    public double getP999Micros() {
+        return toMicros(snapshot().getValueAtQuantile(0.999));
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return toMicros(snapshot().getMax());
+    }
+
+    static double toMicros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    static int binFor(long value) {
+        if (value < SUB_BINS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBin = (int) (value >>> (exponent - PRECISION_BITS)) & (SUB_BINS - 1);
+        return ((exponent - PRECISION_BITS + 1) << PRECISION_BITS) | subBin;
+    }
+
+    /**
+     * The highest value counted in the bin.
+     */
+    static long highestValueIn(int bin) {
+        if (bin < SUB_BINS) {
+            return bin;
+        }
+        int shift = (bin >> PRECISION_BITS) - 1;
+        long lowest = (long) (SUB_BINS | (bin & (SUB_BINS - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long binCount : counts) {
+                total += binCount;
+            }
+            this.count = total;
+        }
+
+        /**
+         * The values recorded since an earlier snapshot of the same histogram.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[BINS];
+            for (int bin = 0; bin < BINS; bin++) {
+                difference[bin] = counts[bin] - earlier.counts[bin];
+            }
+            return new Snapshot(difference);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * The highest value in the bin holding the quantile, so never an underestimate by more than rounding, eg.
+         * getValueAtQuantile(0.99) is the 99th percentile.  0 if nothing has been recorded.
+         */
+        public long getValueAtQuantile(double quantile) {
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int bin = 0; bin < BINS; bin++) {
+                seen += counts[bin];
+                if (seen >= rank) {
+                    return highestValueIn(bin);
+                }
+            }
+            return 0;
+        }
+
+        public long getMax() {
+            for (int bin = BINS - 1; bin >= 0; bin--) {
+                if (counts[bin] > 0) {
+                    return highestValueIn(bin);
+                }
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.softwire.training.analyzer.metrics;
+
+/**
+ * How a {@link LatencyHistogram} appears over JMX, covering everything recorded since startup.
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    double getP50Micros();
+
+    double getP99Micros();
+
+    double getP999Micros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,179 @@
+package org.softwire.training.analyzer.metrics;
+
+import com.typesafe.config.Config;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts of what happened to the events received, and histograms of how long each pipeline stage and SQS call took,
+ * shared by everything on every thread which handles events, and read by {@link MetricsReporter}.
+ * <p>
+ * The counters are {@link LongAdder}s, so a thread counting an event usually just increments a cell which no other
+ * thread is writing to.  Events are only counted where they are dropped, and averages where they are written, so the
+ * events which make it through the pipeline cost nothing extra.  Timing a stage costs far more than counting, as
+ * reading the clock takes tens of nanoseconds, so the stages only time one event in every stageSampleInterval.
+ */
+public class Metrics implements MetricsMXBean {
+    /**
+     * SQS messages received, including any which couldn't be parsed.
+     */
+    public final LongAdder received = new LongAdder();
+    public final LongAdder parsed = new LongAdder();
+    public final LongAdder parseFailed = new LongAdder();
+    /**
+     * Events dropped by the location filter.
+     */
+    public final LongAdder filtered = new LongAdder();
+    /**
+     * Events dropped by the deduplicator.
+     */
+    public final LongAdder duplicates = new LongAdder();
+    /**
+     * Events dropped by the aggregator, as their timestamps were outside its buckets: usually late, occasionally early.
+     */
+    public final LongAdder rejectedLate = new LongAdder();
+    /**
+     * Averages written.
+     */
+    public final LongAdder emitted = new LongAdder();
+    /**
+     * SQS messages held on the queue until the output they can affect has been flushed, so unlike the other counters
+     * this goes down as well as up.  Always 0 unless acknowledger.mode is AFTER_OUTPUT.
+     */
+    public final LongAdder unacknowledged = new LongAdder();
+
+    public final LatencyHistogram sqsReceive = new LatencyHistogram();
+    public final LatencyHistogram sqsDelete = new LatencyHistogram();
+    public final LatencyHistogram locationFilter = new LatencyHistogram();
+    public final LatencyHistogram deduplicator = new LatencyHistogram();
+    public final LatencyHistogram aggregator = new LatencyHistogram();
+
+    private final int stageSampleInterval;
+
+    /**
+     * Metrics which don't time the pipeline stages.
+     */
+    public Metrics() {
+        this(0);
+    }
+
+    /**
+     * @param stageSampleInterval time the stages for one in this many events, or never if 0
+     */
+    public Metrics(int stageSampleInterval) {
+        if (stageSampleInterval < 0) {
+            throw new IllegalArgumentException("stageSampleInterval must not be negative");
+        }
+        this.stageSampleInterval = stageSampleInterval;
+    }
+
+    public int getStageSampleInterval() {
+        return stageSampleInterval;
+    }
+
+    /**
+     * In the order they are reported.
+     */
+    public Map<String, LongAdder> getCounters() {
+        Map<String, LongAdder> counters = new LinkedHashMap<>();
+        counters.put("received", received);
+        counters.put("parsed", parsed);
+        counters.put("parseFailed", parseFailed);
+        counters.put("filtered", filtered);
+        counters.put("duplicates", duplicates);
+        counters.put("rejectedLate", rejectedLate);
+        counters.put("emitted", emitted);
+        counters.put("unacknowledged", unacknowledged);
+        return Collections.unmodifiableMap(counters);
+    }
+
+    /**
+     * In the order they are reported.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+        Map<String, LatencyHistogram> latencies = new LinkedHashMap<>();
+        latencies.put("sqsReceive", sqsReceive);
+        latencies.put("sqsDelete", sqsDelete);
+        latencies.put("locationFilter", locationFilter);
+        latencies.put("deduplicator", deduplicator);
+        latencies.put("aggregator", aggregator);
+        return Collections.unmodifiableMap(latencies);
+    }
+
+    /**
+     * Wrap writer so that every average written to it is counted as emitted.
+     */
+    public AverageWriter countingWrites(AverageWriter writer) {
+        return AverageWriter.observed(writer, average -> emitted.increment());
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getParsed() {
+        return parsed.sum();
+    }
+
+    @Override
+    public long getParseFailed() {
+        return parseFailed.sum();
+    }
+
+    @Override
+    public long getFiltered() {
+        return filtered.sum();
+    }
+
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public long getRejectedLate() {
+        return rejectedLate.sum();
+    }
+
+    @Override
+    public long getEmitted() {
+        return emitted.sum();
+    }
+
+    @Override
+    public long getUnacknowledged() {
+        return unacknowledged.sum();
+    }
+
+    public static class TypedConfig {
+        final Duration reportInterval;
+        final String csvFile;
+        final boolean jmx;
+        public final int stageSampleInterval;
+
+        public TypedConfig(Duration reportInterval, String csvFile, boolean jmx, int stageSampleInterval) {
+            if (reportInterval.isNegative()) {
+                throw new IllegalArgumentException("Metrics reportInterval must not be negative");
+            }
+            this.reportInterval = reportInterval;
+            this.csvFile = csvFile;
+            this.jmx = jmx;
+            this.stageSampleInterval = stageSampleInterval;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getDuration("reportInterval"),
+                    config.getString("csvFile"),
+                    config.getBoolean("jmx"),
+                    config.getInt("stageSampleInterval"));
+        }
+    }
+}
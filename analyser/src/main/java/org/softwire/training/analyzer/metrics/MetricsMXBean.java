@@ -0,0 +1,22 @@
+package org.softwire.training.analyzer.metrics;
+
+/**
+ * How the {@link Metrics} counters appear over JMX, as totals since startup.
+ */
+public interface MetricsMXBean {
+    long getReceived();
+
+    long getParsed();
+
+    long getParseFailed();
+
+    long getFiltered();
+
+    long getDuplicates();
+
+    long getRejectedLate();
+
+    long getEmitted();
+
+    long getUnacknowledged();
+}
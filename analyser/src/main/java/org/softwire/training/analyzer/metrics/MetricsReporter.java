@@ -0,0 +1,192 @@
+package org.softwire.training.analyzer.metrics;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes {@link Metrics} while the analyser runs:
+ * <ul>
+ * <li>every config.reportInterval on a background thread, logs one compact line of the counters' totals and how much
+ * they went up by, and the latency percentiles over the interval, and appends the same to config.csvFile as a row,</li>
+ * <li>if config.jmx is set, registers the counters and every histogram as MXBeans under
+ * {@value #DOMAIN}, for jconsole or any other JMX client.</li>
+ * </ul>
+ * A final report is made on close, so short runs get one too.  Latencies are reported in microseconds.
+ */
+public class MetricsReporter implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsReporter.class);
+    static final String DOMAIN = "org.softwire.training.analyzer";
+
+    private final Metrics metrics;
+    private final Clock clock;
+    private final BufferedWriter csv;
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "metrics-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched by report(), which is synchronized as close() calls it from another thread
+    private final Map<String, LongAdder> counters;
+    private final Map<String, LatencyHistogram> latencies;
+    private final long[] lastTotals;
+    private final LatencyHistogram.Snapshot[] lastSnapshots;
+
+    public MetricsReporter(Metrics.TypedConfig config, Metrics metrics, Clock clock) throws IOException {
+        this.metrics = metrics;
+        this.clock = clock;
+        counters = metrics.getCounters();
+        latencies = metrics.getLatencies();
+        lastTotals = new long[counters.size()];
+        lastSnapshots = new LatencyHistogram.Snapshot[latencies.size()];
+        int i = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            lastSnapshots[i++] = histogram.snapshot();
+        }
+
+        csv = config.csvFile.isEmpty() ? null : openCsv(Paths.get(config.csvFile));
+        if (config.jmx) {
+            registerMBeans();
+        }
+        long interval = config.reportInterval.toMillis();
+        if (interval > 0) {
+            executor.scheduleAtFixedRate(this::reportSwallowingErrors, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private BufferedWriter openCsv(Path path) throws IOException {
+        boolean isNew = !Files.exists(path) || Files.size(path) == 0;
+        BufferedWriter writer = Files.newBufferedWriter(
+                path, Charsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (isNew) {
+            StringBuilder header = new StringBuilder("time");
+            for (String name : counters.keySet()) {
+                header.append(',').append(name);
+            }
+            for (String name : latencies.keySet()) {
+                header.append(',').append(name).append("Count")
+                        .append(',').append(name).append("P50")
+                        .append(',').append(name).append("P99")
+                        .append(',').append(name).append("Max");
+            }
+            writer.write(header.append('\n').toString());
+            writer.flush();
+        }
+        LOG.info("Will be writing metrics to: {}", path.toAbsolutePath());
+        return writer;
+    }
+
+    private void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            register(server, new ObjectName(DOMAIN + ":type=Metrics"), metrics);
+            for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+                register(server, new ObjectName(DOMAIN + ":type=Latency,name=" + latency.getKey()), latency.getValue());
+            }
+        } catch (JMException e) {
+            // Not worth stopping for, the metrics are still logged
+            LOG.warn("Failed to register metrics with JMX", e);
+        }
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object mbean) throws JMException {
+        server.registerMBean(mbean, name);
+        registered.add(name);
+    }
+
+    private void reportSwallowingErrors() {
+        try {
+            report();
+        } catch (Exception e) {
+            // Thrown out of a scheduled task, this would stop any more reports
+            LOG.warn("Failed to report metrics", e);
+        }
+    }
+
+    /**
+     * Log the metrics, and append them to the CSV file if there is one.
+     */
+    synchronized void report() throws IOException {
+        StringBuilder line = new StringBuilder("Metrics:");
+        StringBuilder row = new StringBuilder(clock.instant().toString());
+
+        int i = 0;
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            long total = counter.getValue().sum();
+            line.append(' ').append(counter.getKey()).append('=').append(total)
+                    .append(" (+").append(total - lastTotals[i]).append(')');
+            row.append(',').append(total);
+            lastTotals[i++] = total;
+        }
+
+        i = 0;
+        for (Map.Entry<String, LatencyHistogram> latency : latencies.entrySet()) {
+            LatencyHistogram.Snapshot snapshot = latency.getValue().snapshot();
+            LatencyHistogram.Snapshot interval = snapshot.since(lastSnapshots[i]);
+            lastSnapshots[i++] = snapshot;
+            String p50 = formatMicros(interval.getValueAtQuantile(0.5));
+            String p99 = formatMicros(interval.getValueAtQuantile(0.99));
+            String max = formatMicros(interval.getMax());
+            if (interval.getCount() > 0) {
+                line.append(" | ").append(latency.getKey())
+                        .append(" p50=").append(p50).append("us p99=").append(p99).append("us max=").append(max)
+                        .append("us");
+            }
+            row.append(',').append(interval.getCount())
+                    .append(',').append(p50).append(',').append(p99).append(',').append(max);
+        }
+
+        LOG.info(line.toString());
+        if (csv != null) {
+            csv.write(row.append('\n').toString());
+            csv.flush();
+        }
+    }
+
+    private static String formatMicros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", LatencyHistogram.toMicros(nanos));
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        try {
+            report();
+        } finally {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ObjectName name : registered) {
+                try {
+                    server.unregisterMBean(name);
+                } catch (JMException e) {
+                    LOG.warn("Failed to unregister {} from JMX", name, e);
+                }
+            }
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.softwire.training.analyzer.metrics;
+
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.pipeline.Probe;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Follows events from a {@link Probe} in the pipeline until the first average covering them is written.  Events are
+ * tracked in the same windows of averagingPeriod as the aggregator's buckets, with some state of type W for each.
+ * <p>
+ * Every thread which runs a pipeline, eg. each shard of the SHARDED mode, gets its own {@link #newProbe() probe} with
+ * its own ring of windows, so observing an event takes no lock and touches no other thread's memory.  A probe only
+ * adds an event to a window the aggregator in the same pipeline would still accept it into, so once a pipeline has
+ * output its averages for a window, its probe never adds to that window again.  As the first average of a window is
+ * written, {@link #written} merges every probe's state for the window, which is safe as the averages are only written
+ * once every pipeline has handed over its share of them, so whatever the probes added beforehand is visible.
+ * <p>
+ * Each probe keeps twice as many windows as the aggregator has buckets, so a window's state is only reused long after
+ * it was written, unless one pipeline falls behind the others by more than the expiryTime.
+ * <p>
+ * The wall clock is only read when the pipeline's now has moved on, which the event loops do once per millisecond or
+ * per batch, rather than for each event.
+ */
+public abstract class WindowTracker<W> {
+    private final long origin;
+    private final long averagingPeriod;
+    // The aggregator accepts events this many windows before the current one
+    private final long windowsLate;
+    private final int windowsKept;
+    private final Clock wallClock;
+    // Added to while the pipelines are built, and only read as averages are written
+    private final List<WindowProbe> probes = new CopyOnWriteArrayList<>();
+
+    // Only touched by written(), on the thread writing averages, and created there as a subclass isn't ready to create
+    // windows during the constructor
+    private W merged;
+    private long lastWritten = Long.MIN_VALUE;
+
+    /**
+     * @param start when the aggregators were created, as their buckets are aligned to it
+     */
+    protected WindowTracker(Aggregator.TypedConfig aggregatorConfig, Instant start, Clock wallClock) {
+        this.wallClock = wallClock;
+        origin = start.toEpochMilli();
+        averagingPeriod = aggregatorConfig.getAveragingPeriod().toMillis();
+        long completionDelay = aggregatorConfig.getCompletionDelay().toMillis();
+        windowsLate = completionDelay / averagingPeriod - 1;
+        windowsKept = 2 * (int) (completionDelay / averagingPeriod + 1);
+    }
+
+    /**
+     * A probe for one pipeline, only to be used by one thread at a time.
+     */
+    public Probe newProbe() {
+        WindowProbe probe = new WindowProbe();
+        probes.add(probe);
+        return probe;
+    }
+
+    /**
+     * Called with each average as it is written, always from the same thread.  Only the first average of a window is
+     * needed, as the rest, eg. for other locations, are written at the same time.
+     */
+    public void written(Average average) {
+        // A sliding window's events are first written in the average ending with their window
+        long number = Math.floorDiv(average.to.toEpochMilli() - origin, averagingPeriod) - 1;
+        if (number <= lastWritten) {
+            return;
+        }
+        lastWritten = number;
+
+        if (merged == null) {
+            merged = newWindow();
+        } else {
+            reset(merged);
+        }
+        int slot = slotOf(number);
+        for (WindowProbe probe : probes) {
+            if (probe.numbers[slot] == number) {
+                merge(merged, probe.windows.get(slot));
+            }
+        }
+        windowWritten(endOf(number), merged);
+    }
+
+    protected abstract W newWindow();
+
+    protected abstract void reset(W window);
+
+    /**
+     * Count an event in one probe's state for a window.
+     *
+     * @param windowEnd  the end of the event's window in epoch milliseconds
+     * @param wallMillis the wall clock, as of when the pipeline's now last moved on
+     */
+    protected abstract void add(W window, long windowEnd, PackedEvent event, long wallMillis);
+
+    protected abstract void merge(W into, W from);
+
+    /**
+     * Called once with every probe's state for a window merged, as its first average is written.
+     */
+    protected abstract void windowWritten(long windowEnd, W window);
+
+    protected Clock getWallClock() {
+        return wallClock;
+    }
+
+    protected long getAveragingPeriod() {
+        return averagingPeriod;
+    }
+
+    private int slotOf(long number) {
+        return (int) Math.floorMod(number, (long) windowsKept);
+    }
+
+    private long endOf(long number) {
+        return origin + (number + 1) * averagingPeriod;
+    }
+
+    /**
+     * Creates a tracker for aggregators created at start, eg. so that the load test can measure the analyser.
+     */
+    @FunctionalInterface
+    public interface Factory {
+        WindowTracker<?> create(Aggregator.TypedConfig aggregatorConfig, Instant start, Clock wallClock);
+    }
+
+    private class WindowProbe implements Probe {
+        // Indexed by slotOf the window number
+        private final List<W> windows = new ArrayList<>();
+        private final long[] numbers = new long[windowsKept];
+
+        private long nowMillis = Long.MIN_VALUE;
+        private long nowNumber;
+        private long wallMillis;
+
+        WindowProbe() {
+            for (int i = 0; i < windowsKept; i++) {
+                windows.add(newWindow());
+                numbers[i] = Long.MIN_VALUE;
+            }
+        }
+
+        @Override
+        public void observe(Instant now, PackedEvent event) {
+            if (now.toEpochMilli() != nowMillis) {
+                nowMillis = now.toEpochMilli();
+                nowNumber = Math.floorDiv(nowMillis - origin, averagingPeriod);
+                wallMillis = wallClock.millis();
+            }
+            long number = Math.floorDiv(event.timestamp - origin, averagingPeriod);
+            if (number < nowNumber - windowsLate || number > nowNumber + 1) {
+                // The aggregator rejects it, or has already output its window
+                return;
+            }
+            int slot = slotOf(number);
+            W window = windows.get(slot);
+            if (numbers[slot] != number) {
+                reset(window);
+                numbers[slot] = number;
+            }
+            add(window, endOf(number), event, wallMillis);
+        }
+    }
+}
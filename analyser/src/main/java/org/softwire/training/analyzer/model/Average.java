@@ -10,11 +10,21 @@ public class Average {
     public final Instant to;
     public final Instant from;
     public final double value;
+    // The number of events averaged
+    public final long count;
+    public final double min;
+    public final double max;
+    // Population variance of the values averaged
+    public final double variance;
 
-    public Average(Instant to, Instant from, double value) {
+    public Average(Instant to, Instant from, double value, long count, double min, double max, double variance) {
         this.to = to;
         this.from = from;
         this.value = value;
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.variance = variance;
     }
 
     @Override
@@ -23,13 +33,31 @@ public class Average {
         if (o == null || getClass() != o.getClass()) return false;
         Average average = (Average) o;
         return Double.compare(average.value, value) == 0 &&
+                count == average.count &&
+                Double.compare(average.min, min) == 0 &&
+                Double.compare(average.max, max) == 0 &&
+                Double.compare(average.variance, variance) == 0 &&
                 Objects.equal(to, average.to) &&
                 Objects.equal(from, average.from);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(to, from, value);
+        return Objects.hashCode(to, from, value, count, min, max, variance);
+    }
+
+    /**
+     * Appends the same text as {@link #toString()}, without building an intermediate String.
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("Average{to=").append(to)
+                .append(", from=").append(from)
+                .append(", value=").append(value)
+                .append(", count=").append(count)
+                .append(", min=").append(min)
+                .append(", max=").append(max)
+                .append(", variance=").append(variance)
+                .append('}');
     }
 
     @Override
@@ -38,6 +66,10 @@ public class Average {
                 .add("to", to)
                 .add("from", from)
                 .add("value", value)
+                .add("count", count)
+                .add("min", min)
+                .add("max", max)
+                .add("variance", variance)
                 .toString();
     }
 }
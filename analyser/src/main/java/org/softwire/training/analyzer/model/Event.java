@@ -48,6 +48,11 @@ public class Event {
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(locationId, eventId, value, timestamp);
+        // Not Objects.hashCode(Object...), which would box value and timestamp on every call
+        int result = java.util.Objects.hashCode(locationId);
+        result = 31 * result + java.util.Objects.hashCode(eventId);
+        result = 31 * result + Double.hashCode(value);
+        result = 31 * result + Long.hashCode(timestamp);
+        return result;
     }
 }
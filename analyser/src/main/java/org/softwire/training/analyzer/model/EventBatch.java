@@ -0,0 +1,116 @@
+package org.softwire.training.analyzer.model;
+
+/**
+ * A batch of events held column by column, in parallel arrays indexed by row, so that a pipeline stage can handle the
+ * whole batch in one tight loop over the columns it needs, see {@link org.softwire.training.analyzer.pipeline.BatchPipeline}.
+ * <p>
+ * Rather than moving rows around, stages drop events by removing their rows from the selection vector: the first
+ * {@link #getSelected} entries of selection are the rows still in the batch, in order.
+ * <p>
+ * Like {@link PackedEvent}, this is mutable and reused from batch to batch, so stages must not hold on to it.
+ */
+@SuppressWarnings("WeakerAccess")
+public class EventBatch {
+    public final long[] locationIdMostSignificantBits;
+    public final long[] locationIdLeastSignificantBits;
+    public final long[] eventIdMostSignificantBits;
+    public final long[] eventIdLeastSignificantBits;
+    public final double[] values;
+    public final long[] timestamps;
+    // See PackedEvent.locationIndex
+    public final int[] locationIndexes;
+    // See PackedEvent.receivedAt
+    public final long[] receivedAts;
+    public final int[] selection;
+
+    private int size;
+    private int selected;
+
+    public EventBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("EventBatch capacity must be positive");
+        }
+        locationIdMostSignificantBits = new long[capacity];
+        locationIdLeastSignificantBits = new long[capacity];
+        eventIdMostSignificantBits = new long[capacity];
+        eventIdLeastSignificantBits = new long[capacity];
+        values = new double[capacity];
+        timestamps = new long[capacity];
+        locationIndexes = new int[capacity];
+        receivedAts = new long[capacity];
+        selection = new int[capacity];
+    }
+
+    /**
+     * Add an event as a new, selected, row.
+     */
+    public void add(PackedEvent event) {
+        if (isFull()) {
+            throw new IllegalStateException("EventBatch is full");
+        }
+        int row = size++;
+        locationIdMostSignificantBits[row] = event.locationIdMostSignificantBits;
+        locationIdLeastSignificantBits[row] = event.locationIdLeastSignificantBits;
+        eventIdMostSignificantBits[row] = event.eventIdMostSignificantBits;
+        eventIdLeastSignificantBits[row] = event.eventIdLeastSignificantBits;
+        values[row] = event.value;
+        timestamps[row] = event.timestamp;
+        locationIndexes[row] = event.locationIndex;
+        receivedAts[row] = event.receivedAt;
+        // Nothing can have been dropped yet while rows are still being added
+        selection[selected++] = row;
+    }
+
+    /**
+     * Copy a row out, eg. for a stage which handles events one at a time.
+     */
+    public PackedEvent copyTo(int row, PackedEvent event) {
+        event.set(
+                locationIdMostSignificantBits[row],
+                locationIdLeastSignificantBits[row],
+                eventIdMostSignificantBits[row],
+                eventIdLeastSignificantBits[row],
+                values[row],
+                timestamps[row]);
+        event.locationIndex = locationIndexes[row];
+        event.receivedAt = receivedAts[row];
+        return event;
+    }
+
+    public int getCapacity() {
+        return selection.length;
+    }
+
+    /**
+     * The number of rows, whether selected or not.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == selection.length;
+    }
+
+    /**
+     * The number of rows still selected, at the start of selection.
+     */
+    public int getSelected() {
+        return selected;
+    }
+
+    /**
+     * For stages which have compacted the rows they keep to the start of selection.
+     */
+    public void setSelected(int selected) {
+        if (selected < 0 || selected > this.selected) {
+            throw new IllegalArgumentException("Rows can only be removed from the selection");
+        }
+        this.selected = selected;
+    }
+
+    public void clear() {
+        size = 0;
+        selected = 0;
+    }
+}
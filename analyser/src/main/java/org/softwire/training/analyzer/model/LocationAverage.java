@@ -0,0 +1,64 @@
+package org.softwire.training.analyzer.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An average of the events from a single location.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LocationAverage extends Average {
+    public final UUID locationId;
+
+    public LocationAverage(UUID locationId,
+                           Instant to,
+                           Instant from,
+                           double value,
+                           long count,
+                           double min,
+                           double max,
+                           double variance) {
+        super(to, from, value, count, min, max, variance);
+        this.locationId = locationId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return super.equals(o) && Objects.equal(locationId, ((LocationAverage) o).locationId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + locationId.hashCode();
+    }
+
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("LocationAverage{locationId=").append(locationId)
+                .append(", to=").append(to)
+                .append(", from=").append(from)
+                .append(", value=").append(value)
+                .append(", count=").append(count)
+                .append(", min=").append(min)
+                .append(", max=").append(max)
+                .append(", variance=").append(variance)
+                .append('}');
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("locationId", locationId)
+                .add("to", to)
+                .add("from", from)
+                .add("value", value)
+                .add("count", count)
+                .add("min", min)
+                .add("max", max)
+                .add("variance", variance)
+                .toString();
+    }
+}
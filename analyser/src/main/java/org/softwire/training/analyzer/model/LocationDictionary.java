@@ -0,0 +1,106 @@
+package org.softwire.training.analyzer.model;
+
+import com.google.common.collect.Iterables;
+import org.softwire.training.analyzer.collections.LongPairIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Numbers the locations densely from 0, so that an event's location can be looked up once, as it is decoded, and
+ * every later stage can keep its per-location state in plain arrays indexed by {@link PackedEvent#locationIndex}
+ * rather than hashing the location id again.
+ * <p>
+ * Locations can be added, but never removed or renumbered, so an index stays valid for as long as the dictionary.  The
+ * numbering is copy on write: adding locations builds a new index and publishes it with a single volatile write, so
+ * lookups, which may be on any thread, take no lock.
+ */
+public class LocationDictionary {
+    /**
+     * The index of a location which isn't in the dictionary.
+     */
+    public static final int UNKNOWN = -1;
+
+    private volatile Entries entries;
+
+    public LocationDictionary(List<Location> locations) {
+        entries = new Entries(new LongPairIndex(0), new Location[0]).with(locations);
+    }
+
+    /**
+     * Add any locations which aren't already in the dictionary, numbering them after the existing ones.
+     */
+    public synchronized void addAll(List<Location> locations) {
+        entries = entries.with(locations);
+    }
+
+    /**
+     * @return the location's index, or {@link #UNKNOWN}
+     */
+    public int indexOf(long mostSignificantBits, long leastSignificantBits) {
+        return entries.index.indexOf(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * The index of the event's location, looking it up if it wasn't when the event was decoded.
+     */
+    public int indexOf(PackedEvent event) {
+        if (event.locationIndex != PackedEvent.UNRESOLVED) {
+            return event.locationIndex;
+        }
+        return indexOf(event.locationIdMostSignificantBits, event.locationIdLeastSignificantBits);
+    }
+
+    /**
+     * The index of a batch row's location, looking it up if it wasn't when the event was decoded.
+     */
+    public int indexOf(EventBatch batch, int row) {
+        int index = batch.locationIndexes[row];
+        if (index != PackedEvent.UNRESOLVED) {
+            return index;
+        }
+        return indexOf(batch.locationIdMostSignificantBits[row], batch.locationIdLeastSignificantBits[row]);
+    }
+
+    public int size() {
+        return entries.locations.length;
+    }
+
+    /**
+     * All the locations so far, in index order.
+     */
+    public List<Location> getLocations() {
+        return Collections.unmodifiableList(Arrays.asList(entries.locations));
+    }
+
+    /**
+     * Never changed once published.
+     */
+    private static class Entries {
+        final LongPairIndex index;
+        final Location[] locations;
+
+        Entries(LongPairIndex index, Location[] locations) {
+            this.index = index;
+            this.locations = locations;
+        }
+
+        /**
+         * A copy with the new locations numbered after the existing ones, which keep their index.
+         */
+        Entries with(List<Location> added) {
+            LongPairIndex newIndex = new LongPairIndex(locations.length + added.size());
+            List<Location> numbered = new ArrayList<>(locations.length + added.size());
+            for (Location location : Iterables.concat(Arrays.asList(locations), added)) {
+                // Numbered in the order added, so a location is new if it gets the next number
+                if (newIndex.add(location.id.getMostSignificantBits(), location.id.getLeastSignificantBits())
+                        == numbered.size()) {
+                    numbered.add(location);
+                }
+            }
+            return new Entries(newIndex, numbered.toArray(new Location[0]));
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.softwire.training.analyzer.model;
+
+import com.google.common.base.MoreObjects;
+import org.softwire.training.analyzer.collections.LongHashing;
+
+import java.util.UUID;
+
+/**
+ * The same data as an {@link Event}, but with the ids held as pairs of longs rather than {@link UUID}s.
+ * <p>
+ * Unlike Event this is mutable, so that instances can be reused or pooled rather than allocated for every message.
+ * Whoever hands a PackedEvent to a pipeline stage keeps ownership of it: stages must copy any data they want to keep,
+ * and never hold on to the instance itself.
+ * <p>
+ * The location may also have been looked up in a {@link LocationDictionary} as the event was decoded, so that later
+ * stages don't have to hash the location id again.
+ * <p>
+ * When it was received is kept too, so that how stale the output is can be measured, but like locationIndex isn't
+ * part of the event's identity.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PackedEvent {
+    /**
+     * The {@link #locationIndex} of an event whose location hasn't been looked up.
+     */
+    public static final int UNRESOLVED = -2;
+
+    public long locationIdMostSignificantBits;
+    public long locationIdLeastSignificantBits;
+    public long eventIdMostSignificantBits;
+    public long eventIdLeastSignificantBits;
+    public double value;
+    public long timestamp;
+    // The location's index in the LocationDictionary, LocationDictionary.UNKNOWN if it isn't in it, or UNRESOLVED
+    public int locationIndex = UNRESOLVED;
+    // Epoch milliseconds by the wall clock, or 0 if not known, eg. for a replayed event
+    public long receivedAt;
+
+    /**
+     * Leaves the location unresolved, and when it was received unknown.
+     */
+    public PackedEvent set(long locationIdMostSignificantBits,
+                           long locationIdLeastSignificantBits,
+                           long eventIdMostSignificantBits,
+                           long eventIdLeastSignificantBits,
+                           double value,
+                           long timestamp) {
+        this.locationIdMostSignificantBits = locationIdMostSignificantBits;
+        this.locationIdLeastSignificantBits = locationIdLeastSignificantBits;
+        this.eventIdMostSignificantBits = eventIdMostSignificantBits;
+        this.eventIdLeastSignificantBits = eventIdLeastSignificantBits;
+        this.value = value;
+        this.timestamp = timestamp;
+        this.locationIndex = UNRESOLVED;
+        this.receivedAt = 0;
+        return this;
+    }
+
+    public PackedEvent copyFrom(PackedEvent other) {
+        set(
+                other.locationIdMostSignificantBits,
+                other.locationIdLeastSignificantBits,
+                other.eventIdMostSignificantBits,
+                other.eventIdLeastSignificantBits,
+                other.value,
+                other.timestamp);
+        locationIndex = other.locationIndex;
+        receivedAt = other.receivedAt;
+        return this;
+    }
+
+    public PackedEvent copyFrom(Event event) {
+        return set(
+                event.locationId.getMostSignificantBits(),
+                event.locationId.getLeastSignificantBits(),
+                event.eventId.getMostSignificantBits(),
+                event.eventId.getLeastSignificantBits(),
+                event.value,
+                event.timestamp);
+    }
+
+    public UUID getLocationId() {
+        return new UUID(locationIdMostSignificantBits, locationIdLeastSignificantBits);
+    }
+
+    public UUID getEventId() {
+        return new UUID(eventIdMostSignificantBits, eventIdLeastSignificantBits);
+    }
+
+    public Event toEvent() {
+        return new Event(getLocationId(), getEventId(), value, timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("locationId", getLocationId())
+                .add("eventId", getEventId())
+                .add("value", value)
+                .add("timestamp", timestamp)
+                .toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PackedEvent event = (PackedEvent) o;
+        return Double.compare(event.value, value) == 0 &&
+                timestamp == event.timestamp &&
+                locationIdMostSignificantBits == event.locationIdMostSignificantBits &&
+                locationIdLeastSignificantBits == event.locationIdLeastSignificantBits &&
+                eventIdMostSignificantBits == event.eventIdMostSignificantBits &&
+                eventIdLeastSignificantBits == event.eventIdLeastSignificantBits;
+    }
+
+    @Override
+    public int hashCode() {
+        long hash = LongHashing.mix(eventIdMostSignificantBits, eventIdLeastSignificantBits);
+        hash = 31 * hash + LongHashing.mix(locationIdMostSignificantBits, locationIdLeastSignificantBits);
+        hash = 31 * hash + Double.doubleToLongBits(value);
+        hash = 31 * hash + timestamp;
+        return Long.hashCode(hash);
+    }
+}
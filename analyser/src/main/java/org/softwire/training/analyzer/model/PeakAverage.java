@@ -0,0 +1,92 @@
+package org.softwire.training.analyzer.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * An average of all events, along with where they were highest: the grid cell with the highest average, given by the
+ * coordinates of its centre, and the location with the highest average.
+ */
+@SuppressWarnings("WeakerAccess")
+public class PeakAverage extends Average {
+    public final float peakCellX;
+    public final float peakCellY;
+    public final double peakCellValue;
+    public final UUID peakLocationId;
+    public final double peakLocationValue;
+
+    public PeakAverage(Instant to,
+                       Instant from,
+                       double value,
+                       long count,
+                       double min,
+                       double max,
+                       double variance,
+                       float peakCellX,
+                       float peakCellY,
+                       double peakCellValue,
+                       UUID peakLocationId,
+                       double peakLocationValue) {
+        super(to, from, value, count, min, max, variance);
+        this.peakCellX = peakCellX;
+        this.peakCellY = peakCellY;
+        this.peakCellValue = peakCellValue;
+        this.peakLocationId = peakLocationId;
+        this.peakLocationValue = peakLocationValue;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        PeakAverage average = (PeakAverage) o;
+        return Float.compare(average.peakCellX, peakCellX) == 0 &&
+                Float.compare(average.peakCellY, peakCellY) == 0 &&
+                Double.compare(average.peakCellValue, peakCellValue) == 0 &&
+                Double.compare(average.peakLocationValue, peakLocationValue) == 0 &&
+                Objects.equal(peakLocationId, average.peakLocationId);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() +
+                Objects.hashCode(peakCellX, peakCellY, peakCellValue, peakLocationId, peakLocationValue);
+    }
+
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("PeakAverage{to=").append(to)
+                .append(", from=").append(from)
+                .append(", value=").append(value)
+                .append(", count=").append(count)
+                .append(", min=").append(min)
+                .append(", max=").append(max)
+                .append(", variance=").append(variance)
+                .append(", peakCellX=").append(peakCellX)
+                .append(", peakCellY=").append(peakCellY)
+                .append(", peakCellValue=").append(peakCellValue)
+                .append(", peakLocationId=").append(peakLocationId)
+                .append(", peakLocationValue=").append(peakLocationValue)
+                .append('}');
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("to", to)
+                .add("from", from)
+                .add("value", value)
+                .add("count", count)
+                .add("min", min)
+                .add("max", max)
+                .add("variance", variance)
+                .add("peakCellX", peakCellX)
+                .add("peakCellY", peakCellY)
+                .add("peakCellValue", peakCellValue)
+                .add("peakLocationId", peakLocationId)
+                .add("peakLocationValue", peakLocationValue)
+                .toString();
+    }
+}
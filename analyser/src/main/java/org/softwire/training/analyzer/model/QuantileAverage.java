@@ -0,0 +1,77 @@
+package org.softwire.training.analyzer.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+import java.time.Instant;
+
+/**
+ * An average along with estimates of the median, 90th and 99th percentiles of the values averaged.
+ */
+@SuppressWarnings("WeakerAccess")
+public class QuantileAverage extends Average {
+    public final double p50;
+    public final double p90;
+    public final double p99;
+
+    public QuantileAverage(Instant to,
+                           Instant from,
+                           double value,
+                           long count,
+                           double min,
+                           double max,
+                           double variance,
+                           double p50,
+                           double p90,
+                           double p99) {
+        super(to, from, value, count, min, max, variance);
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        QuantileAverage average = (QuantileAverage) o;
+        return Double.compare(average.p50, p50) == 0 &&
+                Double.compare(average.p90, p90) == 0 &&
+                Double.compare(average.p99, p99) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hashCode(p50, p90, p99);
+    }
+
+    @Override
+    public StringBuilder appendTo(StringBuilder builder) {
+        return builder.append("QuantileAverage{to=").append(to)
+                .append(", from=").append(from)
+                .append(", value=").append(value)
+                .append(", count=").append(count)
+                .append(", min=").append(min)
+                .append(", max=").append(max)
+                .append(", variance=").append(variance)
+                .append(", p50=").append(p50)
+                .append(", p90=").append(p90)
+                .append(", p99=").append(p99)
+                .append('}');
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("to", to)
+                .add("from", from)
+                .add("value", value)
+                .add("count", count)
+                .add("min", min)
+                .add("max", max)
+                .add("variance", variance)
+                .add("p50", p50)
+                .add("p90", p90)
+                .add("p99", p99)
+                .toString();
+    }
+}
@@ -0,0 +1,59 @@
+package org.softwire.training.analyzer.model;
+
+import java.util.UUID;
+
+/**
+ * Parses UUIDs straight into their two halves, without creating {@link UUID} or String objects on the way.
+ * <p>
+ * Text in the canonical 8-4-4-4-12 form produced by {@link UUID#toString()} is parsed directly.  Anything else is
+ * handed to {@link UUID#fromString(String)}, so we accept exactly what it does.
+ */
+public final class Uuids {
+    private static final int CANONICAL_LENGTH = 36;
+
+    private Uuids() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a UUID
+     */
+    public static long mostSignificantBits(char[] text, int offset, int length) {
+        if (!isCanonical(text, offset, length)) {
+            return UUID.fromString(new String(text, offset, length)).getMostSignificantBits();
+        }
+        return (parseHex(text, offset, 8) << 32)
+                | (parseHex(text, offset + 9, 4) << 16)
+                | parseHex(text, offset + 14, 4);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the text is not a UUID
+     */
+    public static long leastSignificantBits(char[] text, int offset, int length) {
+        if (!isCanonical(text, offset, length)) {
+            return UUID.fromString(new String(text, offset, length)).getLeastSignificantBits();
+        }
+        return (parseHex(text, offset + 19, 4) << 48)
+                | parseHex(text, offset + 24, 12);
+    }
+
+    private static boolean isCanonical(char[] text, int offset, int length) {
+        return length == CANONICAL_LENGTH
+                && text[offset + 8] == '-'
+                && text[offset + 13] == '-'
+                && text[offset + 18] == '-'
+                && text[offset + 23] == '-';
+    }
+
+    private static long parseHex(char[] text, int offset, int digits) {
+        long result = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            int digit = Character.digit(text[i], 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid UUID: " + new String(text, offset, digits));
+            }
+            result = (result << 4) | digit;
+        }
+        return result;
+    }
+}
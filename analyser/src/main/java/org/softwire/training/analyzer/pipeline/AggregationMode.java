@@ -0,0 +1,20 @@
+package org.softwire.training.analyzer.pipeline;
+
+/**
+ * What the aggregator averages events over, within each averaging period.
+ */
+public enum AggregationMode {
+    /**
+     * A single average of every event, see {@link Aggregator}.
+     */
+    GLOBAL,
+    /**
+     * An average for each location, see {@link KeyedAggregator}.
+     */
+    PER_LOCATION,
+    /**
+     * A single average of every event, along with the grid cell and location where events were highest, see
+     * {@link SpatialAggregator}.
+     */
+    SPATIAL
+}
@@ -5,15 +5,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.softwire.training.analyzer.model.Average;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.model.QuantileAverage;
+import org.softwire.training.analyzer.stats.Accumulator;
+import org.softwire.training.analyzer.stats.BucketRing;
+import org.softwire.training.analyzer.stats.LogLinearHistogram;
+import org.softwire.training.analyzer.stats.PaneWindow;
 
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.LinkedList;
-import java.util.OptionalDouble;
-import java.util.OptionalInt;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 /**
@@ -36,8 +40,17 @@ import java.util.stream.Stream;
  * will go in bucket 10, and an event with timestamp 12:00:31:XXX would go in bucket 11.
  * <p>
  * When now reaches the end of the nth bucket, ie. 12:00:31:000, we calculate an average
- * of bucket 0, output the average, delete it from the list, and add a new bucket at the
- * tail.
+ * of bucket 0, output the average, then empty it and reuse it as the new bucket at the
+ * tail.  The buckets are a {@link BucketRing}, so finding the bucket for an event is
+ * just arithmetic, and each bucket keeps running statistics rather than the values, so
+ * takes the same space however many events it gets.
+ * <p>
+ * If config.quantiles is set, each bucket also has a {@link LogLinearHistogram}, again of fixed size, and the averages
+ * output are {@link QuantileAverage}s with estimates of the median, 90th and 99th percentiles.
+ * <p>
+ * If config.windowLength is longer than the averagingPeriod, the buckets are panes of sliding (or hopping) windows:
+ * every averagingPeriod, the average of the last windowLength is output, combined from the last few buckets by a
+ * {@link PaneWindow} in constant time, however many buckets a window covers.
  * <p>
  * This allows us to absorb messages which are as much as expiryTime in the past as much
  * as the averagingPeriod in the future.
@@ -60,20 +73,34 @@ import java.util.stream.Stream;
  * On the other hand the current implementation is more direct and possibly more
  * efficient.  We don't recommend one solution over the other.
  */
-public class Aggregator implements Pipeline<Event, Average> {
+public class Aggregator implements WindowedAggregator {
     private static final Logger LOG = LoggerFactory.getLogger(Aggregator.class);
 
     private final TypedConfig config;
+    private final LongAdder rejected;
 
-    private final LinkedList<Bucket> buckets;
+    private final BucketRing buckets;
+    // Parallel to buckets, or null if not estimating quantiles
+    private final LogLinearHistogram[] histograms;
+    // Null unless windows are longer than a bucket
+    private final PaneWindow window;
+    // The bucket index of each event in a batch, grown to fit the batches
+    private int[] batchIndices = new int[0];
 
-    // Keep track of all these to avoid recalculating for every event received.
-    private long firstBucketStart;
+    // The first few buckets only cover time before we started, so won't have received all their events.
+    private int bucketsToSuppress;
     private long lastBucketStart;
-    private long lastBucketEnd;
 
     public Aggregator(TypedConfig config, Clock clock) {
+        this(config, clock, new LongAdder());
+    }
+
+    /**
+     * @param rejected counts the events dropped for being outside the buckets
+     */
+    public Aggregator(TypedConfig config, Clock clock, LongAdder rejected) {
         this.config = config;
+        this.rejected = rejected;
 
         final long now = clock.instant().toEpochMilli();
         if (now < config.expiryTime) {
@@ -81,112 +108,231 @@ public class Aggregator implements Pipeline<Event, Average> {
             throw new IllegalStateException("clock.instant returned time to near the epoch");
         }
 
-        firstBucketStart = now - config.expiryTime;
+        buckets = new BucketRing(config.numberOfBuckets, config.averagingPeriod, now - config.expiryTime);
+        if (config.quantiles) {
+            histograms = new LogLinearHistogram[config.numberOfBuckets];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LogLinearHistogram(config.quantilePrecisionBits);
+            }
+        } else {
+            histograms = null;
+        }
+        window = config.panesPerWindow > 1 ? new PaneWindow(config.panesPerWindow) : null;
+        bucketsToSuppress = config.numberOfBuckets - 2;
         lastBucketStart = now + config.averagingPeriod;
-        lastBucketEnd = now + 2 * config.averagingPeriod;
-
-        buckets = IntStream.range(0, config.numberOfBuckets)
-                // Suppress the first n-1 buckets as they won't receive any useful data
-                .mapToObj(i -> new Bucket(
-                        i < config.numberOfBuckets - 2,
-                        firstBucketStart + i * config.averagingPeriod,
-                        firstBucketStart + (i + 1) * config.averagingPeriod
-                ))
-                .collect(Collectors.toCollection(LinkedList::new));
     }
 
     @Override
     public Stream<Average> handle(Instant now, Event event) {
-        Stream<Average> result = expireBuckets(now);
-        getBucketOffset(event.timestamp)
-                .ifPresent(offset -> buckets.get(offset).add(event.value));
-        return result;
+        Stream.Builder<Average> result = Stream.builder();
+        expireBuckets(now, result);
+        add(event.timestamp, event.value);
+        return result.build();
     }
 
-    private Stream<Average> expireBuckets(Instant now) {
-        long nowMillis = now.toEpochMilli();
-
-        Stream<Average> result = Stream.empty();
-        while (nowMillis >= lastBucketStart) {
-            result = Stream.concat(result, buckets.removeFirst().average());
-
-            firstBucketStart += config.averagingPeriod;
-            lastBucketStart += config.averagingPeriod;
-            lastBucketEnd += config.averagingPeriod;
+    @Override
+    public void handle(Instant now, PackedEvent event, Consumer<Average> output) {
+        expireBuckets(now, output);
+        add(event.timestamp, event.value);
+    }
 
-            buckets.addLast(new Bucket(false, lastBucketStart, lastBucketEnd));
+    /**
+     * Finds the buckets for the whole batch in one loop, then adds the values to them in another.
+     */
+    @Override
+    public void handle(Instant now, EventBatch batch, Consumer<Average> output) {
+        expireBuckets(now, output);
+        int selected = batch.getSelected();
+        int[] selection = batch.selection;
+        long[] timestamps = batch.timestamps;
+        double[] values = batch.values;
+        if (batchIndices.length < selected) {
+            batchIndices = new int[batch.getCapacity()];
         }
+        int[] indices = batchIndices;
 
-        return result;
+        for (int i = 0; i < selected; i++) {
+            indices[i] = buckets.indexFor(timestamps[selection[i]]);
+        }
+        for (int i = 0; i < selected; i++) {
+            int index = indices[i];
+            if (index < 0) {
+                rejected.increment();
+                LOG.warn("Rejecting event, timestamp out of range: {}", timestamps[selection[i]]);
+                continue;
+            }
+            double value = values[selection[i]];
+            buckets.get(index).add(value);
+            if (histograms != null) {
+                histograms[index].add(value);
+            }
+        }
     }
 
-    private OptionalInt getBucketOffset(long time) {
-        if (time < firstBucketStart || time >= lastBucketEnd) {
-            LOG.warn("Rejecting event, timestamp out of range: {}", time);
-            return OptionalInt.empty();
+    private void add(long timestamp, double value) {
+        int index = buckets.indexFor(timestamp);
+        if (index < 0) {
+            rejected.increment();
+            LOG.warn("Rejecting event, timestamp out of range: {}", timestamp);
+            return;
         }
+        buckets.get(index).add(value);
+        if (histograms != null) {
+            histograms[index].add(value);
+        }
+    }
 
-        int bucketOffset = (int) Math.floor((time - firstBucketStart) / config.averagingPeriod);
-        assert bucketOffset >= 0 : bucketOffset;
-        assert bucketOffset < config.numberOfBuckets : bucketOffset;
-
-        return OptionalInt.of(bucketOffset);
+    @Override
+    public void expire(Instant now, Consumer<Average> output) {
+        expireBuckets(now, output);
     }
 
-    static class Bucket {
-        private final LinkedList<Double> values = new LinkedList<>();
-        private final boolean suppressOutput;
-        private final long from;
-        private final long to;
+    private void expireBuckets(Instant now, Consumer<Average> output) {
+        long nowMillis = now.toEpochMilli();
 
-        Bucket(boolean suppressOutput, long from, long to) {
-            this.suppressOutput = suppressOutput;
-            this.to = to;
-            this.from = from;
+        while (nowMillis >= lastBucketStart) {
+            Accumulator bucket = buckets.getFirst();
+            if (bucketsToSuppress > 0) {
+                bucketsToSuppress--;
+            } else if (window != null) {
+                window.push(bucket);
+                if (window.isFull() && window.getCount() > 0) {
+                    output.accept(windowAverage());
+                }
+            } else if (bucket.getCount() > 0) {
+                output.accept(average(bucket));
+            }
+            if (histograms != null) {
+                histograms[buckets.getFirstIndex()].reset();
+            }
+            buckets.advance();
+            lastBucketStart += config.averagingPeriod;
         }
+    }
 
-        void add(double value) {
-            values.add(value);
+    private Average average(Accumulator bucket) {
+        long from = buckets.getFirstStart();
+        if (histograms != null) {
+            LogLinearHistogram histogram = histograms[buckets.getFirstIndex()];
+            return new QuantileAverage(
+                    Instant.ofEpochMilli(from + config.averagingPeriod),
+                    Instant.ofEpochMilli(from),
+                    bucket.getMean(),
+                    bucket.getCount(),
+                    bucket.getMin(),
+                    bucket.getMax(),
+                    bucket.getVariance(),
+                    histogram.getValueAtQuantile(0.5),
+                    histogram.getValueAtQuantile(0.9),
+                    histogram.getValueAtQuantile(0.99));
         }
+        return new Average(
+                Instant.ofEpochMilli(from + config.averagingPeriod),
+                Instant.ofEpochMilli(from),
+                bucket.getMean(),
+                bucket.getCount(),
+                bucket.getMin(),
+                bucket.getMax(),
+                bucket.getVariance());
+    }
 
-        Stream<Average> average() {
-            OptionalDouble average = values.stream().mapToDouble(i -> i).average();
-            // OptionalDouble doesn't have a map method!
-            if (average.isPresent() && !suppressOutput) {
-                return Stream.of(new Average(
-                        Instant.ofEpochMilli(from),
-                        Instant.ofEpochMilli(to),
-                        average.getAsDouble()));
-            }
-            return Stream.empty();
-        }
+    private Average windowAverage() {
+        long to = buckets.getFirstStart() + config.averagingPeriod;
+        return new Average(
+                Instant.ofEpochMilli(to),
+                Instant.ofEpochMilli(to - config.windowLength),
+                window.getMean(),
+                window.getCount(),
+                window.getMin(),
+                window.getMax(),
+                window.getVariance());
     }
 
     public static class TypedConfig {
+        public final AggregationMode mode;
         final long averagingPeriod;
         final long expiryTime;
+        // GLOBAL only, the length of time each average covers, a multiple of averagingPeriod
+        final long windowLength;
+        final int panesPerWindow;
+        // SPATIAL only, the number of cells along each side of the grid
+        final int gridSize;
+        // GLOBAL only, whether to estimate quantiles, and to what precision, see LogLinearHistogram
+        final boolean quantiles;
+        final int quantilePrecisionBits;
 
         final int numberOfBuckets;
 
         public TypedConfig(Duration averagingPeriod, Duration expiryTime) {
-            if (averagingPeriod.getNano() != 0 || expiryTime.getNano() != 0) {
-                throw new IllegalArgumentException("averagingPeriod and expiryTime must be a whole number of milliseconds");
+            this(AggregationMode.GLOBAL, averagingPeriod, expiryTime);
+        }
+
+        public TypedConfig(AggregationMode mode, Duration averagingPeriod, Duration expiryTime) {
+            this(mode, averagingPeriod, expiryTime, averagingPeriod, 10, false, 6);
+        }
+
+        public TypedConfig(AggregationMode mode,
+                           Duration averagingPeriod,
+                           Duration expiryTime,
+                           Duration windowLength,
+                           int gridSize,
+                           boolean quantiles,
+                           int quantilePrecisionBits) {
+            if (averagingPeriod.getNano() != 0 || expiryTime.getNano() != 0 || windowLength.getNano() != 0) {
+                throw new IllegalArgumentException(
+                        "averagingPeriod, expiryTime and windowLength must be a whole number of milliseconds");
             }
 
             if (expiryTime.toMillis() % averagingPeriod.toMillis() != 0) {
                 throw new IllegalArgumentException("Aggregator averagingPeriod must divide evenly into expiryTime");
             }
 
+            if (windowLength.toMillis() <= 0 || windowLength.toMillis() % averagingPeriod.toMillis() != 0) {
+                throw new IllegalArgumentException("Aggregator windowLength must be a multiple of averagingPeriod");
+            }
+
+            if (!windowLength.equals(averagingPeriod) && (mode != AggregationMode.GLOBAL || quantiles)) {
+                throw new IllegalArgumentException(
+                        "Aggregator windowLength can only differ from averagingPeriod in GLOBAL mode without quantiles");
+            }
+
+            if (gridSize < 1) {
+                throw new IllegalArgumentException("Aggregator gridSize must be at least 1");
+            }
+
+            this.mode = mode;
             this.averagingPeriod = averagingPeriod.toMillis();
             this.expiryTime = expiryTime.toMillis();
+            this.windowLength = windowLength.toMillis();
+            panesPerWindow = (int) (this.windowLength / this.averagingPeriod);
+            this.gridSize = gridSize;
+            this.quantiles = quantiles;
+            this.quantilePrecisionBits = quantilePrecisionBits;
 
             numberOfBuckets = (int) (this.expiryTime / this.averagingPeriod) + 2;
         }
 
+        public Duration getAveragingPeriod() {
+            return Duration.ofMillis(averagingPeriod);
+        }
+
+        /**
+         * Once this long has passed since an event's timestamp, any average it could contribute to has been output,
+         * and the event would be rejected as too old if it arrived again.
+         */
+        public Duration getCompletionDelay() {
+            return Duration.ofMillis(expiryTime + averagingPeriod);
+        }
+
         static public TypedConfig fromUntypedConfig(Config config) {
             return new TypedConfig(
+                    config.getEnum(AggregationMode.class, "mode"),
                     config.getDuration("averagingPeriod"),
-                    config.getDuration("expiryTime"));
+                    config.getDuration("expiryTime"),
+                    config.getDuration("windowLength"),
+                    config.getInt("gridSize"),
+                    config.getBoolean("quantiles"),
+                    config.getInt("quantilePrecisionBits"));
         }
     }
 }
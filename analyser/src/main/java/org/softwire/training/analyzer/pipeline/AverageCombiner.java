@@ -0,0 +1,114 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.LocationAverage;
+import org.softwire.training.analyzer.stats.Accumulator;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Combines the averages output by several aggregators, each of which has seen a disjoint share of the events, into
+ * the averages a single aggregator would have output, in window order.
+ * <p>
+ * Each share's average of all events in a window is merged into one with {@link Accumulator#merge}, while averages of
+ * a single location are passed on as they are, as each location's events all went to the same aggregator.
+ * <p>
+ * An aggregator with nothing in a window outputs nothing for it, so the combiner can't count its way to a complete
+ * window.  Instead it is told the time every aggregator has expired its buckets up to: the aggregators all close a
+ * window at the same time, so once they have all got as far as the time the first part of a window arrived at, that
+ * window is complete.
+ * <p>
+ * Not thread safe.
+ */
+public class AverageCombiner {
+    // Keyed by the end of the window
+    private final TreeMap<Long, Window> pending = new TreeMap<>();
+
+    /**
+     * Check that the averages of an aggregator configured so can be combined: peaks and quantiles can't be.
+     */
+    public static void checkCombinable(Aggregator.TypedConfig config) {
+        if (config.mode == AggregationMode.SPATIAL || config.quantiles) {
+            throw new IllegalArgumentException("SPATIAL averages and quantiles can't be combined across shards");
+        }
+    }
+
+    /**
+     * @param outputAt the time the aggregator which output the average had expired its buckets up to
+     */
+    public void add(long outputAt, Average average) {
+        long to = average.to.toEpochMilli();
+        Window window = pending.get(to);
+        if (window == null) {
+            window = new Window(average.from, average.to);
+            pending.put(to, window);
+        }
+        window.add(outputAt, average);
+    }
+
+    /**
+     * Pass on the windows which are now complete, in order.
+     *
+     * @param expiredUpTo the time every aggregator has expired its buckets up to
+     */
+    public void complete(long expiredUpTo, Consumer<Average> output) {
+        Iterator<Map.Entry<Long, Window>> windows = pending.entrySet().iterator();
+        while (windows.hasNext()) {
+            Window window = windows.next().getValue();
+            if (window.firstOutputAt > expiredUpTo) {
+                break;
+            }
+            window.output(output);
+            windows.remove();
+        }
+    }
+
+    /**
+     * The number of windows still waiting for some aggregators.
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    private static class Window {
+        final Instant from;
+        final Instant to;
+        final Accumulator total = new Accumulator();
+        final List<LocationAverage> locations = new ArrayList<>();
+        long firstOutputAt = Long.MAX_VALUE;
+
+        Window(Instant from, Instant to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        void add(long outputAt, Average average) {
+            firstOutputAt = Math.min(firstOutputAt, outputAt);
+            if (average instanceof LocationAverage) {
+                locations.add((LocationAverage) average);
+            } else {
+                total.merge(average.count, average.value, average.min, average.max, average.variance);
+            }
+        }
+
+        void output(Consumer<Average> output) {
+            if (total.getCount() > 0) {
+                output.accept(new Average(
+                        to,
+                        from,
+                        total.getMean(),
+                        total.getCount(),
+                        total.getMin(),
+                        total.getMax(),
+                        total.getVariance()));
+            }
+            locations.forEach(output);
+        }
+    }
+}
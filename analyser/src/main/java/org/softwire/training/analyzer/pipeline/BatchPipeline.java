@@ -0,0 +1,110 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.metrics.LatencyHistogram;
+import org.softwire.training.analyzer.metrics.Metrics;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The same stages as {@link PackedPipeline}, but each handles a whole {@link EventBatch} at a time, dropping events by
+ * removing them from the batch's selection, rather than the whole pipeline being run for each event in turn.
+ * <p>
+ * Every event in a batch is handled at the same time, now, and the watermark sees the timestamps of all of a batch's
+ * events which pass the location filter and deduplicator before any of them are aggregated.
+ * <p>
+ * Unless metrics.getStageSampleInterval() is 0, every batch is timed through each stage, as reading the clock a few
+ * times costs little next to a batch.  The time taken is recorded to the metrics' histograms divided by the events the
+ * stage handled, so that they show the time per event, as in {@link PackedPipeline}.
+ */
+public class BatchPipeline {
+    private final Watermark watermark;
+    private final StatsCompiler statsCompiler;
+    private final LocationFilter locationFilter;
+    private final Deduplicator deduplicator;
+    private final Probe probe;
+    private final WindowedAggregator aggregator;
+    private final Metrics metrics;
+
+    // Only needed to show events to the probe one at a time
+    private final PackedEvent scratch = new PackedEvent();
+
+    public BatchPipeline(Watermark watermark,
+                         StatsCompiler statsCompiler,
+                         LocationFilter locationFilter,
+                         Deduplicator deduplicator,
+                         Probe probe,
+                         WindowedAggregator aggregator) {
+        this(watermark, statsCompiler, locationFilter, deduplicator, probe, aggregator, new Metrics());
+    }
+
+    public BatchPipeline(Watermark watermark,
+                         StatsCompiler statsCompiler,
+                         LocationFilter locationFilter,
+                         Deduplicator deduplicator,
+                         Probe probe,
+                         WindowedAggregator aggregator,
+                         Metrics metrics) {
+        this.watermark = watermark;
+        this.statsCompiler = statsCompiler;
+        this.locationFilter = locationFilter;
+        this.deduplicator = deduplicator;
+        this.probe = probe;
+        this.aggregator = aggregator;
+        this.metrics = metrics;
+    }
+
+    public void handle(Instant now, EventBatch batch, Consumer<Average> output) {
+        statsCompiler.count(batch.getSize());
+        if (metrics.getStageSampleInterval() > 0) {
+            handleTimed(now, batch, output);
+            return;
+        }
+        locationFilter.filter(batch);
+        deduplicator.filter(now, batch);
+        observe(now, batch);
+        aggregator.handle(now, batch, output);
+    }
+
+    private void handleTimed(Instant now, EventBatch batch, Consumer<Average> output) {
+        int size = batch.getSelected();
+        long start = System.nanoTime();
+        locationFilter.filter(batch);
+        long filtered = System.nanoTime();
+        recordPerEvent(metrics.locationFilter, filtered - start, size);
+
+        int known = batch.getSelected();
+        deduplicator.filter(now, batch);
+        long deduplicated = System.nanoTime();
+        recordPerEvent(metrics.deduplicator, deduplicated - filtered, known);
+
+        observe(now, batch);
+        int selected = batch.getSelected();
+        long aggregating = System.nanoTime();
+        aggregator.handle(now, batch, output);
+        recordPerEvent(metrics.aggregator, System.nanoTime() - aggregating, selected);
+    }
+
+    private void observe(Instant now, EventBatch batch) {
+        if (watermark != Watermark.NONE) {
+            long[] timestamps = batch.timestamps;
+            for (int i = 0; i < batch.getSelected(); i++) {
+                watermark.observe(timestamps[batch.selection[i]]);
+            }
+        }
+        if (probe != Probe.NONE) {
+            for (int i = 0; i < batch.getSelected(); i++) {
+                probe.observe(now, batch.copyTo(batch.selection[i], scratch));
+            }
+        }
+    }
+
+    private static void recordPerEvent(LatencyHistogram histogram, long nanos, int events) {
+        if (events > 0) {
+            histogram.record(nanos / events);
+        }
+    }
+}
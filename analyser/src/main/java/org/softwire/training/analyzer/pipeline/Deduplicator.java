@@ -1,86 +1,163 @@
 package org.softwire.training.analyzer.pipeline;
 
-import com.google.common.base.MoreObjects;
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.collections.ExpiringLongPairSet;
+import org.softwire.training.analyzer.collections.GenerationalLongPairSet;
+import org.softwire.training.analyzer.collections.RotatingBloomFilter;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 /**
  * It would be possible to write this using, for example, one of Guava's expiring caches rather than writing our own.
+ * <p>
+ * Ids are held as pairs of longs in a {@link GenerationalLongPairSet}, so that nothing is allocated per event once the
+ * tables have grown to fit the number of events seen in cacheTimeToLive, and expired ids are dropped a whole slice of
+ * time at once.  The set never takes more than config.maxMemory; if that isn't enough, config.overflowPolicy decides
+ * which ids to stop remembering.
+ * <p>
+ * For time to live too long for that, {@link Mode#PROBABILISTIC} holds ids in a {@link RotatingBloomFilter} of exactly
+ * config.maxMemory instead, at the cost of dropping a fraction (about config.falsePositiveRate) of new events as
+ * duplicates.
  */
 public class Deduplicator implements Pipeline<Event, Event> {
     private static final Logger LOG = LoggerFactory.getLogger(Deduplicator.class);
 
-    private final Set<UUID> idCache = new HashSet<>();
-    private final Queue<ExpiryRecord> expiryRecords = new LinkedList<>();
-
-    private final Duration expiryTime;
+    private final ExpiringLongPairSet idCache;
+    private final LongAdder duplicates;
 
     public Deduplicator(TypedConfig config) {
-        this.expiryTime = config.expiryTime;
+        this(config, new LongAdder());
+    }
+
+    /**
+     * @param duplicates counts the events dropped
+     */
+    public Deduplicator(TypedConfig config, LongAdder duplicates) {
+        this.duplicates = duplicates;
+        if (config.mode == Mode.PROBABILISTIC) {
+            idCache = new RotatingBloomFilter(
+                    config.expiryTime.toMillis(),
+                    config.generations,
+                    config.maxMemory,
+                    config.falsePositiveRate);
+        } else {
+            idCache = new GenerationalLongPairSet(
+                    config.expiryTime.toMillis(),
+                    config.generations,
+                    config.maxMemory / GenerationalLongPairSet.BYTES_PER_SLOT,
+                    config.overflowPolicy);
+        }
+        LOG.info("Deduplicating with {}", idCache);
     }
 
     @Override
     public Stream<Event> handle(Instant now, Event event) {
         UUID id = event.eventId;
-        Stream<Event> result;
+        if (accept(now, id.getMostSignificantBits(), id.getLeastSignificantBits())) {
+            return Stream.of(event);
+        }
+        return Stream.empty();
+    }
+
+    /**
+     * @return false if an event with the same id has been seen in the last config.expiryTime
+     */
+    public boolean accept(Instant now, PackedEvent event) {
+        return accept(now, event.eventIdMostSignificantBits, event.eventIdLeastSignificantBits);
+    }
 
-        while (!expiryRecords.isEmpty() && now.isAfter(expiryRecords.peek().expiry)) {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Expiring record: {} (Cache size: {})", expiryRecords.peek(), idCache.size());
+    /**
+     * Remove the events seen in the last config.expiryTime from the batch's selection, including repeats within the
+     * batch.
+     */
+    public void filter(Instant now, EventBatch batch) {
+        long[] mostSignificantBits = batch.eventIdMostSignificantBits;
+        long[] leastSignificantBits = batch.eventIdLeastSignificantBits;
+        int[] selection = batch.selection;
+        int selected = batch.getSelected();
+        int kept = 0;
+        for (int i = 0; i < selected; i++) {
+            int row = selection[i];
+            if (accept(now, mostSignificantBits[row], leastSignificantBits[row])) {
+                selection[kept++] = row;
             }
-            idCache.remove(expiryRecords.remove().uuid);
         }
+        batch.setSelected(kept);
+    }
 
-        if (idCache.contains(id)) {
-            LOG.info("Found duplicate id: {}", id);
-            result = Stream.empty();
-        } else {
-            result = Stream.of(event);
-            idCache.add(id);
-            expiryRecords.add(new ExpiryRecord(id, now.plus(expiryTime)));
+    private boolean accept(Instant now, long mostSignificantBits, long leastSignificantBits) {
+        if (!idCache.add(now.toEpochMilli(), mostSignificantBits, leastSignificantBits)) {
+            duplicates.increment();
+            LOG.info("Found duplicate id: {}", new UUID(mostSignificantBits, leastSignificantBits));
+            return false;
         }
-
-        return result;
+        return true;
     }
 
-    private static class ExpiryRecord {
-        final UUID uuid;
-        final Instant expiry;
-
-        ExpiryRecord(UUID uuid, Instant expiry) {
-            this.uuid = uuid;
-            this.expiry = expiry;
-        }
+    public void dumpStats() {
+        // For PROBABILISTIC mode this includes the estimated rate of new events wrongly dropped as duplicates
+        LOG.info("Deduplicator: {}", idCache);
+    }
 
-        @Override
-        public String toString() {
-            return MoreObjects.toStringHelper(this)
-                    .add("uuid", uuid)
-                    .add("expiry", expiry)
-                    .toString();
-        }
+    public enum Mode {
+        EXACT,
+        PROBABILISTIC
     }
 
     public static class TypedConfig {
+        private static final int DEFAULT_GENERATIONS = 4;
+        private static final long DEFAULT_MAX_MEMORY = 256L << 20;
+
         final Duration expiryTime;
+        final Mode mode;
+        final int generations;
+        final long maxMemory;
+        final GenerationalLongPairSet.OverflowPolicy overflowPolicy;
+        final double falsePositiveRate;
 
         public TypedConfig(Duration expiryTime) {
+            this(expiryTime, Mode.EXACT, DEFAULT_GENERATIONS, DEFAULT_MAX_MEMORY,
+                    GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST, 0.001);
+        }
+
+        public TypedConfig(Duration expiryTime,
+                           Mode mode,
+                           int generations,
+                           long maxMemory,
+                           GenerationalLongPairSet.OverflowPolicy overflowPolicy,
+                           double falsePositiveRate) {
             this.expiryTime = expiryTime;
+            this.mode = mode;
+            this.generations = generations;
+            this.maxMemory = maxMemory;
+            this.overflowPolicy = overflowPolicy;
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        /**
+         * The same settings for one of several deduplicators sharing the memory between them.
+         */
+        public TypedConfig perShard(int shards) {
+            return new TypedConfig(expiryTime, mode, generations, maxMemory / shards, overflowPolicy, falsePositiveRate);
         }
 
         public static TypedConfig fromUntypedConfig(Config config) {
-            return new TypedConfig(config.getDuration("cacheTimeToLive"));
+            return new TypedConfig(
+                    config.getDuration("cacheTimeToLive"),
+                    config.getEnum(Mode.class, "mode"),
+                    config.getInt("generations"),
+                    config.getBytes("maxMemory"),
+                    config.getEnum(GenerationalLongPairSet.OverflowPolicy.class, "overflowPolicy"),
+                    config.getDouble("falsePositiveRate"));
         }
     }
 }
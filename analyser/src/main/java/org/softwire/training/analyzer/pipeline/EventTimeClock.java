@@ -0,0 +1,136 @@
+package org.softwire.training.analyzer.pipeline;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A clock which tells event time rather than wall clock time: its time is a watermark, the latest event timestamp
+ * observed less allowedLateness, which never goes backwards.  Passed to the event loop and {@link Aggregator} in place
+ * of the wall clock, it closes buckets and expires ids as the events move on rather than as real time does, so the
+ * averages output only depend on the events and the order they arrive in.
+ * <p>
+ * Only events which pass the location filter and deduplicator are observed, see {@link Watermark}, and no event moves
+ * the watermark more than maxLead past the wall clock, so that one event from a sensor whose clock is ahead can't
+ * close every bucket early, have genuine events rejected as late, and end the run early.
+ * <p>
+ * The event loop reads the time before passing each event to the pipeline, so each event is handled at the watermark
+ * of the events before it.  Once an event has been seen, events are accepted from as much as the aggregator's
+ * expiryTime before the watermark, so allowedLateness only needs to cover events arriving out of order between
+ * averagingPeriods, and mustn't be longer than the averagingPeriod.
+ * <p>
+ * So that the application still stops, and the last averages are output, when events stop arriving, once no events
+ * have been observed for idleTimeout of wall clock time, the watermark moves on with the wall clock.
+ * <p>
+ * Events may be observed on several threads, eg. by each shard of the SHARDED mode, and the time read from others.
+ */
+public class EventTimeClock extends Clock implements Watermark {
+    private final Clock wallClock;
+    private final long allowedLateness;
+    private final long maxLead;
+    private final long idleTimeout;
+
+    private final AtomicLong watermark;
+    private volatile long lastObservedWallMillis;
+
+    /**
+     * @param start the time to tell until events move the watermark past it
+     * @param maxLead how far past the wall clock an event can move the watermark, usually the aggregator's
+     *                averagingPeriod, as it rejects any events further ahead
+     * @param idleTimeout zero to never move on without events
+     */
+    public EventTimeClock(Clock wallClock,
+                          Instant start,
+                          Duration allowedLateness,
+                          Duration maxLead,
+                          Duration idleTimeout) {
+        this.wallClock = wallClock;
+        this.allowedLateness = allowedLateness.toMillis();
+        this.maxLead = maxLead.toMillis();
+        this.idleTimeout = idleTimeout.toMillis();
+        watermark = new AtomicLong(start.toEpochMilli());
+        lastObservedWallMillis = wallClock.millis();
+    }
+
+    @Override
+    public void observe(long timestamp) {
+        long candidate = timestamp - allowedLateness;
+        // Only pay for an atomic update, and reading the wall clock, when the watermark moves
+        if (candidate > watermark.get()) {
+            watermark.accumulateAndGet(Math.min(candidate, wallClock.millis() + maxLead), Math::max);
+        }
+        if (idleTimeout > 0) {
+            lastObservedWallMillis = wallClock.millis();
+        }
+    }
+
+    @Override
+    public long millis() {
+        if (idleTimeout > 0 && wallClock.millis() - lastObservedWallMillis > idleTimeout) {
+            advanceWhileIdle();
+        }
+        return watermark.get();
+    }
+
+    private synchronized void advanceWhileIdle() {
+        long idle = wallClock.millis() - lastObservedWallMillis - idleTimeout;
+        if (idle > 0) {
+            watermark.addAndGet(idle);
+            lastObservedWallMillis += idle;
+        }
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return ZoneOffset.UTC;
+    }
+
+    /**
+     * This clock if zone is UTC, otherwise a view of it in zone, telling the same time.
+     */
+    @Override
+    public Clock withZone(ZoneId zone) {
+        if (zone.normalized().equals(ZoneOffset.UTC)) {
+            return this;
+        }
+        return new Zoned(this, zone);
+    }
+
+    private static class Zoned extends Clock {
+        private final EventTimeClock clock;
+        private final ZoneId zone;
+
+        Zoned(EventTimeClock clock, ZoneId zone) {
+            this.clock = clock;
+            this.zone = zone;
+        }
+
+        @Override
+        public long millis() {
+            return clock.millis();
+        }
+
+        @Override
+        public Instant instant() {
+            return clock.instant();
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return zone;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return clock.withZone(zone);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.LocationAverage;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.stats.AccumulatorArray;
+import org.softwire.training.analyzer.stats.BucketRing;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Like {@link Aggregator}, with the same buckets of time, but keeps a separate average for each location and outputs
+ * a {@link LocationAverage} for every location which had any events in a bucket.
+ * <p>
+ * Locations are numbered densely from 0 by a {@link LocationDictionary}, usually as the events are decoded, and the
+ * statistics for every (bucket, location) pair are held in one {@link AccumulatorArray}, bucket by bucket in the order
+ * of a {@link BucketRing}'s indices, so the memory used is fixed at startup to 48 bytes per location per bucket, and
+ * expiring a bucket resets one contiguous run of it.
+ * <p>
+ * Events from locations which weren't known at startup are dropped.
+ */
+public class KeyedAggregator implements WindowedAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(KeyedAggregator.class);
+
+    private final Aggregator.TypedConfig config;
+    private final LongAdder rejected;
+    private final LocationDictionary locations;
+    private final UUID[] locationIds;
+    // Only for finding buckets, the statistics are all in accumulators
+    private final BucketRing buckets;
+    private final AccumulatorArray accumulators;
+
+    private long lastBucketStart;
+    private int bucketsToSuppress;
+
+    public KeyedAggregator(Aggregator.TypedConfig config, List<Location> locations, Clock clock) {
+        this(config, new LocationDictionary(locations), clock);
+    }
+
+    /**
+     * Aggregates the locations in the dictionary so far.
+     */
+    public KeyedAggregator(Aggregator.TypedConfig config, LocationDictionary locations, Clock clock) {
+        this(config, locations, clock, new LongAdder());
+    }
+
+    /**
+     * @param rejected counts the events dropped for being outside the buckets
+     */
+    public KeyedAggregator(Aggregator.TypedConfig config,
+                           LocationDictionary locations,
+                           Clock clock,
+                           LongAdder rejected) {
+        this.config = config;
+        this.rejected = rejected;
+
+        final long now = clock.instant().toEpochMilli();
+        if (now < config.expiryTime) {
+            throw new IllegalStateException("clock.instant returned time to near the epoch");
+        }
+        if ((long) locations.size() * config.numberOfBuckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many locations to aggregate separately: " + locations.size());
+        }
+
+        this.locations = locations;
+        locationIds = locations.getLocations().stream().map(location -> location.id).toArray(UUID[]::new);
+        accumulators = new AccumulatorArray(locationIds.length * config.numberOfBuckets);
+        LOG.info("Aggregating {} locations separately in {} buckets", locationIds.length, config.numberOfBuckets);
+
+        buckets = new BucketRing(config.numberOfBuckets, config.averagingPeriod, now - config.expiryTime);
+        lastBucketStart = now + config.averagingPeriod;
+        bucketsToSuppress = config.numberOfBuckets - 2;
+    }
+
+    @Override
+    public Stream<Average> handle(Instant now, Event event) {
+        Stream.Builder<Average> result = Stream.builder();
+        expireBuckets(now, result);
+        add(locations.indexOf(event.locationId.getMostSignificantBits(), event.locationId.getLeastSignificantBits()),
+                event.timestamp, event.value);
+        return result.build();
+    }
+
+    @Override
+    public void handle(Instant now, PackedEvent event, Consumer<Average> output) {
+        expireBuckets(now, output);
+        add(locations.indexOf(event), event.timestamp, event.value);
+    }
+
+    private void add(int location, long timestamp, double value) {
+        if (location < 0 || location >= locationIds.length) {
+            LOG.debug("Rejecting event, unknown location index: {}", location);
+            return;
+        }
+        int bucket = buckets.indexFor(timestamp);
+        if (bucket < 0) {
+            rejected.increment();
+            LOG.warn("Rejecting event, timestamp out of range: {}", timestamp);
+            return;
+        }
+        accumulators.add(bucket * locationIds.length + location, value);
+    }
+
+    @Override
+    public void expire(Instant now, Consumer<Average> output) {
+        expireBuckets(now, output);
+    }
+
+    private void expireBuckets(Instant now, Consumer<Average> output) {
+        long nowMillis = now.toEpochMilli();
+
+        while (nowMillis >= lastBucketStart) {
+            int from = buckets.getFirstIndex() * locationIds.length;
+            if (bucketsToSuppress > 0) {
+                bucketsToSuppress--;
+            } else {
+                output(from, output);
+            }
+            accumulators.reset(from, from + locationIds.length);
+
+            buckets.advance();
+            lastBucketStart += config.averagingPeriod;
+        }
+    }
+
+    private void output(int from, Consumer<Average> output) {
+        Instant bucketFrom = Instant.ofEpochMilli(buckets.getFirstStart());
+        Instant bucketTo = Instant.ofEpochMilli(buckets.getFirstStart() + config.averagingPeriod);
+        for (int location = 0; location < locationIds.length; location++) {
+            int index = from + location;
+            if (accumulators.getCount(index) > 0) {
+                output.accept(new LocationAverage(
+                        locationIds[location],
+                        bucketTo,
+                        bucketFrom,
+                        accumulators.getMean(index),
+                        accumulators.getCount(index),
+                        accumulators.getMin(index),
+                        accumulators.getMax(index),
+                        accumulators.getVariance(index)));
+            }
+        }
+    }
+}
@@ -3,36 +3,121 @@ package org.softwire.training.analyzer.pipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.softwire.training.analyzer.model.Location;
-import org.softwire.training.analyzer.services.LocationService;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
 
-import java.io.IOException;
 import java.time.Instant;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
+/**
+ * Drops events from locations which aren't known.
+ * <p>
+ * Locations are numbered by a {@link LocationDictionary}, usually as the events are decoded, so checking an event is
+ * just a lookup in an array of which location indexes are known.  Events whose location wasn't looked up when decoded
+ * are looked up here.
+ * <p>
+ * The known locations can be replaced while events are being filtered on other threads: a new array is built and then
+ * swapped in with a single volatile write, so events are checked against either the old locations or the new ones,
+ * and checking an event takes no lock.
+ */
 public class LocationFilter implements Pipeline<Event,Event> {
     private static final Logger LOG = LoggerFactory.getLogger(LocationFilter.class);
 
-    private final HashSet<UUID> locations;
+    private final LocationDictionary dictionary;
+    private final LongAdder dropped;
+    // Indexed by location index, never changed once published, only replaced
+    private volatile boolean[] known;
 
     public LocationFilter(List<Location> locations) {
-        this.locations = locations
-                .stream()
-                .map(location -> location.id)
-                .collect(Collectors.toCollection(HashSet::new));
+        this(new LocationDictionary(locations));
+    }
+
+    /**
+     * Accepts all the locations in the dictionary.
+     */
+    public LocationFilter(LocationDictionary dictionary) {
+        this(dictionary, new LongAdder());
+    }
+
+    /**
+     * @param dropped counts the events dropped
+     */
+    public LocationFilter(LocationDictionary dictionary, LongAdder dropped) {
+        this.dictionary = dictionary;
+        this.dropped = dropped;
+        this.known = toKnown(dictionary, dictionary.getLocations());
+    }
+
+    /**
+     * Replace the known locations, adding any new ones to the dictionary.
+     */
+    public void update(List<Location> locations) {
+        dictionary.addAll(locations);
+        this.known = toKnown(dictionary, locations);
+        LOG.info("Now accepting events from {} locations", locations.size());
+    }
+
+    private static boolean[] toKnown(LocationDictionary dictionary, List<Location> locations) {
+        boolean[] known = new boolean[dictionary.size()];
+        for (Location location : locations) {
+            UUID id = location.id;
+            known[dictionary.indexOf(id.getMostSignificantBits(), id.getLeastSignificantBits())] = true;
+        }
+        return known;
     }
 
     @Override
     public Stream<Event> handle(Instant now, Event event) {
-        if (locations.contains(event.locationId)) {
+        UUID locationId = event.locationId;
+        int index = dictionary.indexOf(locationId.getMostSignificantBits(), locationId.getLeastSignificantBits());
+        if (isKnown(known, index)) {
             return Stream.of(event);
         }
+        dropped.increment();
         LOG.debug("Dropping event with unknown location ID: {}", event);
         return Stream.empty();
     }
+
+    public boolean accept(PackedEvent event) {
+        if (isKnown(known, dictionary.indexOf(event))) {
+            return true;
+        }
+        dropped.increment();
+        LOG.debug("Dropping event with unknown location ID: {}", event);
+        return false;
+    }
+
+    /**
+     * Remove the events from unknown locations from the batch's selection.
+     */
+    public void filter(EventBatch batch) {
+        int[] selection = batch.selection;
+        int selected = batch.getSelected();
+        // The whole batch is checked against the same locations
+        boolean[] known = this.known;
+        int kept = 0;
+        for (int i = 0; i < selected; i++) {
+            int row = selection[i];
+            if (isKnown(known, dictionary.indexOf(batch, row))) {
+                selection[kept++] = row;
+            } else {
+                LOG.debug("Dropping event with unknown location ID: {}",
+                        new UUID(batch.locationIdMostSignificantBits[row], batch.locationIdLeastSignificantBits[row]));
+            }
+        }
+        dropped.add(selected - kept);
+        batch.setSelected(kept);
+    }
+
+    /**
+     * Also false for {@link LocationDictionary#UNKNOWN}, and for locations added to the dictionary since known was.
+     */
+    private static boolean isKnown(boolean[] known, int index) {
+        return index >= 0 && index < known.length && known[index];
+    }
 }
@@ -0,0 +1,114 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.metrics.Metrics;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The same stages as the standard {@link Pipeline}, called directly on a {@link PackedEvent} so that no Streams,
+ * Events or UUIDs are created for each event.  Only the Averages output are allocated.
+ * <p>
+ * One event in every metrics.getStageSampleInterval() is timed through each stage, recording to the metrics'
+ * histograms, which any number of pipelines can share.  An event which is dropped isn't timed in the later stages.
+ */
+public class PackedPipeline {
+    private final Watermark watermark;
+    private final StatsCompiler statsCompiler;
+    private final LocationFilter locationFilter;
+    private final Deduplicator deduplicator;
+    private final Probe probe;
+    private final WindowedAggregator aggregator;
+    private final Metrics metrics;
+
+    // Events to go until the next is timed
+    private int untilSample;
+
+    public PackedPipeline(StatsCompiler statsCompiler,
+                          LocationFilter locationFilter,
+                          Deduplicator deduplicator,
+                          WindowedAggregator aggregator) {
+        this(statsCompiler, locationFilter, deduplicator, Probe.NONE, aggregator);
+    }
+
+    public PackedPipeline(StatsCompiler statsCompiler,
+                          LocationFilter locationFilter,
+                          Deduplicator deduplicator,
+                          Probe probe,
+                          WindowedAggregator aggregator) {
+        this(Watermark.NONE, statsCompiler, locationFilter, deduplicator, probe, aggregator);
+    }
+
+    public PackedPipeline(Watermark watermark,
+                          StatsCompiler statsCompiler,
+                          LocationFilter locationFilter,
+                          Deduplicator deduplicator,
+                          Probe probe,
+                          WindowedAggregator aggregator) {
+        this(watermark, statsCompiler, locationFilter, deduplicator, probe, aggregator, new Metrics());
+    }
+
+    public PackedPipeline(Watermark watermark,
+                          StatsCompiler statsCompiler,
+                          LocationFilter locationFilter,
+                          Deduplicator deduplicator,
+                          Probe probe,
+                          WindowedAggregator aggregator,
+                          Metrics metrics) {
+        this.watermark = watermark;
+        this.statsCompiler = statsCompiler;
+        this.locationFilter = locationFilter;
+        this.deduplicator = deduplicator;
+        this.probe = probe;
+        this.aggregator = aggregator;
+        this.metrics = metrics;
+        untilSample = metrics.getStageSampleInterval();
+    }
+
+    /**
+     * Pass on any averages completed by now without handling an event.
+     */
+    public void expire(Instant now, Consumer<Average> output) {
+        aggregator.expire(now, output);
+    }
+
+    public void dumpStats() {
+        statsCompiler.dumpStats();
+        deduplicator.dumpStats();
+    }
+
+    public void handle(Instant now, PackedEvent event, Consumer<Average> output) {
+        statsCompiler.count();
+        if (untilSample > 0 && --untilSample == 0) {
+            untilSample = metrics.getStageSampleInterval();
+            handleTimed(now, event, output);
+        } else if (locationFilter.accept(event) && deduplicator.accept(now, event)) {
+            watermark.observe(event.timestamp);
+            probe.observe(now, event);
+            aggregator.handle(now, event, output);
+        }
+    }
+
+    private void handleTimed(Instant now, PackedEvent event, Consumer<Average> output) {
+        long start = System.nanoTime();
+        boolean known = locationFilter.accept(event);
+        long filtered = System.nanoTime();
+        metrics.locationFilter.record(filtered - start);
+        if (!known) {
+            return;
+        }
+        boolean isNew = deduplicator.accept(now, event);
+        long deduplicated = System.nanoTime();
+        metrics.deduplicator.record(deduplicated - filtered);
+        if (!isNew) {
+            return;
+        }
+        watermark.observe(event.timestamp);
+        probe.observe(now, event);
+        long aggregating = System.nanoTime();
+        aggregator.handle(now, event, output);
+        metrics.aggregator.record(System.nanoTime() - aggregating);
+    }
+}
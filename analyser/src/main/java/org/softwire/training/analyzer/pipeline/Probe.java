@@ -0,0 +1,44 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Instant;
+
+/**
+ * Observes each event which has passed the location filter and deduplicator, eg. to measure latency in a load test.
+ * Like any other stage it must not keep hold of the PackedEvent.
+ */
+@FunctionalInterface
+public interface Probe {
+    Probe NONE = (now, event) -> {
+    };
+
+    void observe(Instant now, PackedEvent event);
+
+    /**
+     * A probe which shows each event to this one, then to next.
+     */
+    default Probe then(Probe next) {
+        if (this == NONE) {
+            return next;
+        }
+        return (now, event) -> {
+            observe(now, event);
+            next.observe(now, event);
+        };
+    }
+
+    /**
+     * Adapt this probe to a pass-through stage of the standard pipeline.
+     */
+    default Stage<Event, Event> asStage() {
+        return downstream -> {
+            PackedEvent scratch = new PackedEvent();
+            return (now, event) -> {
+                observe(now, scratch.copyFrom(event));
+                downstream.accept(now, event);
+            };
+        };
+    }
+}
@@ -0,0 +1,220 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.collections.IndexedMaxHeap;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.model.PeakAverage;
+import org.softwire.training.analyzer.stats.Accumulator;
+import org.softwire.training.analyzer.stats.AccumulatorArray;
+import org.softwire.training.analyzer.stats.BucketRing;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Like {@link Aggregator}, with the same buckets of time, but also finds where the events in each bucket were highest,
+ * outputting a {@link PeakAverage} for each bucket.
+ * <p>
+ * The bounding box of the locations is split into a grid of config.gridSize by config.gridSize cells, and each bucket
+ * keeps running statistics for every cell and every location, as in {@link KeyedAggregator}.  Each bucket also keeps
+ * its cells and its locations in an {@link IndexedMaxHeap} ordered by their average, which is fixed up as each event
+ * changes an average, so the peak is at the top of the heaps as soon as a bucket is complete.
+ * <p>
+ * Events from locations which weren't known at startup are dropped.
+ */
+public class SpatialAggregator implements WindowedAggregator {
+    private static final Logger LOG = LoggerFactory.getLogger(SpatialAggregator.class);
+
+    private final Aggregator.TypedConfig config;
+    private final LongAdder rejected;
+
+    private final LocationDictionary locations;
+    private final UUID[] locationIds;
+    private final int[] locationCells;
+
+    private final float minX;
+    private final float minY;
+    private final float cellWidth;
+    private final float cellHeight;
+    private final int numberOfCells;
+
+    // The totals of each bucket, whose indices the rest are in order of, bucket by bucket as in KeyedAggregator
+    private final BucketRing buckets;
+    private final AccumulatorArray cells;
+    private final AccumulatorArray locationTotals;
+    private final IndexedMaxHeap[] cellHeaps;
+    private final IndexedMaxHeap[] locationHeaps;
+
+    private long lastBucketStart;
+    private int bucketsToSuppress;
+
+    public SpatialAggregator(Aggregator.TypedConfig config, List<Location> locations, Clock clock) {
+        this(config, new LocationDictionary(locations), clock);
+    }
+
+    /**
+     * Aggregates the locations in the dictionary so far.
+     */
+    public SpatialAggregator(Aggregator.TypedConfig config, LocationDictionary dictionary, Clock clock) {
+        this(config, dictionary, clock, new LongAdder());
+    }
+
+    /**
+     * @param rejected counts the events dropped for being outside the buckets
+     */
+    public SpatialAggregator(Aggregator.TypedConfig config,
+                             LocationDictionary dictionary,
+                             Clock clock,
+                             LongAdder rejected) {
+        this.config = config;
+        this.rejected = rejected;
+        List<Location> locations = dictionary.getLocations();
+
+        final long now = clock.instant().toEpochMilli();
+        if (now < config.expiryTime) {
+            throw new IllegalStateException("clock.instant returned time to near the epoch");
+        }
+        numberOfCells = config.gridSize * config.gridSize;
+        if ((long) Math.max(locations.size(), numberOfCells) * config.numberOfBuckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many locations or cells to aggregate separately");
+        }
+
+        this.locations = dictionary;
+        locationIds = new UUID[locations.size()];
+        locationCells = new int[locations.size()];
+
+        minX = (float) locations.stream().mapToDouble(location -> location.x).min().orElse(0);
+        minY = (float) locations.stream().mapToDouble(location -> location.y).min().orElse(0);
+        float maxX = (float) locations.stream().mapToDouble(location -> location.x).max().orElse(0);
+        float maxY = (float) locations.stream().mapToDouble(location -> location.y).max().orElse(0);
+        // All the locations could be in a line
+        cellWidth = maxX > minX ? (maxX - minX) / config.gridSize : 1;
+        cellHeight = maxY > minY ? (maxY - minY) / config.gridSize : 1;
+
+        for (int index = 0; index < locationIds.length; index++) {
+            Location location = locations.get(index);
+            locationIds[index] = location.id;
+            locationCells[index] = cellOf(location.x, location.y);
+        }
+
+        buckets = new BucketRing(config.numberOfBuckets, config.averagingPeriod, now - config.expiryTime);
+        cells = new AccumulatorArray(numberOfCells * config.numberOfBuckets);
+        locationTotals = new AccumulatorArray(locationIds.length * config.numberOfBuckets);
+        cellHeaps = new IndexedMaxHeap[config.numberOfBuckets];
+        locationHeaps = new IndexedMaxHeap[config.numberOfBuckets];
+        for (int bucket = 0; bucket < config.numberOfBuckets; bucket++) {
+            int cellsFrom = bucket * numberOfCells;
+            int locationsFrom = bucket * locationIds.length;
+            cellHeaps[bucket] = new IndexedMaxHeap(numberOfCells, cell -> cells.getMean(cellsFrom + cell));
+            locationHeaps[bucket] = new IndexedMaxHeap(locationIds.length,
+                    location -> locationTotals.getMean(locationsFrom + location));
+        }
+        LOG.info("Aggregating {} locations in a {}x{} grid of {} by {} cells",
+                locationIds.length, config.gridSize, config.gridSize, cellWidth, cellHeight);
+
+        lastBucketStart = now + config.averagingPeriod;
+        bucketsToSuppress = config.numberOfBuckets - 2;
+    }
+
+    @Override
+    public Stream<Average> handle(Instant now, Event event) {
+        Stream.Builder<Average> result = Stream.builder();
+        expireBuckets(now, result);
+        add(locations.indexOf(event.locationId.getMostSignificantBits(), event.locationId.getLeastSignificantBits()),
+                event.timestamp, event.value);
+        return result.build();
+    }
+
+    @Override
+    public void handle(Instant now, PackedEvent event, Consumer<Average> output) {
+        expireBuckets(now, output);
+        add(locations.indexOf(event), event.timestamp, event.value);
+    }
+
+    private int cellOf(float x, float y) {
+        int column = Math.min((int) ((x - minX) / cellWidth), config.gridSize - 1);
+        int row = Math.min((int) ((y - minY) / cellHeight), config.gridSize - 1);
+        return row * config.gridSize + column;
+    }
+
+    private void add(int location, long timestamp, double value) {
+        if (location < 0 || location >= locationIds.length) {
+            LOG.debug("Rejecting event, unknown location index: {}", location);
+            return;
+        }
+        int bucket = buckets.indexFor(timestamp);
+        if (bucket < 0) {
+            rejected.increment();
+            LOG.warn("Rejecting event, timestamp out of range: {}", timestamp);
+            return;
+        }
+
+        buckets.get(bucket).add(value);
+        int cell = locationCells[location];
+        cells.add(bucket * numberOfCells + cell, value);
+        cellHeaps[bucket].update(cell);
+        locationTotals.add(bucket * locationIds.length + location, value);
+        locationHeaps[bucket].update(location);
+    }
+
+    @Override
+    public void expire(Instant now, Consumer<Average> output) {
+        expireBuckets(now, output);
+    }
+
+    private void expireBuckets(Instant now, Consumer<Average> output) {
+        long nowMillis = now.toEpochMilli();
+
+        while (nowMillis >= lastBucketStart) {
+            int bucket = buckets.getFirstIndex();
+            if (bucketsToSuppress > 0) {
+                bucketsToSuppress--;
+            } else if (buckets.getFirst().getCount() > 0) {
+                output.accept(peakAverage(bucket));
+            }
+            reset(bucket);
+
+            buckets.advance();
+            lastBucketStart += config.averagingPeriod;
+        }
+    }
+
+    private PeakAverage peakAverage(int bucket) {
+        Accumulator total = buckets.get(bucket);
+        int cell = cellHeaps[bucket].peek();
+        int location = locationHeaps[bucket].peek();
+        return new PeakAverage(
+                Instant.ofEpochMilli(buckets.getFirstStart() + config.averagingPeriod),
+                Instant.ofEpochMilli(buckets.getFirstStart()),
+                total.getMean(),
+                total.getCount(),
+                total.getMin(),
+                total.getMax(),
+                total.getVariance(),
+                minX + (cell % config.gridSize + 0.5f) * cellWidth,
+                minY + (cell / config.gridSize + 0.5f) * cellHeight,
+                cells.getMean(bucket * numberOfCells + cell),
+                locationIds[location],
+                locationTotals.getMean(bucket * locationIds.length + location));
+    }
+
+    /**
+     * Reset everything kept for a bucket but its total, which the {@link BucketRing} resets as it advances.
+     */
+    private void reset(int bucket) {
+        cells.reset(bucket * numberOfCells, (bucket + 1) * numberOfCells);
+        locationTotals.reset(bucket * locationIds.length, (bucket + 1) * locationIds.length);
+        cellHeaps[bucket].clear();
+        locationHeaps[bucket].clear();
+    }
+}
@@ -0,0 +1,52 @@
+package org.softwire.training.analyzer.pipeline;
+
+import java.time.Instant;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+
+/**
+ * The push based equivalent of {@link Pipeline}.  Rather than returning a Stream of its output for each element, a
+ * stage is connected once to whatever comes after it and pushes its output straight there, so a chain of stages
+ * creates nothing per element beyond what the stages themselves do.  See {@link Stages} for the existing Pipeline
+ * stages as Stages.
+ */
+@FunctionalInterface
+public interface Stage<T, R> {
+    /**
+     * @return where to push this stage's input, each element of which will be handled and its output passed on to
+     * downstream
+     */
+    Sink<T> connect(Sink<? super R> downstream);
+
+    default <S> Stage<T, S> then(Stage<? super R, S> next) {
+        return downstream -> connect(next.connect(downstream));
+    }
+
+    /**
+     * A stage which passes on only the elements matching predicate.
+     */
+    static <T> Stage<T, T> filter(BiPredicate<Instant, ? super T> predicate) {
+        return downstream -> (now, element) -> {
+            if (predicate.test(now, element)) {
+                downstream.accept(now, element);
+            }
+        };
+    }
+
+    /**
+     * A stage which shows every element to action before passing it on.
+     */
+    static <T> Stage<T, T> peek(BiConsumer<Instant, ? super T> action) {
+        return downstream -> (now, element) -> {
+            action.accept(now, element);
+            downstream.accept(now, element);
+        };
+    }
+
+    /**
+     * Adapt any Pipeline stage.  Its Streams are still created, so prefer a stage's own push form where it has one.
+     */
+    static <T, R> Stage<T, R> of(Pipeline<T, R> pipeline) {
+        return downstream -> (now, element) -> pipeline.handle(now, element).forEach(r -> downstream.accept(now, r));
+    }
+}
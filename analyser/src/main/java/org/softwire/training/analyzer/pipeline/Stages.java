@@ -0,0 +1,67 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The standard pipeline's stages as push based {@link Stage}s, built on the same methods as {@link PackedPipeline} so
+ * that nothing is created per event.  Each connected stage copies events into its own PackedEvent, so like the stages
+ * themselves they must only be used from one thread.
+ */
+public final class Stages {
+    private Stages() {
+    }
+
+    public static Stage<Event, Event> statsCompiler(StatsCompiler statsCompiler) {
+        return Stage.peek((now, event) -> statsCompiler.count());
+    }
+
+    public static Stage<Event, Event> locationFilter(LocationFilter locationFilter) {
+        return downstream -> {
+            PackedEvent scratch = new PackedEvent();
+            return (now, event) -> {
+                if (locationFilter.accept(scratch.copyFrom(event))) {
+                    downstream.accept(now, event);
+                }
+            };
+        };
+    }
+
+    public static Stage<Event, Event> deduplicator(Deduplicator deduplicator) {
+        return downstream -> {
+            PackedEvent scratch = new PackedEvent();
+            return (now, event) -> {
+                if (deduplicator.accept(now, scratch.copyFrom(event))) {
+                    downstream.accept(now, event);
+                }
+            };
+        };
+    }
+
+    public static Stage<Event, Average> aggregator(WindowedAggregator aggregator) {
+        return downstream -> new AggregatorSink(aggregator, downstream);
+    }
+
+    private static class AggregatorSink implements Sink<Event> {
+        private final WindowedAggregator aggregator;
+        private final PackedEvent scratch = new PackedEvent();
+        // Created once here, so the time it passes on is kept in a field rather than captured
+        private final Consumer<Average> output;
+        private Instant now;
+
+        AggregatorSink(WindowedAggregator aggregator, Sink<? super Average> downstream) {
+            this.aggregator = aggregator;
+            this.output = average -> downstream.accept(now, average);
+        }
+
+        @Override
+        public void accept(Instant now, Event event) {
+            this.now = now;
+            aggregator.handle(now, scratch.copyFrom(event), output);
+        }
+    }
+}
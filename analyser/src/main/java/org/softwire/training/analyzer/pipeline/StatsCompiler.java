@@ -24,6 +24,20 @@ public class StatsCompiler implements Pipeline<Event, Event> {
         return Stream.of(event);
     }
 
+    /**
+     * Counts an event without wrapping it in a Stream.
+     */
+    public void count() {
+        eventCount++;
+    }
+
+    /**
+     * Counts a batch of events.
+     */
+    public void count(int events) {
+        eventCount += events;
+    }
+
     public void dumpStats() {
         LOG.info("Event Count: {}", eventCount);
         LOG.info("Duration: {}", config.duration);
@@ -0,0 +1,23 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.model.Event;
+
+/**
+ * Is told the timestamp of every event which passes the location filter and deduplicator, before it is aggregated, so
+ * that time can follow the events.  Events from unknown locations and duplicates are never observed, so they can't
+ * move time on.
+ */
+@FunctionalInterface
+public interface Watermark {
+    Watermark NONE = timestamp -> {
+    };
+
+    void observe(long timestamp);
+
+    /**
+     * Adapt this watermark to a pass-through stage of the standard pipeline.
+     */
+    default Stage<Event, Event> asStage() {
+        return Stage.peek((now, event) -> observe(event.timestamp));
+    }
+}
@@ -0,0 +1,36 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * The last stage of the pipeline, which turns events into averages over fixed windows of time.
+ */
+public interface WindowedAggregator extends Pipeline<Event, Average> {
+
+    /**
+     * Like {@link #handle(Instant, Event)}, but passes any averages completed to output rather than building a Stream.
+     */
+    void handle(Instant now, PackedEvent event, Consumer<Average> output);
+
+    /**
+     * Like {@link #handle(Instant, PackedEvent, Consumer)} for each of the batch's selected events in turn.
+     */
+    default void handle(Instant now, EventBatch batch, Consumer<Average> output) {
+        PackedEvent event = new PackedEvent();
+        for (int i = 0; i < batch.getSelected(); i++) {
+            handle(now, batch.copyTo(batch.selection[i], event), output);
+        }
+    }
+
+    /**
+     * Pass on any averages completed by now without handling an event, eg. to flush the last averages once a replay
+     * has run out of events.
+     */
+    void expire(Instant now, Consumer<Average> output);
+}
@@ -0,0 +1,253 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Deletes messages from the queue in the background, so that receiving never waits on a delete round trip.
+ * <p>
+ * Receipt handles are collected on a queue and deleted in batches of {@link #BATCH_SIZE}, as soon as a full batch is
+ * available or when the oldest handle has been waiting for config.maxDelay, whichever comes first.
+ * <p>
+ * In {@link Mode#AFTER_OUTPUT} mode a message is only deleted once nothing it contains can still affect the output,
+ * ie. once the event loop has reported (via {@link #outputFlushed}) that output has been flushed at a time more than
+ * holdBack after the event's timestamp.  Any average which could include the event has been written by then, and if
+ * the event turns up again later the aggregator will reject it as too old.  Until that point the message is kept
+ * invisible using config.visibilityTimeout, so if we fall over SQS will deliver it again: at-least-once processing.
+ * <p>
+ * An event stamped more than maxLead after it was received is rejected by the aggregator as too early, so a message is
+ * held for no longer than if its event had been stamped maxLead after it was received.  Otherwise an event from a
+ * sensor whose clock is ahead would be held until the wall clock caught up, be delivered again each time its
+ * visibility timeout ran out, and be held again with each new receipt handle.
+ */
+public class Acknowledger implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Acknowledger.class);
+
+    // SQS will not delete more than this many messages in a single batch.
+    static final int BATCH_SIZE = 10;
+    private static final long POLL_INTERVAL_MILLIS = 100;
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final TypedConfig config;
+    private final long holdBackMillis;
+    private final long maxLeadMillis;
+    private final LatencyHistogram deleteLatency;
+    private final LongAdder unacknowledged;
+
+    private final BlockingQueue<String> ready = new LinkedBlockingQueue<>();
+    private final PriorityQueue<PendingMessage> pending = new PriorityQueue<>();
+    private final ExecutorService flusher;
+
+    private volatile boolean running = true;
+
+    public Acknowledger(AmazonSQS sqs, String queueUrl, TypedConfig config, Duration holdBack, Duration maxLead) {
+        this(sqs, queueUrl, config, holdBack, maxLead, new LatencyHistogram(), new LongAdder());
+    }
+
+    /**
+     * @param maxLead        how far ahead of when it was received the aggregator accepts an event, its averagingPeriod
+     * @param deleteLatency  times each delete call
+     * @param unacknowledged counts the messages held until the output they can affect has been flushed
+     */
+    public Acknowledger(AmazonSQS sqs,
+                        String queueUrl,
+                        TypedConfig config,
+                        Duration holdBack,
+                        Duration maxLead,
+                        LatencyHistogram deleteLatency,
+                        LongAdder unacknowledged) {
+        this.sqs = sqs;
+        this.deleteLatency = deleteLatency;
+        this.unacknowledged = unacknowledged;
+        this.queueUrl = queueUrl;
+        this.config = config;
+        this.holdBackMillis = holdBack.toMillis();
+        this.maxLeadMillis = maxLead.toMillis();
+
+        if (config.mode == Mode.AFTER_OUTPUT && config.visibilityTimeout.compareTo(holdBack) <= 0) {
+            LOG.warn("visibilityTimeout {} is not longer than {}, messages will be delivered more than once",
+                    config.visibilityTimeout, holdBack);
+        }
+
+        flusher = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("acknowledger")
+                .setDaemon(true)
+                .build());
+        flusher.execute(this::flushLoop);
+    }
+
+    /**
+     * Whether messages must stay invisible on the queue until they have been acknowledged.
+     */
+    boolean holdsMessages() {
+        return config.mode == Mode.AFTER_OUTPUT;
+    }
+
+    int getVisibilityTimeoutSeconds() {
+        return (int) config.visibilityTimeout.getSeconds();
+    }
+
+    /**
+     * Acknowledge a message straight away, eg. because it could not be parsed.
+     */
+    public void acknowledge(String receiptHandle) {
+        ready.add(receiptHandle);
+    }
+
+    /**
+     * Record that a message containing an event with the given timestamp has been received.
+     */
+    public void received(String receiptHandle, long eventTimestamp) {
+        if (config.mode == Mode.IMMEDIATE) {
+            acknowledge(receiptHandle);
+        } else {
+            long timestamp = Math.min(eventTimestamp, System.currentTimeMillis() + maxLeadMillis);
+            synchronized (pending) {
+                pending.add(new PendingMessage(receiptHandle, timestamp));
+            }
+            unacknowledged.increment();
+        }
+    }
+
+    /**
+     * Called once the output produced by the pipeline up to now has been flushed.
+     */
+    public void outputFlushed(Instant now) {
+        if (config.mode == Mode.IMMEDIATE) {
+            return;
+        }
+        long completeBefore = now.toEpochMilli() - holdBackMillis;
+        int released = 0;
+        synchronized (pending) {
+            while (!pending.isEmpty() && pending.peek().timestamp < completeBefore) {
+                ready.add(pending.remove().receiptHandle);
+                released++;
+            }
+        }
+        unacknowledged.add(-released);
+    }
+
+    private void flushLoop() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        long batchDeadline = 0;
+        while (running || !ready.isEmpty() || !batch.isEmpty()) {
+            try {
+                String receiptHandle = ready.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (receiptHandle != null) {
+                    if (batch.isEmpty()) {
+                        batchDeadline = System.currentTimeMillis() + config.maxDelay.toMillis();
+                    }
+                    batch.add(receiptHandle);
+                    ready.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+                if (batch.size() >= BATCH_SIZE
+                        || (!batch.isEmpty() && (!running || System.currentTimeMillis() >= batchDeadline))) {
+                    deleteSwallowingErrors(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void deleteSwallowingErrors(List<String> receiptHandles) {
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(receiptHandles.size());
+        for (int i = 0; i < receiptHandles.size(); i++) {
+            entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(i), receiptHandles.get(i)));
+        }
+        try {
+            LOG.debug("Deleting messages with request {}", entries);
+            long startNanos = System.nanoTime();
+            DeleteMessageBatchResult deleteMessageBatchResult = sqs.deleteMessageBatch(queueUrl, entries);
+            deleteLatency.record(System.nanoTime() - startNanos);
+            deleteMessageBatchResult.getFailed().forEach(batchResultErrorEntry ->
+                    LOG.warn("Failed to delete SQS message: {}", batchResultErrorEntry));
+            LOG.debug("Message deletion complete");
+        } catch (RuntimeException e) {
+            // The messages will be delivered again once their visibility timeout expires, and deduplicated.
+            LOG.warn("Failed to delete {} SQS messages", entries.size(), e);
+        }
+    }
+
+    /**
+     * Deletes everything which is ready to be deleted, then stops.  Messages which are still pending are left on the
+     * queue.
+     */
+    @Override
+    public void close() {
+        running = false;
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(config.maxDelay.toMillis() + 5000, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Acknowledger did not finish deleting messages in time");
+                flusher.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (pending) {
+            LOG.info("Leaving {} unacknowledged messages on the queue", pending.size());
+        }
+    }
+
+    private static class PendingMessage implements Comparable<PendingMessage> {
+        final String receiptHandle;
+        // The event's timestamp, or maxLead after it was received if that's sooner
+        final long timestamp;
+
+        PendingMessage(String receiptHandle, long timestamp) {
+            this.receiptHandle = receiptHandle;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public int compareTo(PendingMessage o) {
+            return Long.compare(timestamp, o.timestamp);
+        }
+    }
+
+    public enum Mode {
+        IMMEDIATE,
+        AFTER_OUTPUT
+    }
+
+    public static class TypedConfig {
+        final Mode mode;
+        final Duration maxDelay;
+        final Duration visibilityTimeout;
+
+        public TypedConfig(Mode mode, Duration maxDelay, Duration visibilityTimeout) {
+            this.mode = mode;
+            this.maxDelay = maxDelay;
+            this.visibilityTimeout = visibilityTimeout;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getEnum(Mode.class, "mode"),
+                    config.getDuration("maxDelay"),
+                    config.getDuration("visibilityTimeout"));
+        }
+    }
+}
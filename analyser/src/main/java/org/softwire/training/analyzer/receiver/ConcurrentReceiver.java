@@ -0,0 +1,171 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Receives from SQS on a pool of long-polling worker threads, so that the (single threaded) event loop never has to
+ * wait for a round trip to SQS.
+ * <p>
+ * Decoded events are handed to the event loop through a bounded queue.  If the event loop falls behind, the queue
+ * fills up and the pollers block, which stops us from pulling messages off SQS faster than we can process them.
+ * <p>
+ * Events are decoded straight into {@link ReceivedEvent}s taken from a fixed pool, and returned to the pool once the
+ * event loop has handled them, so receiving allocates nothing per event when consumed through {@link #drainTo}.
+ * <p>
+ * A message is only acknowledged once its event has been handed to the event loop, so any events still in the
+ * hand-off queue when we close are delivered again by SQS rather than lost.
+ * <p>
+ * How many of the pollers are active, and how many messages each asks for and waits for, is up to the
+ * {@link PollingController}, which they tell how many events each receive brought and whenever the hand-off queue
+ * was full.
+ */
+public class ConcurrentReceiver implements PackedEventSource {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrentReceiver.class);
+
+    // How long get() waits for events before returning, so the event loop can check whether it's time to stop.
+    private static final long GET_TIMEOUT_MILLIS = 1000;
+    private static final long ERROR_BACKOFF_MILLIS = 1000;
+
+    private final Receiver receiver;
+    private final Receiver.TypedConfig config;
+    private final BlockingQueue<ReceivedEvent> handOff;
+    private final ReceivedEventPool pool;
+    private final PollingController controller;
+    private final ExecutorService pollers;
+
+    private volatile boolean running = true;
+
+    public ConcurrentReceiver(Receiver receiver, Receiver.TypedConfig config) {
+        this(receiver, config, new PollingController(config));
+    }
+
+    public ConcurrentReceiver(Receiver receiver, Receiver.TypedConfig config, PollingController controller) {
+        if (config.pollers < 1) {
+            throw new IllegalArgumentException("ConcurrentReceiver needs at least one poller");
+        }
+        this.receiver = receiver;
+        this.config = config;
+        this.controller = controller;
+
+        handOff = new ArrayBlockingQueue<>(config.handOffQueueSize);
+        // Each poller may hold one event while it waits for space in the hand-off queue
+        pool = new ReceivedEventPool(config.handOffQueueSize + config.pollers);
+        pollers = Executors.newFixedThreadPool(config.pollers, new ThreadFactoryBuilder()
+                .setNameFormat("receiver-poller-%d")
+                .setDaemon(true)
+                .build());
+        for (int i = 0; i < config.pollers; i++) {
+            int poller = i;
+            pollers.execute(() -> poll(poller));
+        }
+        LOG.info("Started {} pollers, receiving up to {} messages at a time", config.pollers, config.maxNumberOfMessages);
+    }
+
+    @Override
+    public Stream<Event> get() {
+        List<Event> events = new ArrayList<>();
+        drainTo(event -> events.add(event.toEvent()));
+        return events.stream();
+    }
+
+    @Override
+    public void drainTo(Consumer<PackedEvent> handler) {
+        try {
+            ReceivedEvent received = handOff.poll(GET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            // Only hand over what is already queued, so the event loop gets control back regularly
+            int remaining = handOff.size();
+            while (received != null) {
+                try {
+                    handler.accept(received.event);
+                    receiver.received(received.receiptHandle, received.event);
+                } finally {
+                    pool.release(received);
+                }
+                received = remaining-- > 0 ? handOff.poll() : null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void poll(int poller) {
+        PackedEvent scratch = new PackedEvent();
+        int[] handedOff = new int[1];
+        BiConsumer<String, PackedEvent> handler = (receiptHandle, event) -> {
+            handOff(receiptHandle, event);
+            handedOff[0]++;
+        };
+        while (running) {
+            try {
+                controller.awaitTurn(poller);
+                handedOff[0] = 0;
+                receiver.receiveInto(controller.getBatchSize(), controller.getWaitTimeSeconds(), scratch, handler);
+                controller.received(handedOff[0]);
+            } catch (InterruptedException | HandOffInterruptedException e) {
+                // We only get interrupted when shutting down
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                LOG.warn("Failed to receive from SQS, backing off", e);
+                try {
+                    Thread.sleep(ERROR_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void handOff(String receiptHandle, PackedEvent event) {
+        try {
+            ReceivedEvent received = pool.acquire();
+            received.event.copyFrom(event);
+            received.receiptHandle = receiptHandle;
+            if (!handOff.offer(received)) {
+                controller.handOffBlocked();
+                handOff.put(received);
+            }
+        } catch (InterruptedException e) {
+            throw new HandOffInterruptedException();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOG.info("Stopping pollers, {} received events were not processed and will be delivered again",
+                handOff.size());
+        running = false;
+        pollers.shutdownNow();
+        try {
+            if (!pollers.awaitTermination(config.waitTimeSeconds + 1, TimeUnit.SECONDS)) {
+                LOG.warn("Pollers did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Carries an interrupt out through Receiver.receiveInto, whose handler can't throw checked exceptions.
+    private static class HandOffInterruptedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,201 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.model.Uuids;
+
+import java.io.IOException;
+
+/**
+ * Decodes an {@link Event} from the body of an SQS message, which is an SNS notification with the event JSON escaped
+ * inside its Message field.
+ * <p>
+ * This is done in a single pass with Jackson's streaming parser: we walk the envelope until we reach Message, then
+ * parse the event straight out of the parser's buffer.  Neither the envelope nor the inner JSON is ever copied into a
+ * Map or a String.
+ * <p>
+ * Given a {@link LocationDictionary}, the location id's text is parsed straight to a pair of longs and looked up, so
+ * that a {@link PackedEvent} comes out with its {@link PackedEvent#locationIndex} already set, and no UUID is built for
+ * the location, known or not.
+ * <p>
+ * Either way, fields other than those of an {@link Event} are ignored, and an event without a locationId or an eventId
+ * is rejected.
+ * <p>
+ * Instances are thread safe.
+ */
+public class EventDecoder {
+    private static final String MESSAGE_FIELD = "Message";
+    private static final String MISSING_ID = "Event must have a locationId and an eventId";
+
+    private final JsonFactory jsonFactory;
+    private final ObjectReader eventReader;
+    // Null to leave the locations of PackedEvents unresolved
+    private final LocationDictionary locations;
+
+    public EventDecoder(ObjectMapper mapper) {
+        this(mapper, null);
+    }
+
+    public EventDecoder(ObjectMapper mapper, LocationDictionary locations) {
+        jsonFactory = mapper.getFactory();
+        eventReader = mapper.readerFor(Event.class).without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.locations = locations;
+    }
+
+    /**
+     * @throws IOException if the envelope or the event inside it is not valid
+     */
+    public Event decode(String wrappedMessageBody) throws IOException {
+        try (JsonParser envelope = jsonFactory.createParser(wrappedMessageBody);
+             JsonParser message = openMessage(envelope)) {
+            Event event = eventReader.readValue(message);
+            if (event.locationId == null || event.eventId == null) {
+                throw new JsonParseException(MISSING_ID, message.getCurrentLocation());
+            }
+            return event;
+        }
+    }
+
+    /**
+     * Like {@link #decode}, but writes into an existing {@link PackedEvent} and reads the ids without creating any
+     * UUIDs.
+     *
+     * @throws IOException if the envelope or the event inside it is not valid, in which case the contents of event
+     *                     are undefined
+     */
+    public void decodeInto(String wrappedMessageBody, PackedEvent event) throws IOException {
+        try (JsonParser envelope = jsonFactory.createParser(wrappedMessageBody);
+             JsonParser message = openMessage(envelope)) {
+            readPackedEvent(message, event);
+        }
+    }
+
+    /**
+     * Like {@link #decodeInto(String, PackedEvent)}, but reads the message body from UTF-8 bytes, eg. from a recording.
+     */
+    public void decodeInto(byte[] wrappedMessageBody, int offset, int length, PackedEvent event) throws IOException {
+        try (JsonParser envelope = jsonFactory.createParser(wrappedMessageBody, offset, length);
+             JsonParser message = openMessage(envelope)) {
+            readPackedEvent(message, event);
+        }
+    }
+
+    private JsonParser openMessage(JsonParser envelope) throws IOException {
+        if (envelope.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected SNS notification object", envelope.getCurrentLocation());
+        }
+        while (envelope.nextToken() == JsonToken.FIELD_NAME) {
+            String field = envelope.getCurrentName();
+            if (envelope.nextToken() == JsonToken.VALUE_STRING && MESSAGE_FIELD.equals(field)) {
+                return jsonFactory.createParser(
+                        envelope.getTextCharacters(),
+                        envelope.getTextOffset(),
+                        envelope.getTextLength());
+            }
+            envelope.skipChildren();
+        }
+        throw new JsonParseException("SNS notification has no Message", envelope.getCurrentLocation());
+    }
+
+    private void readPackedEvent(JsonParser parser, PackedEvent event) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected event object", parser.getCurrentLocation());
+        }
+        boolean hasLocationId = false;
+        boolean hasEventId = false;
+        event.value = 0;
+        event.timestamp = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "locationId":
+                    requireString(parser, token);
+                    event.locationIdMostSignificantBits = mostSignificantBits(parser);
+                    event.locationIdLeastSignificantBits = leastSignificantBits(parser);
+                    hasLocationId = true;
+                    break;
+                case "eventId":
+                    requireString(parser, token);
+                    event.eventIdMostSignificantBits = mostSignificantBits(parser);
+                    event.eventIdLeastSignificantBits = leastSignificantBits(parser);
+                    hasEventId = true;
+                    break;
+                case "value":
+                    event.value = token == JsonToken.VALUE_STRING
+                            ? parseNumber(parser, Double::parseDouble)
+                            : requireNumber(parser, token).getDoubleValue();
+                    break;
+                case "timestamp":
+                    event.timestamp = token == JsonToken.VALUE_STRING
+                            ? parseNumber(parser, Long::parseLong)
+                            : requireNumber(parser, token).getValueAsLong();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (!hasLocationId || !hasEventId) {
+            throw new JsonParseException(MISSING_ID, parser.getCurrentLocation());
+        }
+        event.locationIndex = locations == null
+                ? PackedEvent.UNRESOLVED
+                : locations.indexOf(event.locationIdMostSignificantBits, event.locationIdLeastSignificantBits);
+    }
+
+    private static void requireString(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (token != JsonToken.VALUE_STRING) {
+            throw new JsonParseException("Expected a string but found " + token, parser.getCurrentLocation());
+        }
+    }
+
+    private static JsonParser requireNumber(JsonParser parser, JsonToken token) throws JsonParseException {
+        if (!token.isNumeric()) {
+            throw new JsonParseException("Expected a number but found " + token, parser.getCurrentLocation());
+        }
+        return parser;
+    }
+
+    private static <T> T parseNumber(JsonParser parser, NumberParser<T> numberParser) throws IOException {
+        try {
+            return numberParser.parse(parser.getText());
+        } catch (NumberFormatException e) {
+            throw new JsonParseException("Invalid number: " + parser.getText(), parser.getCurrentLocation(), e);
+        }
+    }
+
+    private static long mostSignificantBits(JsonParser parser) throws IOException {
+        try {
+            return Uuids.mostSignificantBits(
+                    parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(e.getMessage(), parser.getCurrentLocation(), e);
+        }
+    }
+
+    private static long leastSignificantBits(JsonParser parser) throws IOException {
+        try {
+            return Uuids.leastSignificantBits(
+                    parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(e.getMessage(), parser.getCurrentLocation(), e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface NumberParser<T> {
+        T parse(String text);
+    }
+}
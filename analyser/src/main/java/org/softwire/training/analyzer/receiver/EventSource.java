@@ -0,0 +1,17 @@
+package org.softwire.training.analyzer.receiver;
+
+import org.softwire.training.analyzer.model.Event;
+
+import java.util.stream.Stream;
+
+/**
+ * Somewhere the event loop can get its next events from.  Implementations may block for a short time, but should
+ * return regularly (possibly with no events) so that the event loop can check whether it's time to stop.
+ */
+public interface EventSource extends AutoCloseable {
+    Stream<Event> get();
+
+    @Override
+    default void close() {
+    }
+}
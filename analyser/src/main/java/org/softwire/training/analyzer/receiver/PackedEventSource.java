@@ -0,0 +1,17 @@
+package org.softwire.training.analyzer.receiver;
+
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.util.function.Consumer;
+
+/**
+ * An {@link EventSource} which can also hand out reused {@link PackedEvent}s, rather than allocating an Event per
+ * message.
+ */
+public interface PackedEventSource extends EventSource {
+    /**
+     * Pass the next events to handler, one at a time.  The handler must not keep a reference to the PackedEvent once
+     * it returns, as it will be reused.
+     */
+    void drainTo(Consumer<PackedEvent> handler);
+}
@@ -0,0 +1,192 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how hard {@link ConcurrentReceiver} polls SQS: how many of its pollers are active, how many messages each
+ * receive asks for, and how long each waits for them.  Adjusted every time the queue depth is sampled, see
+ * {@link QueueDepthSampler}, from the depth and from what the pollers received since the last sample:
+ * <ul>
+ * <li>if any poller had to wait to hand off events, the event loop isn't keeping up, so one fewer poller and half the
+ * batch size, as receiving more would only keep more messages invisible on the queue while they wait,</li>
+ * <li>otherwise if there are more than config.backlogPerPoller messages on the queue for each active poller, twice as
+ * many pollers, full batches and the shortest wait, to drain the backlog quickly,</li>
+ * <li>otherwise if at least config.idleEmptyReceiveRatio of the receives came back empty, or none came back at all and
+ * the queue is empty, as every poller is still waiting, one fewer poller and twice the wait, as the longer each
+ * receive waits for messages the fewer requests are made while there are none.</li>
+ * </ul>
+ * Otherwise the batch size grows back towards the configured one.  Never more than the configured pollers, batch size
+ * and wait time, and never fewer than config.minPollers or shorter than config.minWaitTime.  If not config.enabled,
+ * every poller always receives with the configured batch size and wait time.
+ */
+public class PollingController {
+    private static final Logger LOG = LoggerFactory.getLogger(PollingController.class);
+
+    private final TypedConfig config;
+    private final int maxPollers;
+    private final int minPollers;
+    private final int maxBatchSize;
+    private final int maxWaitTimeSeconds;
+    private final int minWaitTimeSeconds;
+
+    // Counted by the pollers, and reset by each sample
+    private final LongAdder receives = new LongAdder();
+    private final LongAdder emptyReceives = new LongAdder();
+    private final LongAdder blockedHandOffs = new LongAdder();
+
+    // Only changed while holding the lock, but read by the pollers before every receive
+    private volatile int activePollers;
+    private volatile int batchSize;
+    private volatile int waitTimeSeconds;
+
+    public PollingController(Receiver.TypedConfig receiverConfig) {
+        config = receiverConfig.adaptive;
+        maxPollers = receiverConfig.pollers;
+        minPollers = Math.min(config.minPollers, maxPollers);
+        maxBatchSize = receiverConfig.maxNumberOfMessages;
+        maxWaitTimeSeconds = receiverConfig.waitTimeSeconds;
+        minWaitTimeSeconds = Math.min(config.minWaitTimeSeconds, maxWaitTimeSeconds);
+
+        // Start flat out, in case there's a backlog waiting
+        activePollers = maxPollers;
+        batchSize = maxBatchSize;
+        waitTimeSeconds = maxWaitTimeSeconds;
+    }
+
+    /**
+     * Called by a poller after each receive, with the number of events it handed off.
+     */
+    void received(int events) {
+        receives.increment();
+        if (events == 0) {
+            emptyReceives.increment();
+        }
+    }
+
+    /**
+     * Called by a poller when the hand-off queue was full, so it had to wait for the event loop.
+     */
+    void handOffBlocked() {
+        blockedHandOffs.increment();
+    }
+
+    /**
+     * Wait until poller, numbered from 0, is one of the active pollers.
+     */
+    synchronized void awaitTurn(int poller) throws InterruptedException {
+        while (poller >= activePollers) {
+            wait();
+        }
+    }
+
+    public int getActivePollers() {
+        return activePollers;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getWaitTimeSeconds() {
+        return waitTimeSeconds;
+    }
+
+    /**
+     * Adjust the polling to the number of messages visible on the queue, and what was received since the last call.
+     */
+    public synchronized void queueDepthSampled(int queueDepth) {
+        long received = receives.sumThenReset();
+        long empty = emptyReceives.sumThenReset();
+        long blocked = blockedHandOffs.sumThenReset();
+        if (!config.enabled || maxPollers == 0) {
+            return;
+        }
+
+        int pollers = activePollers;
+        int batch = batchSize;
+        int wait = waitTimeSeconds;
+        if (blocked > 0) {
+            pollers--;
+            batch /= 2;
+        } else if (queueDepth > (long) pollers * config.backlogPerPoller) {
+            pollers *= 2;
+            batch = maxBatchSize;
+            wait = minWaitTimeSeconds;
+        } else if (received == 0 ? queueDepth == 0 : empty >= config.idleEmptyReceiveRatio * received) {
+            pollers--;
+            wait = Math.max(1, wait * 2);
+        } else {
+            batch *= 2;
+        }
+        pollers = clamp(pollers, minPollers, maxPollers);
+        batch = clamp(batch, 1, maxBatchSize);
+        wait = clamp(wait, minWaitTimeSeconds, maxWaitTimeSeconds);
+
+        if (pollers != activePollers || batch != batchSize || wait != waitTimeSeconds) {
+            LOG.info("Polling with {} pollers for up to {} messages waiting up to {} seconds, as {} messages were "
+                            + "visible on the queue, {} of {} receives were empty and {} hand-offs blocked",
+                    pollers, batch, wait, queueDepth, empty, received, blocked);
+        }
+        batchSize = batch;
+        waitTimeSeconds = wait;
+        if (pollers > activePollers) {
+            notifyAll();
+        }
+        activePollers = pollers;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static class TypedConfig {
+        /**
+         * Always poll with every poller, and the configured batch size and wait time.
+         */
+        static final TypedConfig FIXED = new TypedConfig(false, 1, 1, 1, Duration.ZERO);
+
+        final boolean enabled;
+        final int minPollers;
+        final int backlogPerPoller;
+        final double idleEmptyReceiveRatio;
+        final int minWaitTimeSeconds;
+
+        public TypedConfig(boolean enabled,
+                           int minPollers,
+                           int backlogPerPoller,
+                           double idleEmptyReceiveRatio,
+                           Duration minWaitTime) {
+            if (minPollers < 1) {
+                throw new IllegalArgumentException("Receiver adaptive minPollers must be positive");
+            }
+            if (backlogPerPoller < 1) {
+                throw new IllegalArgumentException("Receiver adaptive backlogPerPoller must be positive");
+            }
+            if (idleEmptyReceiveRatio <= 0 || idleEmptyReceiveRatio > 1) {
+                throw new IllegalArgumentException("Receiver adaptive idleEmptyReceiveRatio must be in (0, 1]");
+            }
+            if (minWaitTime.isNegative() || minWaitTime.getSeconds() > 20) {
+                throw new IllegalArgumentException("Receiver adaptive minWaitTime must be between 0 and 20 seconds");
+            }
+            this.enabled = enabled;
+            this.minPollers = minPollers;
+            this.backlogPerPoller = backlogPerPoller;
+            this.idleEmptyReceiveRatio = idleEmptyReceiveRatio;
+            this.minWaitTimeSeconds = (int) minWaitTime.getSeconds();
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getBoolean("enabled"),
+                    config.getInt("minPollers"),
+                    config.getInt("backlogPerPoller"),
+                    config.getDouble("idleEmptyReceiveRatio"),
+                    config.getDuration("minWaitTime"));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Asks SQS how many messages are visible on the queue every config.sampleInterval on a background thread, so that no
+ * event ever waits on the round trip.  Each sample is passed to listener, usually a {@link PollingController}, and
+ * logged every config.logInterval.
+ */
+public class QueueDepthSampler implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(QueueDepthSampler.class);
+    private static final String APPROXIMATE_NUMBER_OF_MESSAGES = "ApproximateNumberOfMessages";
+
+    private final AmazonSQS sqs;
+    private final String queueUrl;
+    private final IntConsumer listener;
+    private final long samplesPerLog;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "queue-depth-sampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Only touched by sample(), which only runs on the executor's thread, or from tests
+    private long samples;
+
+    public QueueDepthSampler(TypedConfig config, AmazonSQS sqs, String queueUrl, IntConsumer listener) {
+        this.sqs = sqs;
+        this.queueUrl = queueUrl;
+        this.listener = listener;
+        long interval = config.sampleInterval.toMillis();
+        samplesPerLog = Math.max(1, config.logInterval.toMillis() / interval);
+        executor.scheduleWithFixedDelay(this::sampleSwallowingErrors, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sampleSwallowingErrors() {
+        try {
+            sample();
+        } catch (Exception e) {
+            // Thrown out of a scheduled task, this would stop any more samples
+            LOG.warn("Failed to get the number of messages on the queue", e);
+        }
+    }
+
+    void sample() {
+        GetQueueAttributesResult queueAttributes = sqs
+                .getQueueAttributes(queueUrl, Collections.singletonList(APPROXIMATE_NUMBER_OF_MESSAGES));
+        int queueDepth = Integer.parseInt(queueAttributes.getAttributes().get(APPROXIMATE_NUMBER_OF_MESSAGES));
+        if (samples++ % samplesPerLog == 0) {
+            LOG.info("Visible messages on queue: {}", queueDepth);
+        }
+        listener.accept(queueDepth);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    public static class TypedConfig {
+        final Duration sampleInterval;
+        final Duration logInterval;
+
+        public TypedConfig(Duration sampleInterval, Duration logInterval) {
+            if (sampleInterval.isNegative() || sampleInterval.isZero()) {
+                throw new IllegalArgumentException("Queue depth sampleInterval must be positive");
+            }
+            this.sampleInterval = sampleInterval;
+            this.logInterval = logInterval;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getDuration("sampleInterval"),
+                    config.getDuration("logInterval"));
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.softwire.training.analyzer.receiver;
+
+import org.softwire.training.analyzer.model.PackedEvent;
+
+/**
+ * An event decoded from an SQS message, kept with the message's receipt handle until the event has been handed to the
+ * event loop and the message can be acknowledged.
+ */
+class ReceivedEvent {
+    final PackedEvent event = new PackedEvent();
+    String receiptHandle;
+}
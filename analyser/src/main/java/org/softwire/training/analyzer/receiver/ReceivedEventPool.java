@@ -0,0 +1,28 @@
+package org.softwire.training.analyzer.receiver;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed number of preallocated {@link ReceivedEvent}s.  Acquiring blocks while they are all in use.
+ */
+class ReceivedEventPool {
+    private final BlockingQueue<ReceivedEvent> free;
+
+    ReceivedEventPool(int size) {
+        free = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            free.add(new ReceivedEvent());
+        }
+    }
+
+    ReceivedEvent acquire() throws InterruptedException {
+        return free.take();
+    }
+
+    void release(ReceivedEvent received) {
+        if (!free.offer(received)) {
+            throw new IllegalStateException("Released more events than were acquired");
+        }
+    }
+}
@@ -1,44 +1,154 @@
 package org.softwire.training.analyzer.receiver;
 
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
-import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.Streams;
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.metrics.Metrics;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.recording.MessageRecorder;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
-public class Receiver {
+public class Receiver implements PackedEventSource {
     private static final Logger LOG = LoggerFactory.getLogger(Receiver.class);
+
+    // SQS will not return more than this many messages from a single receive call.
+    static final int MAX_NUMBER_OF_MESSAGES = 10;
+    // Keep this short when receiving on the event loop thread, so that the loop gets a chance to finish on time.
+    private static final int SEQUENTIAL_WAIT_TIME_SECONDS = 1;
+
     private final AmazonSQS sqs;
     private final String queueUrl;
+    private final Acknowledger acknowledger;
+    private final MessageRecorder recorder;
+    private final EventDecoder decoder;
+    private final Metrics metrics;
+    // Only used by drainTo, which like get() is only ever called from one thread.
+    private final PackedEvent scratch = new PackedEvent();
 
-    private final ObjectMapper mapper = new ObjectMapper();
+    public Receiver(AmazonSQS sqs,
+                    String queueUrl,
+                    Acknowledger acknowledger) {
+        this(sqs, queueUrl, acknowledger, MessageRecorder.NONE);
+    }
+
+    public Receiver(AmazonSQS sqs,
+                    String queueUrl,
+                    Acknowledger acknowledger,
+                    MessageRecorder recorder) {
+        this(sqs, queueUrl, acknowledger, recorder, new EventDecoder(new ObjectMapper()), new Metrics());
+    }
 
+    /**
+     * @param locations looked up as each event is decoded, see {@link EventDecoder}
+     * @param metrics counts the messages received and parsed, and times the receive calls
+     */
     public Receiver(AmazonSQS sqs,
-                    String queueUrl) {
+                    String queueUrl,
+                    Acknowledger acknowledger,
+                    MessageRecorder recorder,
+                    LocationDictionary locations,
+                    Metrics metrics) {
+        this(sqs, queueUrl, acknowledger, recorder, new EventDecoder(new ObjectMapper(), locations), metrics);
+    }
+
+    private Receiver(AmazonSQS sqs,
+                     String queueUrl,
+                     Acknowledger acknowledger,
+                     MessageRecorder recorder,
+                     EventDecoder decoder,
+                     Metrics metrics) {
         this.sqs = sqs;
         this.queueUrl = queueUrl;
+        this.acknowledger = acknowledger;
+        this.recorder = recorder;
+        this.decoder = decoder;
+        this.metrics = metrics;
     }
 
+    @Override
     public Stream<Event> get() {
-        ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl).withWaitTimeSeconds(1);
+        return receive(MAX_NUMBER_OF_MESSAGES, SEQUENTIAL_WAIT_TIME_SECONDS);
+    }
+
+    @Override
+    public void drainTo(Consumer<PackedEvent> handler) {
+        receiveInto(MAX_NUMBER_OF_MESSAGES, SEQUENTIAL_WAIT_TIME_SECONDS, scratch, (receiptHandle, event) -> {
+            received(receiptHandle, event);
+            handler.accept(event);
+        });
+    }
+
+    /**
+     * Safe to call from several threads at once, see {@link ConcurrentReceiver}.
+     */
+    Stream<Event> receive(int maxNumberOfMessages, int waitTimeSeconds) {
+        return receiveMessages(maxNumberOfMessages, waitTimeSeconds)
+                .stream()
+                .flatMap(this::parseMessageSwallowingErrors);
+    }
+
+    /**
+     * Decode each message received into the given PackedEvent, stamped with when it was received, and pass it to
+     * handler with the message's receipt handle.  Messages which can't be parsed are acknowledged straight away, but
+     * the rest are left to the caller to pass to {@link #received} once their events have been handed over.  Safe to
+     * call from several threads at once, as long as each passes its own PackedEvent.
+     */
+    void receiveInto(int maxNumberOfMessages,
+                     int waitTimeSeconds,
+                     PackedEvent event,
+                     BiConsumer<String, PackedEvent> handler) {
+        List<Message> messages = receiveMessages(maxNumberOfMessages, waitTimeSeconds);
+        long receivedAt = System.currentTimeMillis();
+        for (Message message : messages) {
+            try {
+                decoder.decodeInto(message.getBody(), event);
+            } catch (IOException e) {
+                metrics.parseFailed.increment();
+                LOG.warn("Failed to parse JSON, error: {} JSON was: {}", e, message.getBody());
+                acknowledger.acknowledge(message.getReceiptHandle());
+                continue;
+            }
+            metrics.parsed.increment();
+            event.receivedAt = receivedAt;
+            handler.accept(message.getReceiptHandle(), event);
+        }
+    }
+
+    /**
+     * Tell the acknowledger that the event from a message has been handed to the event loop.
+     */
+    void received(String receiptHandle, PackedEvent event) {
+        acknowledger.received(receiptHandle, event.timestamp);
+    }
+
+    private List<Message> receiveMessages(int maxNumberOfMessages, int waitTimeSeconds) {
+        ReceiveMessageRequest request = new ReceiveMessageRequest(queueUrl)
+                .withMaxNumberOfMessages(maxNumberOfMessages)
+                .withWaitTimeSeconds(waitTimeSeconds);
+        if (acknowledger.holdsMessages()) {
+            request.setVisibilityTimeout(acknowledger.getVisibilityTimeoutSeconds());
+        }
+        long startNanos = System.nanoTime();
         List<Message> messages = sqs.receiveMessage(request).getMessages();
+        metrics.sqsReceive.record(System.nanoTime() - startNanos);
+        metrics.received.add(messages.size());
         LOG.debug("Received {} messages", messages.size());
-        deleteFromQueueSwallowingErrors(messages);
-        return messages.stream().flatMap(this::parseMessageSwallowingErrors);
+        for (Message message : messages) {
+            recorder.record(message.getBody());
+        }
+        return messages;
     }
 
     private Stream<Event> parseMessageSwallowingErrors(Message wrappedMessage) {
@@ -47,44 +157,76 @@ public class Receiver {
         try {
             // I'm surprised that there isn't a nice way of parsing the JSON envelope already in the AWS SDK, but I
             // couldn't find one.
-            String messageBodyMessage = mapper.<Map<String, String>>readValue(
-                    wrappedMessageBody,
-                    new TypeReference<Map<String, String>>() {
-                    }
-            ).get("Message");
-            Event event = mapper.readValue(messageBodyMessage, Event.class);
+            Event event = decoder.decode(wrappedMessageBody);
             LOG.debug("Decoded event: {}", event);
+            metrics.parsed.increment();
+            acknowledger.received(wrappedMessage.getReceiptHandle(), event.timestamp);
             return Stream.of(event);
         } catch (IOException e) {
+            metrics.parseFailed.increment();
             LOG.warn("Failed to parse JSON, error: {} JSON was: {}", e, wrappedMessageBody);
+            // Nothing will ever be able to parse it, so don't let it come back
+            acknowledger.acknowledge(wrappedMessage.getReceiptHandle());
             return Stream.empty();
         }
     }
 
-    private void deleteFromQueueSwallowingErrors(List<Message> messages) {
-        if (messages.size() > 0) {
-            List<DeleteMessageBatchRequestEntry> deleteMessageBatchRequestEntries = Streams.zip(
-                    messages.stream(),
-                    IntStream.range(0, messages.size()).boxed(), (message, i) ->
-                            new DeleteMessageBatchRequestEntry(Integer.toString(i), message.getReceiptHandle())
-            ).collect(Collectors.toList());
-            LOG.debug("Deleting messages with request {}", deleteMessageBatchRequestEntries);
-            DeleteMessageBatchResult deleteMessageBatchResult = sqs.deleteMessageBatch(queueUrl, deleteMessageBatchRequestEntries);
-            deleteMessageBatchResult.getFailed().forEach(batchResultErrorEntry ->
-                    LOG.warn("Failed to delete SQS message: {}", batchResultErrorEntry));
-            LOG.debug("Message deletion complete");
-        }
-    }
-
     public static class TypedConfig {
         final String topicArn;
+        public final int pollers;
+        final int maxNumberOfMessages;
+        final int waitTimeSeconds;
+        final int handOffQueueSize;
+        // How ConcurrentReceiver scales its pollers, batch size and wait time, up to those above
+        final PollingController.TypedConfig adaptive;
+
+        public TypedConfig(String topicArn,
+                           int pollers,
+                           int maxNumberOfMessages,
+                           Duration waitTime,
+                           int handOffQueueSize) {
+            this(topicArn,
+                    pollers,
+                    maxNumberOfMessages,
+                    waitTime,
+                    handOffQueueSize,
+                    PollingController.TypedConfig.FIXED);
+        }
 
-        public TypedConfig(String topicArn) {
+        public TypedConfig(String topicArn,
+                           int pollers,
+                           int maxNumberOfMessages,
+                           Duration waitTime,
+                           int handOffQueueSize,
+                           PollingController.TypedConfig adaptive) {
+            if (pollers < 0) {
+                throw new IllegalArgumentException("Receiver pollers must not be negative");
+            }
+            if (maxNumberOfMessages < 1 || maxNumberOfMessages > MAX_NUMBER_OF_MESSAGES) {
+                throw new IllegalArgumentException("Receiver maxNumberOfMessages must be between 1 and " + MAX_NUMBER_OF_MESSAGES);
+            }
+            if (waitTime.isNegative() || waitTime.getSeconds() > 20) {
+                throw new IllegalArgumentException("Receiver waitTime must be between 0 and 20 seconds");
+            }
+            if (handOffQueueSize < 1) {
+                throw new IllegalArgumentException("Receiver handOffQueueSize must be positive");
+            }
             this.topicArn = topicArn;
+            this.pollers = pollers;
+            this.maxNumberOfMessages = maxNumberOfMessages;
+            this.waitTimeSeconds = (int) waitTime.getSeconds();
+            this.handOffQueueSize = handOffQueueSize;
+            this.adaptive = adaptive;
         }
 
         public static TypedConfig fromUntypedConfig(Config config) {
-            return new TypedConfig(config.getString("snsTopicArn"));
+            return new TypedConfig(
+                    config.getString("snsTopicArn"),
+                    config.getInt("pollers"),
+                    config.getInt("maxNumberOfMessages"),
+                    config.getDuration("waitTime"),
+                    config.getInt("handOffQueueSize"),
+                    PollingController.TypedConfig.fromUntypedConfig(config.getConfig("adaptive")));
         }
     }
 }
@@ -0,0 +1,151 @@
+package org.softwire.training.analyzer.recording;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.zip.Deflater;
+
+/**
+ * Records the body of every message received to an append-only file, along with the locations in use, so that the
+ * messages can be put through the pipeline again later by {@link ReplaySource}, see {@link Recordings} for the layout.
+ * <p>
+ * Messages are length prefixed and collected into blocks of config.blockSize, and each full block is deflated if
+ * config.compress is set and appended to the file.  A block still being filled when we crash is lost.
+ * <p>
+ * Thread safe, as messages are received on several threads: each message is copied into the block under a lock.
+ */
+public class MessageLogWriter implements MessageRecorder {
+    private static final Logger LOG = LoggerFactory.getLogger(MessageLogWriter.class);
+
+    private final TypedConfig config;
+    private final FileChannel channel;
+    private final ByteBuffer block;
+    private final Deflater deflater;
+    private ByteBuffer stored;
+
+    private long messages;
+    private long rawBytes;
+    private long storedBytes;
+
+    /**
+     * @param startTime when recording started, which replay starts the event time from
+     */
+    public MessageLogWriter(TypedConfig config, Instant startTime, String locationsJson) throws IOException {
+        this.config = config;
+        Path path = Paths.get(config.file).toAbsolutePath();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        block = ByteBuffer.allocate(config.blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        deflater = config.compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        stored = ByteBuffer.allocate(Recordings.BLOCK_HEADER_SIZE + config.blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        writeFully(Recordings.header(config.compress, startTime, locationsJson));
+        LOG.info("Recording messages to: {}", path);
+    }
+
+    @Override
+    public void record(String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            try {
+                if (block.remaining() < Recordings.LENGTH_SIZE + bytes.length) {
+                    writeBlock();
+                }
+                if (block.remaining() < Recordings.LENGTH_SIZE + bytes.length) {
+                    LOG.warn("Not recording message of {} bytes, it's bigger than blockSize", bytes.length);
+                    return;
+                }
+                block.putInt(bytes.length).put(bytes);
+                messages++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            channel.close();
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        LOG.info("Recorded {} messages, {} bytes in {} bytes", messages, rawBytes, storedBytes);
+    }
+
+    private void writeBlock() throws IOException {
+        if (block.position() == 0) {
+            return;
+        }
+        int rawLength = block.position();
+        int storedLength;
+        if (deflater == null) {
+            System.arraycopy(block.array(), 0, stored.array(), Recordings.BLOCK_HEADER_SIZE, rawLength);
+            storedLength = rawLength;
+        } else {
+            deflater.reset();
+            deflater.setInput(block.array(), 0, rawLength);
+            deflater.finish();
+            storedLength = 0;
+            while (!deflater.finished()) {
+                if (Recordings.BLOCK_HEADER_SIZE + storedLength == stored.capacity()) {
+                    // Incompressible data can come out slightly bigger than it went in
+                    ByteBuffer bigger = ByteBuffer.allocate(2 * stored.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+                    bigger.put(stored.array(), 0, Recordings.BLOCK_HEADER_SIZE + storedLength);
+                    stored = bigger;
+                }
+                storedLength += deflater.deflate(stored.array(), Recordings.BLOCK_HEADER_SIZE + storedLength,
+                        stored.capacity() - Recordings.BLOCK_HEADER_SIZE - storedLength);
+            }
+        }
+        stored.clear();
+        stored.putInt(0, rawLength).putInt(4, storedLength).limit(Recordings.BLOCK_HEADER_SIZE + storedLength);
+        rawBytes += rawLength;
+        storedBytes += stored.remaining();
+        writeFully(stored);
+        block.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    public static class TypedConfig {
+        public final boolean enabled;
+        final String file;
+        final boolean compress;
+        final int blockSize;
+
+        public TypedConfig(boolean enabled, String file, boolean compress, long blockSize) {
+            if (blockSize < 1024 || blockSize > Integer.MAX_VALUE / 2) {
+                throw new IllegalArgumentException("MessageLogWriter blockSize must be between 1 KiB and 1 GiB");
+            }
+            this.enabled = enabled;
+            this.file = file;
+            this.compress = compress;
+            this.blockSize = (int) blockSize;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(
+                    config.getBoolean("enabled"),
+                    config.getString("file"),
+                    config.getBoolean("compress"),
+                    config.getBytes("blockSize"));
+        }
+    }
+}
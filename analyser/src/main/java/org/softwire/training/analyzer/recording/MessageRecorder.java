@@ -0,0 +1,21 @@
+package org.softwire.training.analyzer.recording;
+
+import java.io.IOException;
+
+/**
+ * Is given the body of every message received, before it is decoded, eg. to record it for replay.
+ */
+@FunctionalInterface
+public interface MessageRecorder extends AutoCloseable {
+    MessageRecorder NONE = body -> {
+    };
+
+    /**
+     * Safe to call from several threads at once.
+     */
+    void record(String body);
+
+    @Override
+    default void close() throws IOException {
+    }
+}
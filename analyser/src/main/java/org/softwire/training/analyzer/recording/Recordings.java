@@ -0,0 +1,68 @@
+package org.softwire.training.analyzer.recording;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * The layout of a message recording, shared by {@link MessageLogWriter} and {@link ReplaySource}.  All little endian:
+ * <pre>
+ * header:  int MAGIC, int VERSION, int flags (COMPRESSED), long startTime (epoch millis), int length,
+ *          the locations JSON in UTF-8
+ * blocks:  int rawLength, int storedLength, storedLength bytes, deflated if COMPRESSED
+ * </pre>
+ * Once inflated, each block is a run of messages, each an int length followed by the message body in UTF-8.
+ */
+final class Recordings {
+    static final int MAGIC = 0x4D53474C;
+    static final int VERSION = 1;
+    static final int COMPRESSED = 1;
+
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int LENGTH_SIZE = 4;
+    private static final int HEADER_SIZE = 24;
+
+    private Recordings() {
+    }
+
+    static ByteBuffer header(boolean compressed, Instant startTime, String locationsJson) {
+        byte[] locations = locationsJson.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + locations.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(compressed ? COMPRESSED : 0)
+                .putLong(startTime.toEpochMilli())
+                .putInt(locations.length)
+                .put(locations);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Reads the start of the header at the buffer's position, leaving it at the start time.
+     *
+     * @return the flags
+     */
+    static int checkHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a message recording");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported message recording version: " + version);
+        }
+        return buffer.getInt();
+    }
+
+    static Instant readStartTime(ByteBuffer buffer) {
+        return Instant.ofEpochMilli(buffer.getLong());
+    }
+
+    static String readLocations(ByteBuffer buffer) {
+        byte[] locations = new byte[buffer.getInt()];
+        buffer.get(locations);
+        return new String(locations, StandardCharsets.UTF_8);
+    }
+}
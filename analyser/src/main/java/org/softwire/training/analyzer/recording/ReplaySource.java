@@ -0,0 +1,172 @@
+package org.softwire.training.analyzer.recording;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.receiver.EventDecoder;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Stands in for the {@link org.softwire.training.analyzer.receiver.Receiver}, reading the messages recorded by
+ * {@link MessageLogWriter} from a memory mapped file and decoding them as fast as it can.  Each call hands on the
+ * messages of one block, and once they have all been read {@link #isExhausted} is true.
+ * <p>
+ * Messages which can't be decoded are skipped, as the Receiver would.
+ * <p>
+ * Not thread safe.
+ */
+public class ReplaySource implements PackedEventSource {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplaySource.class);
+
+    private final EventDecoder decoder = new EventDecoder(new ObjectMapper());
+    private final PackedEvent scratch = new PackedEvent();
+
+    private final ByteBuffer file;
+    private final boolean compressed;
+    private final Instant startTime;
+    private final String locationsJson;
+    private final Inflater inflater = new Inflater();
+    // The current block, inflated if need be
+    private byte[] block = new byte[0];
+    private int blockLength;
+    private byte[] stored = new byte[0];
+
+    private long messages;
+    private long invalid;
+
+    public ReplaySource(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Recording is too big to map, at over 2 GiB: " + path);
+            }
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        compressed = (Recordings.checkHeader(file) & Recordings.COMPRESSED) != 0;
+        startTime = Recordings.readStartTime(file);
+        locationsJson = Recordings.readLocations(file);
+        LOG.info("Replaying messages from: {}", path);
+    }
+
+    /**
+     * When recording started.
+     */
+    public Instant getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * The locations which were in use when the messages were recorded.
+     */
+    public String getLocationsJson() {
+        return locationsJson;
+    }
+
+    public boolean isExhausted() {
+        return !file.hasRemaining();
+    }
+
+    /**
+     * Pass the events of the next block to handler.
+     */
+    @Override
+    public void drainTo(Consumer<PackedEvent> handler) {
+        readBlock();
+        int position = 0;
+        while (position < blockLength) {
+            int length = readLength(position);
+            position += Recordings.LENGTH_SIZE;
+            messages++;
+            try {
+                decoder.decodeInto(block, position, length, scratch);
+                handler.accept(scratch);
+            } catch (IOException e) {
+                invalid++;
+                LOG.debug("Skipping recorded message which failed to parse: {}", e.toString());
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * The events of the next block.
+     */
+    @Override
+    public Stream<Event> get() {
+        Stream.Builder<Event> events = Stream.builder();
+        readBlock();
+        int position = 0;
+        while (position < blockLength) {
+            int length = readLength(position);
+            position += Recordings.LENGTH_SIZE;
+            messages++;
+            try {
+                events.add(decoder.decode(new String(block, position, length, StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                invalid++;
+                LOG.debug("Skipping recorded message which failed to parse: {}", e.toString());
+            }
+            position += length;
+        }
+        return events.build();
+    }
+
+    @Override
+    public void close() {
+        inflater.end();
+        LOG.info("Replayed {} messages, of which {} were invalid", messages, invalid);
+    }
+
+    private int readLength(int position) {
+        return (block[position] & 0xff)
+                | (block[position + 1] & 0xff) << 8
+                | (block[position + 2] & 0xff) << 16
+                | (block[position + 3] & 0xff) << 24;
+    }
+
+    private void readBlock() {
+        blockLength = 0;
+        if (isExhausted()) {
+            return;
+        }
+        int rawLength = file.getInt();
+        int storedLength = file.getInt();
+        if (block.length < rawLength) {
+            block = new byte[rawLength];
+        }
+        if (compressed) {
+            if (stored.length < storedLength) {
+                stored = new byte[storedLength];
+            }
+            file.duplicate().get(stored, 0, storedLength);
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLength);
+            try {
+                if (inflater.inflate(block, 0, rawLength) != rawLength) {
+                    throw new IOException("Recorded block is shorter than its header says");
+                }
+            } catch (DataFormatException | IOException e) {
+                throw new UncheckedIOException(new IOException("Recording is corrupt", e));
+            }
+        } else {
+            file.duplicate().get(block, 0, rawLength);
+        }
+        file.position(file.position() + storedLength);
+        blockLength = rawLength;
+    }
+}
@@ -0,0 +1,58 @@
+package org.softwire.training.analyzer.services;
+
+import org.softwire.training.analyzer.model.Average;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.function.Consumer;
+
+/**
+ * Where the event loop sends the averages coming out of the pipeline.
+ * <p>
+ * Writers may buffer, so the event loop only treats averages as safely written (and so acknowledges the messages
+ * behind them) once {@link #flushIfDue} has returned true.
+ */
+public interface AverageWriter extends AutoCloseable {
+
+    void write(Average average);
+
+    /**
+     * Flush if the writer's flush delay has passed since it last did.
+     *
+     * @return true if everything written so far has been flushed
+     */
+    boolean flushIfDue(Instant now);
+
+    void flush();
+
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Wrap writer so that observer sees every average just before it is written, eg. to count them.
+     */
+    static AverageWriter observed(AverageWriter writer, Consumer<Average> observer) {
+        return new AverageWriter() {
+            @Override
+            public void write(Average average) {
+                observer.accept(average);
+                writer.write(average);
+            }
+
+            @Override
+            public boolean flushIfDue(Instant now) {
+                return writer.flushIfDue(now);
+            }
+
+            @Override
+            public void flush() {
+                writer.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+        };
+    }
+}
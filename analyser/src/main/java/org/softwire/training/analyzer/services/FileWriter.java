@@ -8,28 +8,95 @@ import org.softwire.training.analyzer.model.Average;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
 
-public class FileWriter {
+/**
+ * Appends averages to a file, one per line.
+ * <p>
+ * The file is kept open, and averages are formatted into a reused direct buffer which is written out when it fills
+ * up, when {@link #flushIfDue} is called more than config.maxFlushDelay after the last flush, or when {@link #flush}
+ * is called.  If config.force is set each flush also waits for the data to reach the disk, otherwise it only has to
+ * reach the OS, which survives us crashing but not the machine.
+ * <p>
+ * The file is rotated, by renaming it with the time of rotation appended, once it would grow past
+ * config.maxFileSize or has been open for config.maxFileAge.  Either can be zero to turn it off.
+ * <p>
+ * Not thread safe.
+ */
+public class FileWriter implements AverageWriter {
     private static final Logger LOG = LoggerFactory.getLogger(FileWriter.class);
-    private static final OpenOption[] FILE_OPEN_OPTIONS = {StandardOpenOption.CREATE, StandardOpenOption.APPEND};
 
+    private final TypedConfig config;
     private final Path path;
+    private final ByteBuffer buffer;
+    private final StringBuilder line = new StringBuilder();
+
+    private FileChannel channel;
+    // Bytes written to the current file, not counting what's in the buffer
+    private long fileSize;
+    private Instant fileOpenedAt;
+    private Instant nextFlushDue = Instant.MIN;
+    // The latest now passed to flushIfDue, for naming files rotated by size
+    private Instant latestNow;
 
     public FileWriter(TypedConfig config) throws IOException {
+        this.config = config;
         path = Paths.get(config.filename).toAbsolutePath();
-        Files.write(path, "\n\nStarting new analysis\n".getBytes(Charsets.UTF_8), FILE_OPEN_OPTIONS);
+        buffer = ByteBuffer.allocateDirect(config.bufferSize);
+        channel = open();
+        append("\n\nStarting new analysis\n");
         LOG.info("Will be writing output to: {}", path);
     }
 
+    @Override
     public void write(Average average) {
+        LOG.info("Wrote average to file: {}", average);
+        line.setLength(0);
+        average.appendTo(line).append('\n');
+        append(line);
+    }
+
+    /**
+     * Flush if config.maxFlushDelay has passed since the last time this did, and rotate the file if it's too old.
+     *
+     * @return true if everything written so far has been flushed
+     */
+    @Override
+    public boolean flushIfDue(Instant now) {
+        latestNow = now;
+        if (fileOpenedAt == null) {
+            fileOpenedAt = now;
+        }
+        if (!config.maxFileAge.isZero() && !now.isBefore(fileOpenedAt.plus(config.maxFileAge))) {
+            rotate(now);
+        } else if (!now.isBefore(nextFlushDue)) {
+            flush();
+            nextFlushDue = now.plus(config.maxFlushDelay);
+        }
+        return buffer.position() == 0;
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() == 0) {
+            return;
+        }
         try {
-            LOG.info("Wrote average to file: {}", average);
-            Files.write(path, (average.toString() + "\n").getBytes(Charsets.UTF_8), FILE_OPEN_OPTIONS);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                fileSize += channel.write(buffer);
+            }
+            buffer.clear();
+            if (config.force) {
+                channel.force(false);
+            }
         } catch (IOException e) {
             // Will be called from inside a Lambda, so we need the unchecked version
             //
@@ -39,15 +106,117 @@ public class FileWriter {
         }
     }
 
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void append(CharSequence text) {
+        if (config.maxFileSize > 0 && fileSize + buffer.position() + utf8Length(text) > config.maxFileSize) {
+            // Only before the first flushIfDue is there no now to go by
+            rotate(latestNow != null ? latestNow : Instant.now());
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                buffer.put((byte) c);
+            } else {
+                // Slow path, which we never expect to take: averages are all ASCII
+                int end = Character.isHighSurrogate(c) && i + 1 < text.length() ? i + 2 : i + 1;
+                for (byte b : text.subSequence(i, end).toString().getBytes(Charsets.UTF_8)) {
+                    if (!buffer.hasRemaining()) {
+                        flush();
+                    }
+                    buffer.put(b);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    /**
+     * The number of bytes text takes in UTF-8, without encoding it.
+     */
+    private static int utf8Length(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isSurrogate(c)) {
+                // Two chars of a pair take four bytes
+                length++;
+            } else if (c >= 0x800) {
+                length += 2;
+            } else if (c >= 0x80) {
+                length++;
+            }
+        }
+        return length;
+    }
+
+    private void rotate(Instant now) {
+        flush();
+        Path rotated = path.resolveSibling(path.getFileName() + "." + now.toEpochMilli());
+        for (int i = 1; Files.exists(rotated); i++) {
+            rotated = path.resolveSibling(path.getFileName() + "." + now.toEpochMilli() + "-" + i);
+        }
+        try {
+            channel.close();
+            Files.move(path, rotated);
+            channel = open();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        fileOpenedAt = now;
+        LOG.info("Rotated output to {}", rotated);
+    }
+
+    private FileChannel open() throws IOException {
+        FileChannel opened =
+                FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = opened.size();
+        return opened;
+    }
+
     public static class TypedConfig {
         final String filename;
+        final int bufferSize;
+        final Duration maxFlushDelay;
+        final boolean force;
+        final long maxFileSize;
+        final Duration maxFileAge;
 
-        TypedConfig(String filename) {
+        TypedConfig(String filename,
+                    int bufferSize,
+                    Duration maxFlushDelay,
+                    boolean force,
+                    long maxFileSize,
+                    Duration maxFileAge) {
+            if (maxFileSize > 0 && maxFileSize < bufferSize) {
+                throw new IllegalArgumentException("FileWriter maxFileSize must be at least bufferSize");
+            }
             this.filename = filename;
+            this.bufferSize = bufferSize;
+            this.maxFlushDelay = maxFlushDelay;
+            this.force = force;
+            this.maxFileSize = maxFileSize;
+            this.maxFileAge = maxFileAge;
         }
 
         public static TypedConfig fromUntypedConfig(Config config) {
-            return new TypedConfig(config.getString("filename"));
+            return new TypedConfig(
+                    config.getString("filename"),
+                    config.getBytes("bufferSize").intValue(),
+                    config.getDuration("maxFlushDelay"),
+                    config.getBoolean("force"),
+                    config.getBytes("maxFileSize"),
+                    config.getDuration("maxFileAge"));
         }
     }
 }
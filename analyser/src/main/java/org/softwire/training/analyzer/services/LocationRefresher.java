@@ -0,0 +1,63 @@
+package org.softwire.training.analyzer.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.softwire.training.analyzer.model.Location;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Refreshes a {@link LocationRegistry} every config.refreshInterval on a background thread, passing each new version
+ * of the locations to a listener.  If the registry was loaded from its cache, the first refresh happens straight away,
+ * even if config.refreshInterval is zero.
+ * <p>
+ * Failures are logged and the current locations kept, as S3 may well be back by the next refresh.
+ */
+public class LocationRefresher implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(LocationRefresher.class);
+
+    private final LocationRegistry registry;
+    private final Consumer<List<Location>> listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "location-refresher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public LocationRefresher(LocationRegistry.TypedConfig config,
+                             LocationRegistry registry,
+                             Consumer<List<Location>> listener) {
+        this.registry = registry;
+        this.listener = listener;
+
+        long interval = config.refreshInterval.toMillis();
+        if (interval > 0) {
+            long initialDelay = registry.isLoadedFromCache() ? 0 : interval;
+            executor.scheduleWithFixedDelay(this::refresh, initialDelay, interval, TimeUnit.MILLISECONDS);
+        } else if (registry.isLoadedFromCache()) {
+            executor.execute(this::refresh);
+        }
+    }
+
+    private void refresh() {
+        try {
+            LocationSnapshot latest = registry.refresh();
+            if (latest != null) {
+                listener.accept(latest.locations);
+            }
+        } catch (Exception e) {
+            // Thrown out of a scheduled task, this would stop any more refreshes
+            LOG.warn("Failed to refresh locations, keeping the current ones", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
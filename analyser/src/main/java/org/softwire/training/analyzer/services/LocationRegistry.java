@@ -0,0 +1,161 @@
+package org.softwire.training.analyzer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Keeps the latest version of the locations, checking S3 for a new one with the ETag of the current one, so that
+ * unchanged locations aren't downloaded again.
+ * <p>
+ * Every version read from S3 is also written to config.cacheFile, and if that exists at startup it is used straight
+ * away, so startup doesn't wait on S3.  It should then be refreshed as soon as possible, see {@link LocationRefresher}.
+ * <p>
+ * {@link #load} is called at startup, then {@link #refresh} from one thread at a time.  The current version can be read
+ * from any thread.
+ */
+public class LocationRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(LocationRegistry.class);
+
+    private final TypedConfig config;
+    private final LocationService locationService;
+    private final ObjectMapper objectMapper;
+
+    private volatile LocationSnapshot current;
+    private boolean loadedFromCache;
+
+    public LocationRegistry(TypedConfig config, LocationService locationService, ObjectMapper objectMapper) {
+        this.config = config;
+        this.locationService = locationService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Read the locations from the cache file if there is one, otherwise from S3.
+     */
+    public LocationSnapshot load() throws IOException {
+        current = readCache();
+        loadedFromCache = current != null;
+        if (loadedFromCache) {
+            LOG.info("Read {} locations from {}", current.locations.size(), config.cacheFile);
+        } else {
+            current = locationService.fetchIfChanged(null);
+            LOG.info("Read {} locations from S3", current.locations.size());
+            writeCache(current);
+        }
+        return current;
+    }
+
+    /**
+     * Whether the locations loaded at startup came from the cache, so may be out of date.
+     */
+    public boolean isLoadedFromCache() {
+        return loadedFromCache;
+    }
+
+    public LocationSnapshot getCurrent() {
+        return current;
+    }
+
+    /**
+     * Check S3 for a new version of the locations.
+     *
+     * @return the new version, or null if the locations haven't changed
+     */
+    public LocationSnapshot refresh() throws IOException {
+        LocationSnapshot latest = locationService.fetchIfChanged(current.etag);
+        if (latest == null || Arrays.equals(latest.getJsonBytes(), current.getJsonBytes())) {
+            return null;
+        }
+        LOG.info("Read {} locations from S3, replacing {}", latest.locations.size(), current.locations.size());
+        current = latest;
+        writeCache(latest);
+        return latest;
+    }
+
+    /**
+     * The cache holds the ETag on the first line, empty if there was none, and the JSON after it.
+     */
+    private LocationSnapshot readCache() {
+        if (!config.hasCacheFile() || !Files.exists(config.cacheFile)) {
+            return null;
+        }
+        try {
+            byte[] contents = Files.readAllBytes(config.cacheFile);
+            int newline = 0;
+            while (newline < contents.length && contents[newline] != '\n') {
+                newline++;
+            }
+            if (newline == contents.length) {
+                throw new IOException("No ETag line");
+            }
+            String etag = new String(contents, 0, newline, StandardCharsets.UTF_8);
+            byte[] json = Arrays.copyOfRange(contents, newline + 1, contents.length);
+            return new LocationSnapshot(
+                    LocationService.parse(objectMapper, json), etag.isEmpty() ? null : etag, json);
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable locations cache {}: {}", config.cacheFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Written to a temporary file which is then moved over the cache, so that a crash can't leave half a cache behind.
+     * Failing to write the cache only slows the next startup, so is logged rather than thrown.
+     */
+    private void writeCache(LocationSnapshot snapshot) {
+        if (!config.hasCacheFile()) {
+            return;
+        }
+        Path temporary = config.cacheFile.resolveSibling(config.cacheFile.getFileName() + ".tmp");
+        byte[] etag = (snapshot.etag == null ? "" : snapshot.etag).getBytes(StandardCharsets.UTF_8);
+        byte[] json = snapshot.getJsonBytes();
+        byte[] contents = new byte[etag.length + 1 + json.length];
+        System.arraycopy(etag, 0, contents, 0, etag.length);
+        contents[etag.length] = '\n';
+        System.arraycopy(json, 0, contents, etag.length + 1, json.length);
+        try {
+            Files.write(temporary, contents);
+            Files.move(temporary, config.cacheFile,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Failed to write locations cache {}: {}", config.cacheFile, e);
+        }
+    }
+
+    public static class TypedConfig {
+        final Duration refreshInterval;
+        // Null for no cache
+        final Path cacheFile;
+
+        /**
+         * @param refreshInterval zero to never check S3 for new locations after startup
+         * @param cacheFile empty for no cache
+         */
+        public TypedConfig(Duration refreshInterval, String cacheFile) {
+            if (refreshInterval.isNegative()) {
+                throw new IllegalArgumentException("Locations refreshInterval must not be negative");
+            }
+            this.refreshInterval = refreshInterval;
+            this.cacheFile = cacheFile.isEmpty() ? null : Paths.get(cacheFile);
+        }
+
+        boolean hasCacheFile() {
+            return cacheFile != null;
+        }
+
+        public static TypedConfig fromUntypedConfig(Config config) {
+            return new TypedConfig(config.getDuration("refreshInterval"), config.getString("cacheFile"));
+        }
+    }
+}
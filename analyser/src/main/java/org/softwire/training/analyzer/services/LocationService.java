@@ -1,16 +1,19 @@
 package org.softwire.training.analyzer.services;
 
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.io.CharStreams;
+import com.google.common.io.ByteStreams;
 import com.typesafe.config.Config;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.softwire.training.analyzer.model.Location;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.Collections;
 import java.util.List;
 
 public class LocationService {
@@ -27,8 +30,40 @@ public class LocationService {
     }
 
     public List<Location> get() throws IOException {
-        String locationsJson = CharStreams.toString(new InputStreamReader(s3.getObject(config.s3Bucket, config.s3Key).getObjectContent()));
-        LOG.debug("Read Locations JSON from S3: {}", locationsJson);
+        return fetchIfChanged(null).locations;
+    }
+
+    /**
+     * Download and parse the locations, unless they are still the version with the given ETag.
+     *
+     * @param etag null to always download them
+     * @return null if the locations haven't changed
+     */
+    public LocationSnapshot fetchIfChanged(String etag) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(config.s3Bucket, config.s3Key);
+        if (etag != null) {
+            request.setNonmatchingETagConstraints(Collections.singletonList(etag));
+        }
+        S3Object object = s3.getObject(request);
+        if (object == null) {
+            LOG.debug("Locations in S3 still have ETag {}", etag);
+            return null;
+        }
+        byte[] json;
+        try (S3ObjectInputStream content = object.getObjectContent()) {
+            json = ByteStreams.toByteArray(content);
+        }
+        return new LocationSnapshot(parse(objectMapper, json), object.getObjectMetadata().getETag(), json);
+    }
+
+    public static List<Location> parse(ObjectMapper objectMapper, String locationsJson) throws IOException {
+        return objectMapper.readValue(locationsJson, new TypeReference<List<Location>>() {});
+    }
+
+    /**
+     * Parse the locations straight from the UTF-8 bytes, without decoding them to a String first.
+     */
+    public static List<Location> parse(ObjectMapper objectMapper, byte[] locationsJson) throws IOException {
         return objectMapper.readValue(locationsJson, new TypeReference<List<Location>>() {});
     }
 
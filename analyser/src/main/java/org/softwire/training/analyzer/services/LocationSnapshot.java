@@ -0,0 +1,31 @@
+package org.softwire.training.analyzer.services;
+
+import org.softwire.training.analyzer.model.Location;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One version of the locations, along with the JSON they were parsed from and its S3 ETag.
+ */
+public class LocationSnapshot {
+    public final List<Location> locations;
+    // Null if S3 didn't give one
+    public final String etag;
+    private final byte[] json;
+
+    public LocationSnapshot(List<Location> locations, String etag, byte[] json) {
+        this.locations = Collections.unmodifiableList(locations);
+        this.etag = etag;
+        this.json = json;
+    }
+
+    public String getJson() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    byte[] getJsonBytes() {
+        return json;
+    }
+}
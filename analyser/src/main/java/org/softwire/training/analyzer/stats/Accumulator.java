@@ -0,0 +1,113 @@
+package org.softwire.training.analyzer.stats;
+
+/**
+ * Running summary statistics of a series of values, in constant space: adding a value is a few arithmetic operations
+ * and allocates nothing, so one accumulator can be reset and reused indefinitely.
+ * <p>
+ * The variance is kept with Welford's online algorithm, which unlike summing squares doesn't lose precision when the
+ * values are large compared to how much they vary.
+ * <p>
+ * Not thread safe.
+ */
+public class Accumulator {
+    private long count;
+    private double sum;
+    private double mean;
+    // Sum of squared differences from the mean
+    private double m2;
+    private double min;
+    private double max;
+
+    public Accumulator() {
+        reset();
+    }
+
+    public void add(double value) {
+        count++;
+        sum += value;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Add the values summarised by another accumulator's statistics, as if they had been added one by one, combining
+     * the variances with Chan et al.'s parallel algorithm.
+     */
+    public void merge(long count, double mean, double min, double max, double variance) {
+        if (count == 0) {
+            return;
+        }
+        long combinedCount = this.count + count;
+        m2 = combinedM2(this.count, this.mean, m2, count, mean, variance * count);
+        this.mean += (mean - this.mean) * count / combinedCount;
+        sum += mean * count;
+        this.count = combinedCount;
+        if (min < this.min) {
+            this.min = min;
+        }
+        if (max > this.max) {
+            this.max = max;
+        }
+    }
+
+    /**
+     * The sum of squared differences from the mean of two sets of values together, from each set's count, mean and sum
+     * of squared differences from its own mean, by Chan et al.'s parallel algorithm.
+     */
+    static double combinedM2(long countA, double meanA, double m2A, long countB, double meanB, double m2B) {
+        double delta = meanB - meanA;
+        return m2A + m2B + delta * delta * countA * countB / (countA + countB);
+    }
+
+    public void reset() {
+        count = 0;
+        sum = 0;
+        mean = 0;
+        m2 = 0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Calculated from the sum, so it's exactly the sum divided by the count.  NaN if nothing has been added.
+     */
+    public double getMean() {
+        return sum / count;
+    }
+
+    /**
+     * Positive infinity if nothing has been added.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Negative infinity if nothing has been added.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * The population variance, ie. the mean squared difference from the mean.  NaN if nothing has been added.
+     */
+    public double getVariance() {
+        return m2 / count;
+    }
+}
@@ -0,0 +1,105 @@
+package org.softwire.training.analyzer.stats;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of {@link Accumulator}s held as parallel primitive arrays rather than as objects, for when there are
+ * too many to want an object each: the per-accumulator cost is 48 bytes with no headers or pointers, and resetting a
+ * run of them is a few array fills.
+ * <p>
+ * Not thread safe.
+ */
+public class AccumulatorArray {
+    private final long[] counts;
+    private final double[] sums;
+    private final double[] means;
+    private final double[] m2s;
+    private final double[] mins;
+    private final double[] maxes;
+
+    public AccumulatorArray(int size) {
+        counts = new long[size];
+        sums = new double[size];
+        means = new double[size];
+        m2s = new double[size];
+        mins = new double[size];
+        maxes = new double[size];
+        reset(0, size);
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    /**
+     * See {@link Accumulator#add}.
+     */
+    public void add(int index, double value) {
+        long count = ++counts[index];
+        sums[index] += value;
+        double delta = value - means[index];
+        means[index] += delta / count;
+        m2s[index] += delta * (value - means[index]);
+        if (value < mins[index]) {
+            mins[index] = value;
+        }
+        if (value > maxes[index]) {
+            maxes[index] = value;
+        }
+    }
+
+    /**
+     * Merge each of another array's accumulators into the one at the same index, see {@link Accumulator#merge}.
+     */
+    public void merge(AccumulatorArray other) {
+        if (other.size() != size()) {
+            throw new IllegalArgumentException("Can't merge accumulator arrays of different sizes");
+        }
+        for (int index = 0; index < counts.length; index++) {
+            long count = other.counts[index];
+            if (count == 0) {
+                continue;
+            }
+            long combinedCount = counts[index] + count;
+            m2s[index] = Accumulator.combinedM2(
+                    counts[index], means[index], m2s[index], count, other.means[index], other.m2s[index]);
+            means[index] += (other.means[index] - means[index]) * count / combinedCount;
+            sums[index] += other.sums[index];
+            counts[index] = combinedCount;
+            mins[index] = Math.min(mins[index], other.mins[index]);
+            maxes[index] = Math.max(maxes[index], other.maxes[index]);
+        }
+    }
+
+    /**
+     * Reset the accumulators from index from (inclusive) to index to (exclusive).
+     */
+    public void reset(int from, int to) {
+        Arrays.fill(counts, from, to, 0);
+        Arrays.fill(sums, from, to, 0);
+        Arrays.fill(means, from, to, 0);
+        Arrays.fill(m2s, from, to, 0);
+        Arrays.fill(mins, from, to, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxes, from, to, Double.NEGATIVE_INFINITY);
+    }
+
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    public double getMean(int index) {
+        return sums[index] / counts[index];
+    }
+
+    public double getMin(int index) {
+        return mins[index];
+    }
+
+    public double getMax(int index) {
+        return maxes[index];
+    }
+
+    public double getVariance(int index) {
+        return m2s[index] / counts[index];
+    }
+}
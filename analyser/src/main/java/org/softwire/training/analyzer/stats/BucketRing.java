@@ -0,0 +1,77 @@
+package org.softwire.training.analyzer.stats;
+
+/**
+ * A fixed number of consecutive, equally wide time buckets, each an {@link Accumulator}, held in a circular array.
+ * <p>
+ * Finding the bucket for a time is a subtraction and a division, and moving the window on by a bucket resets the first
+ * bucket and reuses it as the last, so nothing is allocated after construction.
+ * <p>
+ * Not thread safe.
+ */
+public class BucketRing {
+    private final Accumulator[] buckets;
+    private final long width;
+
+    // Index into buckets of the earliest bucket, and the time it starts
+    private int first;
+    private long firstStart;
+
+    public BucketRing(int size, long width, long firstStart) {
+        buckets = new Accumulator[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Accumulator();
+        }
+        this.width = width;
+        this.firstStart = firstStart;
+    }
+
+    /**
+     * @return the bucket containing time, or null if time is outside the ring
+     */
+    public Accumulator bucketFor(long time) {
+        int index = indexFor(time);
+        return index < 0 ? null : buckets[index];
+    }
+
+    /**
+     * The position in the ring of the bucket containing time, for keeping more state per bucket in a parallel array.
+     *
+     * @return the index, or -1 if time is outside the ring
+     */
+    public int indexFor(long time) {
+        if (time < firstStart || time >= getEnd()) {
+            return -1;
+        }
+        int offset = (int) ((time - firstStart) / width);
+        return (first + offset) % buckets.length;
+    }
+
+    public Accumulator get(int index) {
+        return buckets[index];
+    }
+
+    public Accumulator getFirst() {
+        return buckets[first];
+    }
+
+    public int getFirstIndex() {
+        return first;
+    }
+
+    public long getFirstStart() {
+        return firstStart;
+    }
+
+    public long getEnd() {
+        return firstStart + buckets.length * width;
+    }
+
+    /**
+     * Drop the first bucket, and add an empty one at the end.
+     */
+    public void advance() {
+        buckets[first].reset();
+        first = (first + 1) % buckets.length;
+        firstStart += width;
+    }
+}
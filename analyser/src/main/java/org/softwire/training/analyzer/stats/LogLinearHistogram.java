@@ -0,0 +1,181 @@
+package org.softwire.training.analyzer.stats;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size histogram for estimating quantiles, like an HDR histogram: each power of two is split into
+ * 2^precisionBits equally wide bins, so any quantile is found to within a relative error of 2^-(precisionBits + 1).
+ * <p>
+ * The bin for a value comes straight from the exponent and top mantissa bits of its double representation, so adding a
+ * value is a few bit operations and an increment.  Magnitudes below 2^{@value #MIN_EXPONENT} are counted as zero, and
+ * those of 2^{@value #MAX_EXPONENT} or more in the highest bin, though the minimum and maximum are exact.
+ * <p>
+ * Histograms with the same precision merge by adding their counts, so histograms of different buckets, locations or
+ * processes can be combined without the values.
+ * <p>
+ * Not thread safe.
+ */
+public class LogLinearHistogram {
+    static final int MIN_EXPONENT = -32;
+    static final int MAX_EXPONENT = 32;
+
+    private final int precisionBits;
+    private final int binsPerSign;
+
+    // Negative values in decreasing magnitude, then zero at index binsPerSign, then positive values, so that the bins
+    // are in order of value
+    private final long[] counts;
+    private long count;
+    private double min;
+    private double max;
+
+    // The range of bins which might be non-zero, so that resetting and searching don't touch all of them
+    private int lowestBin;
+    private int highestBin;
+
+    public LogLinearHistogram(int precisionBits) {
+        if (precisionBits < 0 || precisionBits > 16) {
+            throw new IllegalArgumentException("precisionBits must be between 0 and 16");
+        }
+        this.precisionBits = precisionBits;
+        binsPerSign = (MAX_EXPONENT - MIN_EXPONENT) << precisionBits;
+        counts = new long[2 * binsPerSign + 1];
+        reset();
+    }
+
+    public int getPrecisionBits() {
+        return precisionBits;
+    }
+
+    /**
+     * NaNs are ignored.
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    private void add(double value, long times) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        int bin = binFor(value);
+        counts[bin] += times;
+        count += times;
+        if (bin < lowestBin) {
+            lowestBin = bin;
+        }
+        if (bin > highestBin) {
+            highestBin = bin;
+        }
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Add all the values counted in another histogram to this one.
+     */
+    public void merge(LogLinearHistogram other) {
+        if (other.precisionBits != precisionBits) {
+            throw new IllegalArgumentException("Can't merge histograms with different precisions");
+        }
+        for (int bin = other.lowestBin; bin <= other.highestBin; bin++) {
+            counts[bin] += other.counts[bin];
+        }
+        count += other.count;
+        lowestBin = Math.min(lowestBin, other.lowestBin);
+        highestBin = Math.max(highestBin, other.highestBin);
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Add all the values counted in another histogram to this one, each plus offset, eg. to turn times since some event
+     * into times since an earlier one.  Unlike {@link #merge}, each bin of the other histogram is counted at its
+     * midpoint, so the values are only within both histograms' precision, though the other's minimum and maximum are
+     * still exact.
+     */
+    public void mergeShifted(LogLinearHistogram other, double offset) {
+        if (other.count == 0) {
+            return;
+        }
+        for (int bin = other.lowestBin; bin <= other.highestBin; bin++) {
+            if (other.counts[bin] != 0) {
+                double midpoint = Math.max(other.min, Math.min(other.max, other.midpointOf(bin)));
+                add(midpoint + offset, other.counts[bin]);
+            }
+        }
+        min = Math.min(min, other.min + offset);
+        max = Math.max(max, other.max + offset);
+    }
+
+    public void reset() {
+        if (lowestBin <= highestBin) {
+            Arrays.fill(counts, lowestBin, highestBin + 1, 0);
+        }
+        count = 0;
+        lowestBin = counts.length;
+        highestBin = -1;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The value which a fraction quantile of the values are less than or equal to, to within the histogram's precision,
+     * eg. getValueAtQuantile(0.5) is the median.  The lowest and highest values are exact.  NaN if nothing has been
+     * added.
+     */
+    public double getValueAtQuantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        if (rank == 1) {
+            return min;
+        } else if (rank >= count) {
+            return max;
+        }
+        long seen = 0;
+        for (int bin = lowestBin; bin <= highestBin; bin++) {
+            seen += counts[bin];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, midpointOf(bin)));
+            }
+        }
+        return max;
+    }
+
+    private int binFor(double value) {
+        double magnitude = Math.abs(value);
+        int exponent = Math.getExponent(magnitude);
+        if (exponent < MIN_EXPONENT) {
+            return binsPerSign;
+        }
+        int bin;
+        if (exponent >= MAX_EXPONENT) {
+            bin = binsPerSign - 1;
+        } else {
+            int subBin = (int) (Double.doubleToRawLongBits(magnitude) >>> (52 - precisionBits)) & ((1 << precisionBits) - 1);
+            bin = ((exponent - MIN_EXPONENT) << precisionBits) | subBin;
+        }
+        return value > 0 ? binsPerSign + 1 + bin : binsPerSign - 1 - bin;
+    }
+
+    private double midpointOf(int index) {
+        if (index == binsPerSign) {
+            return 0;
+        }
+        int bin = index > binsPerSign ? index - binsPerSign - 1 : binsPerSign - 1 - index;
+        int exponent = (bin >> precisionBits) + MIN_EXPONENT;
+        int subBin = bin & ((1 << precisionBits) - 1);
+        double magnitude = Math.scalb(1 + (subBin + 0.5) / (1 << precisionBits), exponent);
+        return index > binsPerSign ? magnitude : -magnitude;
+    }
+}
@@ -0,0 +1,181 @@
+package org.softwire.training.analyzer.stats;
+
+/**
+ * Summary statistics over a window of the last few panes, each an {@link Accumulator}, which slides on a pane at a
+ * time.  Pushing a pane and reading the statistics are O(1) (amortised), however many panes the window covers.
+ * <p>
+ * The count and sum are kept by adding each new pane and subtracting the one which drops out.  Min, max and variance
+ * can't be subtracted, so are kept with two-stack aggregation: new panes are pushed onto a back stack, keeping a
+ * running combination of all of it, and panes are dropped from a front stack, each entry of which holds the combination
+ * of itself and everything newer in the front stack.  When the front stack runs out, the back stack is reversed into
+ * it.  The window's statistics are then the combination of the top of the front stack and the back stack's running
+ * combination.  Variances are combined with Chan et al.'s parallel algorithm.
+ * <p>
+ * Allocates nothing after construction.  Not thread safe.
+ */
+public class PaneWindow {
+    private final int panes;
+
+    // The back stack holds the panes themselves, the front stack combinations
+    private final Summary[] back;
+    private final Summary[] front;
+    private final Summary backCombined = new Summary();
+    private final Summary window = new Summary();
+    private int backSize;
+    private int frontSize;
+
+    // The panes' own counts and sums, in a circular array, so that the oldest can be subtracted
+    private final long[] paneCounts;
+    private final double[] paneSums;
+    private int oldestPane;
+    private long count;
+    private double sum;
+
+    public PaneWindow(int panes) {
+        if (panes < 1) {
+            throw new IllegalArgumentException("A window must have at least one pane");
+        }
+        this.panes = panes;
+        back = new Summary[panes];
+        front = new Summary[panes];
+        for (int i = 0; i < panes; i++) {
+            back[i] = new Summary();
+            front[i] = new Summary();
+        }
+        paneCounts = new long[panes];
+        paneSums = new double[panes];
+    }
+
+    /**
+     * Add a pane as the newest in the window, dropping the oldest if the window was full.  The pane is copied, so can
+     * be reset and reused.
+     */
+    public void push(Accumulator pane) {
+        if (isFull()) {
+            drop();
+        }
+        Summary summary = back[backSize++];
+        summary.set(pane);
+        backCombined.combine(summary);
+
+        int newest = (oldestPane + backSize + frontSize - 1) % panes;
+        paneCounts[newest] = pane.getCount();
+        paneSums[newest] = pane.getSum();
+        count += pane.getCount();
+        sum += pane.getSum();
+    }
+
+    /**
+     * Whether the window covers a whole window's worth of panes.
+     */
+    public boolean isFull() {
+        return backSize + frontSize == panes;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * NaN if the window has no values.
+     */
+    public double getMean() {
+        return sum / count;
+    }
+
+    public double getMin() {
+        return combined().min;
+    }
+
+    public double getMax() {
+        return combined().max;
+    }
+
+    /**
+     * The population variance, NaN if the window has no values.
+     */
+    public double getVariance() {
+        return combined().m2 / count;
+    }
+
+    private Summary combined() {
+        if (frontSize == 0) {
+            return backCombined;
+        }
+        window.copy(front[frontSize - 1]);
+        window.combine(backCombined);
+        return window;
+    }
+
+    private void drop() {
+        if (frontSize == 0) {
+            // Reverse the back stack into the front, so the oldest pane ends up on top
+            for (int i = backSize - 1; i >= 0; i--) {
+                Summary summary = front[frontSize];
+                summary.copy(back[i]);
+                if (frontSize > 0) {
+                    summary.combine(front[frontSize - 1]);
+                }
+                frontSize++;
+            }
+            backSize = 0;
+            backCombined.clear();
+        }
+        frontSize--;
+        count -= paneCounts[oldestPane];
+        sum -= paneSums[oldestPane];
+        oldestPane = (oldestPane + 1) % panes;
+    }
+
+    private static class Summary {
+        long count;
+        double mean;
+        double m2;
+        double min;
+        double max;
+
+        Summary() {
+            clear();
+        }
+
+        void clear() {
+            count = 0;
+            mean = 0;
+            m2 = 0;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+        }
+
+        void set(Accumulator accumulator) {
+            count = accumulator.getCount();
+            mean = count == 0 ? 0 : accumulator.getMean();
+            m2 = count == 0 ? 0 : accumulator.getVariance() * count;
+            min = accumulator.getMin();
+            max = accumulator.getMax();
+        }
+
+        void copy(Summary other) {
+            count = other.count;
+            mean = other.mean;
+            m2 = other.m2;
+            min = other.min;
+            max = other.max;
+        }
+
+        void combine(Summary other) {
+            if (other.count == 0) {
+                return;
+            }
+            if (count == 0) {
+                copy(other);
+                return;
+            }
+            long combinedCount = count + other.count;
+            m2 = Accumulator.combinedM2(count, mean, m2, other.count, other.mean, other.m2);
+            mean += (other.mean - mean) * other.count / combinedCount;
+            count = combinedCount;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+}
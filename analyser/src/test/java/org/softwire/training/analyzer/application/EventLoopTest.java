@@ -10,8 +10,8 @@ import org.softwire.training.analyzer.pipeline.Deduplicator;
 import org.softwire.training.analyzer.pipeline.LocationFilter;
 import org.softwire.training.analyzer.pipeline.Pipeline;
 import org.softwire.training.analyzer.pipeline.StatsCompiler;
-import org.softwire.training.analyzer.services.FileWriter;
-import org.softwire.training.analyzer.services.QueueInfoLogger;
+import org.softwire.training.analyzer.services.AverageWriter;
+import org.softwire.training.analyzer.receiver.Acknowledger;
 import org.softwire.training.analyzer.receiver.Receiver;
 
 import java.time.*;
@@ -36,17 +36,18 @@ class EventLoopTest {
     private Receiver receiver;
     private Clock clock;
     private EventLoop eventLoop;
-    private FileWriter fileWriter;
+    private AverageWriter averageWriter;
     private Pipeline<Event, Average> pipeline;
+    private Acknowledger acknowledger;
 
     @BeforeEach
     @SuppressWarnings("unchecked")
     void beforeEach() {
         receiver = mock(Receiver.class);
         clock = mock(Clock.class);
-        fileWriter = mock(FileWriter.class);
+        averageWriter = mock(AverageWriter.class);
         pipeline = (Pipeline<Event, Average>) mock(Pipeline.class);
-        QueueInfoLogger queueInfoLogger = mock(QueueInfoLogger.class);
+        acknowledger = mock(Acknowledger.class);
 
         // Start time is measured in the application constructor
         when(clock.instant()).thenReturn(START);
@@ -54,9 +55,9 @@ class EventLoopTest {
         eventLoop = new EventLoop(
                 CONFIG,
                 receiver,
-                queueInfoLogger,
                 pipeline,
-                fileWriter,
+                averageWriter,
+                acknowledger,
                 clock);
     }
 
@@ -79,12 +80,44 @@ class EventLoopTest {
         Event event = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
         when(receiver.get()).thenReturn(Stream.of(event));
 
-        Average average = new Average(Instant.EPOCH, Instant.EPOCH, 1);
+        Average average = new Average(Instant.EPOCH, Instant.EPOCH, 1, 1, 1, 1, 0);
         when(pipeline.handle(tick2, event)).thenReturn(Stream.of(average));
 
         eventLoop.run();
 
-        verify(fileWriter, times(1)).write(average);
+        verify(averageWriter, times(1)).write(average);
+    }
+
+    @Test
+    void reportsFlushedOutputToAcknowledger() {
+        Instant tick1 = START.plusSeconds(1);
+        Instant tick2 = START.plus(CONFIG.duration).plusSeconds(1);
+        when(clock.instant()).thenReturn(tick1, tick2);
+
+        Event event = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        when(receiver.get()).thenReturn(Stream.of(event));
+        when(pipeline.handle(tick2, event)).thenReturn(Stream.empty());
+        when(averageWriter.flushIfDue(tick2)).thenReturn(true);
+
+        eventLoop.run();
+
+        verify(acknowledger, times(1)).outputFlushed(tick2);
+    }
+
+    @Test
+    void doesNotAcknowledgeUntilOutputIsFlushed() {
+        Instant tick1 = START.plusSeconds(1);
+        Instant tick2 = START.plus(CONFIG.duration).plusSeconds(1);
+        when(clock.instant()).thenReturn(tick1, tick2);
+
+        Event event = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        when(receiver.get()).thenReturn(Stream.of(event));
+        when(pipeline.handle(tick2, event)).thenReturn(Stream.empty());
+        when(averageWriter.flushIfDue(tick2)).thenReturn(false);
+
+        eventLoop.run();
+
+        verify(acknowledger, never()).outputFlushed(any());
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,141 @@
+package org.softwire.training.analyzer.application;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.concurrent.WaitStrategy;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.LocationAverage;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class ShardedEventLoopTest {
+    private static final EventLoop.TypedConfig APPLICATION_CONFIG =
+            new EventLoop.TypedConfig(Duration.ofMillis(500), ExecutionMode.SHARDED);
+    private static final ShardedEventLoop.TypedConfig CONFIG =
+            new ShardedEventLoop.TypedConfig(2, 16, WaitStrategy.PARKING);
+
+    private PackedEventSource eventSource;
+    private PackedPipeline firstShard;
+    private PackedPipeline secondShard;
+    private AverageWriter averageWriter;
+    private Acknowledger acknowledger;
+    private ShardedEventLoop eventLoop;
+
+    @BeforeEach
+    void beforeEach() {
+        eventSource = mock(PackedEventSource.class);
+        firstShard = mock(PackedPipeline.class);
+        secondShard = mock(PackedPipeline.class);
+        averageWriter = mock(AverageWriter.class);
+        acknowledger = mock(Acknowledger.class);
+
+        eventLoop = new ShardedEventLoop(
+                APPLICATION_CONFIG,
+                CONFIG,
+                eventSource,
+                Arrays.asList(firstShard, secondShard),
+                averageWriter,
+                acknowledger,
+                Clock.systemUTC());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendsAllEventsForALocationToTheSameShard() throws InterruptedException {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new EventBuilder()
+                    .setLocationId(new UUID(0, i % 10))
+                    .setEventId(UUID.randomUUID())
+                    .createEvent());
+        }
+        List<Event> expected = new ArrayList<>(events);
+        PackedEvent scratch = new PackedEvent();
+        doAnswer(invocation -> {
+            Consumer<PackedEvent> handler = (Consumer<PackedEvent>) invocation.getArguments()[0];
+            events.forEach(event -> handler.accept(scratch.copyFrom(event)));
+            events.clear();
+            return null;
+        }).when(eventSource).drainTo(any());
+
+        List<Event> firstHandled = new ArrayList<>();
+        List<Event> secondHandled = new ArrayList<>();
+        LocationAverage average = new LocationAverage(new UUID(0, 1), Instant.EPOCH, Instant.EPOCH, 1, 1, 1, 1, 0);
+        recordHandled(firstShard, firstHandled, average);
+        recordHandled(secondShard, secondHandled, average);
+
+        eventLoop.run();
+
+        List<Event> handled = new ArrayList<>(firstHandled);
+        handled.addAll(secondHandled);
+        assertThat(handled, containsInAnyOrder(expected.toArray()));
+        Set<UUID> firstLocations = locations(firstHandled);
+        firstLocations.retainAll(locations(secondHandled));
+        assertThat(firstLocations, empty());
+        verify(averageWriter).write(average);
+        verify(acknowledger, atLeastOnce()).outputFlushed(any());
+    }
+
+    @Test
+    void stopsIfAShardFails() {
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<PackedEvent> handler = (Consumer<PackedEvent>) invocation.getArguments()[0];
+            handler.accept(new PackedEvent());
+            return null;
+        }).when(eventSource).drainTo(any());
+        doThrow(new IllegalStateException("Out of memory")).when(firstShard).handle(any(), any(), any());
+        doThrow(new IllegalStateException("Out of memory")).when(secondShard).handle(any(), any(), any());
+
+        assertThrows(IllegalStateException.class, () -> eventLoop.run());
+    }
+
+    /**
+     * Record the events the shard handles, and have the shard which handles the average's location output it once.
+     */
+    @SuppressWarnings("unchecked")
+    private static void recordHandled(PackedPipeline shard, List<Event> handled, LocationAverage average) {
+        doAnswer(invocation -> {
+            Event event = ((PackedEvent) invocation.getArguments()[1]).toEvent();
+            Consumer<Average> output = (Consumer<Average>) invocation.getArguments()[2];
+            if (event.locationId.equals(average.locationId) && locations(handled).add(event.locationId)) {
+                output.accept(average);
+            }
+            handled.add(event);
+            return null;
+        }).when(shard).handle(any(), any(), any());
+    }
+
+    private static Set<UUID> locations(List<Event> events) {
+        Set<UUID> locations = new HashSet<>();
+        events.forEach(event -> locations.add(event.locationId));
+        return locations;
+    }
+}
@@ -0,0 +1,115 @@
+package org.softwire.training.analyzer.application;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.concurrent.WaitStrategy;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.PackedPipeline;
+import org.softwire.training.analyzer.receiver.Acknowledger;
+import org.softwire.training.analyzer.receiver.PackedEventSource;
+import org.softwire.training.analyzer.services.AverageWriter;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class StagedEventLoopTest {
+    private static final EventLoop.TypedConfig APPLICATION_CONFIG =
+            new EventLoop.TypedConfig(Duration.ofMillis(500), ExecutionMode.STAGED);
+    private static final StagedEventLoop.TypedConfig CONFIG =
+            new StagedEventLoop.TypedConfig(16, 4, WaitStrategy.PARKING);
+
+    private PackedEventSource eventSource;
+    private PackedPipeline pipeline;
+    private AverageWriter averageWriter;
+    private Acknowledger acknowledger;
+    private StagedEventLoop eventLoop;
+
+    @BeforeEach
+    void beforeEach() {
+        eventSource = mock(PackedEventSource.class);
+        pipeline = mock(PackedPipeline.class);
+        averageWriter = mock(AverageWriter.class);
+        acknowledger = mock(Acknowledger.class);
+
+        eventLoop = new StagedEventLoop(
+                APPLICATION_CONFIG,
+                CONFIG,
+                eventSource,
+                pipeline,
+                averageWriter,
+                acknowledger,
+                Clock.systemUTC());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void passesEventsThroughPipelineToFileWriter() throws InterruptedException {
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new EventBuilder().setEventId(UUID.randomUUID()).createEvent());
+        }
+        PackedEvent scratch = new PackedEvent();
+        doAnswer(invocation -> {
+            Consumer<PackedEvent> handler = (Consumer<PackedEvent>) invocation.getArguments()[0];
+            events.forEach(event -> handler.accept(scratch.copyFrom(event)));
+            events.clear();
+            return null;
+        }).when(eventSource).drainTo(any());
+
+        List<Event> handled = new ArrayList<>();
+        Average average = new Average(Instant.EPOCH, Instant.EPOCH, 1, 1, 1, 1, 0);
+        doAnswer(invocation -> {
+            PackedEvent event = (PackedEvent) invocation.getArguments()[1];
+            Consumer<Average> output = (Consumer<Average>) invocation.getArguments()[2];
+            handled.add(event.toEvent());
+            if (handled.size() == 100) {
+                output.accept(average);
+            }
+            return null;
+        }).when(pipeline).handle(any(), any(), any());
+
+        List<Event> expected = new ArrayList<>(events);
+        eventLoop.run();
+
+        assertThat(handled, contains(expected.toArray()));
+        verify(averageWriter).write(average);
+        verify(acknowledger, atLeastOnce()).outputFlushed(any());
+    }
+
+    @Test
+    void stopsIfOutputFails() {
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<Average> output = (Consumer<Average>) invocation.getArguments()[2];
+            output.accept(new Average(Instant.EPOCH, Instant.EPOCH, 1, 1, 1, 1, 0));
+            return null;
+        }).when(pipeline).handle(any(), any(), any());
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Consumer<PackedEvent> handler = (Consumer<PackedEvent>) invocation.getArguments()[0];
+            handler.accept(new PackedEvent());
+            return null;
+        }).when(eventSource).drainTo(any());
+        doThrow(new IllegalStateException("Disk full")).when(averageWriter).write(any());
+
+        assertThrows(IllegalStateException.class, () -> eventLoop.run());
+    }
+}
@@ -1,10 +1,27 @@
 package org.softwire.training.analyzer.application;
 
+import com.typesafe.config.ConfigFactory;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 class TypedConfigTest {
     @Test
     void testConfigurationParsable() {
         new TypedConfig();
     }
+
+    @Test
+    void rejectsAllowedLatenessLongerThanTheAveragingPeriod() {
+        assertThrows(IllegalArgumentException.class, () -> new TypedConfig(ConfigFactory
+                .parseString("application.allowedLateness = 2 minutes, aggregator.averagingPeriod = 1 minute")
+                .withFallback(ConfigFactory.load())));
+    }
+
+    @Test
+    void rejectsBinaryOutputOfSpatialAverages() {
+        assertThrows(IllegalArgumentException.class, () -> new TypedConfig(ConfigFactory
+                .parseString("output.format = BINARY, aggregator.mode = SPATIAL")
+                .withFallback(ConfigFactory.load())));
+    }
 }
\ No newline at end of file
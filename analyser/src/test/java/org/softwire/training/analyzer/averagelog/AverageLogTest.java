@@ -0,0 +1,167 @@
+package org.softwire.training.analyzer.averagelog;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.LocationAverage;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AverageLogTest {
+    // Room for three records per segment
+    private static final int SEGMENT_SIZE = Segments.HEADER_SIZE + 3 * AverageRecord.SIZE;
+
+    private Path directory;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("average-log-test");
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void recordsRoundTripThroughBuffer() {
+        LocationAverage average = new LocationAverage(new UUID(12, 34),
+                Instant.ofEpochSecond(60), Instant.EPOCH, 1.5, 3, 1, 2, 0.25);
+        AverageRecord written = new AverageRecord().set(average);
+        ByteBuffer buffer = ByteBuffer.allocate(2 * AverageRecord.SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        written.writeTo(buffer, AverageRecord.SIZE);
+
+        AverageRecord read = new AverageRecord();
+        assertThat(read.readFrom(buffer, 0), is(false));
+        assertThat(read.readFrom(buffer, AverageRecord.SIZE), is(true));
+        assertThat(read.toAverage(), equalTo(average));
+        assertThat(read.getLocationId(), equalTo(new UUID(12, 34)));
+    }
+
+    @Test
+    void readsBackWhatWasWrittenAcrossSegments() throws IOException {
+        List<Average> averages = new ArrayList<>();
+        try (AverageLogWriter writer = new AverageLogWriter(config(false))) {
+            for (int i = 0; i < 7; i++) {
+                averages.add(average(i, i * 0.5, i));
+                writer.write(averages.get(i));
+            }
+        }
+
+        assertThat(Segments.indexes(directory), contains(1L, 2L, 3L));
+        assertThat(readAll(new AverageLogReader(directory)), equalTo(averages));
+    }
+
+    @Test
+    void tailsRecordsAsTheyAreWritten() throws IOException {
+        AverageLogReader reader = new AverageLogReader(directory);
+        try (AverageLogWriter writer = new AverageLogWriter(config(false))) {
+            assertThat(readAll(reader), empty());
+
+            writer.write(average(0, 1, 1));
+            assertThat(readAll(reader), contains(average(0, 1, 1)));
+
+            // Fills the first segment and starts the second
+            for (int i = 1; i < 5; i++) {
+                writer.write(average(i, 1, 1));
+            }
+            assertThat(readAll(reader), hasSize(4));
+            assertThat(readAll(reader), empty());
+        }
+    }
+
+    @Test
+    void startsNewSegmentAfterExistingOnes() throws IOException {
+        try (AverageLogWriter writer = new AverageLogWriter(config(false))) {
+            writer.write(average(0, 1, 1));
+        }
+        try (AverageLogWriter writer = new AverageLogWriter(config(false))) {
+            writer.write(average(1, 2, 2));
+        }
+
+        assertThat(Segments.indexes(directory), contains(1L, 2L));
+        assertThat(readAll(new AverageLogReader(directory)), contains(average(0, 1, 1), average(1, 2, 2)));
+    }
+
+    @Test
+    void onlyReportsFlushedOnceForcedWhenForcing() throws IOException {
+        Instant now = Instant.ofEpochSecond(1000);
+        try (AverageLogWriter writer = new AverageLogWriter(config(true))) {
+            assertThat(writer.flushIfDue(now), is(true));
+            writer.write(average(0, 1, 1));
+            assertThat(writer.flushIfDue(now), is(true));
+
+            writer.write(average(1, 1, 1));
+            assertThat(writer.flushIfDue(now.plusMillis(999)), is(false));
+            assertThat(writer.flushIfDue(now.plusSeconds(1)), is(true));
+        }
+    }
+
+    @Test
+    void rejectsSegmentsTooSmallForARecord() {
+        assertThrows(IllegalArgumentException.class, () -> new AverageLogWriter.TypedConfig(
+                directory.toString(), Segments.HEADER_SIZE, Duration.ofSeconds(1), false));
+    }
+
+    @Test
+    void toolConvertsToCsvAndJson() throws IOException {
+        try (AverageLogWriter writer = new AverageLogWriter(config(false))) {
+            writer.write(average(0, 1.5, 3));
+        }
+
+        StringWriter csv = new StringWriter();
+        new AverageLogTool(new AverageLogReader(directory), AverageLogTool.Format.CSV, csv).scan();
+        StringWriter json = new StringWriter();
+        new AverageLogTool(new AverageLogReader(directory), AverageLogTool.Format.JSON, json).scan();
+
+        assertThat(csv.toString(), equalTo("from,to,value,count,locationId,min,max,variance\n" +
+                "1970-01-01T00:00:00Z,1970-01-01T00:01:00Z,1.5,3,,0.5,2.5,0.5\n"));
+        assertThat(json.toString(), equalTo("{\"from\":\"1970-01-01T00:00:00Z\",\"to\":\"1970-01-01T00:01:00Z\"," +
+                "\"value\":1.5,\"count\":3,\"min\":0.5,\"max\":2.5,\"variance\":0.5}\n"));
+    }
+
+    private AverageLogWriter.TypedConfig config(boolean force) {
+        return new AverageLogWriter.TypedConfig(directory.toString(), SEGMENT_SIZE, Duration.ofSeconds(1), force);
+    }
+
+    private static List<Average> readAll(AverageLogReader reader) throws IOException {
+        List<Average> averages = new ArrayList<>();
+        AverageRecord record = new AverageRecord();
+        while (reader.next(record)) {
+            averages.add(record.toAverage());
+        }
+        return averages;
+    }
+
+    private static Average average(int minute, double value, long count) {
+        return new Average(Instant.ofEpochSecond(60 * (minute + 1)), Instant.ofEpochSecond(60 * minute),
+                value, count, value - 1, value + 1, 0.5);
+    }
+}
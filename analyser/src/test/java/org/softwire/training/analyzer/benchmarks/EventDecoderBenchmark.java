@@ -0,0 +1,73 @@
+package org.softwire.training.analyzer.benchmarks;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.receiver.EventDecoder;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding an SQS message body by parsing the SNS envelope into a Map and then parsing the Message string
+ * (how Receiver used to do it) against the single pass {@link EventDecoder}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDecoderBenchmark {
+    private static final String EVENT = "{" +
+            "\"locationId\":\"4887f60d-d65c-4594-9087-aec8373b3de0\"," +
+            "\"eventId\":\"d8d00d6a-8e91-44dd-926d-2b389c436d45\"," +
+            "\"value\":12.345678901234," +
+            "\"timestamp\":1521115421123" +
+            "}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final EventDecoder decoder = new EventDecoder(mapper);
+
+    private String body;
+
+    @Setup
+    public void setup() {
+        // The same shape of envelope that SNS delivers to SQS
+        body = "{" +
+                "\"Type\":\"Notification\"," +
+                "\"MessageId\":\"22b80b92-fdea-4c2c-8f9d-bdfb0c7bf324\"," +
+                "\"TopicArn\":\"arn:aws:sns:eu-west-1:123456789012:sensor-data\"," +
+                "\"Message\":\"" + new String(new JsonStringEncoder().quoteAsString(EVENT)) + "\"," +
+                "\"Timestamp\":\"2018-03-15T12:03:41.123Z\"," +
+                "\"SignatureVersion\":\"1\"," +
+                "\"Signature\":\"EXAMPLEpH+DcEwjAPg8O9mY8dReBSwksfg2S7WKQcikcNKWLQjwu6A4VbeS0QHVCkhRS7fUQvi2egU3N858fiTDN6bkkOxYDVrY0Ad8L10Hs3zH81mtnPk5uvvolIC1CXGu43obcgFxeL3khZl8IKvO61GWB6jI9b5+gLPoBc1Q=\"," +
+                "\"SigningCertURL\":\"https://sns.eu-west-1.amazonaws.com/SimpleNotificationService-f3ecfb7224c7233fe7bb5f59f96de52f.pem\"," +
+                "\"UnsubscribeURL\":\"https://sns.eu-west-1.amazonaws.com/?Action=Unsubscribe\"" +
+                "}";
+    }
+
+    @Benchmark
+    public Event mapThenReadValue() throws IOException {
+        String message = mapper.<Map<String, String>>readValue(body, new TypeReference<Map<String, String>>() {
+        }).get("Message");
+        return mapper.readValue(message, Event.class);
+    }
+
+    @Benchmark
+    public Event streamingDecoder() throws IOException {
+        return decoder.decode(body);
+    }
+}
@@ -0,0 +1,112 @@
+package org.softwire.training.analyzer.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.softwire.training.analyzer.application.EventLoop;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.pipeline.LocationFilter;
+import org.softwire.training.analyzer.pipeline.Pipeline;
+import org.softwire.training.analyzer.pipeline.Probe;
+import org.softwire.training.analyzer.pipeline.Sink;
+import org.softwire.training.analyzer.pipeline.Stages;
+import org.softwire.training.analyzer.pipeline.StatsCompiler;
+import org.softwire.training.analyzer.pipeline.Watermark;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compares the per event cost of the standard pipeline's stages chained through {@link Pipeline#compose}, which
+ * creates Streams at every stage, against the same stages pushing to each other as
+ * {@link org.softwire.training.analyzer.pipeline.Stage}s.  Run with -prof gc to see the allocation per event too.
+ * <p>
+ * The deduplicator is left out, as the events are sent round and round and would be dropped after the first lap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineBenchmark {
+    private static final int LOCATIONS = 1000;
+    private static final int EVENTS = 4096;
+
+    private final Instant now = Instant.parse("2018-03-15T12:00:00Z");
+    private final Event[] events = new Event[EVENTS];
+    private int next;
+
+    private Pipeline<Event, Average> composed;
+    private Sink<Event> pushed;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        List<Location> locations = new ArrayList<>();
+        for (int i = 0; i < LOCATIONS; i++) {
+            locations.add(new Location(i, i, new UUID(0, i)));
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            events[i] = new Event(new UUID(0, i % LOCATIONS), UUID.randomUUID(), i, now.toEpochMilli());
+        }
+
+        Clock clock = Clock.fixed(now, ZoneOffset.UTC);
+        EventLoop.TypedConfig eventLoopConfig = new EventLoop.TypedConfig(Duration.ofMinutes(1));
+        Aggregator.TypedConfig aggregatorConfig = new Aggregator.TypedConfig(
+                Duration.ofMinutes(1), Duration.ofMinutes(5));
+        LocationFilter locationFilter = new LocationFilter(locations);
+
+        // How the watermark and probe were adapted to Pipelines, observing nothing like the NONEs below
+        composed = passThrough()
+                .compose(new StatsCompiler(eventLoopConfig))
+                .compose(locationFilter)
+                .compose(passThrough())
+                .compose(new Aggregator(aggregatorConfig, clock));
+        pushed = Watermark.NONE.asStage()
+                .then(Stages.statsCompiler(new StatsCompiler(eventLoopConfig)))
+                .then(Stages.locationFilter(locationFilter))
+                .then(Probe.NONE.asStage())
+                .then(Stages.aggregator(new Aggregator(aggregatorConfig, clock)))
+                .connect((now, average) -> blackhole.consume(average));
+    }
+
+    @Benchmark
+    public void composedPipeline() {
+        composed.handle(now, nextEvent()).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void pushedStages() {
+        pushed.accept(now, nextEvent());
+    }
+
+    private static Pipeline<Event, Event> passThrough() {
+        return (now, event) -> Stream.of(event);
+    }
+
+    private Event nextEvent() {
+        Event event = events[next];
+        next = (next + 1) % EVENTS;
+        return event;
+    }
+}
@@ -0,0 +1,93 @@
+package org.softwire.training.analyzer.collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GenerationalLongPairSetTest {
+    private static final long TTL = 60_000;
+    private static final long UNLIMITED = Long.MAX_VALUE;
+
+    @Test
+    void rejectsKeysAddedWithinTimeToLive() {
+        GenerationalLongPairSet set = set(UNLIMITED, GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST);
+
+        assertThat(set.add(0, 1, 2), is(true));
+        assertThat(set.add(TTL, 1, 2), is(false));
+        assertThat(set.add(TTL + 1, 1, 2), is(true));
+        assertThat(set.getDuplicates(), equalTo(1L));
+    }
+
+    @Test
+    void allowsZeroKey() {
+        GenerationalLongPairSet set = set(UNLIMITED, GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST);
+
+        assertThat(set.add(1000, 0, 0), is(true));
+        assertThat(set.add(1000, 0, 0), is(false));
+    }
+
+    @Test
+    void dropsWholeGenerationsOnceExpired() {
+        GenerationalLongPairSet set = set(UNLIMITED, GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST);
+        for (int i = 0; i < 1000; i++) {
+            set.add(i, i, i);
+        }
+        assertThat(set.size(), equalTo(1000L));
+
+        // Long enough for the ring of four generations to come all the way round
+        set.add(4 * TTL, -1, -1);
+
+        assertThat(set.size(), equalTo(1L));
+        assertThat(set.getExpired(), equalTo(1000L));
+    }
+
+    @Test
+    void evictsOldestGenerationToStayWithinMemory() {
+        GenerationalLongPairSet set = set(256, GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST);
+        long sliceMillis = TTL / 3;
+        for (int i = 0; i < 60; i++) {
+            set.add(0, 1, i);
+        }
+        for (int i = 0; i < 60; i++) {
+            set.add(sliceMillis, 2, i);
+        }
+        for (int i = 0; i < 60; i++) {
+            set.add(2 * sliceMillis, 3, i);
+        }
+
+        assertThat(set.getEvicted(), greaterThan(0L));
+        assertThat(set.getAllocatedBytes(), lessThanOrEqualTo(256L * GenerationalLongPairSet.BYTES_PER_SLOT));
+        // The newest keys are still caught
+        assertThat(set.add(2 * sliceMillis, 3, 59), is(false));
+        // The oldest have been forgotten
+        assertThat(set.add(2 * sliceMillis, 1, 0), is(true));
+    }
+
+    @Test
+    void stopsTrackingNewKeysWhenSkipping() {
+        GenerationalLongPairSet set = set(64, GenerationalLongPairSet.OverflowPolicy.SKIP_NEW);
+        for (int i = 0; i < 100; i++) {
+            assertThat(set.add(0, 1, i), is(true));
+        }
+
+        assertThat(set.getUntracked(), greaterThan(0L));
+        assertThat(set.getEvicted(), equalTo(0L));
+        assertThat(set.add(0, 1, 0), is(false));
+        assertThat(set.add(0, 1, 99), is(true));
+    }
+
+    @Test
+    void rejectsTooFewGenerations() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new GenerationalLongPairSet(TTL, 1, UNLIMITED, GenerationalLongPairSet.OverflowPolicy.SKIP_NEW));
+    }
+
+    private static GenerationalLongPairSet set(long maxSlots, GenerationalLongPairSet.OverflowPolicy policy) {
+        return new GenerationalLongPairSet(TTL, 4, maxSlots, policy);
+    }
+}
@@ -0,0 +1,66 @@
+package org.softwire.training.analyzer.collections;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class IndexedMaxHeapTest {
+    private final double[] priorities = new double[100];
+    private final IndexedMaxHeap heap = new IndexedMaxHeap(priorities.length, item -> priorities[item]);
+
+    @Test
+    void isEmptyUntilUpdated() {
+        assertThat(heap.peek(), equalTo(-1));
+
+        heap.update(7);
+
+        assertThat(heap.peek(), equalTo(7));
+        assertThat(heap.size(), equalTo(1));
+    }
+
+    @Test
+    void keepsHighestPriorityOnTopAsPrioritiesChange() {
+        Random random = new Random(0);
+        for (int item = 0; item < priorities.length; item++) {
+            priorities[item] = random.nextGaussian();
+            heap.update(item);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            int item = random.nextInt(priorities.length);
+            priorities[item] = random.nextGaussian();
+            heap.update(item);
+
+            assertThat(priorities[heap.peek()], equalTo(Arrays.stream(priorities).max().getAsDouble()));
+        }
+    }
+
+    @Test
+    void movesItemsDownWhenTheirPriorityFalls() {
+        priorities[1] = 10;
+        priorities[2] = 5;
+        heap.update(1);
+        heap.update(2);
+
+        priorities[1] = 0;
+        heap.update(1);
+
+        assertThat(heap.peek(), equalTo(2));
+    }
+
+    @Test
+    void isEmptyAfterClear() {
+        heap.update(1);
+        heap.update(2);
+
+        heap.clear();
+        assertThat(heap.peek(), equalTo(-1));
+
+        heap.update(2);
+        assertThat(heap.size(), equalTo(1));
+    }
+}
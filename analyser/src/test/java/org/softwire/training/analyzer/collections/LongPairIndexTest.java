@@ -0,0 +1,41 @@
+package org.softwire.training.analyzer.collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class LongPairIndexTest {
+    private final LongPairIndex index = new LongPairIndex(2);
+
+    @Test
+    void numbersKeysDenselyInOrderAdded() {
+        assertThat(index.add(5, 6), equalTo(0));
+        assertThat(index.add(0, 0), equalTo(1));
+        assertThat(index.add(5, 6), equalTo(0));
+
+        assertThat(index.indexOf(0, 0), equalTo(1));
+        assertThat(index.indexOf(6, 5), equalTo(-1));
+        assertThat(index.size(), equalTo(2));
+    }
+
+    @Test
+    void keepsNumbersWhenGrowing() {
+        for (int i = 0; i < 1000; i++) {
+            index.add(i, -i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(index.indexOf(i, -i), equalTo(i));
+            assertThat(index.getMostSignificantBits(i), equalTo((long) i));
+            assertThat(index.getLeastSignificantBits(i), equalTo((long) -i));
+        }
+    }
+
+    @Test
+    void keepsLoadFactorAtMostAHalf() {
+        assertThat(LongPairIndex.capacityFor(0), equalTo(16));
+        assertThat(LongPairIndex.capacityFor(8), equalTo(16));
+        assertThat(LongPairIndex.capacityFor(9), equalTo(32));
+    }
+}
@@ -0,0 +1,75 @@
+package org.softwire.training.analyzer.collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RotatingBloomFilterTest {
+    private static final long TTL = 60_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final RotatingBloomFilter filter = new RotatingBloomFilter(TTL, 4, 64 * 1024, FALSE_POSITIVE_RATE);
+
+    @Test
+    void rejectsKeysAddedWithinTimeToLive() {
+        assertThat(filter.add(0, 1, 2), is(true));
+        assertThat(filter.add(TTL, 1, 2), is(false));
+        assertThat(filter.getDuplicates(), equalTo(1L));
+    }
+
+    @Test
+    void forgetsKeysOnceTheirFilterIsCleared() {
+        filter.add(0, 1, 2);
+
+        // The slice is TTL / 3, so the key is remembered until its slice comes round again
+        assertThat(filter.add(TTL + TTL / 3 - 1, 1, 2), is(false));
+        assertThat(filter.add(TTL + TTL / 3, 1, 2), is(true));
+    }
+
+    @Test
+    void staysNearTargetRateAtCapacity() {
+        fillEverySlice();
+
+        int falsePositives = 0;
+        int trials = 2000;
+        for (long i = 0; i < trials; i++) {
+            if (!filter.add(TTL, -1, i)) {
+                falsePositives++;
+            }
+        }
+
+        assertThat((double) falsePositives / trials, lessThan(3 * FALSE_POSITIVE_RATE));
+    }
+
+    @Test
+    void estimatesRateFromHowFullTheFiltersAre() {
+        assertThat(filter.getEstimatedFalsePositiveRate(), closeTo(0, 1e-12));
+
+        fillEverySlice();
+
+        assertThat(filter.getEstimatedFalsePositiveRate(), closeTo(FALSE_POSITIVE_RATE, FALSE_POSITIVE_RATE / 2));
+    }
+
+    @Test
+    void usesFixedMemory() {
+        assertThat(filter.getAllocatedBytes(), equalTo(64L * 1024));
+    }
+
+    @Test
+    void rejectsImpossibleRates() {
+        assertThrows(IllegalArgumentException.class, () -> new RotatingBloomFilter(TTL, 4, 1024, 0));
+    }
+
+    private void fillEverySlice() {
+        for (int slice = 0; slice < 4; slice++) {
+            for (long i = 0; i < filter.getCapacityPerSlice(); i++) {
+                filter.add(slice * TTL / 3, slice, i);
+            }
+        }
+    }
+}
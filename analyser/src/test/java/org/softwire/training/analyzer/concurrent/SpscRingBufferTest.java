@@ -0,0 +1,95 @@
+package org.softwire.training.analyzer.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SpscRingBufferTest {
+    @Test
+    void passesSlotsFromProducerToConsumerInOrder() {
+        SpscRingBuffer<AtomicLong> buffer = new SpscRingBuffer<>(4, AtomicLong::new);
+
+        for (long i = 0; i < 3; i++) {
+            buffer.tryClaim().set(i);
+            buffer.publish();
+        }
+
+        for (long i = 0; i < 3; i++) {
+            assertThat(buffer.poll().get(), equalTo(i));
+            buffer.release();
+        }
+        assertThat(buffer.poll(), nullValue());
+    }
+
+    @Test
+    void doesNotHandOutUnpublishedSlots() {
+        SpscRingBuffer<AtomicLong> buffer = new SpscRingBuffer<>(4, AtomicLong::new);
+
+        buffer.tryClaim();
+
+        assertThat(buffer.poll(), nullValue());
+    }
+
+    @Test
+    void refusesToClaimWhenFullAndReusesReleasedSlots() {
+        SpscRingBuffer<AtomicLong> buffer = new SpscRingBuffer<>(2, AtomicLong::new);
+        List<AtomicLong> slots = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            slots.add(buffer.tryClaim());
+            buffer.publish();
+        }
+
+        assertThat(buffer.tryClaim(), nullValue());
+        assertThat(buffer.size(), equalTo(2));
+
+        buffer.poll();
+        buffer.release();
+
+        assertThat(buffer.tryClaim(), sameInstance(slots.get(0)));
+    }
+
+    @Test
+    void rejectsCapacityWhichIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new SpscRingBuffer<>(3, AtomicLong::new));
+    }
+
+    @Test
+    void transfersEverythingBetweenThreads() throws InterruptedException {
+        SpscRingBuffer<AtomicLong> buffer = new SpscRingBuffer<>(64, AtomicLong::new);
+        long count = 1_000_000;
+
+        Thread producer = new Thread(() -> {
+            int idleCount = 0;
+            for (long i = 0; i < count; i++) {
+                AtomicLong slot;
+                while ((slot = buffer.tryClaim()) == null) {
+                    idleCount = WaitStrategy.YIELDING.idle(idleCount);
+                }
+                slot.set(i);
+                buffer.publish();
+            }
+        });
+        producer.start();
+
+        long expected = 0;
+        int idleCount = 0;
+        while (expected < count) {
+            AtomicLong slot = buffer.poll();
+            if (slot == null) {
+                idleCount = WaitStrategy.YIELDING.idle(idleCount);
+                continue;
+            }
+            assertThat(slot.get(), equalTo(expected++));
+            buffer.release();
+        }
+        producer.join();
+    }
+}
@@ -0,0 +1,107 @@
+package org.softwire.training.analyzer.loadtest;
+
+import com.amazonaws.services.sns.util.Topics;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.receiver.EventDecoder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InMemorySqsTest {
+    private static final String TOPIC_ARN = "arn:aws:sns:in-memory:000000000000:topic";
+
+    private InMemorySqs sqs;
+    private InMemorySns sns;
+    private String queueUrl;
+
+    @BeforeEach
+    void beforeEach() {
+        sqs = new InMemorySqs();
+        sns = new InMemorySns(sqs);
+        queueUrl = sqs.createQueue("queue").getQueueUrl();
+    }
+
+    @Test
+    void receivesSentMessagesInBatches() {
+        for (int i = 0; i < 15; i++) {
+            sqs.sendMessage(queueUrl, "message " + i);
+        }
+
+        assertThat(receive(10, 30), hasSize(10));
+        assertThat(receive(10, 30), hasSize(5));
+        assertThat(receive(10, 30), empty());
+    }
+
+    @Test
+    void deletesReceivedMessages() {
+        sqs.sendMessage(queueUrl, "message");
+        Message message = receive(1, 0).get(0);
+
+        sqs.deleteMessageBatch(queueUrl, Collections.singletonList(
+                new DeleteMessageBatchRequestEntry("0", message.getReceiptHandle())));
+
+        assertThat(receive(1, 0), empty());
+        assertThat(sqs.getQueueAttributes(queueUrl, Collections.singletonList("ApproximateNumberOfMessagesNotVisible"))
+                .getAttributes().get("ApproximateNumberOfMessagesNotVisible"), equalTo("0"));
+    }
+
+    @Test
+    void redeliversMessagesOnceVisibilityTimeoutExpires() {
+        sqs.sendMessage(queueUrl, "message");
+        receive(1, 0);
+
+        List<Message> redelivered = sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                .withMaxNumberOfMessages(1)
+                .withWaitTimeSeconds(3))
+                .getMessages();
+
+        assertThat(redelivered, hasSize(1));
+        assertThat(redelivered.get(0).getBody(), equalTo("message"));
+    }
+
+    @Test
+    void deliversNotificationsToSubscribedQueues() throws IOException {
+        Topics.subscribeQueue(sns, sqs, TOPIC_ARN, queueUrl);
+        String event = "{" +
+                "\"locationId\": \"" + UUID.randomUUID() + "\", " +
+                "\"eventId\": \"" + UUID.randomUUID() + "\", " +
+                "\"timestamp\": 123, " +
+                "\"value\": 1" +
+                "}";
+
+        sns.publish(TOPIC_ARN, event);
+        sns.publish("arn:aws:sns:in-memory:000000000000:other", event);
+
+        List<Message> messages = receive(10, 0);
+        assertThat(messages, hasSize(1));
+        assertThat(new EventDecoder(new ObjectMapper()).decode(messages.get(0).getBody()).timestamp, equalTo(123L));
+    }
+
+    @Test
+    void rejectsUnknownQueues() {
+        sqs.deleteQueue(queueUrl);
+
+        assertThrows(QueueDoesNotExistException.class, () -> sqs.sendMessage(queueUrl, "message"));
+    }
+
+    private List<Message> receive(int maxNumberOfMessages, int visibilityTimeout) {
+        return sqs.receiveMessage(new ReceiveMessageRequest(queueUrl)
+                .withMaxNumberOfMessages(maxNumberOfMessages)
+                .withVisibilityTimeout(visibilityTimeout))
+                .getMessages();
+    }
+}
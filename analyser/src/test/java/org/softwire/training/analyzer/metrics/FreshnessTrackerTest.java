@@ -0,0 +1,134 @@
+package org.softwire.training.analyzer.metrics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.pipeline.Aggregator;
+import org.softwire.training.analyzer.pipeline.Probe;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FreshnessTrackerTest {
+    private static final Aggregator.TypedConfig AGGREGATOR_CONFIG =
+            new Aggregator.TypedConfig(Duration.ofSeconds(10), Duration.ofSeconds(30));
+    private static final long START = 1_500_000_000_000L;
+    private static final Location LOCATION = new LocationBuilder().createLocation();
+
+    private Clock wallClock;
+    private FreshnessTracker tracker;
+    private Probe probe;
+
+    @BeforeEach
+    void beforeEach() {
+        wallClock = mock(Clock.class);
+        tracker = new FreshnessTracker(
+                new FreshnessTracker.TypedConfig(true, 6, 3),
+                AGGREGATOR_CONFIG,
+                new LocationDictionary(Collections.singletonList(LOCATION)),
+                Instant.ofEpochMilli(START),
+                wallClock);
+        probe = tracker.newProbe();
+    }
+
+    @Test
+    void mergesEachWindowIntoTheTotalsOnceWritten() {
+        observeAt(START + 1200, received(START + 1000, START + 1150));
+        observeAt(START + 5300, received(START + 5000, START + 5250));
+
+        writtenAt(START + 12_000, averageEndingAt(START + 10_000));
+        // Another location's average for the same window
+        writtenAt(START + 12_001, averageEndingAt(START + 10_000));
+
+        assertThat(tracker.getReceiptDelays().getCount(), is(2L));
+        assertThat(tracker.getReceiptDelays().getValueAtQuantile(0.5), closeTo(150, 2));
+        assertThat(tracker.getReceiptDelays().getValueAtQuantile(1), closeTo(250, 4));
+        assertThat(tracker.getPipelineDelays().getValueAtQuantile(0.5), closeTo(50, 1));
+        assertThat(tracker.getOutputLags().getCount(), is(1L));
+        assertThat(tracker.getOutputLags().getMean(), is(2000.0));
+        assertThat(tracker.getOutputDelays().getCount(), is(2L));
+        assertThat(tracker.getOutputDelays().getValueAtQuantile(1), is(11_000.0));
+    }
+
+    @Test
+    void mergesTheWindowsOfEveryProbe() {
+        Probe otherProbe = tracker.newProbe();
+        observeAt(START + 1200, received(START + 1000, START + 1150));
+        when(wallClock.millis()).thenReturn(START + 1300L);
+        otherProbe.observe(Instant.ofEpochMilli(START + 1300), received(START + 1100, START + 1200));
+
+        writtenAt(START + 12_000, averageEndingAt(START + 10_000));
+
+        assertThat(tracker.getReceiptDelays().getCount(), is(2L));
+        assertThat(tracker.getOutputDelays().getCount(), is(2L));
+    }
+
+    @Test
+    void ignoresEventsTheAggregatorWouldReject() {
+        observeAt(START + 1200, received(START + 1000, START + 1150));
+        // Too early, then too late once the aggregator has moved on past the window
+        observeAt(START + 1300, received(START + 25_000, START + 1250));
+        observeAt(START + 45_000, received(START + 2000, START + 44_900));
+
+        writtenAt(START + 45_100, averageEndingAt(START + 10_000));
+        writtenAt(START + 45_200, averageEndingAt(START + 30_000));
+
+        assertThat(tracker.getReceiptDelays().getCount(), is(1L));
+        assertThat(tracker.getOutputLags().getCount(), is(1L));
+    }
+
+    @Test
+    void countsEventsWithoutReceiptTimeOnlyTowardsOutput() {
+        observeAt(START + 1200, new PackedEvent().copyFrom(
+                new EventBuilder().setLocationId(LOCATION.id).setTimestamp(START + 1000).createEvent()));
+        writtenAt(START + 11_000, averageEndingAt(START + 10_000));
+
+        assertThat(tracker.getReceiptDelays().getCount(), is(0L));
+        assertThat(tracker.getOutputLags().getCount(), is(1L));
+    }
+
+    @Test
+    void forgetsWindowsWhichAreNeverWritten() {
+        observeAt(START + 1200, received(START + 1000, START + 1150));
+        // Far enough ahead to reuse the first window's slot
+        observeAt(START + 100_200, received(START + 100_000, START + 100_100));
+
+        writtenAt(START + 100_500, averageEndingAt(START + 10_000));
+
+        assertThat(tracker.getOutputLags().getCount(), is(0L));
+    }
+
+    private PackedEvent received(long timestamp, long receivedAt) {
+        PackedEvent event = new PackedEvent().copyFrom(
+                new EventBuilder().setLocationId(LOCATION.id).setTimestamp(timestamp).createEvent());
+        event.receivedAt = receivedAt;
+        return event;
+    }
+
+    private void observeAt(long wallMillis, PackedEvent event) {
+        when(wallClock.millis()).thenReturn(wallMillis);
+        probe.observe(Instant.ofEpochMilli(wallMillis), event);
+    }
+
+    private void writtenAt(long wallMillis, Average average) {
+        when(wallClock.millis()).thenReturn(wallMillis);
+        tracker.written(average);
+    }
+
+    private static Average averageEndingAt(long to) {
+        return new Average(Instant.ofEpochMilli(to), Instant.ofEpochMilli(to - 10_000), 1, 1, 1, 1, 0);
+    }
+}
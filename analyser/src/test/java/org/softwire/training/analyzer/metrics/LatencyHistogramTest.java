@@ -0,0 +1,77 @@
+package org.softwire.training.analyzer.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+class LatencyHistogramTest {
+    private static final double RELATIVE_ERROR = Math.pow(2, -LatencyHistogram.PRECISION_BITS);
+
+    @Test
+    void everyValueIsInABinNoMoreThanTheRelativeErrorWide() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long value = random.nextLong() >>> (64 - LatencyHistogram.MAX_EXPONENT + random.nextInt(30));
+            long highest = LatencyHistogram.highestValueIn(LatencyHistogram.binFor(value));
+
+            assertThat(highest, allOf(
+                    greaterThanOrEqualTo(value),
+                    lessThanOrEqualTo(value + (long) Math.floor(value * RELATIVE_ERROR))));
+        }
+    }
+
+    @Test
+    void estimatesQuantilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(0);
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextGaussian() * 2 + 10);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getCount(), is((long) values.length));
+        for (double quantile : new double[]{0.01, 0.5, 0.9, 0.99, 1}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            assertThat(snapshot.getValueAtQuantile(quantile), allOf(
+                    greaterThanOrEqualTo(exact),
+                    lessThanOrEqualTo(exact + (long) (exact * RELATIVE_ERROR))));
+        }
+        assertThat(snapshot.getMax(), is(snapshot.getValueAtQuantile(1)));
+    }
+
+    @Test
+    void clampsNegativeAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertThat(snapshot.getValueAtQuantile(0.5), is(0L));
+        assertThat(snapshot.getMax(), is((1L << LatencyHistogram.MAX_EXPONENT) - 1));
+    }
+
+    @Test
+    void snapshotsCanBeSubtractedToGetAnInterval() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        LatencyHistogram.Snapshot earlier = histogram.snapshot();
+        histogram.record(10);
+        histogram.record(12);
+
+        LatencyHistogram.Snapshot interval = histogram.snapshot().since(earlier);
+
+        assertThat(interval.getCount(), is(2L));
+        assertThat(interval.getMax(), is(12L));
+        assertThat(histogram.getCount(), is(3L));
+    }
+}
@@ -0,0 +1,84 @@
+package org.softwire.training.analyzer.metrics;
+
+import com.google.common.base.Charsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+
+class MetricsReporterTest {
+    private static final Clock CLOCK = Clock.fixed(Instant.parse("2018-03-15T12:00:00Z"), ZoneOffset.UTC);
+
+    private Path directory;
+    private Path csvFile;
+    private Metrics metrics;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("metrics-reporter-test");
+        csvFile = directory.resolve("metrics.csv");
+        metrics = new Metrics();
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        Files.deleteIfExists(csvFile);
+        Files.delete(directory);
+    }
+
+    @Test
+    void appendsTotalsAndIntervalLatenciesToCsv() throws IOException {
+        MetricsReporter reporter = newReporter(false);
+        metrics.received.add(3);
+        metrics.parseFailed.increment();
+        metrics.sqsReceive.record(2_000_000);
+        reporter.report();
+        metrics.received.add(2);
+        reporter.close();
+
+        List<String> lines = Files.readAllLines(csvFile, Charsets.UTF_8);
+        assertThat(lines.size(), is(3));
+        assertThat(lines.get(0), startsWith("time,received,parsed,parseFailed,filtered,duplicates,rejectedLate,emitted,"
+                + "unacknowledged,sqsReceiveCount,sqsReceiveP50,sqsReceiveP99,sqsReceiveMax,"));
+        assertThat(lines.get(1), startsWith("2018-03-15T12:00:00Z,3,0,1,0,0,0,0,0,1,2031.6,2031.6,2031.6,0,"));
+        // The latencies are only since the last report
+        assertThat(lines.get(2), startsWith("2018-03-15T12:00:00Z,5,0,1,0,0,0,0,0,0,0.0,0.0,0.0,0,"));
+    }
+
+    @Test
+    void registersWithJmxUntilClosed() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName counters = new ObjectName(MetricsReporter.DOMAIN + ":type=Metrics");
+        ObjectName latency = new ObjectName(MetricsReporter.DOMAIN + ":type=Latency,name=deduplicator");
+        metrics.duplicates.add(7);
+        metrics.deduplicator.record(1000);
+
+        MetricsReporter reporter = newReporter(true);
+        assertThat(server.getAttribute(counters, "Duplicates"), equalTo(7L));
+        assertThat(server.getAttribute(latency, "Count"), equalTo(1L));
+        reporter.close();
+
+        assertThat(server.isRegistered(counters), is(false));
+        assertThat(server.isRegistered(latency), is(false));
+    }
+
+    private MetricsReporter newReporter(boolean jmx) throws IOException {
+        return new MetricsReporter(new Metrics.TypedConfig(Duration.ZERO, csvFile.toString(), jmx, 0), metrics, CLOCK);
+    }
+}
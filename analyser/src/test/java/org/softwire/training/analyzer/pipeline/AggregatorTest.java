@@ -5,6 +5,9 @@ import org.junit.jupiter.api.Test;
 import org.softwire.training.analyzer.builders.EventBuilder;
 import org.softwire.training.analyzer.model.Average;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.model.QuantileAverage;
 
 import java.time.Clock;
 import java.time.Duration;
@@ -13,11 +16,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
 
 import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -57,7 +62,7 @@ class AggregatorTest {
         aggregator.sendEvent(0, AVERAGING_PERIOD_SECONDS - 1, 20);
 
         assertThat(aggregator.expireAndGetAverages(),
-                equalTo(singletonList(buildAverage(0, 9))));
+                equalTo(singletonList(buildAverage(0, 3, 4, 20))));
     }
 
     @Test
@@ -68,8 +73,8 @@ class AggregatorTest {
         aggregator.sendEvent(0, AVERAGING_PERIOD_SECONDS + 1, -4);
 
         assertThat(aggregator.expireAndGetAverages(), equalTo(Arrays.asList(
-                buildAverage(0, 13.5),
-                buildAverage(AVERAGING_PERIOD_SECONDS, -3.5)
+                buildAverage(0, 7, 20),
+                buildAverage(AVERAGING_PERIOD_SECONDS, -3, -4)
         )));
     }
 
@@ -115,6 +120,85 @@ class AggregatorTest {
         assertThat(aggregator.expireAndGetAverages(), equalTo(singletonList(buildAverage(AVERAGING_PERIOD_SECONDS, 3))));
     }
 
+    @Test
+    void passesAveragesOfPackedEventsToOutput() {
+        Aggregator packedAggregator = new Aggregator(CONFIG, clock);
+        List<Average> averages = new ArrayList<>();
+        PackedEvent event = new PackedEvent();
+
+        event.copyFrom(new EventBuilder().setTimestamp(START.toEpochMilli()).setValue(3).createEvent());
+        packedAggregator.handle(START, event, averages::add);
+        event.copyFrom(new EventBuilder().setTimestamp(START.plusSeconds(1).toEpochMilli()).setValue(4).createEvent());
+        packedAggregator.handle(START, event, averages::add);
+        packedAggregator.handle(START.plusSeconds(EXPIRY_SECONDS + AVERAGING_PERIOD_SECONDS), event, averages::add);
+
+        assertThat(averages, equalTo(singletonList(buildAverage(0, 3, 4))));
+    }
+
+    @Test
+    void passesAveragesOfBatchesToOutput() {
+        Aggregator batchAggregator = new Aggregator(CONFIG, clock);
+        List<Average> averages = new ArrayList<>();
+        EventBatch batch = new EventBatch(4);
+        PackedEvent event = new PackedEvent();
+
+        batch.add(event.copyFrom(new EventBuilder().setTimestamp(START.toEpochMilli()).setValue(3).createEvent()));
+        batch.add(event.copyFrom(new EventBuilder().setTimestamp(START.plusSeconds(1).toEpochMilli()).setValue(4).createEvent()));
+        // Out of range, so rejected
+        batch.add(event.copyFrom(new EventBuilder().setTimestamp(START.minusSeconds(EXPIRY_SECONDS + 1).toEpochMilli()).setValue(100).createEvent()));
+        // Not selected, so ignored
+        batch.add(event.copyFrom(new EventBuilder().setTimestamp(START.toEpochMilli()).setValue(200).createEvent()));
+        batch.setSelected(3);
+        batchAggregator.handle(START, batch, averages::add);
+        batch.clear();
+        batchAggregator.handle(START.plusSeconds(EXPIRY_SECONDS + AVERAGING_PERIOD_SECONDS), batch, averages::add);
+
+        assertThat(averages, equalTo(singletonList(buildAverage(0, 3, 4))));
+    }
+
+    @Test
+    void estimatesQuantilesWhenConfigured() {
+        Duration averagingPeriod = Duration.ofSeconds(AVERAGING_PERIOD_SECONDS);
+        Aggregator.TypedConfig config = new Aggregator.TypedConfig(AggregationMode.GLOBAL,
+                averagingPeriod, Duration.ofSeconds(EXPIRY_SECONDS), averagingPeriod, 10, true, 6);
+        AggregatorWrapper quantileAggregator = new AggregatorWrapper(new Aggregator(config, clock));
+        for (int value = 1; value <= 100; value++) {
+            quantileAggregator.sendEvent(0, 0, value);
+        }
+
+        QuantileAverage average = (QuantileAverage) quantileAggregator.expireAndGetAverages().get(0);
+
+        assertThat(average.value, equalTo(50.5));
+        assertThat(average.p50, closeTo(50, 50 / 128.0));
+        assertThat(average.p90, closeTo(90, 90 / 128.0));
+        assertThat(average.p99, closeTo(99, 99 / 128.0));
+    }
+
+    @Test
+    void averagesSlidingWindowsOfSeveralBuckets() {
+        Aggregator.TypedConfig config = new Aggregator.TypedConfig(AggregationMode.GLOBAL,
+                Duration.ofSeconds(AVERAGING_PERIOD_SECONDS), Duration.ofSeconds(EXPIRY_SECONDS),
+                Duration.ofSeconds(3 * AVERAGING_PERIOD_SECONDS), 10, false, 6);
+        AggregatorWrapper slidingAggregator = new AggregatorWrapper(new Aggregator(config, clock));
+        slidingAggregator.sendEvent(0, 0, 1);
+        slidingAggregator.sendEvent(AVERAGING_PERIOD_SECONDS, AVERAGING_PERIOD_SECONDS, 2);
+        slidingAggregator.sendEvent(2 * AVERAGING_PERIOD_SECONDS, 2 * AVERAGING_PERIOD_SECONDS, 3);
+        slidingAggregator.sendEvent(3 * AVERAGING_PERIOD_SECONDS, 3 * AVERAGING_PERIOD_SECONDS, 10);
+
+        // Windows are only output once they're full, then every bucket, until the last value drops out
+        assertThat(slidingAggregator.expireAndGetAverages(), equalTo(Arrays.asList(
+                buildWindowAverage(0, 3 * AVERAGING_PERIOD_SECONDS, 1, 2, 3),
+                buildWindowAverage(AVERAGING_PERIOD_SECONDS, 3 * AVERAGING_PERIOD_SECONDS, 2, 3, 10),
+                buildWindowAverage(2 * AVERAGING_PERIOD_SECONDS, 3 * AVERAGING_PERIOD_SECONDS, 3, 10),
+                buildWindowAverage(3 * AVERAGING_PERIOD_SECONDS, 3 * AVERAGING_PERIOD_SECONDS, 10))));
+    }
+
+    @Test
+    void rejectsSlidingWindowsWhichArentAMultipleOfAveragingPeriod() {
+        assertThrows(IllegalArgumentException.class, () -> new Aggregator.TypedConfig(AggregationMode.GLOBAL,
+                Duration.ofSeconds(2), Duration.ofSeconds(4), Duration.ofSeconds(3), 10, false, 6));
+    }
+
     @Test
     void refuseToRunNearTheEpoch() {
         when(clock.instant()).thenReturn(Instant.EPOCH);
@@ -134,11 +218,24 @@ class AggregatorTest {
                 () -> new Aggregator.TypedConfig(Duration.ofSeconds(1).plusNanos(1), Duration.ofSeconds(1)));
     }
 
-    private static Average buildAverage(int fromSeconds, double value) {
+    /**
+     * The average of values over the bucket starting at fromSeconds, with its statistics worked out longhand.
+     */
+    private static Average buildAverage(int fromSeconds, double... values) {
+        return buildWindowAverage(fromSeconds, AVERAGING_PERIOD_SECONDS, values);
+    }
+
+    private static Average buildWindowAverage(int fromSeconds, int lengthSeconds, double... values) {
+        double mean = DoubleStream.of(values).sum() / values.length;
+        double variance = DoubleStream.of(values).map(value -> (value - mean) * (value - mean)).sum() / values.length;
         return new Average(
+                START.plusSeconds(fromSeconds + lengthSeconds),
                 START.plusSeconds(fromSeconds),
-                START.plusSeconds(fromSeconds + AVERAGING_PERIOD_SECONDS),
-                value);
+                mean,
+                values.length,
+                DoubleStream.of(values).min().getAsDouble(),
+                DoubleStream.of(values).max().getAsDouble(),
+                variance);
     }
 
     private static class AggregatorWrapper {
@@ -0,0 +1,88 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.LocationAverage;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AverageCombinerTest {
+    private static final Instant FROM = Instant.EPOCH.plus(Duration.ofDays(1000));
+    private static final Instant TO = FROM.plusSeconds(60);
+    private static final long OUTPUT_AT = TO.plusSeconds(5).toEpochMilli();
+
+    private final AverageCombiner combiner = new AverageCombiner();
+    private final List<Average> output = new ArrayList<>();
+
+    @Test
+    void mergesAveragesOfTheSameWindow() {
+        combiner.add(OUTPUT_AT, new Average(TO, FROM, 10.0 / 3, 3, 2, 4, 8.0 / 9));
+        combiner.add(OUTPUT_AT + 1, new Average(TO, FROM, 6, 5, 4, 9, 3.2));
+        combiner.complete(OUTPUT_AT + 1, output::add);
+
+        assertThat(output, hasSize(1));
+        Average average = output.get(0);
+        assertThat(average.from, equalTo(FROM));
+        assertThat(average.to, equalTo(TO));
+        assertThat(average.count, equalTo(8L));
+        assertThat(average.value, closeTo(5.0, 1e-12));
+        assertThat(average.min, equalTo(2.0));
+        assertThat(average.max, equalTo(9.0));
+        assertThat(average.variance, closeTo(4.0, 1e-12));
+    }
+
+    @Test
+    void passesOnLocationAveragesUnchanged() {
+        LocationAverage first = new LocationAverage(new UUID(0, 1), TO, FROM, 1, 1, 1, 1, 0);
+        LocationAverage second = new LocationAverage(new UUID(0, 2), TO, FROM, 2, 1, 2, 2, 0);
+        combiner.add(OUTPUT_AT, first);
+        combiner.add(OUTPUT_AT, second);
+        combiner.complete(OUTPUT_AT, output::add);
+
+        assertThat(output, contains(first, second));
+    }
+
+    @Test
+    void waitsUntilEveryAggregatorHasExpiredUpToTheFirstOutput() {
+        combiner.add(OUTPUT_AT, new Average(TO, FROM, 1, 1, 1, 1, 0));
+        combiner.complete(OUTPUT_AT - 1, output::add);
+
+        assertThat(output, empty());
+        assertThat(combiner.getPending(), equalTo(1));
+
+        combiner.complete(OUTPUT_AT, output::add);
+
+        assertThat(output, hasSize(1));
+        assertThat(combiner.getPending(), equalTo(0));
+    }
+
+    @Test
+    void outputsWindowsInOrder() {
+        Instant laterTo = TO.plusSeconds(60);
+        combiner.add(OUTPUT_AT + 60_000, new Average(laterTo, TO, 2, 1, 2, 2, 0));
+        combiner.add(OUTPUT_AT, new Average(TO, FROM, 1, 1, 1, 1, 0));
+        combiner.complete(OUTPUT_AT + 60_000, output::add);
+
+        assertThat(output, hasSize(2));
+        assertThat(output.get(0).to, equalTo(TO));
+        assertThat(output.get(1).to, equalTo(laterTo));
+    }
+
+    @Test
+    void rejectsAveragesWhichCantBeCombined() {
+        assertThrows(IllegalArgumentException.class, () -> AverageCombiner.checkCombinable(
+                new Aggregator.TypedConfig(AggregationMode.SPATIAL, Duration.ofMinutes(1), Duration.ofMinutes(5))));
+    }
+}
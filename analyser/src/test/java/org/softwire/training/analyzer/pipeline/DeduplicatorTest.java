@@ -3,11 +3,16 @@ package org.softwire.training.analyzer.pipeline;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.collections.GenerationalLongPairSet;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
+import org.softwire.training.analyzer.model.PackedEvent;
 
 import java.time.*;
+import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -46,4 +51,62 @@ class DeduplicatorTest {
         assertThat(deduplicator.handle(START, event).collect(Collectors.toList()), contains(event));
         assertThat(deduplicator.handle(START.plus(CONFIG.expiryTime.plusSeconds(1)), event).collect(Collectors.toList()), contains(event));
     }
-}
\ No newline at end of file
+
+    @Test
+    void deduplicatePackedEvents() {
+        PackedEvent event = new PackedEvent().copyFrom(new EventBuilder().createEvent());
+        assertThat(deduplicator.accept(START, event), is(true));
+        assertThat(deduplicator.accept(START.plus(CONFIG.expiryTime.minusSeconds(1)), event), is(false));
+        assertThat(deduplicator.accept(START.plus(CONFIG.expiryTime.plusSeconds(1)), event), is(true));
+    }
+
+    @Test
+    void deduplicateBatches() {
+        PackedEvent seen = new PackedEvent().copyFrom(new EventBuilder().setEventId(UUID.randomUUID()).createEvent());
+        PackedEvent repeated = new PackedEvent().copyFrom(new EventBuilder().setEventId(UUID.randomUUID()).createEvent());
+        PackedEvent unique = new PackedEvent().copyFrom(new EventBuilder().setEventId(UUID.randomUUID()).createEvent());
+        deduplicator.accept(START, seen);
+
+        EventBatch batch = new EventBatch(4);
+        batch.add(seen);
+        batch.add(repeated);
+        batch.add(repeated);
+        batch.add(unique);
+        deduplicator.filter(START, batch);
+
+        assertThat(batch.getSelected(), is(2));
+        assertThat(batch.selection[0], is(1));
+        assertThat(batch.selection[1], is(3));
+    }
+
+    @Test
+    void expireRecordsInOrderAfterGrowing() {
+        List<Event> events = Stream.generate(() -> new EventBuilder().setEventId(UUID.randomUUID()).createEvent())
+                .limit(5000)
+                .collect(Collectors.toList());
+        for (int i = 0; i < events.size(); i++) {
+            deduplicator.handle(START.plusMillis(i), events.get(i));
+        }
+
+        Instant later = START.plus(CONFIG.expiryTime).plusMillis(2500);
+        assertThat(deduplicator.handle(later, events.get(2499)).collect(Collectors.toList()), contains(events.get(2499)));
+        assertThat(deduplicator.handle(later, events.get(2500)).collect(Collectors.toList()), empty());
+    }
+
+    @Test
+    void deduplicateProbabilistically() {
+        Deduplicator probabilistic = new Deduplicator(new Deduplicator.TypedConfig(
+                Duration.ofMinutes(1),
+                Deduplicator.Mode.PROBABILISTIC,
+                4,
+                1024 * 1024,
+                GenerationalLongPairSet.OverflowPolicy.EVICT_OLDEST,
+                0.001));
+        Event event1 = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        Event event2 = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+
+        assertThat(probabilistic.handle(START, event1).collect(Collectors.toList()), contains(event1));
+        assertThat(probabilistic.handle(START, event2).collect(Collectors.toList()), contains(event2));
+        assertThat(probabilistic.handle(START.plusSeconds(30), event1).collect(Collectors.toList()), empty());
+    }
+}
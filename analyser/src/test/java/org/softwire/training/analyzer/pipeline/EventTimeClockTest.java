@@ -0,0 +1,168 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.application.EventLoop;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class EventTimeClockTest {
+    private static final Instant START = Instant.ofEpochSecond(1000);
+    private static final Duration MAX_LEAD = Duration.ofSeconds(10);
+
+    private final Clock wallClock = mock(Clock.class);
+
+    @Test
+    void followsLatestTimestampLessAllowedLateness() {
+        when(wallClock.millis()).thenReturn(START.toEpochMilli());
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ofSeconds(2), MAX_LEAD, Duration.ZERO);
+
+        assertThat(clock.instant(), equalTo(START));
+        clock.observe(START.plusSeconds(10).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plusSeconds(8)));
+        clock.observe(START.plusSeconds(5).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plusSeconds(8)));
+    }
+
+    @Test
+    void tellsTheSameTimeInOtherZones() {
+        when(wallClock.millis()).thenReturn(START.toEpochMilli());
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ZERO, MAX_LEAD, Duration.ZERO);
+        Clock zoned = clock.withZone(ZoneId.of("Europe/London"));
+
+        assertThat(clock.withZone(ZoneOffset.UTC), sameInstance(clock));
+        assertThat(zoned.getZone(), equalTo(ZoneId.of("Europe/London")));
+        clock.observe(START.plusSeconds(10).toEpochMilli());
+        assertThat(zoned.instant(), equalTo(START.plusSeconds(10)));
+        assertThat(zoned.withZone(ZoneOffset.UTC), sameInstance(clock));
+    }
+
+    @Test
+    void followsWallClockOnceIdle() {
+        when(wallClock.millis()).thenReturn(START.toEpochMilli());
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ZERO, MAX_LEAD, Duration.ofSeconds(30));
+        clock.observe(START.toEpochMilli());
+
+        when(wallClock.millis()).thenReturn(START.plusSeconds(30).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START));
+        when(wallClock.millis()).thenReturn(START.plusSeconds(35).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5)));
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5)));
+
+        // Events can't move it back
+        clock.observe(START.plusSeconds(1).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5)));
+    }
+
+    @Test
+    void neverMovesMoreThanMaxLeadPastTheWallClock() {
+        when(wallClock.millis()).thenReturn(START.toEpochMilli());
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ZERO, MAX_LEAD, Duration.ZERO);
+
+        clock.observe(START.plus(Duration.ofDays(1)).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plus(MAX_LEAD)));
+
+        when(wallClock.millis()).thenReturn(START.plusSeconds(5).toEpochMilli());
+        clock.observe(START.plus(Duration.ofDays(1)).toEpochMilli());
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5).plus(MAX_LEAD)));
+    }
+
+    @Test
+    void onlyObservesEventsWhichPassTheLocationFilterAndDeduplicator() {
+        Location location = new LocationBuilder().setId(UUID.randomUUID()).createLocation();
+        when(wallClock.millis()).thenReturn(START.plus(Duration.ofDays(2)).toEpochMilli());
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ZERO, MAX_LEAD, Duration.ZERO);
+        PackedPipeline pipeline = pipeline(clock, location);
+        List<Average> averages = new ArrayList<>();
+
+        PackedEvent unknown = packedEvent(UUID.randomUUID(), START.plus(Duration.ofDays(1)).toEpochMilli());
+        pipeline.handle(clock.instant(), unknown, averages::add);
+        assertThat(clock.instant(), equalTo(START));
+
+        PackedEvent known = packedEvent(location.id, START.plusSeconds(5).toEpochMilli());
+        pipeline.handle(clock.instant(), known, averages::add);
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5)));
+
+        // A duplicate, stamped later than the original
+        known.timestamp = START.plusSeconds(20).toEpochMilli();
+        pipeline.handle(clock.instant(), known, averages::add);
+        assertThat(clock.instant(), equalTo(START.plusSeconds(5)));
+    }
+
+    @Test
+    void averagesOnlyDependOnTheEvents() {
+        Location location = new LocationBuilder().setId(UUID.randomUUID()).createLocation();
+        List<PackedEvent> events = new ArrayList<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++) {
+            // Roughly in order, but up to a second out
+            long timestamp = START.toEpochMilli() + 100 * i + random.nextInt(1000);
+            PackedEvent event = packedEvent(location.id, timestamp);
+            event.value = random.nextDouble();
+            events.add(event);
+        }
+
+        List<Average> fast = replay(events, location, 0);
+        List<Average> slow = replay(events, location, 1000);
+
+        // Buckets are only output once the watermark is expiryTime past them
+        assertThat(fast, hasSize(6));
+        assertThat(slow, equalTo(fast));
+    }
+
+    /**
+     * Pass the events through a pipeline in event time, moving the wall clock on by wallMillisPerEvent each event.  The
+     * wall clock starts a day after the events, as when replaying a recording.
+     */
+    private List<Average> replay(List<PackedEvent> events, Location location, long wallMillisPerEvent) {
+        long[] wallMillis = {START.plus(Duration.ofDays(1)).toEpochMilli()};
+        when(wallClock.millis()).thenAnswer(invocation -> wallMillis[0]);
+        EventTimeClock clock = new EventTimeClock(wallClock, START, Duration.ofSeconds(1), MAX_LEAD, Duration.ZERO);
+        PackedPipeline pipeline = pipeline(clock, location);
+
+        List<Average> averages = new ArrayList<>();
+        for (PackedEvent event : events) {
+            wallMillis[0] += wallMillisPerEvent;
+            pipeline.handle(clock.instant(), event, averages::add);
+        }
+        return averages;
+    }
+
+    private static PackedPipeline pipeline(EventTimeClock clock, Location location) {
+        return new PackedPipeline(
+                clock,
+                new StatsCompiler(new EventLoop.TypedConfig(Duration.ZERO)),
+                new LocationFilter(singletonList(location)),
+                new Deduplicator(new Deduplicator.TypedConfig(Duration.ofMinutes(1))),
+                Probe.NONE,
+                new Aggregator(new Aggregator.TypedConfig(Duration.ofSeconds(10), Duration.ofSeconds(30)), clock));
+    }
+
+    private static PackedEvent packedEvent(UUID locationId, long timestamp) {
+        return new PackedEvent().copyFrom(new EventBuilder()
+                .setLocationId(locationId)
+                .setEventId(UUID.randomUUID())
+                .setTimestamp(timestamp)
+                .createEvent());
+    }
+}
@@ -0,0 +1,106 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationAverage;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static java.util.Collections.emptyList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class KeyedAggregatorTest {
+    private static final int EXPIRY_SECONDS = 30;
+    private static final int AVERAGING_PERIOD_SECONDS = 10;
+    private static final Aggregator.TypedConfig CONFIG = new Aggregator.TypedConfig(
+            AggregationMode.PER_LOCATION,
+            Duration.ofSeconds(AVERAGING_PERIOD_SECONDS),
+            Duration.ofSeconds(EXPIRY_SECONDS));
+    private static final Instant START = Instant.EPOCH.plus(Duration.ofSeconds(100));
+
+    private final Location location1 = new LocationBuilder().setId(UUID.randomUUID()).createLocation();
+    private final Location location2 = new LocationBuilder().setId(UUID.randomUUID()).createLocation();
+
+    private KeyedAggregator aggregator;
+    private final List<Average> averages = new ArrayList<>();
+
+    @BeforeEach
+    void beforeEach() {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        aggregator = new KeyedAggregator(CONFIG, Arrays.asList(location1, location2), clock);
+    }
+
+    @Test
+    void averagesEachLocationSeparately() {
+        send(location1, 0, 3);
+        send(location1, 1, 5);
+        send(location2, 2, 10);
+        send(location2, AVERAGING_PERIOD_SECONDS, 20);
+
+        expire();
+
+        assertThat(averages, containsInAnyOrder(
+                new LocationAverage(location1.id, START.plusSeconds(10), START, 4, 2, 3, 5, 1),
+                new LocationAverage(location2.id, START.plusSeconds(10), START, 10, 1, 10, 10, 0),
+                new LocationAverage(location2.id, START.plusSeconds(20), START.plusSeconds(10), 20, 1, 20, 20, 0)));
+    }
+
+    @Test
+    void dropsEventsFromUnknownLocations() {
+        send(new LocationBuilder().setId(UUID.randomUUID()).createLocation(), 0, 3);
+
+        expire();
+
+        assertThat(averages, equalTo(emptyList()));
+    }
+
+    @Test
+    void startsReusedBucketsEmpty() {
+        send(location1, 0, 3);
+        expire();
+        averages.clear();
+
+        // Lands in the bucket which held the event above
+        Instant later = START.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS);
+        PackedEvent event = packed(location1, later, 7);
+        aggregator.handle(later, event, averages::add);
+        aggregator.handle(later.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS), event, averages::add);
+
+        assertThat(averages, containsInAnyOrder(
+                new LocationAverage(location1.id, later.plusSeconds(10), later, 7, 1, 7, 7, 0)));
+    }
+
+    private void send(Location location, int timestampSeconds, double value) {
+        aggregator.handle(START, packed(location, START.plusSeconds(timestampSeconds), value), averages::add);
+    }
+
+    private void expire() {
+        // An event outside the range of any bucket, which just moves time on
+        aggregator.handle(START.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS),
+                packed(location1, Instant.EPOCH, 0), averages::add);
+    }
+
+    private static PackedEvent packed(Location location, Instant timestamp, double value) {
+        return new PackedEvent().copyFrom(new EventBuilder()
+                .setLocationId(location.id)
+                .setTimestamp(timestamp.toEpochMilli())
+                .setValue(value)
+                .createEvent());
+    }
+}
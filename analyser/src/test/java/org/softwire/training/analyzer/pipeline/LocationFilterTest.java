@@ -6,7 +6,10 @@ import org.softwire.training.analyzer.services.LocationService;
 import org.softwire.training.analyzer.builders.EventBuilder;
 import org.softwire.training.analyzer.builders.LocationBuilder;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.EventBatch;
 import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
 
 import java.io.IOException;
 import java.time.Instant;
@@ -16,6 +19,7 @@ import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -45,4 +49,56 @@ class LocationFilterTest {
 
         assertThat(locationFilter.handle(NOW, event).collect(Collectors.toList()), empty());
     }
-}
\ No newline at end of file
+
+    @Test
+    void filterPackedEvents() {
+        PackedEvent known = new PackedEvent().copyFrom(new EventBuilder().setLocationId(KNOWN_LOCATION.id).createEvent());
+        PackedEvent unknown = new PackedEvent().copyFrom(new EventBuilder().setLocationId(UUID.randomUUID()).createEvent());
+
+        assertThat(locationFilter.accept(known), is(true));
+        assertThat(locationFilter.accept(unknown), is(false));
+    }
+
+    @Test
+    void filterBatches() {
+        PackedEvent known = new PackedEvent().copyFrom(new EventBuilder().setLocationId(KNOWN_LOCATION.id).createEvent());
+        PackedEvent unknown = new PackedEvent().copyFrom(new EventBuilder().setLocationId(UUID.randomUUID()).createEvent());
+        EventBatch batch = new EventBatch(3);
+        batch.add(unknown);
+        batch.add(known);
+        batch.add(known);
+
+        locationFilter.filter(batch);
+
+        assertThat(batch.getSize(), is(3));
+        assertThat(batch.getSelected(), is(2));
+        assertThat(batch.selection[0], is(1));
+        assertThat(batch.selection[1], is(2));
+    }
+
+    @Test
+    void usesLocationIndexFromDecoding() {
+        LocationDictionary dictionary = new LocationDictionary(Collections.singletonList(KNOWN_LOCATION));
+        LocationFilter filter = new LocationFilter(dictionary);
+        PackedEvent event = new PackedEvent().copyFrom(new EventBuilder().setLocationId(KNOWN_LOCATION.id).createEvent());
+
+        event.locationIndex = LocationDictionary.UNKNOWN;
+        assertThat(filter.accept(event), is(false));
+
+        event.locationIndex = dictionary.indexOf(KNOWN_LOCATION.id.getMostSignificantBits(),
+                KNOWN_LOCATION.id.getLeastSignificantBits());
+        assertThat(filter.accept(event), is(true));
+    }
+
+    @Test
+    void acceptsNewLocationsOnceUpdated() {
+        Location newLocation = new LocationBuilder().setId(UUID.randomUUID()).createLocation();
+        PackedEvent known = new PackedEvent().copyFrom(new EventBuilder().setLocationId(KNOWN_LOCATION.id).createEvent());
+        PackedEvent added = new PackedEvent().copyFrom(new EventBuilder().setLocationId(newLocation.id).createEvent());
+
+        locationFilter.update(Collections.singletonList(newLocation));
+
+        assertThat(locationFilter.accept(added), is(true));
+        assertThat(locationFilter.accept(known), is(false));
+    }
+}
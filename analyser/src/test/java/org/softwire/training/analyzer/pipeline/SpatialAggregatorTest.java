@@ -0,0 +1,123 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Location;
+import org.softwire.training.analyzer.model.PackedEvent;
+import org.softwire.training.analyzer.model.PeakAverage;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SpatialAggregatorTest {
+    private static final int EXPIRY_SECONDS = 30;
+    private static final int AVERAGING_PERIOD_SECONDS = 10;
+    private static final Aggregator.TypedConfig CONFIG = new Aggregator.TypedConfig(
+            AggregationMode.SPATIAL,
+            Duration.ofSeconds(AVERAGING_PERIOD_SECONDS),
+            Duration.ofSeconds(EXPIRY_SECONDS),
+            Duration.ofSeconds(AVERAGING_PERIOD_SECONDS),
+            2,
+            false,
+            6);
+    private static final Instant START = Instant.EPOCH.plus(Duration.ofSeconds(100));
+
+    // A 2x2 grid over (0, 0) to (10, 10), so cells 5 wide centred on 2.5 and 7.5
+    private final Location bottomLeft = location(0, 0);
+    private final Location bottomLeftToo = location(1, 1);
+    private final Location topRight = location(10, 10);
+    private final Location topLeft = location(0, 10);
+
+    private SpatialAggregator aggregator;
+    private final List<Average> averages = new ArrayList<>();
+
+    @BeforeEach
+    void beforeEach() {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        aggregator = new SpatialAggregator(
+                CONFIG, Arrays.asList(bottomLeft, bottomLeftToo, topRight, topLeft), clock);
+    }
+
+    @Test
+    void findsPeakCellAndLocation() {
+        send(bottomLeft, 0, 10);
+        send(bottomLeftToo, 1, 0);
+        send(topRight, 2, 6);
+        send(topRight, 3, 8);
+        send(topLeft, 4, 1);
+
+        expire();
+
+        // Bottom left has the highest location average, but top right the highest cell average
+        assertThat(averages, contains(new PeakAverage(
+                START.plusSeconds(10), START, 5, 5, 0, 10, 15.2,
+                7.5f, 7.5f, 7, bottomLeft.id, 10)));
+    }
+
+    @Test
+    void followsPeakAsAveragesFall() {
+        send(topRight, 0, 10);
+        send(topLeft, 1, 5);
+        send(topRight, 2, 0);
+        send(topRight, 3, 0);
+
+        expire();
+
+        assertThat(averages, contains(new PeakAverage(
+                START.plusSeconds(10), START, 3.75, 4, 0, 10, 17.1875,
+                2.5f, 7.5f, 5, topLeft.id, 5)));
+    }
+
+    @Test
+    void startsReusedBucketsEmpty() {
+        send(topRight, 0, 10);
+        expire();
+        averages.clear();
+
+        // Lands in the bucket which held the event above
+        Instant later = START.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS);
+        PackedEvent event = packed(bottomLeft, later, 1);
+        aggregator.handle(later, event, averages::add);
+        aggregator.handle(later.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS), event, averages::add);
+
+        assertThat(averages, contains(new PeakAverage(
+                later.plusSeconds(10), later, 1, 1, 1, 1, 0,
+                2.5f, 2.5f, 1, bottomLeft.id, 1)));
+    }
+
+    private void send(Location location, int timestampSeconds, double value) {
+        aggregator.handle(START, packed(location, START.plusSeconds(timestampSeconds), value), averages::add);
+    }
+
+    private void expire() {
+        // An event outside the range of any bucket, which just moves time on
+        aggregator.handle(START.plusSeconds(EXPIRY_SECONDS + 2 * AVERAGING_PERIOD_SECONDS),
+                packed(topLeft, Instant.EPOCH, 0), averages::add);
+    }
+
+    private static Location location(float x, float y) {
+        return new LocationBuilder().setX(x).setY(y).setId(UUID.randomUUID()).createLocation();
+    }
+
+    private static PackedEvent packed(Location location, Instant timestamp, double value) {
+        return new PackedEvent().copyFrom(new EventBuilder()
+                .setLocationId(location.id)
+                .setTimestamp(timestamp.toEpochMilli())
+                .setValue(value)
+                .createEvent());
+    }
+}
@@ -0,0 +1,116 @@
+package org.softwire.training.analyzer.pipeline;
+
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.application.EventLoop;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Average;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.Location;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StageTest {
+    private static final Instant START = Instant.EPOCH.plus(Duration.ofSeconds(100));
+    private static final Location KNOWN_LOCATION = new LocationBuilder().createLocation();
+
+    @Test
+    void connectsStagesInOrder() {
+        List<String> seen = new ArrayList<>();
+        Stage<Integer, String> stage = Stage.<Integer>peek((now, i) -> seen.add("peek " + i))
+                .then(Stage.filter((now, i) -> i % 2 == 0))
+                .then(Stage.of((now, i) -> Stream.of("a" + i, "b" + i)));
+        Sink<Integer> sink = stage.connect((now, s) -> seen.add(s));
+
+        sink.accept(START, 1);
+        sink.accept(START, 2);
+
+        assertThat(seen, contains("peek 1", "peek 2", "a2", "b2"));
+    }
+
+    @Test
+    void passesOnTheTimeEachElementWasHandledAt() {
+        List<Instant> times = new ArrayList<>();
+        Sink<Integer> sink = Stage.<Integer>filter((now, i) -> true).connect((now, i) -> times.add(now));
+
+        sink.accept(START, 1);
+        sink.accept(START.plusSeconds(1), 2);
+
+        assertThat(times, contains(START, START.plusSeconds(1)));
+    }
+
+    @Test
+    void standardStagesOutputTheSameAveragesAsComposedPipeline() {
+        List<Event> events = Arrays.asList(
+                event(KNOWN_LOCATION.id, new UUID(0, 1), 0, 1),
+                event(KNOWN_LOCATION.id, new UUID(0, 2), 1, 2),
+                // A duplicate and an unknown location, which should both be dropped
+                event(KNOWN_LOCATION.id, new UUID(0, 2), 1, 2),
+                event(UUID.randomUUID(), new UUID(0, 3), 2, 100),
+                event(KNOWN_LOCATION.id, new UUID(0, 4), 15, 6),
+                // Late enough that the buckets above are complete
+                event(KNOWN_LOCATION.id, new UUID(0, 5), 60, 0));
+
+        Pipeline<Event, Average> composed = newStatsCompiler()
+                .compose(newLocationFilter())
+                .compose(newDeduplicator())
+                .compose(newAggregator());
+        List<Average> expected = events.stream()
+                .flatMap(event -> composed.handle(Instant.ofEpochMilli(event.timestamp), event))
+                .collect(Collectors.toList());
+
+        List<Average> actual = new ArrayList<>();
+        Sink<Event> pushed = Stages.statsCompiler(newStatsCompiler())
+                .then(Stages.locationFilter(newLocationFilter()))
+                .then(Stages.deduplicator(newDeduplicator()))
+                .then(Stages.aggregator(newAggregator()))
+                .connect((now, average) -> actual.add(average));
+        events.forEach(event -> pushed.accept(Instant.ofEpochMilli(event.timestamp), event));
+
+        assertThat(expected, hasSize(2));
+        assertThat(actual, equalTo(expected));
+    }
+
+    private static Event event(UUID locationId, UUID eventId, int seconds, double value) {
+        return new EventBuilder()
+                .setLocationId(locationId)
+                .setEventId(eventId)
+                .setTimestamp(START.plusSeconds(seconds).toEpochMilli())
+                .setValue(value)
+                .createEvent();
+    }
+
+    private static StatsCompiler newStatsCompiler() {
+        return new StatsCompiler(new EventLoop.TypedConfig(Duration.ofMinutes(1)));
+    }
+
+    private static LocationFilter newLocationFilter() {
+        return new LocationFilter(singletonList(KNOWN_LOCATION));
+    }
+
+    private static Deduplicator newDeduplicator() {
+        return new Deduplicator(new Deduplicator.TypedConfig(Duration.ofMinutes(1)));
+    }
+
+    private static Aggregator newAggregator() {
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(START);
+        return new Aggregator(new Aggregator.TypedConfig(Duration.ofSeconds(10), Duration.ofSeconds(30)), clock);
+    }
+}
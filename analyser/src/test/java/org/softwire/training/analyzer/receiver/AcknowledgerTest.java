@@ -0,0 +1,144 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.sqs.AmazonSQS;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.softwire.training.analyzer.metrics.LatencyHistogram;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AcknowledgerTest {
+    private static final String QUEUE_URL = "Queue URL";
+    private static final Duration HOLD_BACK = Duration.ofSeconds(10);
+    private static final Duration MAX_LEAD = Duration.ofSeconds(5);
+    private static final Acknowledger.TypedConfig IMMEDIATE = new Acknowledger.TypedConfig(
+            Acknowledger.Mode.IMMEDIATE, Duration.ofMinutes(1), Duration.ofMinutes(10));
+    private static final Acknowledger.TypedConfig AFTER_OUTPUT = new Acknowledger.TypedConfig(
+            Acknowledger.Mode.AFTER_OUTPUT, Duration.ofMinutes(1), Duration.ofMinutes(10));
+
+    private AmazonSQS sqs;
+
+    @BeforeEach
+    void beforeEach() {
+        sqs = mock(AmazonSQS.class);
+        when(sqs.deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class)))
+                .thenReturn(new DeleteMessageBatchResult());
+    }
+
+    @Test
+    void deletesInFullBatches() {
+        Acknowledger acknowledger = new Acknowledger(sqs, QUEUE_URL, IMMEDIATE, HOLD_BACK, MAX_LEAD);
+        for (int i = 0; i < 25; i++) {
+            acknowledger.received("handle" + i, 0);
+        }
+        acknowledger.close();
+
+        List<List<DeleteMessageBatchRequestEntry>> batches = captureDeletedBatches(3);
+        assertThat(batches.stream().map(List::size).collect(Collectors.toList()), contains(10, 10, 5));
+        assertThat(batches.get(0).get(0).getReceiptHandle(), equalTo("handle0"));
+    }
+
+    @Test
+    void deletesPartialBatchAfterMaxDelay() {
+        Acknowledger.TypedConfig config = new Acknowledger.TypedConfig(
+                Acknowledger.Mode.IMMEDIATE, Duration.ofMillis(50), Duration.ofMinutes(10));
+        Acknowledger acknowledger = new Acknowledger(sqs, QUEUE_URL, config, HOLD_BACK, MAX_LEAD);
+        try {
+            acknowledger.acknowledge("handle");
+
+            verify(sqs, timeout(2000)).deleteMessageBatch(
+                    eq(QUEUE_URL), eq(singletonList(new DeleteMessageBatchRequestEntry("0", "handle"))));
+        } finally {
+            acknowledger.close();
+        }
+    }
+
+    @Test
+    void holdsMessagesUntilOutputCoveringThemIsFlushed() {
+        Acknowledger acknowledger = new Acknowledger(sqs, QUEUE_URL, AFTER_OUTPUT, HOLD_BACK, MAX_LEAD);
+        acknowledger.received("early", 1000);
+        acknowledger.received("late", 5000);
+
+        acknowledger.outputFlushed(Instant.ofEpochMilli(1000).plus(HOLD_BACK));
+        acknowledger.outputFlushed(Instant.ofEpochMilli(1001).plus(HOLD_BACK));
+        acknowledger.close();
+
+        List<List<DeleteMessageBatchRequestEntry>> batches = captureDeletedBatches(1);
+        assertThat(batches.get(0), contains(new DeleteMessageBatchRequestEntry("0", "early")));
+    }
+
+    @Test
+    void holdsEventsStampedAheadOnlyUntilTheAggregatorWouldHaveRejectedThem() {
+        LongAdder unacknowledged = new LongAdder();
+        Acknowledger acknowledger = new Acknowledger(
+                sqs, QUEUE_URL, AFTER_OUTPUT, HOLD_BACK, MAX_LEAD, new LatencyHistogram(), unacknowledged);
+        Instant received = Instant.now();
+        acknowledger.received("ahead", received.plus(Duration.ofDays(1)).toEpochMilli());
+        assertThat(unacknowledged.sum(), equalTo(1L));
+
+        acknowledger.outputFlushed(received.plus(HOLD_BACK));
+        assertThat(unacknowledged.sum(), equalTo(1L));
+        acknowledger.outputFlushed(received.plus(MAX_LEAD).plus(HOLD_BACK).plusSeconds(1));
+        assertThat(unacknowledged.sum(), equalTo(0L));
+        acknowledger.close();
+
+        List<List<DeleteMessageBatchRequestEntry>> batches = captureDeletedBatches(1);
+        assertThat(batches.get(0), contains(new DeleteMessageBatchRequestEntry("0", "ahead")));
+    }
+
+    @Test
+    void doesNotDeletePendingMessagesOnClose() {
+        Acknowledger acknowledger = new Acknowledger(sqs, QUEUE_URL, AFTER_OUTPUT, HOLD_BACK, MAX_LEAD);
+        acknowledger.received("handle", 1000);
+        acknowledger.close();
+
+        verify(sqs, never()).deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class));
+    }
+
+    @Test
+    void ignoresErrorsWhenDeletingMessages() {
+        when(sqs.deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class)))
+                .thenReturn(new DeleteMessageBatchResult().withFailed(new BatchResultErrorEntry().withMessage("Oh dear")))
+                .thenThrow(new AmazonClientException("Oh dear"))
+                .thenReturn(new DeleteMessageBatchResult());
+
+        Acknowledger acknowledger = new Acknowledger(sqs, QUEUE_URL, IMMEDIATE, HOLD_BACK, MAX_LEAD);
+        for (int i = 0; i < 30; i++) {
+            acknowledger.acknowledge("handle" + i);
+        }
+        acknowledger.close();
+
+        captureDeletedBatches(3);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<DeleteMessageBatchRequestEntry>> captureDeletedBatches(int expectedBatches) {
+        ArgumentCaptor<List<DeleteMessageBatchRequestEntry>> entries =
+                ArgumentCaptor.forClass((Class<List<DeleteMessageBatchRequestEntry>>) (Class<?>) List.class);
+        verify(sqs, times(expectedBatches)).deleteMessageBatch(eq(QUEUE_URL), entries.capture());
+        return entries.getAllValues();
+    }
+}
@@ -0,0 +1,166 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.amazonaws.AmazonClientException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+import org.softwire.training.analyzer.builders.EventBuilder;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ConcurrentReceiverTest {
+    private static final Receiver.TypedConfig CONFIG =
+            new Receiver.TypedConfig("topic", 2, 10, Duration.ofSeconds(20), 100);
+
+    private Receiver receiver;
+    private ConcurrentReceiver concurrentReceiver;
+
+    @BeforeEach
+    void beforeEach() {
+        receiver = mock(Receiver.class);
+    }
+
+    @AfterEach
+    void afterEach() {
+        if (concurrentReceiver != null) {
+            concurrentReceiver.close();
+        }
+    }
+
+    @Test
+    void handsOffEventsFromPollers() {
+        Event event1 = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        Event event2 = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        doAnswer(receiving(event1, event2))
+                .doAnswer(receiving())
+                .when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+
+        assertThat(getAtLeast(2), containsInAnyOrder(event1, event2));
+    }
+
+    @Test
+    void requestsFullBatchesWithLongPolling() {
+        doAnswer(receiving()).when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+        concurrentReceiver.get();
+
+        verify(receiver, atLeastOnce()).receiveInto(eq(10), eq(20), any(), any());
+    }
+
+    @Test
+    void keepsPollingAfterErrors() {
+        Event event = new EventBuilder().createEvent();
+        doThrow(new AmazonClientException("Oh dear"))
+                .doAnswer(receiving(event))
+                .doAnswer(receiving())
+                .when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+
+        assertThat(getAtLeast(1), containsInAnyOrder(event));
+    }
+
+    @Test
+    void returnsNothingWhenQueueIsEmpty() {
+        doAnswer(receiving()).when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+
+        assertThat(concurrentReceiver.get().collect(Collectors.toList()), empty());
+    }
+
+    @Test
+    void rejectsConfigWithoutPollers() {
+        Receiver.TypedConfig config = new Receiver.TypedConfig("topic", 0, 10, Duration.ofSeconds(20), 100);
+
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrentReceiver(receiver, config));
+    }
+
+    @Test
+    void drainsPackedEvents() {
+        Event event = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        doAnswer(receiving(event))
+                .doAnswer(receiving())
+                .when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+
+        List<Event> events = new ArrayList<>();
+        for (int attempt = 0; attempt < 10 && events.isEmpty(); attempt++) {
+            concurrentReceiver.drainTo(packed -> events.add(packed.toEvent()));
+        }
+        assertThat(events, containsInAnyOrder(event));
+        verify(receiver).received(eq(event.eventId.toString()), any());
+    }
+
+    @Test
+    void doesNotAcknowledgeEventsLeftInHandOffQueue() throws InterruptedException {
+        Event event = new EventBuilder().setEventId(UUID.randomUUID()).createEvent();
+        CountDownLatch handedOff = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            receiving(event).answer(invocation);
+            handedOff.countDown();
+            return null;
+        }).doAnswer(receiving())
+                .when(receiver).receiveInto(anyInt(), anyInt(), any(), any());
+
+        concurrentReceiver = new ConcurrentReceiver(receiver, CONFIG);
+        assertThat(handedOff.await(10, TimeUnit.SECONDS), is(true));
+        concurrentReceiver.close();
+
+        verify(receiver, never()).received(any(), any());
+    }
+
+    /**
+     * Mimics Receiver.receiveInto: decodes each event into the scratch PackedEvent and passes it to the handler, with
+     * the event's id as the receipt handle.
+     */
+    @SuppressWarnings("unchecked")
+    private static Answer<Void> receiving(Event... events) {
+        return invocation -> {
+            PackedEvent scratch = (PackedEvent) invocation.getArguments()[2];
+            BiConsumer<String, PackedEvent> handler = (BiConsumer<String, PackedEvent>) invocation.getArguments()[3];
+            for (Event event : events) {
+                scratch.copyFrom(event);
+                handler.accept(String.valueOf(event.eventId), scratch);
+            }
+            return null;
+        };
+    }
+
+    private List<Event> getAtLeast(int count) {
+        List<Event> events = new ArrayList<>();
+        for (int attempt = 0; attempt < 10 && events.size() < count; attempt++) {
+            events.addAll(concurrentReceiver.get().collect(Collectors.toList()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,176 @@
+package org.softwire.training.analyzer.receiver;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.builders.LocationBuilder;
+import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.model.PackedEvent;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EventDecoderTest {
+    private static final String VALID = "{" +
+            "   \"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", " +
+            "   \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
+            "   \"timestamp\": 123456789, " +
+            "   \"value\": 2.5" +
+            "}";
+    private static final Event EXPECTED = new Event(
+            UUID.fromString("4887f60d-d65c-4594-9087-aec8373b3de0"),
+            UUID.fromString("d8d00d6a-8e91-44dd-926d-2b389c436d45"),
+            2.5,
+            123456789);
+
+    private final EventDecoder decoder = new EventDecoder(new ObjectMapper());
+
+    @Test
+    void decodesEventInsideEnvelope() throws IOException {
+        assertThat(decoder.decode("{\"Message\": " + quote(VALID) + "}"), equalTo(EXPECTED));
+    }
+
+    @Test
+    void skipsOtherEnvelopeFields() throws IOException {
+        String body = "{" +
+                "\"Type\": \"Notification\", " +
+                "\"MessageAttributes\": {\"Nested\": {\"Type\": \"String\", \"Value\": \"Message\"}}, " +
+                "\"Message\": " + quote(VALID) + ", " +
+                "\"Timestamp\": \"2018-03-15T12:03:41.123Z\"" +
+                "}";
+
+        assertThat(decoder.decode(body), equalTo(EXPECTED));
+    }
+
+    @Test
+    void rejectsEnvelopeWithoutMessage() {
+        assertThrows(IOException.class, () -> decoder.decode("{\"Type\": \"Notification\"}"));
+    }
+
+    @Test
+    void rejectsInvalidEnvelope() {
+        assertThrows(IOException.class, () -> decoder.decode("wat"));
+    }
+
+    @Test
+    void rejectsInvalidEvent() {
+        assertThrows(IOException.class, () -> decoder.decode("{\"Message\": " + quote("{\"eventId\": 5") + "}"));
+    }
+
+    @Test
+    void decodesEventIntoPackedEvent() throws IOException {
+        PackedEvent event = new PackedEvent();
+        decoder.decodeInto("{\"Message\": " + quote(VALID) + "}", event);
+
+        assertThat(event.toEvent(), equalTo(EXPECTED));
+    }
+
+    @Test
+    void decodesNonCanonicalIdsIntoPackedEvent() throws IOException {
+        String message = "{" +
+                "\"locationId\": \"4887F60D-D65C-4594-9087-AEC8373B3DE0\", " +
+                "\"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
+                "\"timestamp\": \"123456789\", " +
+                "\"value\": \"2.5\", " +
+                "\"unexpected\": [1, 2]" +
+                "}";
+        PackedEvent event = new PackedEvent();
+        decoder.decodeInto("{\"Message\": " + quote(message) + "}", event);
+
+        assertThat(event.toEvent(), equalTo(EXPECTED));
+    }
+
+    @Test
+    void looksUpLocationIndexWhenDecodingPackedEvent() throws IOException {
+        LocationDictionary dictionary = new LocationDictionary(Arrays.asList(
+                new LocationBuilder().setId(UUID.randomUUID()).createLocation(),
+                new LocationBuilder().setId(EXPECTED.locationId).createLocation()));
+        PackedEvent event = new PackedEvent();
+        new EventDecoder(new ObjectMapper(), dictionary).decodeInto("{\"Message\": " + quote(VALID) + "}", event);
+
+        assertThat(event.locationIndex, equalTo(1));
+    }
+
+    @Test
+    void marksUnknownLocationWhenDecodingPackedEvent() throws IOException {
+        LocationDictionary dictionary = new LocationDictionary(
+                Arrays.asList(new LocationBuilder().setId(UUID.randomUUID()).createLocation()));
+        PackedEvent event = new PackedEvent();
+        new EventDecoder(new ObjectMapper(), dictionary).decodeInto("{\"Message\": " + quote(VALID) + "}", event);
+
+        assertThat(event.locationIndex, equalTo(LocationDictionary.UNKNOWN));
+    }
+
+    @Test
+    void leavesLocationUnresolvedWithoutDictionary() throws IOException {
+        PackedEvent event = new PackedEvent();
+        decoder.decodeInto("{\"Message\": " + quote(VALID) + "}", event);
+
+        assertThat(event.locationIndex, equalTo(PackedEvent.UNRESOLVED));
+    }
+
+    @Test
+    void rejectsPackedEventWithoutId() {
+        String message = "{\"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", \"value\": 2.5}";
+
+        assertThrows(IOException.class,
+                () -> decoder.decodeInto("{\"Message\": " + quote(message) + "}", new PackedEvent()));
+    }
+
+    @Test
+    void rejectsInvalidIdInPackedEvent() {
+        String message = "{\"locationId\": \"nope\", \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\"}";
+
+        assertThrows(IOException.class,
+                () -> decoder.decodeInto("{\"Message\": " + quote(message) + "}", new PackedEvent()));
+    }
+
+    @Test
+    void decodeAndDecodeIntoAgree() throws IOException {
+        String[] messages = {
+                VALID,
+                "{\"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", " +
+                        "\"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
+                        "\"timestamp\": 123456789, \"value\": 2.5, \"unexpected\": {\"nested\": [1, 2]}}",
+                "{\"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", \"value\": 2.5}",
+                "{\"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", \"value\": 2.5}",
+                "{\"locationId\": null, \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\"}",
+                "{\"locationId\": \"nope\", \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\"}"
+        };
+
+        for (String message : messages) {
+            String body = "{\"Message\": " + quote(message) + "}";
+            PackedEvent packed = new PackedEvent();
+            Event decoded = decodeOrNull(() -> decoder.decode(body));
+            Event decodedInto = decodeOrNull(() -> {
+                decoder.decodeInto(body, packed);
+                return packed.toEvent();
+            });
+
+            assertThat(message, decodedInto, equalTo(decoded));
+        }
+    }
+
+    private static Event decodeOrNull(Decoding decoding) {
+        try {
+            return decoding.decode();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Decoding {
+        Event decode() throws IOException;
+    }
+
+    private static String quote(String json) {
+        return "\"" + new String(new JsonStringEncoder().quoteAsString(json)) + "\"";
+    }
+}
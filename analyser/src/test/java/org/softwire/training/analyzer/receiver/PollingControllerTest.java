@@ -0,0 +1,151 @@
+package org.softwire.training.analyzer.receiver;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+class PollingControllerTest {
+    private static final Receiver.TypedConfig CONFIG = new Receiver.TypedConfig(
+            "topic", 8, 10, Duration.ofSeconds(20), 100,
+            new PollingController.TypedConfig(true, 2, 100, 0.5, Duration.ofSeconds(1)));
+
+    private PollingController controller;
+
+    @BeforeEach
+    void beforeEach() {
+        controller = new PollingController(CONFIG);
+    }
+
+    @Test
+    void startsWithEveryPollerAndFullLongPolls() {
+        assertThat(controller.getActivePollers(), equalTo(8));
+        assertThat(controller.getBatchSize(), equalTo(10));
+        assertThat(controller.getWaitTimeSeconds(), equalTo(20));
+    }
+
+    @Test
+    void scalesDownWhileReceivesAreEmpty() {
+        for (int sample = 0; sample < 10; sample++) {
+            receiveEmpty(3);
+            controller.received(1);
+            controller.queueDepthSampled(0);
+        }
+
+        assertThat(controller.getActivePollers(), equalTo(2));
+        assertThat(controller.getWaitTimeSeconds(), equalTo(20));
+    }
+
+    @Test
+    void scalesDownWhileEveryPollerIsStillWaitingOnAnEmptyQueue() {
+        controller.queueDepthSampled(0);
+        assertThat(controller.getActivePollers(), equalTo(7));
+
+        controller.queueDepthSampled(5);
+        assertThat(controller.getActivePollers(), equalTo(7));
+    }
+
+    @Test
+    void scalesUpWithShortWaitsForABacklog() {
+        idle();
+
+        controller.queueDepthSampled(201);
+        assertThat(controller.getActivePollers(), equalTo(4));
+        assertThat(controller.getWaitTimeSeconds(), equalTo(1));
+
+        controller.queueDepthSampled(401);
+        assertThat(controller.getActivePollers(), equalTo(8));
+        assertThat(controller.getBatchSize(), equalTo(10));
+    }
+
+    @Test
+    void longerWaitsOnceTheBacklogIsDrained() {
+        idle();
+        controller.queueDepthSampled(10_000);
+
+        receiveEmpty(2);
+        controller.queueDepthSampled(0);
+        assertThat(controller.getWaitTimeSeconds(), equalTo(2));
+
+        receiveEmpty(2);
+        controller.queueDepthSampled(0);
+        assertThat(controller.getWaitTimeSeconds(), equalTo(4));
+    }
+
+    @Test
+    void backsOffWhenHandOffsBlockEvenWithABacklog() {
+        controller.handOffBlocked();
+        controller.queueDepthSampled(10_000);
+
+        assertThat(controller.getActivePollers(), equalTo(7));
+        assertThat(controller.getBatchSize(), equalTo(5));
+
+        controller.received(5);
+        controller.queueDepthSampled(10);
+        assertThat(controller.getBatchSize(), equalTo(10));
+    }
+
+    @Test
+    void onlyCountsReceivesSinceTheLastSample() {
+        receiveEmpty(10);
+        controller.queueDepthSampled(0);
+        assertThat(controller.getActivePollers(), equalTo(7));
+
+        controller.received(10);
+        controller.queueDepthSampled(0);
+        assertThat(controller.getActivePollers(), equalTo(7));
+    }
+
+    @Test
+    void neverChangesWhenNotEnabled() {
+        controller = new PollingController(new Receiver.TypedConfig("topic", 8, 10, Duration.ofSeconds(20), 100));
+
+        receiveEmpty(10);
+        controller.queueDepthSampled(0);
+        controller.handOffBlocked();
+        controller.queueDepthSampled(10_000);
+
+        assertThat(controller.getActivePollers(), equalTo(8));
+        assertThat(controller.getBatchSize(), equalTo(10));
+        assertThat(controller.getWaitTimeSeconds(), equalTo(20));
+    }
+
+    @Test
+    void inactivePollersWaitForTheirTurn() throws InterruptedException {
+        idle();
+        Thread poller = new Thread(() -> {
+            try {
+                controller.awaitTurn(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        poller.start();
+        poller.join(100);
+        assertThat(poller.isAlive(), equalTo(true));
+
+        controller.queueDepthSampled(10_000);
+        poller.join(1000);
+        assertThat(poller.isAlive(), equalTo(false));
+    }
+
+    /**
+     * Scale down to the fewest pollers.
+     */
+    private void idle() {
+        for (int sample = 0; sample < 8; sample++) {
+            receiveEmpty(1);
+            controller.queueDepthSampled(0);
+        }
+        assertThat(controller.getActivePollers(), equalTo(2));
+    }
+
+    private void receiveEmpty(int receives) {
+        for (int i = 0; i < receives; i++) {
+            controller.received(0);
+        }
+    }
+}
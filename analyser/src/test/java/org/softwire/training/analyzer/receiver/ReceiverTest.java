@@ -1,32 +1,36 @@
 package org.softwire.training.analyzer.receiver;
 
 import com.amazonaws.services.sqs.AmazonSQS;
-import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
 import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
-import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
-import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.Message;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
 import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.softwire.training.analyzer.metrics.Metrics;
 import org.softwire.training.analyzer.model.Event;
+import org.softwire.training.analyzer.model.LocationDictionary;
+import org.softwire.training.analyzer.recording.MessageRecorder;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
-import static org.hamcrest.collection.IsIterableContainingInOrder.contains;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -34,18 +38,19 @@ import static org.mockito.Mockito.when;
 class ReceiverTest {
 
     private static final String QUEUE_URL = "Queue URL";
+    private static final String RECEIPT_HANDLE = "Receipt handle";
 
     private AmazonSQS sqs;
+    private Acknowledger acknowledger;
 
     private Receiver receiver;
 
     @BeforeEach
     void beforeEach() {
         sqs = mock(AmazonSQS.class);
-                when(sqs.deleteMessageBatch(eq(QUEUE_URL), anyListOf(DeleteMessageBatchRequestEntry.class)))
-            .thenReturn(new DeleteMessageBatchResult().withSuccessful(new DeleteMessageBatchResultEntry()));
+        acknowledger = mock(Acknowledger.class);
 
-        receiver = new Receiver(sqs, QUEUE_URL);
+        receiver = new Receiver(sqs, QUEUE_URL, acknowledger);
     }
 
     @Test
@@ -75,7 +80,31 @@ class ReceiverTest {
     }
 
     @Test
-    void deletesMessagesOffQueue() {
+    void drainsValidMessageAsPackedEvent() {
+        String valid = "{" +
+                "   \"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", " +
+                "   \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
+                "   \"timestamp\": 123456789, " +
+                "   \"value\": 2" +
+                "}";
+        when(sqs.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(buildMessages(Arrays.asList(valid, "wat")));
+
+        List<Event> events = new ArrayList<>();
+        receiver.drainTo(event -> events.add(event.toEvent()));
+
+        assertThat(events, equalTo(singletonList(new Event(
+                UUID.fromString("4887f60d-d65c-4594-9087-aec8373b3de0"),
+                UUID.fromString("d8d00d6a-8e91-44dd-926d-2b389c436d45"),
+                2,
+                123456789
+        ))));
+        verify(acknowledger).received(RECEIPT_HANDLE, 123456789);
+        verify(acknowledger).acknowledge(RECEIPT_HANDLE);
+    }
+
+    @Test
+    void acknowledgesReceivedMessages() {
         String valid = "{" +
                 "   \"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", " +
                 "   \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
@@ -84,31 +113,56 @@ class ReceiverTest {
                 "}";
         when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(buildMessages(singletonList(valid)));
 
-        receiver.get();
+        receiver.get().collect(Collectors.toList());
 
-        verify(sqs, times(1)).deleteMessageBatch(eq(QUEUE_URL), anyListOf(DeleteMessageBatchRequestEntry.class));
+        verify(acknowledger, times(1)).received(RECEIPT_HANDLE, 123456789);
+        verify(sqs, never()).deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class));
     }
 
     @Test
-    void ignoresErrorsWhenDeletingMessages() {
-        DeleteMessageBatchResult result = new DeleteMessageBatchResult().withFailed(
-                new BatchResultErrorEntry().withMessage("Oh dear"));
-        when(sqs.deleteMessageBatch(anyString(), anyListOf(DeleteMessageBatchRequestEntry.class))).thenReturn(result);
+    void acknowledgesInvalidMessagesImmediately() {
+        when(sqs.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(buildMessages(singletonList("wat")));
+
+        receiver.get().collect(Collectors.toList());
+
+        verify(acknowledger, times(1)).acknowledge(RECEIPT_HANDLE);
+    }
+
+    @Test
+    void countsMessagesReceivedAndParsed() {
         String valid = "{" +
                 "   \"locationId\": \"4887f60d-d65c-4594-9087-aec8373b3de0\", " +
                 "   \"eventId\": \"d8d00d6a-8e91-44dd-926d-2b389c436d45\", " +
                 "   \"timestamp\": 123456789, " +
                 "   \"value\": 2" +
                 "}";
+        when(sqs.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(buildMessages(Arrays.asList(valid, "wat", valid)));
+        Metrics metrics = new Metrics();
+        Receiver countingReceiver = new Receiver(sqs, QUEUE_URL, acknowledger, MessageRecorder.NONE,
+                new LocationDictionary(emptyList()), metrics);
+
+        countingReceiver.drainTo(event -> {
+        });
+
+        assertThat(metrics.received.sum(), is(3L));
+        assertThat(metrics.parsed.sum(), is(2L));
+        assertThat(metrics.parseFailed.sum(), is(1L));
+        assertThat(metrics.sqsReceive.getCount(), is(1L));
+    }
 
-        when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(buildMessages(singletonList(valid)));
+    @Test
+    void keepsMessagesInvisibleUntilAcknowledged() {
+        when(acknowledger.holdsMessages()).thenReturn(true);
+        when(acknowledger.getVisibilityTimeoutSeconds()).thenReturn(600);
+        when(sqs.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(buildMessages(emptyList()));
 
-        assertThat(receiver.get().collect(Collectors.toList()), contains(new Event(
-                UUID.fromString("4887f60d-d65c-4594-9087-aec8373b3de0"),
-                UUID.fromString("d8d00d6a-8e91-44dd-926d-2b389c436d45"),
-                2,
-                123456789
-        )));
+        receiver.get();
+
+        ArgumentCaptor<ReceiveMessageRequest> request = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        verify(sqs).receiveMessage(request.capture());
+        assertThat(request.getValue().getVisibilityTimeout(), equalTo(600));
     }
 
     private ReceiveMessageResult buildMessages(List<String> messageBodies) {
@@ -117,7 +171,9 @@ class ReceiverTest {
         return new ReceiveMessageResult().withMessages(
                 messageBodies
                         .stream()
-                        .map(body -> new Message().withBody(String.format(sqsEnvelope, new String(jsonStringEncoder.quoteAsString(body)))))
+                        .map(body -> new Message()
+                                .withReceiptHandle(RECEIPT_HANDLE)
+                                .withBody(String.format(sqsEnvelope, new String(jsonStringEncoder.quoteAsString(body)))))
                         .collect(Collectors.toList())
         );
     }
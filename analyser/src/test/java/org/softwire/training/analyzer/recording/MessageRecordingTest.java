@@ -0,0 +1,149 @@
+package org.softwire.training.analyzer.recording;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.model.Event;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MessageRecordingTest {
+    private static final String LOCATIONS = "[{\"x\": 1.0, \"y\": 2.0, \"id\": \"4887f60d-d65c-4594-9087-aec8373b3de0\"}]";
+    private static final Instant START = Instant.ofEpochSecond(1_500_000_000);
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("message-recording-test");
+        file = directory.resolve("messages.rec");
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        Files.deleteIfExists(file);
+        Files.delete(directory);
+    }
+
+    @Test
+    void replaysCompressedRecording() throws IOException {
+        checkRoundTrip(true);
+    }
+
+    @Test
+    void replaysUncompressedRecording() throws IOException {
+        checkRoundTrip(false);
+    }
+
+    @Test
+    void skipsMessagesWhichCantBeDecoded() throws IOException {
+        Event event = event(1);
+        try (MessageLogWriter writer = new MessageLogWriter(config(true), START, LOCATIONS)) {
+            writer.record("Not JSON");
+            writer.record(messageBody(event));
+        }
+
+        try (ReplaySource replaySource = new ReplaySource(file)) {
+            List<Event> replayed = new ArrayList<>();
+            while (!replaySource.isExhausted()) {
+                replaySource.drainTo(packedEvent -> replayed.add(packedEvent.toEvent()));
+            }
+
+            assertThat(replayed.size(), equalTo(1));
+            assertThat(replayed.get(0), equalTo(event));
+        }
+    }
+
+    @Test
+    void readsEventsOfNextBlockAsStream() throws IOException {
+        try (MessageLogWriter writer = new MessageLogWriter(config(false), START, LOCATIONS)) {
+            writer.record(messageBody(event(1)));
+            writer.record(messageBody(event(2)));
+        }
+
+        try (ReplaySource replaySource = new ReplaySource(file)) {
+            assertThat(replaySource.get().collect(Collectors.toList()), equalTo(eventsUpTo(2)));
+            assertThat(replaySource.isExhausted(), is(true));
+        }
+    }
+
+    @Test
+    void refusesToOverwriteExistingFile() throws IOException {
+        Files.createFile(file);
+
+        assertThrows(IOException.class, () -> new MessageLogWriter(config(true), START, LOCATIONS));
+    }
+
+    @Test
+    void rejectsFileWhichIsNotARecording() throws IOException {
+        Files.write(file, new byte[100]);
+
+        assertThrows(IOException.class, () -> new ReplaySource(file));
+    }
+
+    private void checkRoundTrip(boolean compress) throws IOException {
+        // Enough messages to fill several blocks
+        int numberOfEvents = 500;
+        try (MessageLogWriter writer = new MessageLogWriter(config(compress), START, LOCATIONS)) {
+            for (Event event : eventsUpTo(numberOfEvents)) {
+                writer.record(messageBody(event));
+            }
+        }
+
+        try (ReplaySource replaySource = new ReplaySource(file)) {
+            assertThat(replaySource.getStartTime(), equalTo(START));
+            assertThat(replaySource.getLocationsJson(), equalTo(LOCATIONS));
+
+            List<Event> replayed = new ArrayList<>();
+            int blocks = 0;
+            while (!replaySource.isExhausted()) {
+                replaySource.drainTo(packedEvent -> replayed.add(packedEvent.toEvent()));
+                blocks++;
+            }
+
+            assertThat(replayed, equalTo(eventsUpTo(numberOfEvents)));
+            assertThat(blocks > 1, is(true));
+        }
+    }
+
+    private MessageLogWriter.TypedConfig config(boolean compress) {
+        return new MessageLogWriter.TypedConfig(true, file.toString(), compress, 4096);
+    }
+
+    private static List<Event> eventsUpTo(int numberOfEvents) {
+        List<Event> events = new ArrayList<>();
+        for (int i = 1; i <= numberOfEvents; i++) {
+            events.add(event(i));
+        }
+        return events;
+    }
+
+    private static Event event(int i) {
+        return new Event(new UUID(1, 2), new UUID(3, i), i / 4.0, START.toEpochMilli() + i);
+    }
+
+    private static String messageBody(Event event) {
+        String message = "{" +
+                "\"locationId\": \"" + event.locationId + "\", " +
+                "\"eventId\": \"" + event.eventId + "\", " +
+                "\"timestamp\": " + event.timestamp + ", " +
+                "\"value\": " + event.value +
+                "}";
+        return "{\"Type\": \"Notification\", \"Message\": \"" +
+                new String(new JsonStringEncoder().quoteAsString(message)) + "\"}";
+    }
+}
@@ -0,0 +1,136 @@
+package org.softwire.training.analyzer.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.softwire.training.analyzer.model.Average;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+class FileWriterTest {
+    private static final Instant NOW = Instant.ofEpochSecond(1000);
+    private static final Average AVERAGE =
+            new Average(Instant.ofEpochSecond(60), Instant.ofEpochSecond(0), 1.5, 3, 1, 2, 0.25);
+
+    private Path directory;
+    private Path file;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("file-writer-test");
+        file = directory.resolve("analysis.txt");
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    void writesAveragesAsLines() throws IOException {
+        try (FileWriter fileWriter = new FileWriter(config(1024, 0))) {
+            fileWriter.write(AVERAGE);
+        }
+
+        assertThat(Files.readAllLines(file), contains("", "", "Starting new analysis", AVERAGE.toString()));
+    }
+
+    @Test
+    void buffersUntilFlushIsDue() throws IOException {
+        try (FileWriter fileWriter = new FileWriter(config(1024, 0))) {
+            assertThat(fileWriter.flushIfDue(NOW), is(true));
+            fileWriter.write(AVERAGE);
+
+            assertThat(fileWriter.flushIfDue(NOW.plusMillis(999)), is(false));
+            assertThat(Files.readAllLines(file), hasSize(3));
+
+            assertThat(fileWriter.flushIfDue(NOW.plusSeconds(1)), is(true));
+            assertThat(Files.readAllLines(file), hasSize(4));
+        }
+    }
+
+    @Test
+    void flushesWhenBufferIsFull() throws IOException {
+        try (FileWriter fileWriter = new FileWriter(config(64, 0))) {
+            for (int i = 0; i < 10; i++) {
+                fileWriter.write(AVERAGE);
+            }
+
+            // The buffer is smaller than a line, so all but the tail of the last line must have been written already
+            assertThat(Files.readAllLines(file).size() >= 3 + 9, is(true));
+        }
+    }
+
+    @Test
+    void rotatesBySize() throws IOException {
+        try (FileWriter fileWriter = new FileWriter(config(64, 128))) {
+            for (int i = 0; i < 10; i++) {
+                fileWriter.write(AVERAGE);
+            }
+        }
+
+        List<Path> files = list();
+        assertThat(files.size() > 1, is(true));
+        for (Path path : files) {
+            assertThat(Files.size(path) <= 128, is(true));
+        }
+    }
+
+    @Test
+    void namesRotationsBySizeWithTheLatestNow() throws IOException {
+        try (FileWriter fileWriter = new FileWriter(config(64, 128))) {
+            fileWriter.flushIfDue(NOW);
+            for (int i = 0; i < 3; i++) {
+                fileWriter.write(AVERAGE);
+            }
+        }
+
+        assertThat(Files.exists(directory.resolve("analysis.txt." + NOW.toEpochMilli())), is(true));
+    }
+
+    @Test
+    void rotatesByAge() throws IOException {
+        FileWriter.TypedConfig config = new FileWriter.TypedConfig(
+                file.toString(), 1024, Duration.ZERO, false, 0, Duration.ofMinutes(1));
+        try (FileWriter fileWriter = new FileWriter(config)) {
+            fileWriter.flushIfDue(NOW);
+            fileWriter.write(AVERAGE);
+            fileWriter.flushIfDue(NOW.plusSeconds(59));
+            fileWriter.write(AVERAGE);
+            fileWriter.flushIfDue(NOW.plusSeconds(60));
+        }
+
+        assertThat(list(), hasSize(2));
+        assertThat(Files.readAllLines(file), hasSize(0));
+        assertThat(Files.readAllLines(directory.resolve("analysis.txt." + NOW.plusSeconds(60).toEpochMilli())),
+                contains("", "", "Starting new analysis", AVERAGE.toString(), AVERAGE.toString()));
+    }
+
+    private FileWriter.TypedConfig config(int bufferSize, long maxFileSize) {
+        return new FileWriter.TypedConfig(
+                file.toString(), bufferSize, Duration.ofSeconds(1), true, maxFileSize, Duration.ZERO);
+    }
+
+    private List<Path> list() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.collect(Collectors.toList());
+        }
+    }
+}
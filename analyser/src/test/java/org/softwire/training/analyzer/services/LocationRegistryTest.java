@@ -0,0 +1,148 @@
+package org.softwire.training.analyzer.services;
+
+import com.amazonaws.http.apache.request.impl.HttpGetWithBody;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class LocationRegistryTest {
+    private static final String FIRST_LOCATIONS =
+            "[{\"x\": 1.0, \"y\": 2.0, \"id\": \"c9780439-3912-480e-91da-c85a72c8434c\"}]";
+    private static final String SECOND_LOCATIONS =
+            "[{\"x\": 3.0, \"y\": 4.0, \"id\": \"58c944c3-172a-4397-9b56-2b9b41f83872\"}]";
+
+    private Path directory;
+    private Path cacheFile;
+    private AmazonS3 s3;
+
+    @BeforeEach
+    void beforeEach() throws IOException {
+        directory = Files.createTempDirectory("location-registry-test");
+        cacheFile = directory.resolve("locations-cache.json");
+        s3 = mock(AmazonS3.class);
+    }
+
+    @AfterEach
+    void afterEach() throws IOException {
+        Files.deleteIfExists(cacheFile);
+        Files.delete(directory);
+    }
+
+    @Test
+    void loadsFromS3AndCachesWhenThereIsNoCache() throws IOException {
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(FIRST_LOCATIONS, "etag-1"));
+
+        LocationRegistry registry = newRegistry();
+        LocationSnapshot snapshot = registry.load();
+
+        assertThat(registry.isLoadedFromCache(), is(false));
+        assertThat(snapshot.locations.get(0).id, equalTo(UUID.fromString("c9780439-3912-480e-91da-c85a72c8434c")));
+        assertThat(snapshot.etag, equalTo("etag-1"));
+        assertThat(Files.exists(cacheFile), is(true));
+    }
+
+    @Test
+    void startsFromCacheWithoutWaitingForS3() throws IOException {
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(FIRST_LOCATIONS, "etag-1"));
+        newRegistry().load();
+
+        LocationRegistry registry = newRegistry();
+        LocationSnapshot snapshot = registry.load();
+
+        assertThat(registry.isLoadedFromCache(), is(true));
+        assertThat(snapshot.etag, equalTo("etag-1"));
+        assertThat(snapshot.getJson(), equalTo(FIRST_LOCATIONS));
+        verify(s3).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void refreshesOnlyIfTheETagHasChanged() throws IOException {
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(FIRST_LOCATIONS, "etag-1"));
+        LocationRegistry registry = newRegistry();
+        registry.load();
+
+        // As S3 does once the locations still have the ETag sent
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(null);
+        assertThat(registry.refresh(), nullValue());
+
+        ArgumentCaptor<GetObjectRequest> request = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3, times(2)).getObject(request.capture());
+        assertThat(request.getValue().getNonmatchingETagConstraints(), contains("etag-1"));
+
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(SECOND_LOCATIONS, "etag-2"));
+        LocationSnapshot refreshed = registry.refresh();
+
+        assertThat(refreshed.locations.get(0).id, equalTo(UUID.fromString("58c944c3-172a-4397-9b56-2b9b41f83872")));
+        assertThat(registry.getCurrent(), equalTo(refreshed));
+        assertThat(newRegistry().load().getJson(), equalTo(SECOND_LOCATIONS));
+    }
+
+    @Test
+    void fallsBackToS3IfTheCacheIsUnreadable() throws IOException {
+        Files.write(cacheFile, "etag-1\n[ oh dear ]".getBytes(Charsets.UTF_8));
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(FIRST_LOCATIONS, "etag-1"));
+
+        LocationRegistry registry = newRegistry();
+
+        assertThat(registry.load().getJson(), equalTo(FIRST_LOCATIONS));
+        assertThat(registry.isLoadedFromCache(), is(false));
+    }
+
+    @Test
+    void worksWithoutACache() throws IOException {
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object("[]", "etag-1"));
+
+        LocationRegistry registry = new LocationRegistry(
+                new LocationRegistry.TypedConfig(Duration.ofMinutes(1), ""), newLocationService(), new ObjectMapper());
+
+        assertThat(registry.load().locations, equalTo(Collections.emptyList()));
+        assertThat(Files.exists(cacheFile), is(false));
+    }
+
+    private LocationRegistry newRegistry() {
+        return new LocationRegistry(
+                new LocationRegistry.TypedConfig(Duration.ofMinutes(1), cacheFile.toString()),
+                newLocationService(),
+                new ObjectMapper());
+    }
+
+    private LocationService newLocationService() {
+        return new LocationService(new LocationService.TypedConfig("s3bucket", "s3key"), s3, new ObjectMapper());
+    }
+
+    private S3Object buildS3Object(String content, String etag) {
+        S3Object s3object = new S3Object();
+        S3ObjectInputStream objectContent = new S3ObjectInputStream(
+                new ByteArrayInputStream(content.getBytes(Charsets.UTF_8)),
+                mock(HttpGetWithBody.class));
+        s3object.setObjectContent(objectContent);
+        s3object.getObjectMetadata().setHeader("ETag", etag);
+        return s3object;
+    }
+}
@@ -2,6 +2,7 @@ package org.softwire.training.analyzer.services;
 
 import com.amazonaws.http.apache.request.impl.HttpGetWithBody;
 import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -18,6 +19,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -38,7 +40,7 @@ class LocationServiceTest {
 
     @Test
     void parseEmptyLocations() throws IOException {
-        when(s3.getObject(S3_BUCKET, S3_KEY)).thenReturn(buildS3Object("[]"));
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object("[]"));
 
         assertThat(locationService.get(), empty());
     }
@@ -49,7 +51,7 @@ class LocationServiceTest {
                 "   {\"x\": \"1.1\", \"y\": \"1.2\", \"id\": \"c9780439-3912-480e-91da-c85a72c8434c\"}, " +
                 "   {\"x\": \"2.1\", \"y\": \"2.2\", \"id\": \"58c944c3-172a-4397-9b56-2b9b41f83872\"}" +
                 " ]";
-        when(s3.getObject(S3_BUCKET, S3_KEY)).thenReturn(buildS3Object(locations));
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(locations));
 
         assertThat(locationService.get(), contains(
                 new LocationBuilder().setX(1.1f).setY(1.2f).setId(UUID.fromString("c9780439-3912-480e-91da-c85a72c8434c")).createLocation(),
@@ -60,7 +62,7 @@ class LocationServiceTest {
     @Test
     void throwsIOExceptionOnInvalidJson() {
         String invalid = "[ oh dear ]";
-        when(s3.getObject(S3_BUCKET, S3_KEY)).thenReturn(buildS3Object(invalid));
+        when(s3.getObject(any(GetObjectRequest.class))).thenReturn(buildS3Object(invalid));
 
         assertThrows(IOException.class, () -> locationService.get());
     }
@@ -0,0 +1,66 @@
+package org.softwire.training.analyzer.stats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+class AccumulatorTest {
+
+    @Test
+    void summarisesValues() {
+        Accumulator accumulator = new Accumulator();
+        for (double value : new double[]{2, 4, 4, 4, 5, 5, 7, 9}) {
+            accumulator.add(value);
+        }
+
+        assertThat(accumulator.getCount(), equalTo(8L));
+        assertThat(accumulator.getMean(), equalTo(5.0));
+        assertThat(accumulator.getMin(), equalTo(2.0));
+        assertThat(accumulator.getMax(), equalTo(9.0));
+        assertThat(accumulator.getVariance(), equalTo(4.0));
+    }
+
+    @Test
+    void keepsVariancePreciseForLargeValues() {
+        Accumulator accumulator = new Accumulator();
+        for (double value : new double[]{1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16}) {
+            accumulator.add(value);
+        }
+
+        assertThat(accumulator.getVariance(), closeTo(22.5, 1e-6));
+    }
+
+    @Test
+    void mergesAsIfValuesWereAddedOneByOne() {
+        Accumulator accumulator = new Accumulator();
+        for (double value : new double[]{2, 4, 4}) {
+            accumulator.add(value);
+        }
+        Accumulator other = new Accumulator();
+        for (double value : new double[]{4, 5, 5, 7, 9}) {
+            other.add(value);
+        }
+        accumulator.merge(other.getCount(), other.getMean(), other.getMin(), other.getMax(), other.getVariance());
+
+        assertThat(accumulator.getCount(), equalTo(8L));
+        assertThat(accumulator.getMean(), closeTo(5.0, 1e-12));
+        assertThat(accumulator.getMin(), equalTo(2.0));
+        assertThat(accumulator.getMax(), equalTo(9.0));
+        assertThat(accumulator.getVariance(), closeTo(4.0, 1e-12));
+    }
+
+    @Test
+    void startsAgainWhenReset() {
+        Accumulator accumulator = new Accumulator();
+        accumulator.add(100);
+        accumulator.reset();
+        accumulator.add(1);
+
+        assertThat(accumulator.getCount(), equalTo(1L));
+        assertThat(accumulator.getMean(), equalTo(1.0));
+        assertThat(accumulator.getMax(), equalTo(1.0));
+        assertThat(accumulator.getVariance(), equalTo(0.0));
+    }
+}
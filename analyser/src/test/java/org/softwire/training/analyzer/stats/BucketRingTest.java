@@ -0,0 +1,30 @@
+package org.softwire.training.analyzer.stats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+class BucketRingTest {
+
+    @Test
+    void ringFindsBucketsByTimeAndReusesThem() {
+        BucketRing ring = new BucketRing(3, 10, 100);
+
+        assertThat(ring.bucketFor(99), nullValue());
+        assertThat(ring.bucketFor(130), nullValue());
+        Accumulator first = ring.bucketFor(105);
+        assertThat(ring.getFirst(), sameInstance(first));
+        first.add(1);
+
+        ring.advance();
+
+        assertThat(ring.getFirstStart(), equalTo(110L));
+        assertThat(ring.bucketFor(105), nullValue());
+        assertThat(ring.bucketFor(135), sameInstance(first));
+        assertThat(first.getCount(), is(0L));
+    }
+}
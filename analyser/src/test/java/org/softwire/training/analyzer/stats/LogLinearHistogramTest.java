@@ -0,0 +1,101 @@
+package org.softwire.training.analyzer.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LogLinearHistogramTest {
+    private static final int PRECISION_BITS = 6;
+    private static final double RELATIVE_ERROR = Math.pow(2, -(PRECISION_BITS + 1));
+
+    @Test
+    void estimatesQuantilesWithinRelativeError() {
+        LogLinearHistogram histogram = new LogLinearHistogram(PRECISION_BITS);
+        Random random = new Random(0);
+        double[] values = new double[10001];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 100;
+            histogram.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        for (double quantile : new double[]{0.01, 0.1, 0.5, 0.9, 0.99}) {
+            double exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            assertThat(histogram.getValueAtQuantile(quantile), closeTo(exact, Math.abs(exact) * RELATIVE_ERROR));
+        }
+        assertThat(histogram.getValueAtQuantile(0), equalTo(values[0]));
+        assertThat(histogram.getValueAtQuantile(1), equalTo(values[values.length - 1]));
+    }
+
+    @Test
+    void countsTinyValuesAsZeroAndHugeValuesInTheTopBin() {
+        LogLinearHistogram histogram = new LogLinearHistogram(PRECISION_BITS);
+        histogram.add(1e-20);
+        histogram.add(-1e-20);
+        histogram.add(1e20);
+
+        assertThat(histogram.getValueAtQuantile(0.5), equalTo(0.0));
+        assertThat(histogram.getValueAtQuantile(1), equalTo(1e20));
+    }
+
+    @Test
+    void mergeIsTheSameAsAddingEverything() {
+        LogLinearHistogram all = new LogLinearHistogram(PRECISION_BITS);
+        LogLinearHistogram first = new LogLinearHistogram(PRECISION_BITS);
+        LogLinearHistogram second = new LogLinearHistogram(PRECISION_BITS);
+        for (int i = 1; i <= 100; i++) {
+            all.add(i);
+            (i % 3 == 0 ? first : second).add(i);
+        }
+
+        first.merge(second);
+
+        assertThat(first.getCount(), is(100L));
+        for (double quantile : new double[]{0, 0.25, 0.5, 0.9, 0.99, 1}) {
+            assertThat(first.getValueAtQuantile(quantile), equalTo(all.getValueAtQuantile(quantile)));
+        }
+    }
+
+    @Test
+    void mergeShiftedAddsTheOffsetToEveryValue() {
+        LogLinearHistogram ages = new LogLinearHistogram(PRECISION_BITS);
+        for (int i = 1; i <= 100; i++) {
+            ages.add(i);
+        }
+        LogLinearHistogram delays = new LogLinearHistogram(PRECISION_BITS);
+        delays.add(0);
+
+        delays.mergeShifted(ages, 1000);
+
+        assertThat(delays.getCount(), is(101L));
+        assertThat(delays.getValueAtQuantile(0), equalTo(0.0));
+        assertThat(delays.getValueAtQuantile(0.5), closeTo(1050, 1050 * RELATIVE_ERROR * 2));
+        assertThat(delays.getValueAtQuantile(1), equalTo(1100.0));
+    }
+
+    @Test
+    void isEmptyAfterReset() {
+        LogLinearHistogram histogram = new LogLinearHistogram(PRECISION_BITS);
+        histogram.add(5);
+        histogram.reset();
+
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(Double.isNaN(histogram.getValueAtQuantile(0.5)), is(true));
+
+        histogram.add(-5);
+        assertThat(histogram.getValueAtQuantile(0.5), equalTo(-5.0));
+    }
+
+    @Test
+    void refusesToMergeDifferentPrecisions() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new LogLinearHistogram(4).merge(new LogLinearHistogram(5)));
+    }
+}
@@ -0,0 +1,59 @@
+package org.softwire.training.analyzer.stats;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+class PaneWindowTest {
+
+    @Test
+    void onlyFullOnceItCoversEveryPane() {
+        PaneWindow window = new PaneWindow(2);
+        Accumulator pane = new Accumulator();
+
+        window.push(pane);
+        assertThat(window.isFull(), is(false));
+        window.push(pane);
+        assertThat(window.isFull(), is(true));
+        window.push(pane);
+        assertThat(window.isFull(), is(true));
+    }
+
+    @Test
+    void matchesAnAccumulatorOfTheLastFewPanes() {
+        int panes = 5;
+        PaneWindow window = new PaneWindow(panes);
+        Random random = new Random(0);
+        double[][] history = new double[100][];
+
+        for (int i = 0; i < history.length; i++) {
+            // Including some empty panes
+            history[i] = new double[random.nextInt(4)];
+            Accumulator pane = new Accumulator();
+            for (int j = 0; j < history[i].length; j++) {
+                history[i][j] = random.nextGaussian() * 10 + 100;
+                pane.add(history[i][j]);
+            }
+            window.push(pane);
+
+            Accumulator expected = new Accumulator();
+            for (int k = Math.max(0, i - panes + 1); k <= i; k++) {
+                for (double value : history[k]) {
+                    expected.add(value);
+                }
+            }
+            assertThat(window.getCount(), equalTo(expected.getCount()));
+            if (expected.getCount() > 0) {
+                assertThat(window.getMean(), closeTo(expected.getMean(), 1e-9));
+                assertThat(window.getMin(), equalTo(expected.getMin()));
+                assertThat(window.getMax(), equalTo(expected.getMax()));
+                assertThat(window.getVariance(), closeTo(expected.getVariance(), 1e-9));
+            }
+        }
+    }
+}
@@ -13,7 +13,8 @@ import org.softwire.training.sensoremitter.pipeline.Delay;
 import org.softwire.training.sensoremitter.pipeline.Duplicator;
 import org.softwire.training.sensoremitter.pipeline.JsonDestroyer;
 import org.softwire.training.sensoremitter.pipeline.JsonMarshaller;
-import org.softwire.training.sensoremitter.pipeline.Pipeline;
+import org.softwire.training.sensoremitter.pipeline.Sink;
+import org.softwire.training.sensoremitter.pipeline.Stage;
 import org.softwire.training.sensoremitter.pipeline.StatsCompiler;
 
 import java.time.Clock;
@@ -26,7 +27,7 @@ public class EventLoop {
     private final ApplicationConfig config;
     private final Provider<Consumer> consumerProvider;
     private final Clock clock;
-    private final Pipeline<Event, String> pipeline;
+    private final Stage<Event, String> pipeline;
 
     @Inject
     EventLoop(ApplicationConfig config,
@@ -42,24 +43,23 @@ public class EventLoop {
         this.consumerProvider = consumerProvider;
         this.clock = clock;
         this.pipeline = duplicator
-                .compose(delay)
-                .compose(clockSkew)
-                .compose(jsonMarshaller)
-                .compose(jsonDestroyer)
-                .compose(statsCompiler);
+                .then(delay)
+                .then(clockSkew)
+                .then(jsonMarshaller)
+                .then(jsonDestroyer)
+                .then(statsCompiler);
     }
 
     public void run(Emitter emitter) throws Exception {
         LOG.info("Entering main event loop, will run until {}", config.endOfTime);
         try (Consumer consumer = consumerProvider.get()) {
+            Sink<Event> sink = pipeline.connect((now, message) -> consumer.send(message));
             while (true) {
                 Instant now = clock.instant();
                 if (now.isAfter(config.endOfTime)) {
                     break;
                 }
-                emitter.emitIfRequired(now)
-                        .flatMap(event -> pipeline.handle(now, event))
-                        .forEach(consumer::send);
+                emitter.emitIfRequired(now).forEach(event -> sink.accept(now, event));
             }
         }
     }
@@ -7,15 +7,13 @@ import org.softwire.training.sensoremitter.application.Application;
 import org.softwire.training.sensoremitter.application.ApplicationConfig;
 import org.softwire.training.sensoremitter.model.Event;
 
-import java.time.Instant;
 import java.util.Random;
-import java.util.stream.Stream;
 
 /**
  * Skew the clock a tiny bit into the future sometimes, not enough to effect the trends but enough that events will
  * arrive slightly early.
  */
-public class ClockSkew implements Pipeline<Event, Event> {
+public class ClockSkew implements Stage<Event, Event> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ClockSkew.class);
 
@@ -29,12 +27,15 @@ public class ClockSkew implements Pipeline<Event, Event> {
     }
 
     @Override
-    public Stream<Event> handle(Instant now, Event event) {
-        if (random.nextDouble() < config.clockSkewProbability) {
-            int skew = (int) Math.ceil(random.nextDouble() * config.clockSkewMax.toMillis());
-            LOG.info("Clock skew by for event {} by {} millis", event.eventId, skew);
-            return Stream.of(new Event(event.locationId, event.eventId, event.value, event.timestamp + skew));
-        }
-        return Stream.of(event);
+    public Sink<Event> connect(Sink<? super Event> downstream) {
+        return (now, event) -> {
+            if (random.nextDouble() < config.clockSkewProbability) {
+                int skew = (int) Math.ceil(random.nextDouble() * config.clockSkewMax.toMillis());
+                LOG.info("Clock skew by for event {} by {} millis", event.eventId, skew);
+                downstream.accept(now, new Event(event.locationId, event.eventId, event.value, event.timestamp + skew));
+            } else {
+                downstream.accept(now, event);
+            }
+        };
     }
 }
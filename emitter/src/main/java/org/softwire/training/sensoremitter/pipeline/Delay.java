@@ -11,12 +11,11 @@ import java.time.Instant;
 import java.util.Random;
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.stream.Stream;
 
 /**
  * With a probability of config.delayProbability, delays events by a uniform amount between 0 and config.delayMax.
  */
-public class Delay implements Pipeline<Event, Event> {
+public class Delay implements Stage<Event, Event> {
     private static final Logger LOG = LoggerFactory.getLogger(Delay.class);
 
     private final Random random;
@@ -31,22 +30,22 @@ public class Delay implements Pipeline<Event, Event> {
     }
 
     @Override
-    public Stream<Event> handle(Instant now, Event event) {
-        Stream.Builder<Event> result = Stream.builder();
-        if (random.nextDouble() < config.delayProbability) {
-            Instant due = now.plusNanos((long) Math.ceil(config.delayMax.toNanos() * random.nextDouble()));
-            LOG.info("Delay: {} {}", due, event.eventId);
-            backlog.add(new DelayedEvent(event, due));
-        } else {
-            result.add(event);
-        }
-
-        while (!backlog.isEmpty() && backlog.first().due.isBefore(now)) {
-            result.add(backlog.first().event);
-            backlog.remove(backlog.first());
-        }
+    public Sink<Event> connect(Sink<? super Event> downstream) {
+        return (now, event) -> {
+            if (random.nextDouble() < config.delayProbability) {
+                Instant due = now.plusNanos((long) Math.ceil(config.delayMax.toNanos() * random.nextDouble()));
+                LOG.info("Delay: {} {}", due, event.eventId);
+                backlog.add(new DelayedEvent(event, due));
+            } else {
+                downstream.accept(now, event);
+            }
 
-        return result.build();
+            while (!backlog.isEmpty() && backlog.first().due.isBefore(now)) {
+                DelayedEvent delayed = backlog.first();
+                backlog.remove(delayed);
+                downstream.accept(now, delayed.event);
+            }
+        };
     }
 
     private static class DelayedEvent implements Comparable<DelayedEvent> {
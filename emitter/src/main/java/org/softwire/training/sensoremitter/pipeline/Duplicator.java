@@ -6,15 +6,13 @@ import org.slf4j.LoggerFactory;
 import org.softwire.training.sensoremitter.application.ApplicationConfig;
 import org.softwire.training.sensoremitter.model.Event;
 
-import java.time.Instant;
 import java.util.Random;
-import java.util.stream.Stream;
 
 /**
  * With a probability of config.duplicationProbability, duplicates an event and emits the original event plus it's
  * duplicate.
  */
-public class Duplicator implements Pipeline<Event, Event> {
+public class Duplicator implements Stage<Event, Event> {
     private static final Logger LOG = LoggerFactory.getLogger(Duplicator.class);
 
     private final Random random;
@@ -27,11 +25,13 @@ public class Duplicator implements Pipeline<Event, Event> {
     }
 
     @Override
-    public Stream<Event> handle(Instant now, Event event) {
-        if (random.nextDouble() < duplicationProbability) {
-            LOG.info("Duplicated event: {}", event.eventId);
-            return Stream.of(event, event);
-        }
-        return Stream.of(event);
+    public Sink<Event> connect(Sink<? super Event> downstream) {
+        return (now, event) -> {
+            if (random.nextDouble() < duplicationProbability) {
+                LOG.info("Duplicated event: {}", event.eventId);
+                downstream.accept(now, event);
+            }
+            downstream.accept(now, event);
+        };
     }
 }
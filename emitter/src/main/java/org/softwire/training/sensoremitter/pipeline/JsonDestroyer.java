@@ -5,15 +5,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.softwire.training.sensoremitter.application.ApplicationConfig;
 
-import java.time.Instant;
 import java.util.Random;
-import java.util.stream.Stream;
 
 /**
  * Replace random characters with something which will never be valid (looking at the characters allowed in the event
  * type) - the higher planes of UTF-8 should do it.
  */
-public class JsonDestroyer implements Pipeline<String, String> {
+public class JsonDestroyer implements Stage<String, String> {
     private static final Logger LOG = LoggerFactory.getLogger(JsonDestroyer.class);
 
     private static final int MIN_CODE_POINT = 0x80;
@@ -35,13 +33,15 @@ public class JsonDestroyer implements Pipeline<String, String> {
     }
 
     @Override
-    public Stream<String> handle(Instant now, String json) {
-        if (random.nextDouble() < probability) {
-            String destroyedJson = replaceRandomChar(json);
-            LOG.info("Destroyed JSON: {}", destroyedJson);
-            return Stream.of(destroyedJson);
-        } else {
-            return Stream.of(json);
-        }
+    public Sink<String> connect(Sink<? super String> downstream) {
+        return (now, json) -> {
+            if (random.nextDouble() < probability) {
+                String destroyedJson = replaceRandomChar(json);
+                LOG.info("Destroyed JSON: {}", destroyedJson);
+                downstream.accept(now, destroyedJson);
+            } else {
+                downstream.accept(now, json);
+            }
+        };
     }
 }
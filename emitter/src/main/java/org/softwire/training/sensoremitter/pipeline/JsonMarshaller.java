@@ -5,10 +5,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 
-import java.time.Instant;
-import java.util.stream.Stream;
-
-public class JsonMarshaller<T> implements Pipeline<T, String> {
+public class JsonMarshaller<T> implements Stage<T, String> {
     private final ObjectMapper objectMapper;
 
     @Inject
@@ -17,11 +14,13 @@ public class JsonMarshaller<T> implements Pipeline<T, String> {
     }
 
     @Override
-    public Stream<String> handle(Instant now, T element) {
-        try {
-            return Stream.of(objectMapper.writeValueAsString(element));
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+    public Sink<T> connect(Sink<? super String> downstream) {
+        return (now, element) -> {
+            try {
+                downstream.accept(now, objectMapper.writeValueAsString(element));
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
+        };
     }
 }
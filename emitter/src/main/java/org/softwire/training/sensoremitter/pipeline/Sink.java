@@ -0,0 +1,11 @@
+package org.softwire.training.sensoremitter.pipeline;
+
+import java.time.Instant;
+
+/**
+ * Where a {@link Stage} pushes its output, one element at a time.
+ */
+@FunctionalInterface
+public interface Sink<T> {
+    void accept(Instant now, T element);
+}
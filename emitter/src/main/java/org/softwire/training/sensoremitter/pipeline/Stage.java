@@ -0,0 +1,26 @@
+package org.softwire.training.sensoremitter.pipeline;
+
+/**
+ * The push based equivalent of {@link Pipeline}.  Rather than returning a Stream of its output for each element, a
+ * stage is connected once to whatever comes after it and pushes its output straight there, so chaining stages doesn't
+ * create a Stream per stage per element the way {@link Pipeline#compose} does.
+ */
+@FunctionalInterface
+public interface Stage<T, R> {
+    /**
+     * @return where to push this stage's input, each element of which will be handled and its output passed on to
+     * downstream
+     */
+    Sink<T> connect(Sink<? super R> downstream);
+
+    default <S> Stage<T, S> then(Stage<? super R, S> next) {
+        return downstream -> connect(next.connect(downstream));
+    }
+
+    /**
+     * Adapt a Pipeline stage, pushing each element of the Stream it returns.
+     */
+    static <T, R> Stage<T, R> of(Pipeline<T, R> pipeline) {
+        return downstream -> (now, element) -> pipeline.handle(now, element).forEach(r -> downstream.accept(now, r));
+    }
+}
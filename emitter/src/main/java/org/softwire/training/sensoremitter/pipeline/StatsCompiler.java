@@ -6,14 +6,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.softwire.training.sensoremitter.application.ApplicationConfig;
 
-import java.time.Instant;
-import java.util.stream.Stream;
-
 /**
  * Counts all the events which pass through it, and logs some statistics to the console when asked.
  */
 @Singleton
-public class StatsCompiler implements Pipeline<String, String> {
+public class StatsCompiler implements Stage<String, String> {
     private static final Logger LOG = LoggerFactory.getLogger(StatsCompiler.class);
 
     private final ApplicationConfig config;
@@ -29,9 +26,11 @@ public class StatsCompiler implements Pipeline<String, String> {
     }
 
     @Override
-    public Stream<String> handle(Instant now, String element) {
-        eventCount++;
-        return Stream.of(element);
+    public Sink<String> connect(Sink<? super String> downstream) {
+        return (now, element) -> {
+            eventCount++;
+            downstream.accept(now, element);
+        };
     }
 
     public double getExpectedEventsPerSecond() {